@@ -1,15 +1,19 @@
-varying vec2 v_texCoords;
+varying vec2 v_tile;
 varying float v_LightCol;
+varying vec2 v_tileRepeat;
 
 uniform sampler2D r_textureAtlas;
 uniform int m_baseLightLevel;
 
+// Size of an atlas tile in uv space, quads repeat their tile once per voxel
+uniform vec2 m_tileSize;
+
 #define MAX_LIGHT_LEVEL 15
 
 void main()
 {
 	int lightLevel = m_baseLightLevel;
-	vec4 fragColor = texture2D(r_textureAtlas, v_texCoords);
+	vec4 fragColor = texture2D(r_textureAtlas, (v_tile + fract(v_tileRepeat)) * m_tileSize);
 	
 	// Alpha testing
 	if(fragColor.a < 0.1) { discard; }
@@ -1,15 +1,30 @@
+// Packed vertex format (see ChunkVertexFormat), unsigned bytes normalized to 0 - 1
+// x: packed light level (sky light * 16 + block light), yzw: chunk local position
 attribute vec4 v_Position;
-attribute vec2 v_Uv;
-attribute float v_Light;
+// xy: atlas tile, zw: texture repeat in tiles
+attribute vec4 v_Texture;
 
 uniform mat4 m_cameraProj;
+uniform vec3 m_chunkOrigin;
+// The sun light level, 0 (night) to 1 (day)
+uniform float m_sunLight;
 
-varying vec2 v_texCoords;
+varying vec2 v_tile;
 varying float v_LightCol;
+varying vec2 v_tileRepeat;
+
+#define MAX_LIGHT_LEVEL 15.0
 
 void main()
 {
-    v_texCoords = v_Uv;
-    v_LightCol = v_Light;
-    gl_Position = m_cameraProj * v_Position;
+    vec4 position = floor(v_Position * 255.0 + 0.5);
+    vec4 tile = floor(v_Texture * 255.0 + 0.5);
+
+    float skyLight = floor(position.x / 16.0);
+    float blockLight = position.x - skyLight * 16.0;
+
+    v_tile = tile.xy;
+    v_LightCol = max(skyLight * m_sunLight, blockLight) / MAX_LIGHT_LEVEL;
+    v_tileRepeat = tile.zw;
+    gl_Position = m_cameraProj * vec4(m_chunkOrigin + position.yzw, 1.0);
 }
\ No newline at end of file
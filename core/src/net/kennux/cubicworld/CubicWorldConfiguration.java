@@ -57,6 +57,12 @@ public class CubicWorldConfiguration
 	 */
 	public static final int chunkLoadDistance = 3;
 
+	/**
+	 * The distance after which the server releases chunks loaded for a player.
+	 * Greater than the load distance, so players walking along a chunk border don't cause chunks to get unloaded and loaded again.
+	 */
+	public static final int chunkUnloadDistance = chunkLoadDistance + 1;
+
 	/**
 	 * The distance used to cull chunk update packets.
 	 */
@@ -101,16 +107,67 @@ public class CubicWorldConfiguration
 
 	/**
 	 * Limits the voxel mesh generations (calls to VoxelChunk.generateMesh()) for chunks per frame.
+	 * Only used if meshBuilderThreads is 0.
 	 * -1 means there is no limit.
 	 */
 	public static int meshGenerationsPerFrameLimit = -1;
 
+	/**
+	 * The count of threads building chunk meshes on the client, closer chunks in front of the camera get built first.
+	 * 0 means the meshes get built on the world update thread, limited by meshGenerationsPerFrameLimit.
+	 * 
+	 * @see net.kennux.cubicworld.voxel.ChunkMeshBuilderPool
+	 */
+	public static int meshBuilderThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
 	/**
 	 * Limits the voxel mesh creations (calls to VoxelChunk.createNewMesh()) for chunks per frame.
 	 * -1 means there is no limit.
 	 */
 	public static int meshCreationsPerFrameLimit = -1;
 
+	/**
+	 * If this is set to true the chunk mesh builder merges adjacent faces with the same texture and light level into bigger quads.
+	 * This needs a lot less vertices for flat terrain, but the mesh building takes longer.
+	 */
+	public static boolean greedyMeshing = false;
+
+	/**
+	 * If this is set to true chunks get lit by the flood fill lighting system, which lights a chunk in one pass and propagates the light across chunk borders.
+	 * Otherwise the old sunlight and shadow lighting system gets used.
+	 */
+	public static boolean floodFillLighting = true;
+
+	/**
+	 * The memory budget in bytes for loaded chunks (voxel data, light levels and meshes).
+	 * If the loaded chunks need more memory than this, chunks outside of the chunk load distance get evicted.
+	 * On the server chunks in columns held by a player (see ChunkRetentionIndex) don't get evicted either.
+	 * -1 means there is no limit.
+	 */
+	public static long chunkMemoryBudget = 256L * 1024L * 1024L;
+
+	/**
+	 * Chunks inside of this radius (in chunks) around a player never get evicted, even if the memory budget is exceeded.
+	 * Equal to the load distance, the client would request evicted chunks inside of it again right away.
+	 */
+	public static final int chunkEvictionPinnedRadius = chunkLoadDistance;
+
+	/**
+	 * If this is set to true the server updates chunks on all cores.
+	 * Adjacent chunks never get updated at the same time, but tile entity handlers of different chunks may run in parallel.
+	 * 
+	 * @see net.kennux.cubicworld.voxel.ChunkManager#updateParallel(java.util.concurrent.ForkJoinPool)
+	 */
+	public static boolean parallelChunkUpdate = true;
+
+	/**
+	 * If this is set to true the chunk columns get lit on all cores, on the client and the server.
+	 * Adjacent columns never get lit at the same time.
+	 * 
+	 * @see net.kennux.cubicworld.voxel.ChunkLightingScheduler
+	 */
+	public static boolean parallelLighting = true;
+
 	public static boolean inDev = true;
 
 	/**
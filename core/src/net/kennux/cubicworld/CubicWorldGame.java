@@ -572,7 +572,8 @@ public class CubicWorldGame implements ApplicationListener
 	@Override
 	public void dispose()
 	{
-		// TODO Auto-generated method stub
-
+		// Stop the world's worker threads
+		if (this.voxelWorld != null)
+			this.voxelWorld.dispose();
 	}
 }
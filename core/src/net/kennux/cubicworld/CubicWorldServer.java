@@ -551,5 +551,9 @@ public class CubicWorldServer implements Runnable
 		{
 			// Ignore!
 		}
+
+		// The update thread exited, stop the world's worker threads
+		if (this.voxelWorld != null)
+			this.voxelWorld.dispose();
 	}
 }
@@ -106,13 +106,20 @@ public class CubicWorldServerUpdateThread implements Runnable
 			server.voxelWorld.update();
 			server.profiler.stopProfiling("Server WorldUpdate");
 
-			// Get player positions
+			// Get player positions and update the chunks held by them
 			ArrayList<Vector3> playerPositions = new ArrayList<Vector3>();
-			for (CubicWorldServerClient player : server.clients)
+			for (int i = 0; i < server.clients.length; i++)
 			{
+				CubicWorldServerClient player = server.clients[i];
+
 				if (player != null && player.isLoggedin())
 				{
 					playerPositions.add(player.playerEntity.getPosition());
+					server.voxelWorld.updatePlayerRetention(i, player.playerEntity.getPosition());
+				}
+				else
+				{
+					server.voxelWorld.removePlayerRetention(i);
 				}
 			}
 
@@ -120,7 +127,7 @@ public class CubicWorldServerUpdateThread implements Runnable
 
 			server.profiler.startProfiling("Server World Cleanup", "");
 			// Cleanup
-			server.voxelWorld.cleanup(playerPositionsArray, CubicWorldConfiguration.chunkLoadDistance);
+			server.voxelWorld.cleanup(playerPositionsArray);
 			server.profiler.stopProfiling("Server World Cleanup");
 
 			// Send packets
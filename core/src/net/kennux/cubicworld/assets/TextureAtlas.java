@@ -65,6 +65,11 @@ public class TextureAtlas
 	private int atlasWidth;
 	private int atlasHeight;
 
+	/**
+	 * The size of a single texture in uv space, calculated in the compile function.
+	 */
+	private Vector2 tileUvSize = new Vector2();
+
 	/**
 	 * <pre>
 	 * Initializes the texture atlas in texture compilation mode.
@@ -131,6 +136,8 @@ public class TextureAtlas
 		this.atlasWidth = MathUtils.min(textures.size(), maxTexturesOnX) * textureWidth;
 		this.atlasHeight = MathUtils.ceilToInt((float) textures.size() / (float) maxTexturesOnY) * textureWidth;
 
+		this.tileUvSize.set((float) textureWidth / (float) atlasWidth, (float) textureHeight / (float) atlasHeight);
+
 		// Create texture
 		Pixmap atlasData = new Pixmap(atlasWidth, atlasHeight, Format.RGBA8888);
 
@@ -183,6 +190,17 @@ public class TextureAtlas
 		return new Rectangle(textureX * this.textureWidth, textureY * this.textureHeight, this.textureWidth, this.textureHeight);
 	}
 
+	/**
+	 * Returns the size of a single texture in uv space.
+	 * Used by the world shader to repeat textures on greedy meshed quads.
+	 * 
+	 * @return
+	 */
+	public Vector2 getTileUvSize()
+	{
+		return this.tileUvSize;
+	}
+
 	/**
 	 * <pre>
 	 * Returns the current atlas texture.
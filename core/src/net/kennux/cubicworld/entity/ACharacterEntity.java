@@ -127,6 +127,7 @@ public abstract class ACharacterEntity extends AEntity
 
 	/**
 	 * Performs a grounding check.
+	 * Characters above the highest voxel of the columns below them get detected by the height maps without checking the voxels.
 	 * 
 	 * @return
 	 */
@@ -135,7 +136,12 @@ public abstract class ACharacterEntity extends AEntity
 		// Perform collision check for y - 0.15
 		Vector3 nPos = new Vector3(this.getPosition());
 		nPos.y -= 0.15f;
-		return this.voxelWorld.intersects(this.getBoundingBox(nPos));
+		BoundingBox boundingBox = this.getBoundingBox(nPos);
+
+		if (this.voxelWorld.isAboveTerrain(boundingBox))
+			return false;
+
+		return this.voxelWorld.intersects(boundingBox);
 	}
 
 	/**
@@ -0,0 +1,208 @@
+package net.kennux.cubicworld.microbenchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+import net.kennux.cubicworld.CubicWorldServer;
+import net.kennux.cubicworld.voxel.ChunkMeshBuilder;
+import net.kennux.cubicworld.voxel.ChunkVertexFormat;
+import net.kennux.cubicworld.voxel.VoxelChunk;
+import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelEngine;
+import net.kennux.cubicworld.voxel.VoxelType;
+import net.kennux.cubicworld.voxel.VoxelWorld;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * <pre>
+ * Measures ChunkMeshBuilder.buildMeshData() on lit terrain chunks.
+ * The terrain consists of hills of stone covered with dirt and a few random holes, the benchmarked chunks are the non-empty ones of the center column.
+ *
+ * Compares the standard mode (one quad per face) with greedy meshing.
+ * After the benchmarks the vertex counts and the allocated bytes per build get printed (needs a jvm supporting com.sun.management.ThreadMXBean).
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class ChunkMeshBuilderBenchmark extends AMicroBenchmark
+{
+	public static void main(String[] args)
+	{
+		ChunkMeshBuilderBenchmark benchmark = new ChunkMeshBuilderBenchmark();
+		benchmark.benchmark();
+		benchmark.printVertexCounts();
+		benchmark.printAllocationPerBuild(false);
+		benchmark.printAllocationPerBuild(true);
+		benchmark.world.dispose();
+
+		// The world generator pool doesn't use daemon threads
+		System.exit(0);
+	}
+
+	/**
+	 * The count of chunk columns on the x- and z-axis.
+	 */
+	private static final int WORLD_COLUMNS = 3;
+
+	/**
+	 * The count of builds per benchmark iteration.
+	 */
+	private static final int BUILDS = 500;
+
+	private VoxelWorld world;
+
+	/**
+	 * The non-empty chunks of the center column.
+	 */
+	private VoxelChunk[] chunks;
+
+	public ChunkMeshBuilderBenchmark()
+	{
+		VoxelEngine.initialize(128, 128);
+		VoxelType stone = VoxelEngine.registerType("stone");
+		VoxelType dirt = VoxelEngine.registerType("dirt");
+		setUvs(stone);
+		setUvs(dirt);
+
+		this.world = new VoxelWorld((CubicWorldServer) null);
+		int chunksOnYAxis = this.world.chunksOnYAxis() + 1;
+		Random random = new Random(1337);
+
+		for (int chunkX = 0; chunkX < WORLD_COLUMNS; chunkX++)
+		{
+			for (int chunkZ = 0; chunkZ < WORLD_COLUMNS; chunkZ++)
+			{
+				for (int chunkY = 0; chunkY < chunksOnYAxis; chunkY++)
+				{
+					VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+
+					for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+					{
+						for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+						{
+							int worldX = chunkX * VoxelWorld.chunkWidth + x;
+							int worldZ = chunkZ * VoxelWorld.chunkDepth + z;
+							int height = 24 + (int) (10 * Math.sin(worldX / 7f) * Math.cos(worldZ / 9f));
+
+							for (int y = 0; y < VoxelWorld.chunkHeight; y++)
+							{
+								int worldY = chunkY * VoxelWorld.chunkHeight + y;
+
+								if (worldY > height || random.nextInt(20) == 0)
+									continue;
+
+								voxelData[x][y][z] = VoxelData.construct(worldY > height - 3 ? dirt.voxelId : stone.voxelId);
+							}
+						}
+					}
+
+					this.world.getChunk(chunkX, chunkY, chunkZ, true).setVoxelData(voxelData);
+				}
+			}
+		}
+
+		// Light the world
+		for (int i = 0; i <= chunksOnYAxis * 2; i++)
+			this.world.update();
+
+		// Empty chunks above the terrain are skipped by the builder, only benchmark the chunks with voxels
+		ArrayList<VoxelChunk> terrainChunks = new ArrayList<VoxelChunk>();
+
+		for (int chunkY = 0; chunkY < chunksOnYAxis; chunkY++)
+		{
+			VoxelChunk chunk = this.world.getChunk(WORLD_COLUMNS / 2, chunkY, WORLD_COLUMNS / 2, false);
+
+			if (!chunk.getSnapshot().isEmpty())
+				terrainChunks.add(chunk);
+		}
+
+		this.chunks = terrainChunks.toArray(new VoxelChunk[terrainChunks.size()]);
+	}
+
+	/**
+	 * Sets dummy uvs on all faces of the given type, there is no texture atlas without a gl context.
+	 *
+	 * @param voxelType
+	 */
+	private static void setUvs(VoxelType voxelType)
+	{
+		Vector2[] uvs = new Vector2[] { new Vector2(0, 1), new Vector2(1, 1), new Vector2(1, 0), new Vector2(0, 0) };
+		voxelType.topUv = voxelType.bottomUv = voxelType.leftUv = voxelType.rightUv = voxelType.frontUv = voxelType.backUv = uvs;
+		voxelType.buildUvTable();
+	}
+
+	/**
+	 * Builds the meshes of the center column chunks round robin.
+	 * 
+	 * @param builds
+	 *            The count of builds.
+	 * @param greedy
+	 */
+	private void build(int builds, boolean greedy)
+	{
+		for (int i = 0; i < builds; i++)
+			ChunkMeshBuilder.buildMeshData(this.chunks[i % this.chunks.length], greedy);
+	}
+
+	@MicroBenchmark(name = "Chunk mesh builds (500 builds)", iterations = 20)
+	public void buildMeshes()
+	{
+		this.build(BUILDS, false);
+	}
+
+	@MicroBenchmark(name = "Greedy chunk mesh builds (500 builds)", iterations = 20)
+	public void buildGreedyMeshes()
+	{
+		this.build(BUILDS, true);
+	}
+
+	/**
+	 * Prints the vertex count and vertex data size of all benchmarked chunks in both modes.
+	 */
+	public void printVertexCounts()
+	{
+		int vertices = 0;
+		int greedyVertices = 0;
+
+		for (int i = 0; i < this.chunks.length; i++)
+		{
+			vertices += ChunkMeshBuilder.buildMeshData(this.chunks[i], false).getVertices().length / ChunkMeshBuilder.vertexSize;
+			greedyVertices += ChunkMeshBuilder.buildMeshData(this.chunks[i], true).getVertices().length / ChunkMeshBuilder.vertexSize;
+		}
+
+		System.out.println("Vertices (" + this.chunks.length + " chunks): " + vertices + " (" + (vertices * ChunkVertexFormat.BYTES_PER_VERTEX) + " bytes)");
+		System.out.println("Greedy vertices (" + this.chunks.length + " chunks): " + greedyVertices + " (" + (greedyVertices * ChunkVertexFormat.BYTES_PER_VERTEX) + " bytes)");
+	}
+
+	/**
+	 * Prints the allocated bytes per build and the builds per second.
+	 * 
+	 * @param greedy
+	 */
+	public void printAllocationPerBuild(boolean greedy)
+	{
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+		{
+			System.out.println("Allocation measurement is not supported by this jvm");
+			return;
+		}
+
+		com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+		long threadId = Thread.currentThread().getId();
+
+		long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		this.build(BUILDS, greedy);
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+		String mode = greedy ? "Greedy" : "Standard";
+		System.out.println(mode + " allocated bytes per build: " + (allocated / BUILDS));
+		System.out.println(mode + " builds per second: " + (long) (BUILDS / (elapsed / 1000000000.0)));
+	}
+}
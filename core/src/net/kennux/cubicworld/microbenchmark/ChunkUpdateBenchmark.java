@@ -0,0 +1,97 @@
+package net.kennux.cubicworld.microbenchmark;
+
+import net.kennux.cubicworld.CubicWorldConfiguration;
+import net.kennux.cubicworld.CubicWorldServer;
+import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelEngine;
+import net.kennux.cubicworld.voxel.VoxelWorld;
+
+/**
+ * <pre>
+ * Measures the chunk update phase of a server world with 800 loaded chunks.
+ * Every iteration resets the lighting of all chunks and updates the world until the lighting is done again.
+ * Compares the serial update with the parallel checkerboard update.
+ * The idle benchmark measures updates of a world where nothing changes.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class ChunkUpdateBenchmark extends AMicroBenchmark
+{
+	public static void main(String[] args)
+	{
+		System.out.println("Cores: " + Runtime.getRuntime().availableProcessors());
+		ChunkUpdateBenchmark benchmark = new ChunkUpdateBenchmark();
+		benchmark.benchmark();
+		benchmark.world.dispose();
+
+		// The world generator pool doesn't use daemon threads
+		System.exit(0);
+	}
+
+	/**
+	 * The count of chunk columns on the x- and z-axis.
+	 */
+	private static final int WORLD_COLUMNS = 10;
+
+	private VoxelWorld world;
+
+	public ChunkUpdateBenchmark()
+	{
+		VoxelEngine.initialize(128, 128);
+		short stoneId = VoxelEngine.registerType("stone").voxelId;
+
+		this.world = new VoxelWorld((CubicWorldServer) null);
+
+		// Uneven terrain in the lowest chunks, so the lighting has something to do
+		VoxelData[][][] terrain = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+				for (int y = 0; y < 4 + (x * z) % 10; y++)
+					terrain[x][y][z] = VoxelData.construct(stoneId);
+
+		for (int x = 0; x < WORLD_COLUMNS; x++)
+			for (int y = 0; y <= this.world.chunksOnYAxis(); y++)
+				for (int z = 0; z < WORLD_COLUMNS; z++)
+					this.world.getChunk(x, y, z, true).setVoxelData(y == 0 ? terrain : new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth]);
+	}
+
+	/**
+	 * Resets the lighting and updates until it is done again.
+	 */
+	private void relightWorld()
+	{
+		this.world.recalculateLightingAndMeshes();
+
+		for (int i = 0; i <= (this.world.chunksOnYAxis() + 1) * 2; i++)
+			this.world.update();
+	}
+
+	@MicroBenchmark(name = "Serial chunk update", iterations = 20)
+	public void serialUpdate()
+	{
+		CubicWorldConfiguration.parallelChunkUpdate = false;
+		this.relightWorld();
+	}
+
+	@MicroBenchmark(name = "Parallel chunk update", iterations = 20)
+	public void parallelUpdate()
+	{
+		CubicWorldConfiguration.parallelChunkUpdate = true;
+		this.relightWorld();
+	}
+
+	/**
+	 * 100 updates of the lit world, only active chunks get updated.
+	 */
+	@MicroBenchmark(name = "Idle chunk update", iterations = 20)
+	public void idleUpdate()
+	{
+		CubicWorldConfiguration.parallelChunkUpdate = false;
+
+		for (int i = 0; i < 100; i++)
+			this.world.update();
+	}
+}
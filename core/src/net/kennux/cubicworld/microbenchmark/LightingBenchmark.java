@@ -0,0 +1,266 @@
+package net.kennux.cubicworld.microbenchmark;
+
+import java.util.Random;
+
+import net.kennux.cubicworld.CubicWorldConfiguration;
+import net.kennux.cubicworld.CubicWorldServer;
+import net.kennux.cubicworld.voxel.VoxelChunk;
+import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelEngine;
+import net.kennux.cubicworld.voxel.VoxelType;
+import net.kennux.cubicworld.voxel.VoxelWorld;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
+
+/**
+ * <pre>
+ * Compares the old sunlight and shadow lighting system (TestLightingSystem) with the flood fill lighting system on generated terrain.
+ * The terrain consists of hills of stone covered with dirt and a few random holes, like in ChunkMeshBuilderBenchmark.
+ *
+ * Every iteration resets the lighting of all chunks and updates the world until all chunks are lit and quiescent.
+ * The flood fill relight runs with and without the parallel column lighting (see ChunkLightingScheduler).
+ * The edit benchmarks toggle a voxel inside of the stone and update the world until all chunks are lit and quiescent again.
+ * After the benchmarks the world updates needed for lighting and the count of lit voxels get printed.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class LightingBenchmark extends AMicroBenchmark
+{
+	public static void main(String[] args)
+	{
+		LightingBenchmark benchmark = new LightingBenchmark();
+		benchmark.benchmark();
+		benchmark.printLightingStats("Test lighting", benchmark.testLightingWorld);
+		benchmark.printLightingStats("Flood fill lighting", benchmark.floodFillWorld);
+		benchmark.testLightingWorld.dispose();
+		benchmark.floodFillWorld.dispose();
+
+		// The world generator pool doesn't use daemon threads
+		System.exit(0);
+	}
+
+	/**
+	 * The count of chunk columns on the x- and z-axis.
+	 */
+	private static final int WORLD_COLUMNS = 6;
+
+	/**
+	 * The maximum count of world updates per relight.
+	 */
+	private static final int MAX_UPDATES = 1000;
+
+	/**
+	 * The count of voxel edits per edit benchmark iteration.
+	 */
+	private static final int EDITS = 100;
+
+	private VoxelWorld testLightingWorld;
+
+	private VoxelWorld floodFillWorld;
+
+	private VoxelType stone;
+
+	public LightingBenchmark()
+	{
+		VoxelEngine.initialize(128, 128);
+		VoxelType stone = VoxelEngine.registerType("stone");
+		VoxelType dirt = VoxelEngine.registerType("dirt");
+		this.stone = stone;
+
+		// The lighting system gets chosen when the chunks get created
+		boolean floodFillLighting = CubicWorldConfiguration.floodFillLighting;
+		CubicWorldConfiguration.floodFillLighting = false;
+		this.testLightingWorld = createWorld(stone, dirt);
+		CubicWorldConfiguration.floodFillLighting = true;
+		this.floodFillWorld = createWorld(stone, dirt);
+		CubicWorldConfiguration.floodFillLighting = floodFillLighting;
+	}
+
+	/**
+	 * Creates a server world with the benchmark terrain.
+	 *
+	 * @param stone
+	 * @param dirt
+	 * @return
+	 */
+	private static VoxelWorld createWorld(VoxelType stone, VoxelType dirt)
+	{
+		VoxelWorld world = new VoxelWorld((CubicWorldServer) null);
+		world.setSunLightLevel((byte) 15);
+		int chunksOnYAxis = world.chunksOnYAxis() + 1;
+		Random random = new Random(1337);
+
+		for (int chunkX = 0; chunkX < WORLD_COLUMNS; chunkX++)
+		{
+			for (int chunkZ = 0; chunkZ < WORLD_COLUMNS; chunkZ++)
+			{
+				for (int chunkY = 0; chunkY < chunksOnYAxis; chunkY++)
+				{
+					VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+
+					for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+					{
+						for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+						{
+							int worldX = chunkX * VoxelWorld.chunkWidth + x;
+							int worldZ = chunkZ * VoxelWorld.chunkDepth + z;
+							int height = 24 + (int) (10 * Math.sin(worldX / 7f) * Math.cos(worldZ / 9f));
+
+							for (int y = 0; y < VoxelWorld.chunkHeight; y++)
+							{
+								int worldY = chunkY * VoxelWorld.chunkHeight + y;
+
+								if (worldY > height || random.nextInt(20) == 0)
+									continue;
+
+								voxelData[x][y][z] = VoxelData.construct(worldY > height - 3 ? dirt.voxelId : stone.voxelId);
+							}
+						}
+					}
+
+					world.getChunk(chunkX, chunkY, chunkZ, true).setVoxelData(voxelData);
+				}
+			}
+		}
+
+		return world;
+	}
+
+	/**
+	 * Resets the lighting of all chunks and updates the world until all chunks are lit and quiescent.
+	 * Returns the count of world updates needed.
+	 *
+	 * @param world
+	 * @return
+	 */
+	private static int relightWorld(VoxelWorld world)
+	{
+		world.recalculateLightingAndMeshes();
+
+		for (int i = 1; i <= MAX_UPDATES; i++)
+		{
+			world.update();
+
+			if (isLit(world) && world.getActiveChunkCount() == 0)
+				return i;
+		}
+
+		return MAX_UPDATES;
+	}
+
+	/**
+	 * Toggles a voxel inside of the stone below the center of the world and updates the world until it is lit and quiescent after every edit.
+	 *
+	 * @param world
+	 */
+	private void editVoxels(VoxelWorld world)
+	{
+		int center = WORLD_COLUMNS * VoxelWorld.chunkWidth / 2;
+
+		for (int i = 0; i < EDITS; i++)
+		{
+			world.setVoxel(center, 8, center, i % 2 == 0 ? null : VoxelData.construct(this.stone.voxelId));
+
+			for (int j = 0; j < MAX_UPDATES; j++)
+			{
+				world.update();
+
+				if (isLit(world) && world.getActiveChunkCount() == 0)
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the lighting of all chunks of the given world is done.
+	 *
+	 * @param world
+	 * @return
+	 */
+	private static boolean isLit(VoxelWorld world)
+	{
+		for (int chunkX = 0; chunkX < WORLD_COLUMNS; chunkX++)
+			for (int chunkY = 0; chunkY <= world.chunksOnYAxis(); chunkY++)
+				for (int chunkZ = 0; chunkZ < WORLD_COLUMNS; chunkZ++)
+					if (!world.getChunk(chunkX, chunkY, chunkZ, false).isInitializedAndLightingReady())
+						return false;
+
+		return true;
+	}
+
+	@MicroBenchmark(name = "Test lighting system relight", iterations = 20)
+	public void testLighting()
+	{
+		relightWorld(this.testLightingWorld);
+	}
+
+	@MicroBenchmark(name = "Flood fill lighting system relight", iterations = 20)
+	public void floodFillLighting()
+	{
+		relightWorld(this.floodFillWorld);
+	}
+
+	@MicroBenchmark(name = "Flood fill lighting system relight (serial columns)", iterations = 20)
+	public void floodFillLightingSerial()
+	{
+		boolean parallelLighting = CubicWorldConfiguration.parallelLighting;
+		boolean parallelChunkUpdate = CubicWorldConfiguration.parallelChunkUpdate;
+		CubicWorldConfiguration.parallelLighting = false;
+		CubicWorldConfiguration.parallelChunkUpdate = false;
+
+		try
+		{
+			relightWorld(this.floodFillWorld);
+		}
+		finally
+		{
+			CubicWorldConfiguration.parallelLighting = parallelLighting;
+			CubicWorldConfiguration.parallelChunkUpdate = parallelChunkUpdate;
+		}
+	}
+
+	@MicroBenchmark(name = "Test lighting system voxel edits (100 edits)", iterations = 5)
+	public void testLightingEdits()
+	{
+		this.editVoxels(this.testLightingWorld);
+	}
+
+	@MicroBenchmark(name = "Flood fill lighting system voxel edits (100 edits)", iterations = 5)
+	public void floodFillLightingEdits()
+	{
+		this.editVoxels(this.floodFillWorld);
+	}
+
+	/**
+	 * Prints the world updates needed for a relight and the count of voxels with a light level above 0.
+	 *
+	 * @param name
+	 * @param world
+	 */
+	public void printLightingStats(String name, VoxelWorld world)
+	{
+		int updates = relightWorld(world);
+		int litVoxels = 0;
+
+		for (int chunkX = 0; chunkX < WORLD_COLUMNS; chunkX++)
+		{
+			for (int chunkY = 0; chunkY <= world.chunksOnYAxis(); chunkY++)
+			{
+				for (int chunkZ = 0; chunkZ < WORLD_COLUMNS; chunkZ++)
+				{
+					VoxelChunk chunk = world.getChunk(chunkX, chunkY, chunkZ, false);
+
+					for (int i = 0; i < PaletteVoxelStorage.VOXEL_COUNT; i++)
+					{
+						if (chunk.getSunLight().get(i) > 0 || chunk.getBlockLight().get(i) > 0)
+							litVoxels++;
+					}
+				}
+			}
+		}
+
+		System.out.println(name + " updates until lit: " + updates);
+		System.out.println(name + " lit voxels: " + litVoxels);
+	}
+}
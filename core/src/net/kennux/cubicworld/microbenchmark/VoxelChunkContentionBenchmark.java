@@ -0,0 +1,195 @@
+package net.kennux.cubicworld.microbenchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.kennux.cubicworld.voxel.VoxelChunk;
+import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelEngine;
+import net.kennux.cubicworld.voxel.VoxelWorld;
+
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+
+/**
+ * <pre>
+ * Measures voxel reads on one chunk while multiple threads access it at once.
+ * The reader tasks mimic the pathfinder thread (hasVoxel()), the world update thread (getVoxelType() / getGlobalLightLevel())
+ * and the socket threads (getVoxel()).
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class VoxelChunkContentionBenchmark extends AMicroBenchmark
+{
+	public static void main(String[] args)
+	{
+		VoxelChunkContentionBenchmark benchmark = new VoxelChunkContentionBenchmark();
+		benchmark.benchmark();
+		benchmark.executor.shutdown();
+	}
+
+	/**
+	 * The count of reads every reader task performs per iteration.
+	 */
+	private static final int READS_PER_TASK = 200000;
+
+	private VoxelChunk chunk;
+	private ExecutorService executor;
+	private short stoneId;
+	private short dirtId;
+
+	public VoxelChunkContentionBenchmark()
+	{
+		VoxelEngine.initialize(128, 128);
+		this.stoneId = VoxelEngine.registerType("stone").voxelId;
+		this.dirtId = VoxelEngine.registerType("dirt").voxelId;
+
+		// Build a half filled chunk
+		VoxelWorld world = new VoxelWorld((ShaderProgram) null);
+		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int y = 0; y < VoxelWorld.chunkHeight / 2; y++)
+				for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+					voxelData[x][y][z] = VoxelData.construct(y == VoxelWorld.chunkHeight / 2 - 1 ? this.dirtId : this.stoneId);
+
+		this.chunk = new VoxelChunk(0, 0, 0, world);
+		this.chunk.setVoxelData(voxelData);
+
+		// Pathfinder, update and 2 socket threads + 1 writer
+		this.executor = Executors.newFixedThreadPool(5);
+	}
+
+	/**
+	 * Pathfinder-like reader.
+	 */
+	private Callable<Integer> pathfinderTask()
+	{
+		return new Callable<Integer>()
+		{
+			@Override
+			public Integer call()
+			{
+				int solid = 0;
+				for (int i = 0; i < READS_PER_TASK; i++)
+				{
+					if (chunk.hasVoxel(i & 15, (i >> 4) & 15, (i >> 8) & 15))
+						solid++;
+				}
+				return solid;
+			}
+		};
+	}
+
+	/**
+	 * Update thread-like reader.
+	 */
+	private Callable<Integer> updateTask()
+	{
+		return new Callable<Integer>()
+		{
+			@Override
+			public Integer call()
+			{
+				int sum = 0;
+				for (int i = 0; i < READS_PER_TASK; i++)
+				{
+					if (chunk.getVoxelType(i & 15, (i >> 4) & 15, (i >> 8) & 15) == null)
+						sum += chunk.getGlobalLightLevel(i & 15, (i >> 4) & 15, (i >> 8) & 15);
+				}
+				return sum;
+			}
+		};
+	}
+
+	/**
+	 * Socket thread-like reader.
+	 */
+	private Callable<Integer> socketTask()
+	{
+		return new Callable<Integer>()
+		{
+			@Override
+			public Integer call()
+			{
+				int solid = 0;
+				for (int i = 0; i < READS_PER_TASK; i++)
+				{
+					if (chunk.getVoxel(i & 15, (i >> 4) & 15, (i >> 8) & 15).voxelType != null)
+						solid++;
+				}
+				return solid;
+			}
+		};
+	}
+
+	/**
+	 * Writer toggling one voxel while the readers run.
+	 */
+	private Callable<Integer> writerTask()
+	{
+		return new Callable<Integer>()
+		{
+			@Override
+			public Integer call()
+			{
+				for (int i = 0; i < 100; i++)
+				{
+					chunk.setVoxel(8, 15, 8, (i & 1) == 0 ? VoxelData.construct(dirtId) : null);
+				}
+				return 100;
+			}
+		};
+	}
+
+	/**
+	 * Runs all given tasks at once and waits for them.
+	 *
+	 * @param tasks
+	 */
+	private void runAll(ArrayList<Callable<Integer>> tasks) throws Exception
+	{
+		ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+		for (Callable<Integer> task : tasks)
+			futures.add(this.executor.submit(task));
+
+		for (Future<Integer> future : futures)
+			future.get();
+	}
+
+	@MicroBenchmark(name = "Single reader (socket)", iterations = 100)
+	public void singleReader() throws Exception
+	{
+		this.socketTask().call();
+	}
+
+	@MicroBenchmark(name = "Contended readers (pathfinder, update, 2x socket)", iterations = 100)
+	public void contendedReaders() throws Exception
+	{
+		ArrayList<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		tasks.add(this.pathfinderTask());
+		tasks.add(this.updateTask());
+		tasks.add(this.socketTask());
+		tasks.add(this.socketTask());
+
+		this.runAll(tasks);
+	}
+
+	@MicroBenchmark(name = "Contended readers with writer", iterations = 100)
+	public void contendedReadersWithWriter() throws Exception
+	{
+		ArrayList<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		tasks.add(this.pathfinderTask());
+		tasks.add(this.updateTask());
+		tasks.add(this.socketTask());
+		tasks.add(this.socketTask());
+		tasks.add(this.writerTask());
+
+		this.runAll(tasks);
+	}
+}
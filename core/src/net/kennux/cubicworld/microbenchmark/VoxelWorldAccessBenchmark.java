@@ -0,0 +1,162 @@
+package net.kennux.cubicworld.microbenchmark;
+
+import java.util.Random;
+
+import net.kennux.cubicworld.voxel.VoxelChunk;
+import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelEngine;
+import net.kennux.cubicworld.voxel.VoxelWorld;
+
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * <pre>
+ * Measures global voxel lookups on VoxelWorld.
+ * The legacy benchmarks use the old lookup path (Vector3 chunkspace position with float division and a ChunkKey per call),
+ * the others the integer shift / mask path.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class VoxelWorldAccessBenchmark extends AMicroBenchmark
+{
+	public static void main(String[] args)
+	{
+		new VoxelWorldAccessBenchmark().benchmark();
+	}
+
+	/**
+	 * The count of chunks on every axis.
+	 */
+	private static final int WORLD_CHUNKS = 4;
+
+	/**
+	 * The count of random lookups per iteration.
+	 */
+	private static final int RANDOM_LOOKUPS = 1000000;
+
+	private VoxelWorld world;
+	private int[] randomX;
+	private int[] randomY;
+	private int[] randomZ;
+
+	public VoxelWorldAccessBenchmark()
+	{
+		VoxelEngine.initialize(128, 128);
+		short stoneId = VoxelEngine.registerType("stone").voxelId;
+
+		// Build a world with half filled chunks, including negative chunk coordinates
+		this.world = new VoxelWorld((ShaderProgram) null);
+		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int y = 0; y < VoxelWorld.chunkHeight / 2; y++)
+				for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+					voxelData[x][y][z] = VoxelData.construct(stoneId);
+
+		for (int x = -WORLD_CHUNKS / 2; x < WORLD_CHUNKS / 2; x++)
+			for (int y = 0; y < WORLD_CHUNKS; y++)
+				for (int z = -WORLD_CHUNKS / 2; z < WORLD_CHUNKS / 2; z++)
+				{
+					VoxelChunk chunk = this.world.getChunk(x, y, z, true);
+					chunk.setVoxelData(voxelData);
+				}
+
+		// Random positions inside of the loaded chunks
+		Random random = new Random(1337);
+		this.randomX = new int[RANDOM_LOOKUPS];
+		this.randomY = new int[RANDOM_LOOKUPS];
+		this.randomZ = new int[RANDOM_LOOKUPS];
+
+		for (int i = 0; i < RANDOM_LOOKUPS; i++)
+		{
+			this.randomX[i] = random.nextInt(WORLD_CHUNKS * VoxelWorld.chunkWidth) - (WORLD_CHUNKS / 2) * VoxelWorld.chunkWidth;
+			this.randomY[i] = random.nextInt(WORLD_CHUNKS * VoxelWorld.chunkHeight);
+			this.randomZ[i] = random.nextInt(WORLD_CHUNKS * VoxelWorld.chunkDepth) - (WORLD_CHUNKS / 2) * VoxelWorld.chunkDepth;
+		}
+	}
+
+	/**
+	 * The old VoxelWorld.getVoxel() implementation.
+	 */
+	private VoxelData legacyGetVoxel(int x, int y, int z)
+	{
+		Vector3 chunkPos = this.world.getChunkspacePosition(new Vector3(x, y, z));
+
+		x -= (int) (chunkPos.x * VoxelWorld.chunkWidth);
+		y -= (int) (chunkPos.y * VoxelWorld.chunkHeight);
+		z -= (int) (chunkPos.z * VoxelWorld.chunkDepth);
+
+		VoxelChunk chunk = this.world.getChunk((int) chunkPos.x, (int) chunkPos.y, (int) chunkPos.z, false);
+		if (chunk == null)
+			return null;
+
+		return chunk.getVoxel(x, y, z);
+	}
+
+	@MicroBenchmark(name = "Legacy getVoxel() sequential", iterations = 20)
+	public void legacySequential()
+	{
+		int solid = 0;
+		for (int x = -(WORLD_CHUNKS / 2) * VoxelWorld.chunkWidth; x < (WORLD_CHUNKS / 2) * VoxelWorld.chunkWidth; x++)
+			for (int z = -(WORLD_CHUNKS / 2) * VoxelWorld.chunkDepth; z < (WORLD_CHUNKS / 2) * VoxelWorld.chunkDepth; z++)
+				for (int y = 0; y < WORLD_CHUNKS * VoxelWorld.chunkHeight; y++)
+					if (this.legacyGetVoxel(x, y, z).voxelType != null)
+						solid++;
+
+		if (solid == 0)
+			System.out.println("Nothing found");
+	}
+
+	@MicroBenchmark(name = "Legacy getVoxel() random", iterations = 20)
+	public void legacyRandom()
+	{
+		int solid = 0;
+		for (int i = 0; i < RANDOM_LOOKUPS; i++)
+			if (this.legacyGetVoxel(this.randomX[i], this.randomY[i], this.randomZ[i]).voxelType != null)
+				solid++;
+
+		if (solid == 0)
+			System.out.println("Nothing found");
+	}
+
+	@MicroBenchmark(name = "getVoxel() sequential", iterations = 20)
+	public void getVoxelSequential()
+	{
+		int solid = 0;
+		for (int x = -(WORLD_CHUNKS / 2) * VoxelWorld.chunkWidth; x < (WORLD_CHUNKS / 2) * VoxelWorld.chunkWidth; x++)
+			for (int z = -(WORLD_CHUNKS / 2) * VoxelWorld.chunkDepth; z < (WORLD_CHUNKS / 2) * VoxelWorld.chunkDepth; z++)
+				for (int y = 0; y < WORLD_CHUNKS * VoxelWorld.chunkHeight; y++)
+					if (this.world.getVoxel(x, y, z).voxelType != null)
+						solid++;
+
+		if (solid == 0)
+			System.out.println("Nothing found");
+	}
+
+	@MicroBenchmark(name = "getVoxel() random", iterations = 20)
+	public void getVoxelRandom()
+	{
+		int solid = 0;
+		for (int i = 0; i < RANDOM_LOOKUPS; i++)
+			if (this.world.getVoxel(this.randomX[i], this.randomY[i], this.randomZ[i]).voxelType != null)
+				solid++;
+
+		if (solid == 0)
+			System.out.println("Nothing found");
+	}
+
+	@MicroBenchmark(name = "getVoxelType() random", iterations = 20)
+	public void getVoxelTypeRandom()
+	{
+		int solid = 0;
+		for (int i = 0; i < RANDOM_LOOKUPS; i++)
+			if (this.world.getVoxelType(this.randomX[i], this.randomY[i], this.randomZ[i]) != null)
+				solid++;
+
+		if (solid == 0)
+			System.out.println("Nothing found");
+	}
+}
@@ -253,7 +253,7 @@ public class CubicWorldServerClient extends AClientSocket
 				chunkData.chunkX = qr.chunkX;
 				chunkData.chunkY = qr.chunkY;
 				chunkData.chunkZ = qr.chunkZ;
-				chunkData.voxelData = chunk.getVoxelData();
+				chunkData.snapshot = chunk.getSnapshot();
 
 				chunkData.setPlayerId(this.clientIndex);
 
@@ -43,7 +43,9 @@ public class ClientLogin extends AClientPacketModel
 		client.playerEntity = new PlayerEntity();
 		client.playerEntity.setEntityId(client.getClientId());
 		client.playerEntity.setEntityName(this.username);
-		client.playerEntity.setPosition(new Vector3(0, 130, 0));
+		// New players spawn on the highest voxel of the spawn area
+		Vector3 spawnPosition = server.voxelWorld.findSpawnPosition(0, 0);
+		client.playerEntity.setPosition(spawnPosition != null ? spawnPosition : new Vector3(0, 130, 0));
 		client.playerEntity.interpolatePosition(true);
 
 		// Load already available data if there is any
@@ -7,8 +7,9 @@ import net.kennux.cubicworld.networking.model.APlayerPacketModel;
 import net.kennux.cubicworld.serialization.BitReader;
 import net.kennux.cubicworld.serialization.BitWriter;
 import net.kennux.cubicworld.voxel.VoxelChunk;
-import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelChunkSnapshot;
 import net.kennux.cubicworld.voxel.VoxelEngine;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
 
 /**
  * Chunk request packet model implementation. Packet id: 0x09 Packet data: [3
@@ -25,14 +26,24 @@ public class ServerChunkData extends APlayerPacketModel
 	public int chunkX = 0;
 	public int chunkY = 0;
 	public int chunkZ = 0;
-	public VoxelData[][][] voxelData;
+
+	/**
+	 * The received voxel storage (client side).
+	 */
+	public PaletteVoxelStorage voxelStorage;
+
+	/**
+	 * The chunk snapshot to send (server side).
+	 * Snapshots cache their serialized data, so sending the same chunk version to multiple clients only serializes it once.
+	 */
+	public VoxelChunkSnapshot snapshot;
 
 	@Override
 	public void interpretClientSide(CubicWorldGame cubicWorld)
 	{
 		// Set chunk data
 		VoxelChunk chunk = cubicWorld.voxelWorld.getChunk(this.chunkX, this.chunkY, this.chunkZ, true);
-		chunk.setVoxelData(this.voxelData);
+		chunk.setVoxelStorage(this.voxelStorage);
 
 		ClientChunkRequest.recievedChunkData(this.chunkX, this.chunkY, this.chunkZ);
 	}
@@ -51,8 +62,8 @@ public class ServerChunkData extends APlayerPacketModel
 
 		byte[] serializedVoxelData = reader.readBytes();
 
-		// init voxel data
-		this.voxelData = VoxelEngine.deserializeVoxelData(serializedVoxelData);
+		// init voxel data, uniform chunks are sent as a few bytes only
+		this.voxelStorage = VoxelEngine.deserializeVoxelStorage(serializedVoxelData);
 
 		// System.out.println("Got chunkdata " + this.chunkX + " " + this.chunkY
 		// + " " + this.chunkZ);
@@ -65,7 +76,7 @@ public class ServerChunkData extends APlayerPacketModel
 		builder.writeInt(this.chunkY);
 		builder.writeInt(this.chunkZ);
 
-		builder.writeBytes(VoxelEngine.serializeVoxelData(this.voxelData));
+		builder.writeBytes(this.snapshot.getSerializedData());
 
 		// Write compressed data
 		// System.out.println("Wrote chunkdata " + this.chunkX + " " +
@@ -0,0 +1,395 @@
+package net.kennux.cubicworld.test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+import net.kennux.cubicworld.CubicWorldConfiguration;
+import net.kennux.cubicworld.CubicWorldServer;
+import net.kennux.cubicworld.plugins.baseplugin.BasePlugin;
+import net.kennux.cubicworld.voxel.ChunkMeshBuilder;
+import net.kennux.cubicworld.voxel.ChunkMeshBuilder.ChunkMeshBuilderResult;
+import net.kennux.cubicworld.voxel.ChunkMeshBuilderPool;
+import net.kennux.cubicworld.voxel.ChunkState;
+import net.kennux.cubicworld.voxel.ChunkVertexFormat;
+import net.kennux.cubicworld.voxel.QuadIndexBuffer;
+import net.kennux.cubicworld.voxel.VoxelChunk;
+import net.kennux.cubicworld.voxel.VoxelChunkSnapshot;
+import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelWorld;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Vector3;
+
+public class ChunkMeshBuilderTest extends TestCase
+{
+	/**
+	 * Tests the mesh of a single voxel and that the reused buffers don't leak data of previous builds.
+	 */
+	@Test
+	public void testSingleVoxelMesh()
+	{
+		VoxelWorld voxelWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+
+		// A bigger mesh first, so the buffers contain data of the previous build
+		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x += 2)
+			for (int y = 0; y < VoxelWorld.chunkHeight; y += 2)
+				for (int z = 0; z < VoxelWorld.chunkDepth; z += 2)
+					voxelData[x][y][z] = VoxelData.construct(BasePlugin.voxelStoneId);
+
+		VoxelChunk bigChunk = voxelWorld.getChunk(1, 0, 0, true);
+		bigChunk.setVoxelData(voxelData);
+		ChunkMeshBuilderResult bigResult = ChunkMeshBuilder.buildMeshData(bigChunk);
+
+		// 8 * 8 * 8 voxels, every side visible
+		assertEquals(8 * 8 * 8 * 6 * 4 * ChunkMeshBuilder.vertexSize, bigResult.getVertices().length);
+		assertEquals(8 * 8 * 8 * 6, bigResult.getQuadCount());
+
+		voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+		voxelData[1][2][3] = VoxelData.construct(BasePlugin.voxelDirtId);
+
+		VoxelChunk chunk = voxelWorld.getChunk(-1, 0, 0, true);
+		chunk.setVoxelData(voxelData);
+		ChunkMeshBuilderResult result = ChunkMeshBuilder.buildMeshData(chunk);
+
+		// 6 sides with 4 vertices
+		float[] vertices = result.getVertices();
+		assertEquals(6 * 4 * ChunkMeshBuilder.vertexSize, vertices.length);
+		assertEquals(6, result.getQuadCount());
+
+		// All vertices are corners of the voxel in chunk space
+		for (int i = 0; i < vertices.length / ChunkMeshBuilder.vertexSize; i++)
+		{
+			int x = ChunkVertexFormat.getX(vertices, i);
+			int y = ChunkVertexFormat.getY(vertices, i);
+			int z = ChunkVertexFormat.getZ(vertices, i);
+			assertTrue(x == 1 || x == 2);
+			assertTrue(y == 2 || y == 3);
+			assertTrue(z == 3 || z == 4);
+
+			// Every face shows its tile once
+			assertTrue(ChunkVertexFormat.getRepeatU(vertices, i) <= 1);
+			assertTrue(ChunkVertexFormat.getRepeatV(vertices, i) <= 1);
+		}
+
+		// Building again gives the same result
+		ChunkMeshBuilderResult secondResult = ChunkMeshBuilder.buildMeshData(chunk);
+		assertTrue(Arrays.equals(vertices, secondResult.getVertices()));
+	}
+
+	/**
+	 * Tests that the greedy mesher merges a flat layer into one quad per side.
+	 */
+	@Test
+	public void testGreedyMesh()
+	{
+		VoxelWorld voxelWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+				voxelData[x][0][z] = VoxelData.construct(BasePlugin.voxelDirtId);
+
+		VoxelChunk chunk = voxelWorld.getChunk(0, 0, 0, true);
+		chunk.setVoxelData(voxelData);
+
+		// Top, bottom and 16 faces on every chunk border
+		ChunkMeshBuilderResult result = ChunkMeshBuilder.buildMeshData(chunk, false);
+		assertEquals((2 * 16 * 16 + 4 * 16) * 4 * ChunkMeshBuilder.vertexSize, result.getVertices().length);
+
+		// One quad per side
+		ChunkMeshBuilderResult greedyResult = ChunkMeshBuilder.buildMeshData(chunk, true);
+		float[] vertices = greedyResult.getVertices();
+		assertEquals(6 * 4 * ChunkMeshBuilder.vertexSize, vertices.length);
+		assertEquals(6, greedyResult.getQuadCount());
+
+		// The quads cover the whole layer
+		int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+
+		for (int i = 0; i < vertices.length / ChunkMeshBuilder.vertexSize; i++)
+		{
+			minX = Math.min(minX, ChunkVertexFormat.getX(vertices, i));
+			maxX = Math.max(maxX, ChunkVertexFormat.getX(vertices, i));
+			minY = Math.min(minY, ChunkVertexFormat.getY(vertices, i));
+			maxY = Math.max(maxY, ChunkVertexFormat.getY(vertices, i));
+		}
+
+		assertEquals(0, minX);
+		assertEquals(VoxelWorld.chunkWidth, maxX);
+		assertEquals(0, minY);
+		assertEquals(1, maxY);
+
+		// A different voxel type splits the quads of the top side
+		voxelWorld.setVoxel(5, 0, 5, VoxelData.construct(BasePlugin.voxelStoneId));
+		greedyResult = ChunkMeshBuilder.buildMeshData(chunk, true);
+		assertTrue(greedyResult.getVertices().length > vertices.length);
+		assertTrue(greedyResult.getVertices().length < result.getVertices().length);
+	}
+
+	/**
+	 * Tests the build order of the mesh builder pool, that requests of modified chunks get dropped and the shutdown of the pool.
+	 */
+	@Test
+	public void testMeshBuilderPool()
+	{
+		VoxelWorld voxelWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+		int chunksOnYAxis = voxelWorld.chunksOnYAxis() + 1;
+		int[] columns = new int[] { -3, 2, 4, 6 };
+
+		for (int column : columns)
+		{
+			for (int y = 0; y < chunksOnYAxis; y++)
+			{
+				VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+				voxelData[0][0][0] = VoxelData.construct(BasePlugin.voxelDirtId);
+				voxelWorld.getChunk(column, y, 0, true).setVoxelData(voxelData);
+			}
+		}
+
+		for (int i = 0; i < chunksOnYAxis * 2; i++)
+			voxelWorld.update();
+
+		VoxelChunk behind = voxelWorld.getChunk(-3, 0, 0, false);
+		VoxelChunk front = voxelWorld.getChunk(2, 0, 0, false);
+		VoxelChunk farFront = voxelWorld.getChunk(4, 0, 0, false);
+		VoxelChunk modified = voxelWorld.getChunk(6, 0, 0, false);
+		assertEquals(ChunkState.LIT, front.getState());
+
+		// No worker threads, the test builds the meshes
+		ChunkMeshBuilderPool pool = new ChunkMeshBuilderPool(0);
+		pool.setCamera(new Vector3(0, 8, 8), new Vector3(1, 0, 0));
+
+		pool.request(behind);
+		pool.request(farFront);
+		pool.request(front);
+		pool.request(front);
+		pool.request(modified);
+		assertEquals(4, pool.getQueuedCount());
+
+		// The modified chunk needs a relight, its request gets dropped
+		modified.regenerateLighting();
+		assertEquals(ChunkState.DIRTY_LIGHTING, modified.getState());
+
+		// Chunks in front of the camera first, even if they are further away
+		assertSame(front, pool.buildNext());
+		assertSame(farFront, pool.buildNext());
+		assertSame(behind, pool.buildNext());
+		assertNull(pool.buildNext());
+		assertNull(pool.buildNext());
+
+		assertEquals(ChunkState.MESHED, front.getState());
+		assertEquals(ChunkState.DIRTY_LIGHTING, modified.getState());
+		assertEquals(3, pool.getBuiltCount());
+		assertEquals(1, pool.getDroppedCount());
+
+		// Turning around changes the order
+		pool.setCamera(new Vector3(0, 8, 8), new Vector3(-1, 0, 0));
+		front.regenerateMesh();
+		behind.regenerateMesh();
+		pool.request(front);
+		pool.request(behind);
+		assertSame(behind, pool.buildNext());
+		assertSame(front, pool.buildNext());
+		// Shutting down stops the worker threads, even while requests are queued
+		ChunkMeshBuilderPool workerPool = new ChunkMeshBuilderPool(2);
+		assertEquals(2, workerPool.getRunningWorkerCount());
+		workerPool.shutdown();
+		assertEquals(0, workerPool.getRunningWorkerCount());
+
+		// Disposed worlds shut down their pool and don't start a new one
+		int meshBuilderThreads = CubicWorldConfiguration.meshBuilderThreads;
+		CubicWorldConfiguration.meshBuilderThreads = 1;
+
+		try
+		{
+			VoxelWorld clientWorld = new VoxelWorld((ShaderProgram) null);
+			ChunkMeshBuilderPool worldPool = clientWorld.getMeshBuilderPool();
+			assertEquals(1, worldPool.getRunningWorkerCount());
+
+			clientWorld.dispose();
+			assertEquals(0, worldPool.getRunningWorkerCount());
+			assertNull(clientWorld.getMeshBuilderPool());
+		}
+		finally
+		{
+			CubicWorldConfiguration.meshBuilderThreads = meshBuilderThreads;
+		}
+	}
+
+	/**
+	 * Tests that a voxel edit while the mesh of the chunk gets built isn't lost.
+	 */
+	@Test
+	public void testEditWhileMeshing()
+	{
+		int meshBuilderThreads = CubicWorldConfiguration.meshBuilderThreads;
+		CubicWorldConfiguration.meshBuilderThreads = 0;
+
+		try
+		{
+			// Client world, the chunk update builds the mesh on the calling thread
+			VoxelWorld voxelWorld = new VoxelWorld((ShaderProgram) null);
+
+			// Edits the chunk from inside of the mesh build, after the builder took the dirty sections
+			// The top chunk gets lit without the chunk above
+			final AtomicBoolean editWhileMeshing = new AtomicBoolean();
+			VoxelChunk chunk = new VoxelChunk(0, voxelWorld.chunksOnYAxis(), 0, voxelWorld)
+			{
+				@Override
+				public VoxelChunkSnapshot getSnapshot()
+				{
+					if (editWhileMeshing.getAndSet(false))
+						this.setVoxel(5, 5, 5, VoxelData.construct(BasePlugin.voxelStoneId));
+
+					return super.getSnapshot();
+				}
+			};
+
+			VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+			voxelData[0][0][0] = VoxelData.construct(BasePlugin.voxelDirtId);
+			chunk.setVoxelData(voxelData);
+
+			chunk.update();
+
+			assertEquals(ChunkState.MESHED, chunk.getState());
+
+			// The build read the old snapshot, the chunk needs a new mesh
+			chunk.regenerateMesh();
+			editWhileMeshing.set(true);
+			chunk.update();
+			assertFalse(editWhileMeshing.get());
+			assertEquals(ChunkState.DIRTY_MESH, chunk.getState());
+
+			// The next build contains the edit
+			chunk.update();
+			assertEquals(ChunkState.MESHED, chunk.getState());
+			assertTrue(chunk.hasVoxel(5, 5, 5));
+		}
+		finally
+		{
+			CubicWorldConfiguration.meshBuilderThreads = meshBuilderThreads;
+		}
+	}
+
+	/**
+	 * Tests the shared quad indices and the mesh splitting of big meshes.
+	 */
+	@Test
+	public void testQuadIndexBuffer()
+	{
+		short[] indices = QuadIndexBuffer.getIndices();
+		assertEquals(QuadIndexBuffer.MAX_INDICES, indices.length);
+
+		// Every quad references its own 4 vertices, all indices are in the unsigned short range
+		for (int i = 0; i < indices.length; i++)
+		{
+			int quad = i / QuadIndexBuffer.INDICES_PER_QUAD;
+			int index = indices[i] & 0xFFFF;
+			assertEquals(quad * QuadIndexBuffer.VERTICES_PER_QUAD + QuadIndexBuffer.QUAD_INDICES[i % QuadIndexBuffer.INDICES_PER_QUAD], index);
+			assertTrue(index < QuadIndexBuffer.MAX_VERTICES);
+		}
+
+		assertEquals(0, QuadIndexBuffer.getMeshCount(0));
+		assertEquals(1, QuadIndexBuffer.getMeshCount(1));
+		assertEquals(1, QuadIndexBuffer.getMeshCount(QuadIndexBuffer.MAX_QUADS));
+		assertEquals(2, QuadIndexBuffer.getMeshCount(QuadIndexBuffer.MAX_QUADS + 1));
+
+		// A 3d checkerboard is the worst case, every side of every voxel is visible
+		VoxelWorld voxelWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int y = 0; y < VoxelWorld.chunkHeight; y++)
+				for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+					if ((x + y + z) % 2 == 0)
+						voxelData[x][y][z] = VoxelData.construct(BasePlugin.voxelStoneId);
+
+		VoxelChunk chunk = voxelWorld.getChunk(0, 0, 0, true);
+		chunk.setVoxelData(voxelData);
+		ChunkMeshBuilderResult result = ChunkMeshBuilder.buildMeshData(chunk, false);
+
+		int quadCount = VoxelWorld.chunkWidth * VoxelWorld.chunkHeight * VoxelWorld.chunkDepth / 2 * 6;
+		assertEquals(quadCount, result.getQuadCount());
+		assertEquals(quadCount * QuadIndexBuffer.VERTICES_PER_QUAD * ChunkMeshBuilder.vertexSize, result.getVertices().length);
+		assertTrue(QuadIndexBuffer.getMeshCount(quadCount) > 1);
+	}
+
+	/**
+	 * Returns the vertices of the given mesh data as sorted words, so meshes with different quad orders can be compared.
+	 * 
+	 * @param vertices
+	 * @return
+	 */
+	private static long[] getSortedVertices(float[] vertices)
+	{
+		long[] sorted = new long[vertices.length / ChunkMeshBuilder.vertexSize];
+
+		for (int i = 0; i < sorted.length; i++)
+			sorted[i] = ((long) Float.floatToRawIntBits(vertices[i * 2]) << 32) | (Float.floatToRawIntBits(vertices[i * 2 + 1]) & 0xFFFFFFFFL);
+
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Tests that the stitched section meshes are equal to the mesh of the whole chunk and the section masks of voxel edits.
+	 */
+	@Test
+	public void testSectionMesh()
+	{
+		VoxelWorld voxelWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+		Random random = new Random(1337);
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int y = 0; y < VoxelWorld.chunkHeight; y++)
+				for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+					if (random.nextInt(3) != 0)
+						voxelData[x][y][z] = VoxelData.construct(random.nextBoolean() ? BasePlugin.voxelStoneId : BasePlugin.voxelDirtId);
+
+		VoxelChunk chunk = voxelWorld.getChunk(0, 0, 0, true);
+		chunk.setVoxelData(voxelData);
+
+		ChunkMeshBuilderResult[] sections = new ChunkMeshBuilderResult[ChunkMeshBuilder.SECTION_COUNT];
+
+		for (int i = 0; i < sections.length; i++)
+		{
+			sections[i] = ChunkMeshBuilder.buildSectionMeshData(chunk, i, false);
+			float[] vertices = sections[i].getVertices();
+
+			// Sections only contain the faces of their voxel layers
+			for (int v = 0; v < vertices.length / ChunkMeshBuilder.vertexSize; v++)
+			{
+				int y = ChunkVertexFormat.getY(vertices, v);
+				assertTrue(y >= i * ChunkMeshBuilder.SECTION_HEIGHT && y <= (i + 1) * ChunkMeshBuilder.SECTION_HEIGHT);
+			}
+		}
+
+		ChunkMeshBuilderResult stitched = ChunkMeshBuilder.stitch(chunk, sections);
+		ChunkMeshBuilderResult result = ChunkMeshBuilder.buildMeshData(chunk, false);
+		assertEquals(result.getQuadCount(), stitched.getQuadCount());
+		assertTrue(Arrays.equals(getSortedVertices(result.getVertices()), getSortedVertices(stitched.getVertices())));
+
+		// Greedy quads don't get merged across section borders, so the stitched greedy mesh can only have more quads
+		for (int i = 0; i < sections.length; i++)
+			sections[i] = ChunkMeshBuilder.buildSectionMeshData(chunk, i, true);
+
+		int greedyQuads = ChunkMeshBuilder.buildMeshData(chunk, true).getQuadCount();
+		int stitchedGreedyQuads = ChunkMeshBuilder.stitch(chunk, sections).getQuadCount();
+		assertTrue(stitchedGreedyQuads >= greedyQuads);
+		assertTrue(stitchedGreedyQuads <= result.getQuadCount());
+
+		// Edits inside of a section only affect this section, edits on section borders also the adjacent one
+		assertEquals(1 << 1, ChunkMeshBuilder.getSectionMask(5));
+		assertEquals((1 << 1) | (1 << 2), ChunkMeshBuilder.getSectionMask(7));
+		assertEquals((1 << 0) | (1 << 1), ChunkMeshBuilder.getSectionMask(4));
+		assertEquals(1, ChunkMeshBuilder.getSectionMask(0));
+		assertEquals(1 << (ChunkMeshBuilder.SECTION_COUNT - 1), ChunkMeshBuilder.getSectionMask(VoxelWorld.chunkHeight - 1));
+	}
+}
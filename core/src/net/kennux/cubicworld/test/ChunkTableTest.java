@@ -0,0 +1,121 @@
+package net.kennux.cubicworld.test;
+
+import junit.framework.TestCase;
+import net.kennux.cubicworld.voxel.ChunkKey;
+import net.kennux.cubicworld.voxel.ChunkTable;
+import net.kennux.cubicworld.voxel.VoxelChunk;
+
+import org.junit.Test;
+
+public class ChunkTableTest extends TestCase
+{
+	/**
+	 * Tests adding, replacing and removing chunks
+	 */
+	@Test
+	public void testPutGetRemove()
+	{
+		ChunkTable table = new ChunkTable();
+
+		// Enough chunks to grow the table a few times
+		for (int x = -8; x < 8; x++)
+			for (int y = 0; y < 8; y++)
+				for (int z = -8; z < 8; z++)
+					assertNull(table.put(ChunkKey.pack(x, y, z), new VoxelChunk(x, y, z, null)));
+
+		assertEquals(16 * 8 * 16, table.size());
+
+		for (int x = -8; x < 8; x++)
+			for (int y = 0; y < 8; y++)
+				for (int z = -8; z < 8; z++)
+				{
+					VoxelChunk chunk = table.get(ChunkKey.pack(x, y, z));
+					assertNotNull(chunk);
+					assertEquals(x, chunk.getChunkX());
+					assertEquals(y, chunk.getChunkY());
+					assertEquals(z, chunk.getChunkZ());
+				}
+
+		assertNull(table.get(ChunkKey.pack(8, 0, 0)));
+
+		// Replacing
+		VoxelChunk replacement = new VoxelChunk(1, 1, 1, null);
+		assertNotNull(table.put(ChunkKey.pack(1, 1, 1), replacement));
+		assertSame(replacement, table.get(ChunkKey.pack(1, 1, 1)));
+		assertEquals(16 * 8 * 16, table.size());
+
+		// Removing
+		assertSame(replacement, table.remove(ChunkKey.pack(1, 1, 1)));
+		assertNull(table.remove(ChunkKey.pack(1, 1, 1)));
+		assertFalse(table.containsKey(ChunkKey.pack(1, 1, 1)));
+		assertTrue(table.containsKey(ChunkKey.pack(1, 2, 1)));
+		assertEquals(16 * 8 * 16 - 1, table.size());
+	}
+
+	/**
+	 * Tests the column ordered iteration
+	 */
+	@Test
+	public void testColumnOrder()
+	{
+		ChunkTable table = new ChunkTable();
+
+		for (int y = 3; y >= 0; y--)
+			for (int x = 2; x >= -2; x--)
+				for (int z = -2; z <= 2; z++)
+					table.put(ChunkKey.pack(x, y, z), new VoxelChunk(x, y, z, null));
+
+		VoxelChunk[] chunks = table.getChunks();
+		assertEquals(table.size(), chunks.length);
+		assertSame(chunks, table.getChunks());
+
+		// Every column is contiguous and ordered bottom to top
+		for (int i = 0; i < chunks.length; i += 4)
+		{
+			for (int y = 0; y < 4; y++)
+			{
+				assertEquals(chunks[i].getChunkX(), chunks[i + y].getChunkX());
+				assertEquals(chunks[i].getChunkZ(), chunks[i + y].getChunkZ());
+				assertEquals(y, chunks[i + y].getChunkY());
+			}
+		}
+
+		// Modifications build a new array
+		table.remove(ChunkKey.pack(0, 0, 0));
+		assertEquals(chunks.length - 1, table.getChunks().length);
+	}
+
+	/**
+	 * Tests the column order of columns with negative coordinates
+	 */
+	@Test
+	public void testColumnOrderNegativeCoordinates()
+	{
+		ChunkTable table = new ChunkTable();
+
+		for (int x = -1; x <= 0; x++)
+			for (int y = 1; y >= -2; y--)
+				for (int z = 0; z >= -1; z--)
+					table.put(ChunkKey.pack(x, y, z), new VoxelChunk(x, y, z, null));
+
+		// Columns are ordered by x and z, their chunks bottom to top across y = 0
+		VoxelChunk[] chunks = table.getChunks();
+		int[][] columns = new int[][] { { -1, -1 }, { -1, 0 }, { 0, -1 }, { 0, 0 } };
+
+		for (int column = 0; column < columns.length; column++)
+		{
+			for (int y = -2; y <= 1; y++)
+			{
+				VoxelChunk chunk = chunks[column * 4 + y + 2];
+				assertEquals(columns[column][0], chunk.getChunkX());
+				assertEquals(columns[column][1], chunk.getChunkZ());
+				assertEquals(y, chunk.getChunkY());
+			}
+		}
+
+		// No chunk of a column sorts before its column key
+		assertEquals(ChunkKey.packColumn(0, -1), ChunkKey.pack(0, -2048, -1));
+		assertTrue(ChunkKey.packColumn(0, -1) < ChunkKey.pack(0, -1, -1));
+		assertEquals(ChunkKey.packColumn(0, -1), ChunkKey.getColumn(ChunkKey.pack(0, -1, -1)));
+	}
+}
@@ -0,0 +1,59 @@
+package net.kennux.cubicworld.test;
+
+import junit.framework.TestCase;
+import net.kennux.cubicworld.CubicWorldConfiguration;
+import net.kennux.cubicworld.voxel.ChunkVertexFormat;
+import net.kennux.cubicworld.voxel.VoxelWorld;
+
+import org.junit.Test;
+
+public class ChunkVertexFormatTest extends TestCase
+{
+	/**
+	 * Tests that all components survive encoding and decoding.
+	 */
+	@Test
+	public void testEncodeDecode()
+	{
+		float[] vertices = new float[ChunkVertexFormat.FLOATS_PER_VERTEX * 3];
+
+		ChunkVertexFormat.write(vertices, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+		ChunkVertexFormat.write(vertices, ChunkVertexFormat.FLOATS_PER_VERTEX, 1, 2, 3, 4, 5, 6, 7, 8);
+		ChunkVertexFormat.write(vertices, ChunkVertexFormat.FLOATS_PER_VERTEX * 2, VoxelWorld.chunkWidth, VoxelWorld.chunkHeight, VoxelWorld.chunkDepth, ChunkVertexFormat.packLight(CubicWorldConfiguration.maxLightLevel, CubicWorldConfiguration.maxLightLevel), ChunkVertexFormat.MAX_COMPONENT_VALUE, ChunkVertexFormat.MAX_COMPONENT_VALUE, VoxelWorld.chunkWidth, VoxelWorld.chunkDepth);
+
+		assertEquals(0, ChunkVertexFormat.getX(vertices, 0));
+		assertEquals(0, ChunkVertexFormat.getRepeatV(vertices, 0));
+
+		assertEquals(1, ChunkVertexFormat.getX(vertices, 1));
+		assertEquals(2, ChunkVertexFormat.getY(vertices, 1));
+		assertEquals(3, ChunkVertexFormat.getZ(vertices, 1));
+		assertEquals(4, ChunkVertexFormat.getLightLevel(vertices, 1));
+		assertEquals(0, ChunkVertexFormat.getSkyLight(vertices, 1));
+		assertEquals(4, ChunkVertexFormat.getBlockLight(vertices, 1));
+		assertEquals(5, ChunkVertexFormat.getTileX(vertices, 1));
+		assertEquals(6, ChunkVertexFormat.getTileY(vertices, 1));
+		assertEquals(7, ChunkVertexFormat.getRepeatU(vertices, 1));
+		assertEquals(8, ChunkVertexFormat.getRepeatV(vertices, 1));
+
+		assertEquals(VoxelWorld.chunkWidth, ChunkVertexFormat.getX(vertices, 2));
+		assertEquals(VoxelWorld.chunkHeight, ChunkVertexFormat.getY(vertices, 2));
+		assertEquals(VoxelWorld.chunkDepth, ChunkVertexFormat.getZ(vertices, 2));
+		assertEquals(CubicWorldConfiguration.maxLightLevel, ChunkVertexFormat.getSkyLight(vertices, 2));
+		assertEquals(CubicWorldConfiguration.maxLightLevel, ChunkVertexFormat.getBlockLight(vertices, 2));
+		assertEquals(ChunkVertexFormat.MAX_COMPONENT_VALUE, ChunkVertexFormat.getTileX(vertices, 2));
+		assertEquals(ChunkVertexFormat.MAX_COMPONENT_VALUE, ChunkVertexFormat.getTileY(vertices, 2));
+		assertEquals(VoxelWorld.chunkWidth, ChunkVertexFormat.getRepeatU(vertices, 2));
+		assertEquals(VoxelWorld.chunkDepth, ChunkVertexFormat.getRepeatV(vertices, 2));
+
+		// Valid vertices are never NaN, so copying them as floats keeps the bits
+		for (int i = 0; i < vertices.length; i++)
+			assertFalse(Float.isNaN(vertices[i]));
+
+		float[] copy = new float[vertices.length];
+		for (int i = 0; i < vertices.length; i++)
+			copy[i] = vertices[i];
+
+		assertEquals(ChunkVertexFormat.MAX_COMPONENT_VALUE, ChunkVertexFormat.getTileY(copy, 2));
+		assertEquals(8, ChunkVertexFormat.getRepeatV(copy, 1));
+	}
+}
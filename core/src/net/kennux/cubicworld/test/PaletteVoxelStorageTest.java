@@ -0,0 +1,129 @@
+package net.kennux.cubicworld.test;
+
+import junit.framework.TestCase;
+import net.kennux.cubicworld.inventory.BlockInventory;
+import net.kennux.cubicworld.plugins.baseplugin.BasePlugin;
+import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelEngine;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
+
+import org.junit.Test;
+
+public class PaletteVoxelStorageTest extends TestCase
+{
+	/**
+	 * Tests palette growth and index packing
+	 */
+	@Test
+	public void testPalette()
+	{
+		PaletteVoxelStorage storage = new PaletteVoxelStorage();
+
+		// Empty storages only contain air
+		assertEquals(1, storage.getPaletteSize());
+		assertEquals(0, storage.getBitsPerIndex());
+		assertNull(storage.getVoxelType(PaletteVoxelStorage.getIndex(5, 5, 5)));
+
+		// Add one block
+		storage.setVoxel(PaletteVoxelStorage.getIndex(1, 2, 3), VoxelData.construct(BasePlugin.voxelDirtId));
+		assertEquals(2, storage.getPaletteSize());
+		assertEquals(1, storage.getBitsPerIndex());
+
+		// Add some more types and rotations
+		storage.setVoxel(PaletteVoxelStorage.getIndex(0, 0, 0), VoxelData.construct(BasePlugin.voxelStoneId));
+		storage.setVoxel(PaletteVoxelStorage.getIndex(15, 15, 15), VoxelData.construct(BasePlugin.voxelBedrockId, (byte) 2));
+		storage.setVoxel(PaletteVoxelStorage.getIndex(15, 0, 15), VoxelData.construct(BasePlugin.voxelBedrockId, (byte) 3));
+		assertEquals(5, storage.getPaletteSize());
+		assertEquals(4, storage.getBitsPerIndex());
+
+		// Check contents
+		assertEquals(VoxelEngine.getVoxelType(BasePlugin.voxelDirtId), storage.getVoxelType(PaletteVoxelStorage.getIndex(1, 2, 3)));
+		assertEquals(VoxelEngine.getVoxelType(BasePlugin.voxelStoneId), storage.getVoxelType(PaletteVoxelStorage.getIndex(0, 0, 0)));
+		assertEquals(VoxelEngine.getVoxelType(BasePlugin.voxelBedrockId), storage.getVoxel(PaletteVoxelStorage.getIndex(15, 15, 15)).voxelType);
+		assertEquals(2, storage.getRotation(PaletteVoxelStorage.getIndex(15, 15, 15)));
+		assertEquals(3, storage.getRotation(PaletteVoxelStorage.getIndex(15, 0, 15)));
+		assertNull(storage.getVoxelType(PaletteVoxelStorage.getIndex(1, 3, 3)));
+
+		// Removed entries get reused
+		storage.setVoxel(PaletteVoxelStorage.getIndex(1, 2, 3), null);
+		storage.setVoxel(PaletteVoxelStorage.getIndex(1, 2, 4), VoxelData.construct(BasePlugin.voxelGlassId));
+		assertEquals(5, storage.getPaletteSize());
+		assertNull(storage.getVoxelType(PaletteVoxelStorage.getIndex(1, 2, 3)));
+		assertEquals(VoxelEngine.getVoxelType(BasePlugin.voxelGlassId), storage.getVoxelType(PaletteVoxelStorage.getIndex(1, 2, 4)));
+
+		// Index mapping
+		int index = PaletteVoxelStorage.getIndex(7, 11, 13);
+		assertEquals(7, PaletteVoxelStorage.getX(index));
+		assertEquals(11, PaletteVoxelStorage.getY(index));
+		assertEquals(13, PaletteVoxelStorage.getZ(index));
+	}
+
+	/**
+	 * Tests the side table for voxels carrying state
+	 */
+	@Test
+	public void testStatefulVoxels()
+	{
+		PaletteVoxelStorage storage = new PaletteVoxelStorage();
+		int index = PaletteVoxelStorage.getIndex(4, 4, 4);
+
+		// Furnaces have an inventory
+		VoxelData furnace = new VoxelData();
+		furnace.voxelType = VoxelEngine.getVoxelType(BasePlugin.voxelFurnaceId);
+		furnace.blockInventory = new BlockInventory(furnace.voxelType.getInventorySize());
+		storage.setVoxel(index, furnace);
+
+		// Stateful voxels must keep their identity
+		assertSame(furnace, storage.getVoxel(index));
+		assertEquals(1, storage.getStatefulVoxels().size);
+
+		// Stateless voxels are not stored in the side table
+		storage.setVoxel(index, VoxelData.construct(BasePlugin.voxelDirtId));
+		assertEquals(0, storage.getStatefulVoxels().size);
+		assertEquals(VoxelEngine.getVoxelType(BasePlugin.voxelDirtId), storage.getVoxel(index).voxelType);
+	}
+
+	/**
+	 * Tests uniform storages and their compact serialization
+	 */
+	@Test
+	public void testUniform()
+	{
+		// Empty storages
+		PaletteVoxelStorage storage = new PaletteVoxelStorage();
+		assertTrue(storage.isEmpty());
+
+		byte[] data = VoxelEngine.serializeVoxelStorage(storage);
+		assertEquals(1, data.length);
+		assertTrue(VoxelEngine.deserializeVoxelStorage(data).isEmpty());
+
+		// Uniform storages
+		storage = PaletteVoxelStorage.uniform(VoxelEngine.getVoxelType(BasePlugin.voxelStoneId), (byte) 2);
+		assertTrue(storage.isUniform());
+		assertFalse(storage.isEmpty());
+		assertEquals(0, storage.getBitsPerIndex());
+
+		data = VoxelEngine.serializeVoxelStorage(storage);
+		assertEquals(4, data.length);
+
+		PaletteVoxelStorage deserialized = VoxelEngine.deserializeVoxelStorage(data);
+		assertTrue(deserialized.isUniform());
+		assertEquals(VoxelEngine.getVoxelType(BasePlugin.voxelStoneId), deserialized.getVoxelType(PaletteVoxelStorage.getIndex(9, 3, 1)));
+		assertEquals(2, deserialized.getRotation(PaletteVoxelStorage.getIndex(9, 3, 1)));
+		assertEquals(VoxelEngine.getVoxelType(BasePlugin.voxelStoneId), VoxelEngine.deserializeVoxelData(data)[9][3][1].voxelType);
+
+		// Setting a different voxel expands the storage
+		storage.setVoxel(PaletteVoxelStorage.getIndex(9, 3, 1), null);
+		assertFalse(storage.isUniform());
+		assertEquals(1, storage.getBitsPerIndex());
+
+		data = VoxelEngine.serializeVoxelStorage(storage);
+		deserialized = VoxelEngine.deserializeVoxelStorage(data);
+		assertNull(deserialized.getVoxelType(PaletteVoxelStorage.getIndex(9, 3, 1)));
+		assertEquals(VoxelEngine.getVoxelType(BasePlugin.voxelStoneId), deserialized.getVoxelType(PaletteVoxelStorage.getIndex(9, 3, 2)));
+
+		// Becomes uniform again
+		storage.setVoxel(PaletteVoxelStorage.getIndex(9, 3, 1), VoxelData.construct(BasePlugin.voxelStoneId, (byte) 2));
+		assertTrue(storage.isUniform());
+	}
+}
@@ -32,6 +32,10 @@ public class Tests
 		tests.add(VoxelWorldTest.class.getName());
 		tests.add(InputSystemTest.class.getName());
 		tests.add(SerializerTest.class.getName());
+		tests.add(PaletteVoxelStorageTest.class.getName());
+		tests.add(ChunkTableTest.class.getName());
+		tests.add(ChunkMeshBuilderTest.class.getName());
+		tests.add(ChunkVertexFormatTest.class.getName());
 
 		if (executeNetworkTests)
 		{
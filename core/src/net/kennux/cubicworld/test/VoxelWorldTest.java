@@ -1,22 +1,33 @@
 package net.kennux.cubicworld.test;
 
-import java.lang.reflect.Field;
+import java.util.ArrayList;
 
 import junit.framework.TestCase;
+import net.kennux.cubicworld.CubicWorldConfiguration;
 import net.kennux.cubicworld.CubicWorldServer;
+import net.kennux.cubicworld.inventory.BlockInventory;
 import net.kennux.cubicworld.plugins.baseplugin.BasePlugin;
+import net.kennux.cubicworld.voxel.ChunkKey;
+import net.kennux.cubicworld.voxel.ChunkManager;
+import net.kennux.cubicworld.voxel.ChunkRemeshScheduler;
+import net.kennux.cubicworld.voxel.ChunkState;
+import net.kennux.cubicworld.voxel.ChunkStateTimings;
 import net.kennux.cubicworld.voxel.RaycastHit;
 import net.kennux.cubicworld.voxel.VoxelChunk;
+import net.kennux.cubicworld.voxel.VoxelChunkSnapshot;
 import net.kennux.cubicworld.voxel.VoxelData;
 import net.kennux.cubicworld.voxel.VoxelEngine;
 import net.kennux.cubicworld.voxel.VoxelType;
 import net.kennux.cubicworld.voxel.VoxelWorld;
 import net.kennux.cubicworld.voxel.VoxelWorldSave;
 import net.kennux.cubicworld.voxel.generator.AWorldGenerator;
+import net.kennux.cubicworld.voxel.handlers.IChunkStateListener;
 import net.kennux.cubicworld.voxel.handlers.ITileEntityHandlerFactory;
 import net.kennux.cubicworld.voxel.handlers.IVoxelDataUpdateHandler;
 import net.kennux.cubicworld.voxel.handlers.IVoxelTileEntityHandler;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
 
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.junit.FixMethodOrder;
@@ -24,6 +35,7 @@ import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class VoxelWorldTest extends TestCase
@@ -105,6 +117,67 @@ public class VoxelWorldTest extends TestCase
 			}
 	}
 
+	/**
+	 * Tests packing chunk keys into longs and the integer coordinate path
+	 */
+	@Test
+	public void testChunkKeyPacking()
+	{
+		int[][] positions = new int[][] { { 0, 0, 0 }, { -1, 7, 1 }, { 1000000, -3, -1000000 }, { -33554432, 2047, 33554431 }, { 33554431, -2048, -33554432 } };
+
+		for (int[] position : positions)
+		{
+			long key = ChunkKey.pack(position[0], position[1], position[2]);
+			assertEquals(position[0], ChunkKey.unpackX(key));
+			assertEquals(position[1], ChunkKey.unpackY(key));
+			assertEquals(position[2], ChunkKey.unpackZ(key));
+			assertEquals(key, new ChunkKey(position[0], position[1], position[2]).toLong());
+		}
+
+		// Symmetric keys must not collide
+		assertFalse(new ChunkKey(1, 0, 2).hashCode() == new ChunkKey(2, 0, 1).hashCode());
+
+		// Shifts floor negative coordinates
+		assertEquals(-1, -1 >> VoxelWorld.chunkWidthShift);
+		assertEquals(15, -1 & VoxelWorld.chunkWidthMask);
+		assertEquals(-2, -17 >> VoxelWorld.chunkWidthShift);
+	}
+
+	/**
+	 * Tests the neighbor links maintained by the chunk manager
+	 */
+	@Test
+	public void testChunkNeighbors()
+	{
+		ChunkManager chunkManager = new ChunkManager();
+		VoxelChunk center = new VoxelChunk(0, 0, 0, null);
+		VoxelChunk right = new VoxelChunk(1, 0, 0, null);
+		VoxelChunk top = new VoxelChunk(0, 1, 0, null);
+
+		chunkManager.put(new ChunkKey(0, 0, 0), center);
+		chunkManager.put(new ChunkKey(1, 0, 0), right);
+		chunkManager.put(new ChunkKey(0, 1, 0), top);
+
+		// Links in both directions
+		assertSame(right, center.getNeighbor(VoxelChunk.NEIGHBOR_RIGHT));
+		assertSame(center, right.getNeighbor(VoxelChunk.NEIGHBOR_LEFT));
+		assertSame(top, center.getNeighbor(VoxelChunk.NEIGHBOR_TOP));
+		assertSame(center, top.getNeighbor(VoxelChunk.NEIGHBOR_BOTTOM));
+		assertNull(center.getNeighbor(VoxelChunk.NEIGHBOR_LEFT));
+
+		// Relative positions
+		assertSame(center, center.getRelativeChunk(15, 15, 15));
+		assertSame(right, center.getRelativeChunk(16, 3, 0));
+		assertSame(top, center.getRelativeChunk(0, 16, 0));
+		assertEquals(0, VoxelChunk.toLocalX(16));
+		assertEquals(15, VoxelChunk.toLocalZ(-1));
+
+		// Removing unlinks
+		chunkManager.remove(new ChunkKey(1, 0, 0));
+		assertNull(center.getNeighbor(VoxelChunk.NEIGHBOR_RIGHT));
+		assertNull(right.getNeighbor(VoxelChunk.NEIGHBOR_LEFT));
+	}
+
 	/**
 	 * Tests getting and setting voxels
 	 */
@@ -146,6 +219,20 @@ public class VoxelWorldTest extends TestCase
 		// Test removing voxel
 		voxelWorld.setVoxel(0, 4, 0, null);
 		assertNull(voxelWorld.getVoxel(0, 4, 0).voxelType);
+
+		// Voxels carrying state are copies sharing their inventory with the snapshot
+		VoxelData furnace = new VoxelData();
+		furnace.voxelType = VoxelEngine.getVoxelType(BasePlugin.voxelFurnaceId);
+		furnace.blockInventory = new BlockInventory(furnace.voxelType.getInventorySize());
+		voxelWorld.setVoxel(1, 4, 0, furnace);
+		voxelData = voxelWorld.getVoxel(1, 4, 0);
+		VoxelData storedVoxel = voxelWorld.getChunk(0, 0, 0, false).getSnapshot().getVoxel(1, 4, 0);
+		assertNotSame(storedVoxel, voxelData);
+		assertSame(storedVoxel.blockInventory, voxelData.blockInventory);
+
+		// Reading the light levels doesn't write to the shared voxel
+		assertTrue(voxelData.getSunLightLevel() >= 0);
+		assertEquals(-1, storedVoxel.getSunLightLevel());
 	}
 
 	/**
@@ -228,7 +315,7 @@ public class VoxelWorldTest extends TestCase
 	 * @throws IllegalArgumentException
 	 */
 	@Test
-	public void testVoxelSave() throws NoSuchFieldException, SecurityException, IllegalArgumentException, IllegalAccessException
+	public void testVoxelSave()
 	{
 		// Create server mock object
 		CubicWorldServer serverInstance = EasyMock.createMock(CubicWorldServer.class);
@@ -251,15 +338,15 @@ public class VoxelWorldTest extends TestCase
 			}
 		}).times(2);
 
-		// Returns a voxel data array with one dirt voxel at 0|0|0
-		EasyMock.expect(saveMock.readChunk(0, 0, 0)).andAnswer(new IAnswer<VoxelData[][][]>()
+		// Returns a voxel storage with one dirt voxel at 0|0|0
+		EasyMock.expect(saveMock.readChunk(0, 0, 0)).andAnswer(new IAnswer<PaletteVoxelStorage>()
 		{
 			@Override
-			public VoxelData[][][] answer() throws Throwable
+			public PaletteVoxelStorage answer() throws Throwable
 			{
-				VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
-				voxelData[0][0][0] = VoxelData.construct(BasePlugin.voxelDirtId);
-				return voxelData;
+				PaletteVoxelStorage voxelStorage = new PaletteVoxelStorage();
+				voxelStorage.setVoxel(PaletteVoxelStorage.getIndex(0, 0, 0), VoxelData.construct(BasePlugin.voxelDirtId));
+				return voxelStorage;
 			}
 		});
 
@@ -280,13 +367,11 @@ public class VoxelWorldTest extends TestCase
 		// Trigger save
 		voxelWorld.setVoxel(0, 0, 0, voxelWorld.getVoxel(0, 0, 0));
 
-		// Use java reflection to get the private voxel data
-		Field voxelDataField = VoxelChunk.class.getDeclaredField("voxelData");
-		voxelDataField.setAccessible(true);
-		VoxelData[][][] expectedData = (VoxelData[][][]) voxelDataField.get(voxelWorld.getChunk(0, 0, 0, false));
+		// The chunk writes an immutable snapshot of it's voxel data, so capture it
+		Capture<VoxelChunkSnapshot> writtenData = new Capture<VoxelChunkSnapshot>();
 
 		// Record expected behaviour
-		saveMock.writeChunk(0, 0, 0, expectedData);
+		saveMock.writeChunk(EasyMock.eq(0), EasyMock.eq(0), EasyMock.eq(0), EasyMock.capture(writtenData));
 		EasyMock.replay(saveMock);
 
 		// Execute save
@@ -294,6 +379,708 @@ public class VoxelWorldTest extends TestCase
 
 		// Verify save mock object calls
 		EasyMock.verify(saveMock);
+
+		// Verify written data
+		assertEquals(writtenData.getValue().getVoxelType(0, 0, 0), VoxelEngine.getVoxelType(BasePlugin.voxelDirtId));
+		assertNull(writtenData.getValue().getVoxelType(0, 1, 0));
+		assertEquals(writtenData.getValue().getVersion(), voxelWorld.getChunk(0, 0, 0, false).getSnapshot().getVersion());
+
+		// Unchanged chunks must not get saved again
+		EasyMock.reset(saveMock);
+		EasyMock.replay(saveMock);
+		voxelWorld.update();
+		EasyMock.verify(saveMock);
+	}
+
+	/**
+	 * Tests the memory budgeted chunk eviction.
+	 * Modified chunks must get saved before they are evicted, chunks next to the player and in held columns must stay loaded.
+	 */
+	@Test
+	public void testChunkEviction()
+	{
+		// Create server mock object
+		CubicWorldServer serverInstance = EasyMock.createMock(CubicWorldServer.class);
+		VoxelWorldSave saveMock = EasyMock.createMock(VoxelWorldSave.class);
+
+		VoxelWorld voxelWorld = new VoxelWorld(serverInstance);
+		voxelWorld.setWorldFile(saveMock);
+
+		// Build a row of modified chunks
+		int pinnedRadius = CubicWorldConfiguration.chunkEvictionPinnedRadius;
+		int rowLength = pinnedRadius + 6;
+		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+		voxelData[0][0][0] = VoxelData.construct(BasePlugin.voxelDirtId);
+
+		for (int x = 0; x < rowLength; x++)
+			voxelWorld.getChunk(x, 0, 0, true).setVoxelData(voxelData);
+
+		// Player is in chunk 0|0|0, the radius cleanup won't remove anything
+		Vector3[] playerPositions = new Vector3[] { new Vector3(8, 8, 8) };
+
+		// Another player holds the columns around the end of the row
+		int heldFrom = rowLength - 1 - CubicWorldConfiguration.chunkLoadDistance;
+		voxelWorld.updatePlayerRetention(1, new Vector3((rowLength - 1) * VoxelWorld.chunkWidth + 8, 8, 8));
+		long memoryBudget = CubicWorldConfiguration.chunkMemoryBudget;
+
+		try
+		{
+			// No limit, nothing gets evicted
+			EasyMock.replay(saveMock);
+			CubicWorldConfiguration.chunkMemoryBudget = -1;
+			voxelWorld.cleanup(playerPositions, 10);
+
+			for (int x = 0; x < rowLength; x++)
+				assertTrue(voxelWorld.hasChunk(x, 0, 0));
+
+			EasyMock.verify(saveMock);
+
+			// Evict everything outside of the pinned radius and the held columns, the evicted chunks must get saved
+			EasyMock.reset(saveMock);
+
+			for (int x = pinnedRadius + 1; x < heldFrom; x++)
+				saveMock.writeChunk(EasyMock.eq(x), EasyMock.eq(0), EasyMock.eq(0), EasyMock.anyObject(VoxelChunkSnapshot.class));
+
+			EasyMock.replay(saveMock);
+			CubicWorldConfiguration.chunkMemoryBudget = 0;
+			voxelWorld.cleanup(playerPositions, 10);
+			EasyMock.verify(saveMock);
+
+			for (int x = 0; x < rowLength; x++)
+				assertEquals(x <= pinnedRadius || x >= heldFrom, voxelWorld.hasChunk(x, 0, 0));
+		}
+		finally
+		{
+			CubicWorldConfiguration.chunkMemoryBudget = memoryBudget;
+		}
+	}
+
+	/**
+	 * Tests the chunk retention with multiple players.
+	 * Chunks must stay loaded as long as any player holds them and must only get unloaded after leaving the unload distance.
+	 */
+	@Test
+	public void testChunkRetention()
+	{
+		// Create server mock object
+		CubicWorldServer serverInstance = EasyMock.createMock(CubicWorldServer.class);
+		VoxelWorld voxelWorld = new VoxelWorld(serverInstance);
+		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+
+		int loadDistance = CubicWorldConfiguration.chunkLoadDistance;
+		int unloadDistance = CubicWorldConfiguration.chunkUnloadDistance;
+
+		// Two players far away from each other, one in column 0|0, one in column 100|0
+		Vector3 firstPlayer = new Vector3(8, 8, 8);
+		Vector3 secondPlayer = new Vector3(100 * VoxelWorld.chunkWidth + 8, 8, 8);
+		voxelWorld.updatePlayerRetention(0, firstPlayer);
+		voxelWorld.updatePlayerRetention(1, secondPlayer);
+
+		voxelWorld.getChunk(0, 0, 0, true).setVoxelData(voxelData);
+		voxelWorld.getChunk(100, 0, 0, true).setVoxelData(voxelData);
+		voxelWorld.getChunk(50, 0, 0, true).setVoxelData(voxelData);
+
+		// The full scan must only return chunks outside of all players
+		voxelWorld.cleanup(new Vector3[] { firstPlayer, secondPlayer }, loadDistance);
+		assertTrue(voxelWorld.hasChunk(0, 0, 0));
+		assertTrue(voxelWorld.hasChunk(100, 0, 0));
+		assertFalse(voxelWorld.hasChunk(50, 0, 0));
+
+		// Chunk loaded outside of all held columns gets unloaded by the incremental cleanup
+		voxelWorld.getChunk(50, 0, 0, true).setVoxelData(voxelData);
+		voxelWorld.cleanup(new Vector3[] { firstPlayer, secondPlayer });
+		assertTrue(voxelWorld.hasChunk(0, 0, 0));
+		assertTrue(voxelWorld.hasChunk(100, 0, 0));
+		assertFalse(voxelWorld.hasChunk(50, 0, 0));
+
+		// Move the first player to the unload distance, the chunk stays loaded
+		voxelWorld.getChunk(loadDistance, 0, 0, true).setVoxelData(voxelData);
+		firstPlayer = new Vector3(unloadDistance * VoxelWorld.chunkWidth + 8, 8, 8);
+		voxelWorld.updatePlayerRetention(0, firstPlayer);
+		voxelWorld.cleanup(new Vector3[] { firstPlayer, secondPlayer });
+		assertTrue(voxelWorld.hasChunk(0, 0, 0));
+
+		// One column further it gets unloaded, the chunk in the new load distance stays
+		firstPlayer = new Vector3((unloadDistance + 1) * VoxelWorld.chunkWidth + 8, 8, 8);
+		voxelWorld.updatePlayerRetention(0, firstPlayer);
+		voxelWorld.cleanup(new Vector3[] { firstPlayer, secondPlayer });
+		assertFalse(voxelWorld.hasChunk(0, 0, 0));
+		assertTrue(voxelWorld.hasChunk(loadDistance, 0, 0));
+
+		// Disconnecting the second player releases its chunks
+		voxelWorld.removePlayerRetention(1);
+		voxelWorld.cleanup(new Vector3[] { firstPlayer });
+		assertFalse(voxelWorld.hasChunk(100, 0, 0));
+		assertTrue(voxelWorld.hasChunk(loadDistance, 0, 0));
+	}
+
+	/**
+	 * Tests the parallel chunk update.
+	 * It must produce the same lighting as the serial update.
+	 * Disposed worlds must keep on updating without their pool.
+	 */
+	@Test
+	public void testParallelChunkUpdate()
+	{
+		CubicWorldServer serverInstance = EasyMock.createMock(CubicWorldServer.class);
+		VoxelWorld serialWorld = new VoxelWorld(serverInstance);
+		VoxelWorld parallelWorld = new VoxelWorld(serverInstance);
+
+		// Half filled chunks, the upper chunks are empty
+		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int y = 0; y < VoxelWorld.chunkHeight / 2; y++)
+				for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+					voxelData[x][y][z] = VoxelData.construct(BasePlugin.voxelStoneId);
+
+		int chunksOnYAxis = serialWorld.chunksOnYAxis() + 1;
+
+		for (int x = -3; x < 3; x++)
+			for (int y = 0; y < chunksOnYAxis; y++)
+				for (int z = -3; z < 3; z++)
+				{
+					serialWorld.getChunk(x, y, z, true).setVoxelData(y == 0 ? voxelData : new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth]);
+					parallelWorld.getChunk(x, y, z, true).setVoxelData(y == 0 ? voxelData : new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth]);
+				}
+
+		boolean parallelChunkUpdate = CubicWorldConfiguration.parallelChunkUpdate;
+
+		try
+		{
+			// Update until the lighting is done
+			for (int i = 0; i < chunksOnYAxis * 2 + 2; i++)
+			{
+				CubicWorldConfiguration.parallelChunkUpdate = false;
+				serialWorld.update();
+				CubicWorldConfiguration.parallelChunkUpdate = true;
+				parallelWorld.update();
+			}
+		}
+		finally
+		{
+			CubicWorldConfiguration.parallelChunkUpdate = parallelChunkUpdate;
+		}
+
+		for (int x = -3; x < 3; x++)
+			for (int y = 0; y < chunksOnYAxis; y++)
+				for (int z = -3; z < 3; z++)
+				{
+					VoxelChunk serialChunk = serialWorld.getChunk(x, y, z, false);
+					VoxelChunk parallelChunk = parallelWorld.getChunk(x, y, z, false);
+
+					assertTrue(parallelChunk.isInitializedAndLightingReady());
+					assertEquals(serialChunk.isInitializedAndLightingReady(), parallelChunk.isInitializedAndLightingReady());
+
+					for (int i = 0; i < PaletteVoxelStorage.VOXEL_COUNT; i++)
+						assertEquals(serialChunk.getSunLight().get(i), parallelChunk.getSunLight().get(i));
+				}
+
+		// Disposed worlds shut down their pool and update on the calling thread
+		parallelWorld.dispose();
+		parallelWorld.getChunk(0, 0, 0, false).regenerateLighting();
+		CubicWorldConfiguration.parallelChunkUpdate = true;
+
+		try
+		{
+			parallelWorld.update();
+		}
+		finally
+		{
+			CubicWorldConfiguration.parallelChunkUpdate = parallelChunkUpdate;
+		}
+
+		assertTrue(parallelWorld.getChunk(0, 0, 0, false).isInitializedAndLightingReady());
+	}
+
+	/**
+	 * Tests the active chunk set.
+	 * Chunks must leave it after their lighting is done and enter it again if they get modified.
+	 */
+	@Test
+	public void testActiveChunks()
+	{
+		CubicWorldServer serverInstance = EasyMock.createMock(CubicWorldServer.class);
+		VoxelWorld voxelWorld = new VoxelWorld(serverInstance);
+		int chunksOnYAxis = voxelWorld.chunksOnYAxis() + 1;
+
+		for (int y = 0; y < chunksOnYAxis; y++)
+			voxelWorld.getChunk(0, y, 0, true).setVoxelData(new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth]);
+
+		// All chunks need lighting, they leave the active set after it is done
+		for (int i = 0; i < chunksOnYAxis * 2 && (i == 0 || voxelWorld.getActiveChunkCount() > 0); i++)
+			voxelWorld.update();
+
+		assertEquals(0, voxelWorld.getActiveChunkCount());
+
+		for (int y = 0; y < chunksOnYAxis; y++)
+			assertTrue(voxelWorld.getChunk(0, y, 0, false).isInitializedAndLightingReady());
+
+		// Modifying a voxel updates the light incrementally, a relight activates the chunk again
+		voxelWorld.setVoxel(0, 0, 0, VoxelData.construct(BasePlugin.voxelDirtId));
+		assertTrue(voxelWorld.getChunk(0, 0, 0, false).isInitializedAndLightingReady());
+		voxelWorld.getChunk(0, 0, 0, false).regenerateLighting();
+		assertFalse(voxelWorld.getChunk(0, 0, 0, false).isInitializedAndLightingReady());
+
+		voxelWorld.update();
+
+		for (int i = 0; i < chunksOnYAxis * 2 && voxelWorld.getActiveChunkCount() > 0; i++)
+			voxelWorld.update();
+
+		assertEquals(0, voxelWorld.getActiveChunkCount());
+		assertTrue(voxelWorld.getChunk(0, 0, 0, false).isInitializedAndLightingReady());
+	}
+
+	/**
+	 * Tests the chunk lifecycle states and the state listeners on the server.
+	 */
+	@Test
+	public void testChunkStates()
+	{
+		CubicWorldServer serverInstance = EasyMock.createMock(CubicWorldServer.class);
+		VoxelWorld voxelWorld = new VoxelWorld(serverInstance);
+		int chunksOnYAxis = voxelWorld.chunksOnYAxis() + 1;
+
+		final ArrayList<ChunkState> states = new ArrayList<ChunkState>();
+		voxelWorld.addChunkStateListener(new IChunkStateListener()
+		{
+			@Override
+			public void handleChunkStateChange(VoxelChunk chunk, ChunkState oldState, ChunkState newState, long nanosInOldState)
+			{
+				if (chunk.getChunkX() == 0 && chunk.getChunkY() == 0 && chunk.getChunkZ() == 0)
+					states.add(newState);
+
+				assertTrue(nanosInOldState >= 0);
+			}
+		});
+
+		VoxelChunk chunk = voxelWorld.getChunk(0, 0, 0, true);
+		assertEquals(ChunkState.REQUESTED, chunk.getState());
+		assertFalse(chunk.isInitialized());
+
+		// A chunk only gets queued for generation once
+		assertTrue(chunk.beginGeneration());
+		assertFalse(chunk.beginGeneration());
+
+		for (int y = 0; y < chunksOnYAxis; y++)
+			voxelWorld.getChunk(0, y, 0, true).setVoxelData(new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth]);
+
+		assertEquals(ChunkState.GENERATED, chunk.getState());
+		assertTrue(chunk.isInitialized());
+		assertFalse(chunk.isInitializedAndLightingReady());
+
+		// Already generated chunks don't get generated again
+		voxelWorld.generateChunk(0, 0, 0, true);
+		assertEquals(ChunkState.GENERATED, chunk.getState());
+
+		for (int i = 0; i < chunksOnYAxis * 2; i++)
+			voxelWorld.update();
+
+		assertEquals(ChunkState.LIT, chunk.getState());
+
+		// Single voxel edits update the light of lit chunks incrementally
+		voxelWorld.setVoxel(0, 0, 0, VoxelData.construct(BasePlugin.voxelDirtId));
+		assertEquals(ChunkState.LIT, chunk.getState());
+
+		// Relights go through DIRTY_LIGHTING, the server doesn't build meshes
+		chunk.regenerateLighting();
+		assertEquals(ChunkState.DIRTY_LIGHTING, chunk.getState());
+		chunk.regenerateMesh();
+		assertEquals(ChunkState.DIRTY_LIGHTING, chunk.getState());
+
+		for (int i = 0; i < chunksOnYAxis * 2; i++)
+			voxelWorld.update();
+
+		assertEquals(ChunkState.LIT, chunk.getState());
+
+		assertEquals(5, states.size());
+		assertEquals(ChunkState.GENERATING, states.get(0));
+		assertEquals(ChunkState.GENERATED, states.get(1));
+		assertEquals(ChunkState.LIT, states.get(2));
+		assertEquals(ChunkState.DIRTY_LIGHTING, states.get(3));
+		assertEquals(ChunkState.LIT, states.get(4));
+
+		// The timings count every left state
+		ChunkStateTimings timings = voxelWorld.getChunkStateTimings();
+		assertEquals(chunksOnYAxis, timings.getTransitionCount(ChunkState.REQUESTED));
+		assertEquals(1, timings.getTransitionCount(ChunkState.GENERATING));
+		assertEquals(chunksOnYAxis, timings.getTransitionCount(ChunkState.GENERATED));
+		assertEquals(1, timings.getTransitionCount(ChunkState.DIRTY_LIGHTING));
+	}
+
+	/**
+	 * Tests that the remesh scheduler waits for the lighting of deferred chunks, only regenerates stale neighbors and merges the requests per chunk.
+	 */
+	@Test
+	public void testRemeshScheduler()
+	{
+		VoxelWorld voxelWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+		ChunkRemeshScheduler scheduler = voxelWorld.getRemeshScheduler();
+		int chunksOnYAxis = voxelWorld.chunksOnYAxis() + 1;
+		int topY = chunksOnYAxis - 1;
+
+		// Two columns without their top chunk, the lighting waits for it
+		for (int x = 0; x < 2; x++)
+			for (int y = 0; y < topY; y++)
+				voxelWorld.getChunk(x, y, 0, true).setVoxelData(new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth]);
+
+		for (int i = 0; i < chunksOnYAxis * 2; i++)
+			voxelWorld.update();
+
+		// Chunks without voxel data stay deferred
+		VoxelChunk topChunk = voxelWorld.getChunk(0, topY, 0, true);
+		scheduler.deferUntilLit(topChunk);
+		scheduler.deferUntilLit(topChunk);
+		assertEquals(1, scheduler.getDeferredCount());
+		scheduler.flush();
+		assertEquals(1, scheduler.getDeferredCount());
+		assertEquals(0, scheduler.getRequestedCount());
+
+		topChunk.setVoxelData(new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth]);
+
+		for (int i = 0; i < chunksOnYAxis * 2; i++)
+			voxelWorld.update();
+
+		// Only the chunk below got lit without the top chunk, the adjacent column doesn't touch the new chunk
+		scheduler.flush();
+		assertEquals(0, scheduler.getDeferredCount());
+		assertEquals(1, scheduler.getRequestedCount());
+		assertEquals(1, scheduler.getExecutedCount());
+		assertFalse(voxelWorld.getChunk(0, topY - 1, 0, false).getState().isLit());
+		assertEquals(ChunkState.LIT, topChunk.getState());
+
+		// Requests of one update get merged
+		scheduler.requestRemesh(topChunk, false, 1);
+		scheduler.requestRemesh(topChunk, true, 2);
+		scheduler.flush();
+		assertEquals(3, scheduler.getRequestedCount());
+		assertEquals(2, scheduler.getExecutedCount());
+		assertEquals(ChunkState.DIRTY_LIGHTING, topChunk.getState());
+	}
+
+	/**
+	 * Sets the voxel data of a chunk column for testFloodFillLighting().
+	 * The ground is bedrock, above it there is a dirt roof at y = 10.
+	 * The roof of the column at chunk x = 0 only covers x and z from 4 to 10, at all other columns it covers the whole chunk.
+	 * 
+	 * @param voxelWorld
+	 * @param chunkX
+	 */
+	private void setFloodFillTestColumn(VoxelWorld voxelWorld, int chunkX)
+	{
+		int chunksOnYAxis = voxelWorld.chunksOnYAxis() + 1;
+
+		for (int y = 0; y < chunksOnYAxis; y++)
+		{
+			VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+
+			if (y == 0)
+			{
+				for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+				{
+					for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+					{
+						for (int groundY = 0; groundY < 3; groundY++)
+							voxelData[x][groundY][z] = VoxelData.construct(BasePlugin.voxelBedrockId);
+
+						if (chunkX != 0 || (x >= 4 && x <= 10 && z >= 4 && z <= 10))
+							voxelData[x][10][z] = VoxelData.construct(BasePlugin.voxelDirtId);
+					}
+				}
+			}
+
+			voxelWorld.getChunk(chunkX, y, 0, true).setVoxelData(voxelData);
+		}
+	}
+
+	/**
+	 * Tests the flood fill lighting.
+	 * Light must reach voxels under a roof and cross chunk borders, no matter in which order the chunks get lit.
+	 */
+	@Test
+	public void testFloodFillLighting()
+	{
+		boolean floodFillLighting = CubicWorldConfiguration.floodFillLighting;
+		CubicWorldConfiguration.floodFillLighting = true;
+
+		try
+		{
+			VoxelWorld voxelWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+			VoxelWorld streamedWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+			voxelWorld.setSunLightLevel((byte) 15);
+			streamedWorld.setSunLightLevel((byte) 15);
+			int chunksOnYAxis = voxelWorld.chunksOnYAxis() + 1;
+
+			// Both columns at once
+			this.setFloodFillTestColumn(voxelWorld, 0);
+			this.setFloodFillTestColumn(voxelWorld, 1);
+
+			for (int i = 0; i < chunksOnYAxis * 4; i++)
+				voxelWorld.update();
+
+			assertEquals(0, voxelWorld.getActiveChunkCount());
+
+			// The covered column gets lit first, without a lit neighbor it stays dark under the roof
+			this.setFloodFillTestColumn(streamedWorld, 1);
+
+			for (int i = 0; i < chunksOnYAxis * 4; i++)
+				streamedWorld.update();
+
+			assertEquals(0, streamedWorld.getChunk(1, 0, 0, false).getSunLightLevel(2, 5, 7));
+
+			// The light of the new column gets propagated into the lit one
+			this.setFloodFillTestColumn(streamedWorld, 0);
+
+			for (int i = 0; i < chunksOnYAxis * 4; i++)
+				streamedWorld.update();
+
+			assertEquals(0, streamedWorld.getActiveChunkCount());
+
+			for (int x = 0; x < 2; x++)
+			{
+				for (int y = 0; y < chunksOnYAxis; y++)
+				{
+					VoxelChunk chunk = voxelWorld.getChunk(x, y, 0, false);
+					VoxelChunk streamedChunk = streamedWorld.getChunk(x, y, 0, false);
+					assertTrue(chunk.isInitializedAndLightingReady());
+
+					for (int i = 0; i < PaletteVoxelStorage.VOXEL_COUNT; i++)
+					{
+						assertEquals(chunk.getSunLight().get(i), streamedChunk.getSunLight().get(i));
+						assertEquals(chunk.getBlockLight().get(i), streamedChunk.getBlockLight().get(i));
+					}
+				}
+			}
+
+			VoxelChunk chunk = voxelWorld.getChunk(0, 0, 0, false);
+			assertEquals(15, chunk.getSunLightLevel(0, 5, 0));
+			assertEquals(0, chunk.getSunLightLevel(0, 1, 0));
+
+			// The nearest uncovered voxel is 4 voxels away
+			assertEquals(11, chunk.getSunLightLevel(7, 5, 7));
+
+			// Light from the adjacent column, 3 voxels behind the chunk border
+			assertEquals(12, voxelWorld.getChunk(1, 0, 0, false).getSunLightLevel(2, 5, 7));
+
+			// The day and night cycle only scales the sky light, nothing gets relit
+			voxelWorld.setSunLightLevel((byte) 5);
+
+			assertTrue(chunk.isInitializedAndLightingReady());
+			assertEquals(15, chunk.getSunLightLevel(0, 5, 0));
+			assertEquals(5, voxelWorld.getLightLevel(0, 5, 0));
+			assertEquals(3, voxelWorld.getLightLevel(7, 5, 7));
+		}
+		finally
+		{
+			CubicWorldConfiguration.floodFillLighting = floodFillLighting;
+		}
+	}
+
+	/**
+	 * Tests the column lighting scheduler.
+	 * Whole columns must get lit in one world update, the parallel lighting must produce the same light as the serial one.
+	 */
+	@Test
+	public void testColumnLighting()
+	{
+		boolean floodFillLighting = CubicWorldConfiguration.floodFillLighting;
+		boolean parallelLighting = CubicWorldConfiguration.parallelLighting;
+		CubicWorldConfiguration.floodFillLighting = true;
+
+		try
+		{
+			VoxelWorld serialWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+			VoxelWorld parallelWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+			int chunksOnYAxis = serialWorld.chunksOnYAxis() + 1;
+
+			for (int x = -1; x < 3; x++)
+			{
+				this.setFloodFillTestColumn(serialWorld, x);
+				this.setFloodFillTestColumn(parallelWorld, x);
+			}
+
+			for (int i = 0; i < chunksOnYAxis * 2; i++)
+			{
+				CubicWorldConfiguration.parallelLighting = false;
+				serialWorld.update();
+				CubicWorldConfiguration.parallelLighting = true;
+				parallelWorld.update();
+
+				// The scheduler lights all columns top to bottom in the first update
+				if (i == 0)
+				{
+					for (int x = -1; x < 3; x++)
+						for (int y = 0; y < chunksOnYAxis; y++)
+							assertTrue(parallelWorld.getChunk(x, y, 0, false).isInitializedAndLightingReady());
+				}
+			}
+
+			assertEquals(0, parallelWorld.getActiveChunkCount());
+			assertEquals(4, parallelWorld.getLightingScheduler().getScheduledColumnCount());
+			assertEquals(4 * chunksOnYAxis, parallelWorld.getLightingScheduler().getLitChunkCount());
+
+			for (int x = -1; x < 3; x++)
+			{
+				for (int y = 0; y < chunksOnYAxis; y++)
+				{
+					VoxelChunk serialChunk = serialWorld.getChunk(x, y, 0, false);
+					VoxelChunk parallelChunk = parallelWorld.getChunk(x, y, 0, false);
+
+					for (int i = 0; i < PaletteVoxelStorage.VOXEL_COUNT; i++)
+					{
+						assertEquals(serialChunk.getSunLight().get(i), parallelChunk.getSunLight().get(i));
+						assertEquals(serialChunk.getBlockLight().get(i), parallelChunk.getBlockLight().get(i));
+					}
+				}
+			}
+
+			// The border light of the open column reaches both covered neighbor columns
+			assertEquals(11, parallelWorld.getChunk(0, 0, 0, false).getSunLightLevel(7, 5, 7));
+			assertEquals(12, parallelWorld.getChunk(1, 0, 0, false).getSunLightLevel(2, 5, 7));
+			assertEquals(12, parallelWorld.getChunk(-1, 0, 0, false).getSunLightLevel(13, 5, 7));
+		}
+		finally
+		{
+			CubicWorldConfiguration.floodFillLighting = floodFillLighting;
+			CubicWorldConfiguration.parallelLighting = parallelLighting;
+		}
+	}
+
+	/**
+	 * Tests the height maps of the chunks and the height queries of the voxel world.
+	 * The heights must follow voxel edits without scanning the chunks.
+	 */
+	@Test
+	public void testHeightMap()
+	{
+		VoxelWorld voxelWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+		this.setFloodFillTestColumn(voxelWorld, 0);
+
+		// Bedrock ground and the roof
+		assertEquals(2, voxelWorld.getHeight(0, 0));
+		assertEquals(10, voxelWorld.getHeight(5, 5));
+		assertEquals(VoxelWorld.HEIGHT_UNKNOWN, voxelWorld.getHeight(VoxelWorld.chunkWidth, 0));
+
+		// Voxels in the upper chunks
+		int topY = voxelWorld.worldHeight - 1;
+		voxelWorld.setVoxel(0, topY, 0, VoxelData.construct(BasePlugin.voxelDirtId));
+		voxelWorld.setVoxel(0, 40, 0, VoxelData.construct(BasePlugin.voxelDirtId));
+		assertEquals(topY, voxelWorld.getHeight(0, 0));
+		assertEquals(topY % VoxelWorld.chunkHeight, voxelWorld.getChunkAt(0, topY, 0).getHeightMap().get(0, 0));
+
+		voxelWorld.setVoxel(0, topY, 0, null);
+		assertEquals(40, voxelWorld.getHeight(0, 0));
+
+		voxelWorld.setVoxel(0, 40, 0, null);
+		assertEquals(2, voxelWorld.getHeight(0, 0));
+
+		// Removing the roof falls back to the ground, removing a voxel below it doesn't change the height
+		voxelWorld.setVoxel(5, 1, 5, null);
+		assertEquals(10, voxelWorld.getHeight(5, 5));
+		voxelWorld.setVoxel(5, 10, 5, null);
+		assertEquals(2, voxelWorld.getHeight(5, 5));
+		voxelWorld.setVoxel(5, 2, 5, null);
+		assertEquals(0, voxelWorld.getHeight(5, 5));
+
+		// Spawn positions and grounding
+		Vector3 spawnPosition = voxelWorld.findSpawnPosition(6, 6);
+		assertEquals(new Vector3(6.5f, 11, 6.5f), spawnPosition);
+		assertNull(voxelWorld.findSpawnPosition(VoxelWorld.chunkWidth, 0));
+
+		assertTrue(voxelWorld.isAboveTerrain(new BoundingBox(new Vector3(6.1f, 11, 6.1f), new Vector3(6.9f, 12.8f, 6.9f))));
+		assertFalse(voxelWorld.isAboveTerrain(new BoundingBox(new Vector3(6.1f, 10.85f, 6.1f), new Vector3(6.9f, 12.65f, 6.9f))));
+		assertFalse(voxelWorld.isAboveTerrain(new BoundingBox(new Vector3(15.1f, 20, 6.1f), new Vector3(16.9f, 21.8f, 6.9f))));
+	}
+
+	/**
+	 * Asserts that the two columns of the given world have the same light as a world relit from scratch with the same voxels.
+	 * 
+	 * @param voxelWorld
+	 */
+	private void assertLightingEqualsRelight(VoxelWorld voxelWorld)
+	{
+		int chunksOnYAxis = voxelWorld.chunksOnYAxis() + 1;
+		VoxelWorld relitWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+		relitWorld.setSunLightLevel(voxelWorld.getSunLightLevel());
+
+		for (int x = 0; x < 2; x++)
+			for (int y = 0; y < chunksOnYAxis; y++)
+				relitWorld.getChunk(x, y, 0, true).setVoxelData(voxelWorld.getChunk(x, y, 0, false).getVoxelData());
+
+		for (int i = 0; i < chunksOnYAxis * 4; i++)
+			relitWorld.update();
+
+		for (int x = 0; x < 2; x++)
+		{
+			for (int y = 0; y < chunksOnYAxis; y++)
+			{
+				VoxelChunk chunk = voxelWorld.getChunk(x, y, 0, false);
+				VoxelChunk relitChunk = relitWorld.getChunk(x, y, 0, false);
+
+				for (int i = 0; i < PaletteVoxelStorage.VOXEL_COUNT; i++)
+				{
+					assertEquals(relitChunk.getSunLight().get(i), chunk.getSunLight().get(i));
+					assertEquals(relitChunk.getBlockLight().get(i), chunk.getBlockLight().get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests the incremental light updates of single voxel edits.
+	 * After every edit the light must be the same as after relighting the whole world.
+	 */
+	@Test
+	public void testIncrementalLighting()
+	{
+		boolean floodFillLighting = CubicWorldConfiguration.floodFillLighting;
+		CubicWorldConfiguration.floodFillLighting = true;
+
+		try
+		{
+			VoxelWorld voxelWorld = new VoxelWorld(EasyMock.createMock(CubicWorldServer.class));
+			voxelWorld.setSunLightLevel((byte) 15);
+			int chunksOnYAxis = voxelWorld.chunksOnYAxis() + 1;
+
+			this.setFloodFillTestColumn(voxelWorld, 0);
+			this.setFloodFillTestColumn(voxelWorld, 1);
+
+			for (int i = 0; i < chunksOnYAxis * 4; i++)
+				voxelWorld.update();
+
+			// Blocks in the open, on the chunk border, inside of the covered cave and in the roof
+			int[][] edits = new int[][] { { 2, 8, 2 }, { 15, 5, 7 }, { 16, 5, 7 }, { 20, 4, 5 }, { 21, 10, 5 }, { 7, 10, 7 } };
+			VoxelChunk borderChunk = voxelWorld.getChunk(1, 0, 0, false);
+
+			for (int[] edit : edits)
+			{
+				boolean air = voxelWorld.getVoxel(edit[0], edit[1], edit[2]) == null || voxelWorld.getVoxel(edit[0], edit[1], edit[2]).voxelType == null;
+				voxelWorld.setVoxel(edit[0], edit[1], edit[2], air ? VoxelData.construct(BasePlugin.voxelDirtId) : null);
+
+				// The lighting stays valid, no relight needed
+				assertTrue(voxelWorld.getChunk(edit[0] / VoxelWorld.chunkWidth, 0, 0, false).isInitializedAndLightingReady());
+
+				for (int i = 0; i < 4; i++)
+					voxelWorld.update();
+
+				assertEquals(ChunkState.LIT, borderChunk.getState());
+				this.assertLightingEqualsRelight(voxelWorld);
+			}
+
+			// The opened roof lets the sun into the covered column
+			assertEquals(15, borderChunk.getSunLightLevel(5, 5, 5));
+
+			// Removing the block on the chunk border again lights the voxels behind it
+			voxelWorld.setVoxel(15, 5, 7, null);
+
+			for (int i = 0; i < 4; i++)
+				voxelWorld.update();
+
+			this.assertLightingEqualsRelight(voxelWorld);
+		}
+		finally
+		{
+			CubicWorldConfiguration.floodFillLighting = floodFillLighting;
+		}
 	}
 
 	/**
@@ -333,7 +1120,9 @@ public class VoxelWorldTest extends TestCase
 		VoxelData voxelData = VoxelData.construct(BasePlugin.voxelDirtId);
 
 		// Record expected update handler behaviour
-		tileEntityHandler.handleUpdate(voxelData, 0, 4, 0, true);
+		// The handler gets a copy of the voxel carrying the light levels, its tile entity is shared (see VoxelChunk.getVoxel())
+		Capture<VoxelData> updatedVoxel = new Capture<VoxelData>();
+		tileEntityHandler.handleUpdate(EasyMock.capture(updatedVoxel), EasyMock.eq(0), EasyMock.eq(4), EasyMock.eq(0), EasyMock.eq(true));
 
 		EasyMock.replay(tileEntityHandler);
 
@@ -342,6 +1131,8 @@ public class VoxelWorldTest extends TestCase
 
 		// Verify update handler
 		EasyMock.verify(tileEntityHandler);
+		assertSame(voxelData.voxelType, updatedVoxel.getValue().voxelType);
+		assertSame(tileEntityHandler, updatedVoxel.getValue().tileEntity);
 
 		// Restart replay
 		EasyMock.reset(tileEntityHandler);
@@ -49,10 +49,10 @@ public class DebugHelper
 			shapeRenderer.setProjectionMatrix(camera.combined);
 			shapeRenderer.setColor(Color.RED);
 			// Get all currently loaded chunk keys.
-			ChunkKey[] keys = cubicWorld.voxelWorld.getKeys();
-			for (ChunkKey key : keys)
+			long[] keys = cubicWorld.voxelWorld.getKeys();
+			for (long key : keys)
 			{
-				Vector3 position = new Vector3(key.x * VoxelWorld.chunkWidth, key.y * VoxelWorld.chunkHeight, key.z * VoxelWorld.chunkDepth);
+				Vector3 position = new Vector3(ChunkKey.unpackX(key) * VoxelWorld.chunkWidth, ChunkKey.unpackY(key) * VoxelWorld.chunkHeight, ChunkKey.unpackZ(key) * VoxelWorld.chunkDepth);
 				shapeRenderer.box(position.x, position.y, position.z, VoxelWorld.chunkWidth, VoxelWorld.chunkHeight, -VoxelWorld.chunkDepth);
 			}
 			shapeRenderer.end();
@@ -8,9 +8,9 @@ import java.io.Serializable;
  * managing chunks.
  * 
  * This is just a tuple implementation with 3 keys.
- * It implements compareTo() and equals().
+ * It implements compareTo(), equals() and hashCode().
  * 
- * hashCode() is not supported!
+ * pack() builds a long key from chunk coordinates, which can be used for lookups without allocating a ChunkKey.
  * </pre>
  * 
  * @author KennuX
@@ -54,8 +54,114 @@ public class ChunkKey implements Comparable<ChunkKey>, Serializable
 		return false;
 	}
 
+	/**
+	 * Mixes the packed key, so adjacent chunks end up in different hash buckets.
+	 * The old x ^ y ^ z hash mapped all chunks on a diagonal (and every x|z swap) to the same value.
+	 */
 	public int hashCode()
 	{
-		return (this.x ^ this.y ^ this.z);
+		return hash(pack(this.x, this.y, this.z));
+	}
+
+	/**
+	 * Returns the packed long key of this chunk key.
+	 * 
+	 * @see ChunkKey#pack(int, int, int)
+	 * @return
+	 */
+	public long toLong()
+	{
+		return pack(this.x, this.y, this.z);
+	}
+
+	/**
+	 * <pre>
+	 * Packs the given chunkspace coordinates into one long.
+	 * x and z use 26 bits, y uses 12 bits.
+	 * So x and z must be in range -33554432 - 33554431, y in -2048 - 2047.
+	 * 
+	 * x is stored in two's complement in the highest bits, z and y get biased by half of their range.
+	 * So sorting the packed keys sorts by x, z and y numerically, even for negative coordinates (see ChunkTable.getChunks()).
+	 * </pre>
+	 * 
+	 * @param chunkX
+	 * @param chunkY
+	 * @param chunkZ
+	 * @return
+	 */
+	public static long pack(int chunkX, int chunkY, int chunkZ)
+	{
+		return ((long) (chunkX & 0x3FFFFFF) << 38) | ((long) ((chunkZ ^ 0x2000000) & 0x3FFFFFF) << 12) | ((chunkY ^ 0x800) & 0xFFF);
+	}
+
+	/**
+	 * Returns the column key of the given chunk column, which is the packed key with all y bits cleared.
+	 * All packed keys of one column have the same column key and none of them sorts before it.
+	 * 
+	 * @see ChunkKey#getColumn(long)
+	 * @param chunkX
+	 * @param chunkZ
+	 * @return
+	 */
+	public static long packColumn(int chunkX, int chunkZ)
+	{
+		return getColumn(pack(chunkX, 0, chunkZ));
+	}
+
+	/**
+	 * Returns the column key of the given packed key.
+	 * 
+	 * @see ChunkKey#packColumn(int, int)
+	 * @param key
+	 * @return
+	 */
+	public static long getColumn(long key)
+	{
+		return key & ~0xFFFL;
+	}
+
+	/**
+	 * Returns the chunk x-coordinate of the given packed key.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public static int unpackX(long key)
+	{
+		return (int) (key >> 38);
+	}
+
+	/**
+	 * Returns the chunk y-coordinate of the given packed key.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public static int unpackY(long key)
+	{
+		return (int) (key & 0xFFF) - 0x800;
+	}
+
+	/**
+	 * Returns the chunk z-coordinate of the given packed key.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public static int unpackZ(long key)
+	{
+		return (int) ((key >>> 12) & 0x3FFFFFF) - 0x2000000;
+	}
+
+	/**
+	 * Returns a well distributed 32-bit hash of the given packed key (fibonacci hashing).
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public static int hash(long key)
+	{
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32));
 	}
 }
@@ -0,0 +1,208 @@
+package net.kennux.cubicworld.voxel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * <pre>
+ * Lights the active chunks column by column before they get updated.
+ *
+ * The lighting passes wait until the chunk above is lit.
+ * The chunk update runs bottom to top, so lighting a column of n chunks that way needs n world updates.
+ * The scheduler lights every column containing unlit chunks as one task from top to bottom, so a column gets lit in one world update.
+ *
+ * Columns are colored like a checkerboard by (x + z) & 1, like in ChunkManager.updateParallel().
+ * The first wave lights all columns of one color in parallel, so their horizontal neighbors never get lit at the same time and can be read safely.
+ * The second wave lights the columns of the other color. Their chunks read the border light of the first wave
+ * and push their own border light back into the lit chunks of the first wave (see LightPropagationQueue),
+ * which apply it in their chunk update right after the scheduler.
+ *
+ * Without a pool both waves run on the calling thread.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class ChunkLightingScheduler
+{
+	/**
+	 * The minimum count of columns lit by one fork join task.
+	 */
+	private static final int COLUMNS_PER_TASK = 2;
+
+	/**
+	 * Lights the chunks of a range of columns.
+	 */
+	private static final class ColumnLightingTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final ChunkLightingScheduler scheduler;
+		private final VoxelChunk[] chunks;
+		private final int[] columnStarts;
+		private final int from;
+		private final int to;
+
+		/**
+		 * @param scheduler
+		 * @param chunks
+		 *            The column ordered chunks.
+		 * @param columnStarts
+		 *            The indices of the first chunk of the columns to light.
+		 * @param from
+		 *            The first column start index (inclusive).
+		 * @param to
+		 *            The last column start index (exclusive).
+		 */
+		private ColumnLightingTask(ChunkLightingScheduler scheduler, VoxelChunk[] chunks, int[] columnStarts, int from, int to)
+		{
+			this.scheduler = scheduler;
+			this.chunks = chunks;
+			this.columnStarts = columnStarts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (this.to - this.from > COLUMNS_PER_TASK)
+			{
+				int middle = (this.from + this.to) >>> 1;
+				invokeAll(new ColumnLightingTask(this.scheduler, this.chunks, this.columnStarts, this.from, middle), new ColumnLightingTask(this.scheduler, this.chunks, this.columnStarts, middle, this.to));
+				return;
+			}
+
+			this.scheduler.lightColumns(this.chunks, this.columnStarts, this.from, this.to);
+		}
+	}
+
+	/**
+	 * The indices of the first chunk of every column containing unlit chunks, split by checkerboard color ((x + z) & 1).
+	 * Only used in light(), which gets called by the chunk manager update.
+	 */
+	private IntArray[] columnStarts = new IntArray[] { new IntArray(), new IntArray() };
+
+	/**
+	 * The count of columns scheduled for lighting.
+	 */
+	private long scheduledColumnCount;
+
+	/**
+	 * The count of chunks lit by the scheduler.
+	 */
+	private AtomicLong litChunkCount = new AtomicLong();
+
+	/**
+	 * <pre>
+	 * Lights all columns of the given chunks which contain chunks needing lighting, in two checkerboard waves.
+	 * Every column gets lit top to bottom by one thread.
+	 *
+	 * This method returns after both waves are done.
+	 * </pre>
+	 *
+	 * @param chunks
+	 *            The column ordered chunks (see ChunkManager.pollActiveChunks()).
+	 * @param pool
+	 *            The pool lighting the columns in parallel, may be null.
+	 */
+	public void light(VoxelChunk[] chunks, ForkJoinPool pool)
+	{
+		this.columnStarts[0].clear();
+		this.columnStarts[1].clear();
+
+		int columnStart = 0;
+		boolean scheduled = false;
+
+		for (int i = 0; i < chunks.length; i++)
+		{
+			VoxelChunk chunk = chunks[i];
+
+			if (i > 0 && (chunk.getChunkX() != chunks[i - 1].getChunkX() || chunk.getChunkZ() != chunks[i - 1].getChunkZ()))
+			{
+				columnStart = i;
+				scheduled = false;
+			}
+
+			if (!scheduled && chunk.getState().needsLighting())
+			{
+				this.columnStarts[(chunk.getChunkX() + chunk.getChunkZ()) & 1].add(columnStart);
+				scheduled = true;
+			}
+		}
+
+		// invoke() waits for all tasks, so the waves never overlap
+		for (int color = 0; color < this.columnStarts.length; color++)
+		{
+			IntArray starts = this.columnStarts[color];
+
+			if (starts.size == 0)
+				continue;
+
+			this.scheduledColumnCount += starts.size;
+
+			if (pool != null)
+				pool.invoke(new ColumnLightingTask(this, chunks, starts.items, 0, starts.size));
+			else
+				this.lightColumns(chunks, starts.items, 0, starts.size);
+		}
+	}
+
+	/**
+	 * Lights the unlit chunks of the given range of columns, every column from top to bottom.
+	 *
+	 * @param chunks
+	 * @param columnStarts
+	 * @param from
+	 * @param to
+	 */
+	private void lightColumns(VoxelChunk[] chunks, int[] columnStarts, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			int columnStart = columnStarts[i];
+			VoxelChunk firstChunk = chunks[columnStart];
+			int columnEnd = columnStart + 1;
+
+			while (columnEnd < chunks.length && chunks[columnEnd].getChunkX() == firstChunk.getChunkX() && chunks[columnEnd].getChunkZ() == firstChunk.getChunkZ())
+				columnEnd++;
+
+			// The chunks are ordered bottom to top, every chunk needs the lighting of the chunk above
+			for (int j = columnEnd - 1; j >= columnStart; j--)
+			{
+				VoxelChunk chunk = chunks[j];
+
+				if (!chunk.getState().needsLighting())
+					continue;
+
+				chunk.updateLighting();
+
+				if (chunk.getState().isLit())
+					this.litChunkCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Returns the count of columns scheduled for lighting.
+	 *
+	 * @return
+	 */
+	public long getScheduledColumnCount()
+	{
+		return this.scheduledColumnCount;
+	}
+
+	/**
+	 * Returns the count of chunks lit by the scheduler.
+	 *
+	 * @return
+	 */
+	public long getLitChunkCount()
+	{
+		return this.litChunkCount.get();
+	}
+}
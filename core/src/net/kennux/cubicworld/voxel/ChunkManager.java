@@ -1,151 +1,646 @@
 package net.kennux.cubicworld.voxel;
 
 import java.util.ArrayList;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.glutils.ShaderProgram;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongArray;
 
 /**
  * Chunk grid implementation.
- * This is basically the same as a hashmap only with a ChunkKey as key.
- * 
+ * This is basically the same as a hashmap only with a packed chunk key (see ChunkKey.pack()) as key.
+ *
  * @author KennuX
  *
  */
 public class ChunkManager
 {
 	/**
-	 * This hashmap contains all chunks.
+	 * This table contains all chunks.
 	 */
-	private ConcurrentHashMap<ChunkKey, VoxelChunk> chunks = new ConcurrentHashMap<ChunkKey, VoxelChunk>();
+	private ChunkTable chunks = new ChunkTable();
 
 	/**
-	 * Adds a chunk to the grid.
+	 * Lock object for linking / unlinking chunk neighbors.
+	 * Only put() and remove() lock it, reading neighbors is lock-free.
+	 */
+	private Object neighborLockObject = new Object();
+
+	/**
+	 * Lock object for counting the ready chunks, see chunkReadinessChanged().
+	 */
+	private Object readyLockObject = new Object();
+
+	/**
+	 * The count of loaded chunks which are ready for rendering (UPLOADED).
+	 * Maintained by the chunk state transitions, so allChunksReady() doesn't need to check every chunk.
+	 * Only written while holding readyLockObject.
+	 */
+	private volatile int readyChunkCount;
+
+	/**
+	 * Chunks get evicted until their memory usage is below this fraction of the budget.
+	 * Keeps the eviction from running on every cleanup once the budget is reached.
+	 */
+	public static final float EVICTION_LOW_WATERMARK = 0.9f;
+
+	/**
+	 * The eviction score of one chunk distance to the nearest player, in update calls without access.
+	 * A chunk 10 chunks away scores the same as a chunk next to a player which wasn't accessed for 200 update calls.
+	 */
+	public static final int EVICTION_SCORE_PER_CHUNK_DISTANCE = 20;
+
+	/**
+	 * The eviction candidates, packed as (score << 32 | chunk index).
+	 * Only used in getChunksToEvict(), which gets called by the voxel world cleanup.
+	 */
+	private LongArray evictionCandidates = new LongArray();
+
+	/**
+	 * The minimum count of columns updated by one fork join task in updateParallel().
+	 */
+	private static final int COLUMNS_PER_TASK = 4;
+
+	/**
+	 * The indices of the first chunk of every column in the column ordered chunk array, split by checkerboard color ((x + z) & 1).
+	 * Only used in updateParallel(), which gets called by the voxel world update.
+	 */
+	private IntArray[] columnStarts = new IntArray[] { new IntArray(), new IntArray() };
+
+	/**
+	 * Lights the active chunks column by column before they get updated.
+	 */
+	private ChunkLightingScheduler lightingScheduler = new ChunkLightingScheduler();
+
+	/**
+	 * Chunks which got activated since the last update.
 	 * 
+	 * @see ChunkManager#activate(VoxelChunk)
+	 */
+	private ConcurrentLinkedQueue<VoxelChunk> activatedChunks = new ConcurrentLinkedQueue<VoxelChunk>();
+
+	/**
+	 * The active chunks in column order, only update() and updateParallel() get called on them.
+	 * Only accessed by the update thread.
+	 */
+	private ArrayList<VoxelChunk> activeChunks = new ArrayList<VoxelChunk>();
+
+	/**
+	 * The array version of activeChunks, rebuilt if the active chunks changed.
+	 */
+	private VoxelChunk[] activeChunkArray = new VoxelChunk[0];
+
+	/**
+	 * Orders chunks by their packed key, which is the column order.
+	 */
+	private static final Comparator<VoxelChunk> COLUMN_ORDER = new Comparator<VoxelChunk>()
+	{
+		@Override
+		public int compare(VoxelChunk first, VoxelChunk second)
+		{
+			long firstKey = ChunkKey.pack(first.getChunkX(), first.getChunkY(), first.getChunkZ());
+			long secondKey = ChunkKey.pack(second.getChunkX(), second.getChunkY(), second.getChunkZ());
+
+			return firstKey < secondKey ? -1 : (firstKey == secondKey ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Updates the chunks of a range of columns.
+	 */
+	private static final class ColumnUpdateTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final VoxelChunk[] chunks;
+		private final int[] columnStarts;
+		private final int from;
+		private final int to;
+
+		/**
+		 * @param chunks
+		 *            The column ordered chunks.
+		 * @param columnStarts
+		 *            The indices of the first chunk of the columns to update.
+		 * @param from
+		 *            The first column start index (inclusive).
+		 * @param to
+		 *            The last column start index (exclusive).
+		 */
+		private ColumnUpdateTask(VoxelChunk[] chunks, int[] columnStarts, int from, int to)
+		{
+			this.chunks = chunks;
+			this.columnStarts = columnStarts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (this.to - this.from > COLUMNS_PER_TASK)
+			{
+				int middle = (this.from + this.to) >>> 1;
+				invokeAll(new ColumnUpdateTask(this.chunks, this.columnStarts, this.from, middle), new ColumnUpdateTask(this.chunks, this.columnStarts, middle, this.to));
+				return;
+			}
+
+			for (int i = this.from; i < this.to; i++)
+			{
+				int columnStart = this.columnStarts[i];
+				VoxelChunk firstChunk = this.chunks[columnStart];
+
+				// Update the column bottom to top, like update() does
+				for (int j = columnStart; j < this.chunks.length && this.chunks[j].getChunkX() == firstChunk.getChunkX() && this.chunks[j].getChunkZ() == firstChunk.getChunkZ(); j++)
+				{
+					this.chunks[j].simulate();
+					this.chunks[j].update();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a chunk to the grid.
+	 *
+	 * @see ChunkManager#put(long, VoxelChunk)
 	 * @param key
 	 * @param chunk
 	 */
 	public void put(ChunkKey key, VoxelChunk chunk)
 	{
-		this.chunks.put(key, chunk);
+		this.put(key.toLong(), chunk);
+	}
+
+	/**
+	 * Adds a chunk to the grid.
+	 * The chunk gets linked with all loaded adjacent chunks.
+	 *
+	 * @param key
+	 * @param chunk
+	 */
+	public void put(long key, VoxelChunk chunk)
+	{
+		int chunkX = ChunkKey.unpackX(key);
+		int chunkY = ChunkKey.unpackY(key);
+		int chunkZ = ChunkKey.unpackZ(key);
+
+		synchronized (this.neighborLockObject)
+		{
+			VoxelChunk oldChunk = this.chunks.put(key, chunk);
+
+			if (oldChunk != null && oldChunk != chunk)
+				this.unlinkNeighbors(oldChunk);
+
+			for (int direction = 0; direction < VoxelChunk.NEIGHBOR_OFFSETS.length; direction++)
+			{
+				int[] offset = VoxelChunk.NEIGHBOR_OFFSETS[direction];
+				VoxelChunk neighbor = this.chunks.get(ChunkKey.pack(chunkX + offset[0], chunkY + offset[1], chunkZ + offset[2]));
+
+				chunk.setNeighbor(direction, neighbor);
+
+				// Opposite directions only differ in the lowest bit
+				if (neighbor != null)
+					neighbor.setNeighbor(direction ^ 1, chunk);
+			}
+
+			if (oldChunk != null && oldChunk != chunk)
+				this.chunkUnloaded(oldChunk);
+		}
+
+		this.chunkReadinessChanged(chunk);
+
+		// New chunks always need lighting
+		this.activate(chunk);
+	}
+
+	/**
+	 * <pre>
+	 * Adds the given chunk to the active set.
+	 * Chunks get activated if they need to get saved, lit, remeshed or have tile entities (see VoxelChunk.needsUpdate()).
+	 * They leave the active set after an update which left them quiescent, so idle chunks don't get updated.
+	 * 
+	 * This method is thread-safe.
+	 * </pre>
+	 * 
+	 * @param chunk
+	 */
+	public void activate(VoxelChunk chunk)
+	{
+		if (chunk.markActive())
+			this.activatedChunks.add(chunk);
+	}
+
+	/**
+	 * Returns true if the given chunk is the chunk stored in the grid at its position.
+	 * 
+	 * @param chunk
+	 * @return
+	 */
+	boolean isLoaded(VoxelChunk chunk)
+	{
+		return this.chunks.get(ChunkKey.pack(chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ())) == chunk;
+	}
+
+	/**
+	 * Adds the activated chunks to the active set and drops unloaded chunks.
+	 * Returns the active chunks in column order.
+	 * 
+	 * @return
+	 */
+	private VoxelChunk[] pollActiveChunks()
+	{
+		boolean changed = false;
+		VoxelChunk chunk;
+
+		while ((chunk = this.activatedChunks.poll()) != null)
+		{
+			this.activeChunks.add(chunk);
+			changed = true;
+		}
+
+		// Drop chunks which are not loaded (anymore)
+		int count = 0;
+
+		for (int i = 0; i < this.activeChunks.size(); i++)
+		{
+			chunk = this.activeChunks.get(i);
+
+			if (!this.isLoaded(chunk))
+			{
+				// Check again after resetting the flag, the chunk may have been added while checking
+				chunk.markInactive();
+
+				if (!this.isLoaded(chunk) || !chunk.markActive())
+				{
+					changed = true;
+					continue;
+				}
+			}
+
+			this.activeChunks.set(count++, chunk);
+		}
+
+		if (changed)
+		{
+			this.activeChunks.subList(count, this.activeChunks.size()).clear();
+			Collections.sort(this.activeChunks, COLUMN_ORDER);
+			this.activeChunkArray = this.activeChunks.toArray(new VoxelChunk[this.activeChunks.size()]);
+		}
+
+		return this.activeChunkArray;
+	}
+
+	/**
+	 * Removes all chunks which don't need an update anymore from the active set.
+	 * Gets called after every update.
+	 */
+	private void deactivateQuiescentChunks()
+	{
+		int count = 0;
+
+		for (int i = 0; i < this.activeChunks.size(); i++)
+		{
+			VoxelChunk chunk = this.activeChunks.get(i);
+
+			if (!chunk.needsUpdate())
+			{
+				// Check again after resetting the flag, so activations in between are not lost
+				chunk.markInactive();
+
+				if (!chunk.needsUpdate() || !chunk.markActive())
+					continue;
+			}
+
+			this.activeChunks.set(count++, chunk);
+		}
+
+		if (count != this.activeChunks.size())
+		{
+			this.activeChunks.subList(count, this.activeChunks.size()).clear();
+			this.activeChunkArray = this.activeChunks.toArray(new VoxelChunk[this.activeChunks.size()]);
+		}
+	}
+
+	/**
+	 * Returns the count of chunks in the active set.
+	 * Chunks activated since the last update are not counted.
+	 * 
+	 * @return
+	 */
+	public int getActiveChunkCount()
+	{
+		return this.activeChunks.size();
+	}
+
+	/**
+	 * Removes all neighbor links from and to the given chunk.
+	 *
+	 * @param chunk
+	 */
+	private void unlinkNeighbors(VoxelChunk chunk)
+	{
+		for (int direction = 0; direction < VoxelChunk.NEIGHBOR_OFFSETS.length; direction++)
+		{
+			VoxelChunk neighbor = chunk.getNeighbor(direction);
+
+			if (neighbor != null)
+				neighbor.unlinkNeighbor(direction ^ 1, chunk);
+
+			chunk.setNeighbor(direction, null);
+		}
 	}
 
 	/**
 	 * Returns true if the ChunkGrid contains the given chunk key. Use this only
 	 * if you just need to check if the key exists. If you want to get the chunk
 	 * just call get() and check for null.
-	 * 
+	 *
 	 * @param key
 	 */
 	public boolean containsKey(ChunkKey key)
 	{
-		return this.chunks.containsKey(key);
+		return this.chunks.containsKey(key.toLong());
 	}
 
 	/**
-	 * Adds a chunk to the grid. Returns null if the key was not found.
-	 * 
+	 * Returns true if the ChunkGrid contains the given chunkspace position.
+	 *
+	 * @param chunkX
+	 * @param chunkY
+	 * @param chunkZ
+	 * @return
+	 */
+	public boolean containsKey(int chunkX, int chunkY, int chunkZ)
+	{
+		return this.chunks.containsKey(ChunkKey.pack(chunkX, chunkY, chunkZ));
+	}
+
+	/**
+	 * Returns the chunk for the given key. Returns null if the key was not found.
+	 *
 	 * @param key
-	 * @param chunk
 	 */
 	public VoxelChunk get(ChunkKey key)
 	{
-		return this.chunks.get(key);
+		return this.chunks.get(key.toLong());
+	}
+
+	/**
+	 * Returns the chunk at the given chunkspace position. Returns null if it is not loaded.
+	 * This method is lock-free and doesn't allocate anything.
+	 *
+	 * @param chunkX
+	 * @param chunkY
+	 * @param chunkZ
+	 * @return
+	 */
+	public VoxelChunk get(int chunkX, int chunkY, int chunkZ)
+	{
+		return this.chunks.get(ChunkKey.pack(chunkX, chunkY, chunkZ));
 	}
 
 	/**
 	 * Performs a bounds check for all loaded chunks. chunkPos is the position
 	 * of the player (global chunkspace), radius the chunk loading radius.
-	 * 
-	 * @param middle
+	 * The packed keys of all chunks outside of the radius get added to result, it gets cleared before.
+	 *
+	 * @param chunkPos
 	 * @param radius
-	 * @return
+	 * @param result
 	 */
-	public ChunkKey[] getChunksNotInside(Vector3 chunkPos, int radius)
+	public void getChunksNotInside(Vector3 chunkPos, int radius, LongArray result)
 	{
-		ArrayList<ChunkKey> chunksNotInside = new ArrayList<ChunkKey>();
+		long[] keys = this.chunks.getKeys();
+		float radiusSquared = radius * radius;
+
+		result.clear();
 
-		for (ChunkKey key : this.chunks.keySet())
+		for (int i = 0; i < keys.length; i++)
 		{
 			// Do radius check
-			if (key != null)
-				if (new Vector3(chunkPos).sub(new Vector3(key.x, chunkPos.y, key.z)).len() > radius)
-					chunksNotInside.add(key);
-		}
+			float distanceX = chunkPos.x - ChunkKey.unpackX(keys[i]);
+			float distanceZ = chunkPos.z - ChunkKey.unpackZ(keys[i]);
 
-		// Return the chunks not inside this radius.
-		return chunksNotInside.toArray(new ChunkKey[chunksNotInside.size()]);
+			if (distanceX * distanceX + distanceZ * distanceZ > radiusSquared)
+				result.add(keys[i]);
+		}
 	}
 
 	/**
 	 * Performs a bounds check for all loaded chunks. chunkPositions are the
 	 * positions of the players (global chunkspace), radius the chunk loading
 	 * radius.
-	 * 
-	 * @param middle
+	 * The packed keys of all chunks outside of the radius of every player get added to result, it gets cleared before.
+	 *
+	 * @param chunkPositions
 	 * @param radius
-	 * @return
+	 * @param result
 	 */
-	public ChunkKey[] getChunksNotInside(Vector3[] chunkPositions, int radius)
+	public void getChunksNotInside(Vector3[] chunkPositions, int radius, LongArray result)
 	{
-		ArrayList<ChunkKey> chunksNotInside = new ArrayList<ChunkKey>();
+		long[] keys = this.chunks.getKeys();
+		float radiusSquared = radius * radius;
+
+		result.clear();
 
-		for (ChunkKey key : this.chunks.keySet())
+		for (int i = 0; i < keys.length; i++)
 		{
-			boolean isInRadius = true;
+			boolean isInRadius = false;
 
-			// Do radius check
-			if (key != null)
-				for (Vector3 chunkPos : chunkPositions)
-					if (new Vector3(chunkPos).sub(new Vector3(key.x, chunkPos.y, key.z)).len() > radius)
-						isInRadius = false;
+			// Do radius check, the chunk is needed as long as any player is near it
+			for (int j = 0; j < chunkPositions.length && !isInRadius; j++)
+			{
+				float distanceX = chunkPositions[j].x - ChunkKey.unpackX(keys[i]);
+				float distanceZ = chunkPositions[j].z - ChunkKey.unpackZ(keys[i]);
+
+				if (distanceX * distanceX + distanceZ * distanceZ <= radiusSquared)
+					isInRadius = true;
+			}
 
 			if (!isInRadius)
 			{
-				chunksNotInside.add(key);
+				result.add(keys[i]);
 			}
 		}
-
-		// Return the chunks not inside this radius.
-		return chunksNotInside.toArray(new ChunkKey[chunksNotInside.size()]);
 	}
 
 	/**
-	 * Returns all keys in this instance (only copies of them).
+	 * <pre>
+	 * Selects the chunks to evict if the loaded chunks use more memory than memoryBudget (see VoxelChunk.getMemoryUsage()).
+	 * 
+	 * chunkPositions are the positions of the players (global chunkspace).
+	 * Chunks inside of the pinnedRadius around any player and chunks in columns held by the retention index never get evicted.
+	 * All other chunks are ordered by the update calls since their last access plus their distance to the nearest player (see EVICTION_SCORE_PER_CHUNK_DISTANCE),
+	 * so chunks which weren't accessed for a long time and far away chunks go first.
+	 * Chunks get selected until the memory usage is below EVICTION_LOW_WATERMARK of the budget.
 	 * 
+	 * The packed keys of the chunks to evict get added to result in eviction order, it gets cleared before.
+	 * If memoryBudget is -1 nothing gets selected.
+	 * </pre>
+	 * 
+	 * @param chunkPositions
+	 * @param pinnedRadius
+	 * @param retentionIndex
+	 *            The columns held by the players on the server, may be null.
+	 * @param memoryBudget
+	 * @param updateCallId
+	 *            The current update call id (see VoxelWorld.updateCallId).
+	 * @param result
+	 */
+	public void getChunksToEvict(Vector3[] chunkPositions, int pinnedRadius, ChunkRetentionIndex retentionIndex, long memoryBudget, int updateCallId, LongArray result)
+	{
+		result.clear();
+
+		if (memoryBudget < 0)
+			return;
+
+		VoxelChunk[] chunks = this.chunks.getChunks();
+		long memoryUsage = 0;
+
+		for (int i = 0; i < chunks.length; i++)
+			memoryUsage += chunks[i].getMemoryUsage();
+
+		if (memoryUsage <= memoryBudget)
+			return;
+
+		float pinnedRadiusSquared = pinnedRadius * pinnedRadius;
+		this.evictionCandidates.clear();
+
+		for (int i = 0; i < chunks.length; i++)
+		{
+			// Get the distance to the nearest player
+			float nearestDistanceSquared = Float.MAX_VALUE;
+
+			for (Vector3 chunkPos : chunkPositions)
+			{
+				float distanceX = chunkPos.x - chunks[i].getChunkX();
+				float distanceZ = chunkPos.z - chunks[i].getChunkZ();
+
+				nearestDistanceSquared = Math.min(nearestDistanceSquared, distanceX * distanceX + distanceZ * distanceZ);
+			}
+
+			if (nearestDistanceSquared <= pinnedRadiusSquared)
+				continue;
+
+			// The chunks of held columns would get unloaded and generated or loaded again for the player holding them
+			if (retentionIndex != null && retentionIndex.isHeld(chunks[i].getChunkX(), chunks[i].getChunkZ()))
+				continue;
+
+			long score = Math.max(0, updateCallId - chunks[i].getLastAccessCallId());
+
+			if (chunkPositions.length > 0)
+				score += (long) (Math.sqrt(nearestDistanceSquared) * EVICTION_SCORE_PER_CHUNK_DISTANCE);
+
+			this.evictionCandidates.add(Math.min(score, Integer.MAX_VALUE) << 32 | i);
+		}
+
+		// Highest score first
+		Arrays.sort(this.evictionCandidates.items, 0, this.evictionCandidates.size);
+		long targetMemoryUsage = (long) (memoryBudget * EVICTION_LOW_WATERMARK);
+
+		for (int i = this.evictionCandidates.size - 1; i >= 0 && memoryUsage > targetMemoryUsage; i--)
+		{
+			VoxelChunk chunk = chunks[(int) this.evictionCandidates.get(i)];
+
+			result.add(ChunkKey.pack(chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ()));
+			memoryUsage -= chunk.getMemoryUsage();
+		}
+	}
+
+	/**
+	 * Adds the packed keys of all loaded chunks in the given column to result.
+	 * The keys get found by a binary search in the column ordered keys.
+	 *
+	 * @param chunkX
+	 * @param chunkZ
+	 * @param result
+	 */
+	public void getColumnKeys(int chunkX, int chunkZ, LongArray result)
+	{
+		long[] keys = this.chunks.getKeys();
+
+		// All keys of a column only differ in the y bits, so they are next to each other
+		long column = ChunkKey.packColumn(chunkX, chunkZ);
+		int index = Arrays.binarySearch(keys, column);
+
+		if (index < 0)
+			index = -index - 1;
+
+		while (index < keys.length && ChunkKey.getColumn(keys[index]) == column)
+			result.add(keys[index++]);
+	}
+
+	/**
+	 * Returns all packed keys in this instance in column order.
+	 * The returned array is shared and must not be modified.
+	 *
+	 * @see ChunkKey#pack(int, int, int)
 	 * @return
 	 */
-	public ChunkKey[] getKeys()
+	public long[] getKeys()
 	{
-		Set<ChunkKey> keySet = this.chunks.keySet();
-		return keySet.toArray(new ChunkKey[keySet.size()]);
+		return this.chunks.getKeys();
 	}
 
 	/**
 	 * Removes the given chunk key from the grid.
-	 * 
+	 *
 	 * @param key
+	 * @return The removed chunk or null.
 	 */
-	public void remove(ChunkKey key)
+	public VoxelChunk remove(ChunkKey key)
 	{
-		VoxelChunk chunk = this.chunks.get(key);
-		this.chunks.remove(key);
+		return this.remove(key.toLong());
+	}
+
+	/**
+	 * Removes the given packed chunk key from the grid.
+	 *
+	 * @param key
+	 * @return The removed chunk or null.
+	 */
+	public VoxelChunk remove(long key)
+	{
+		VoxelChunk chunk;
+
+		synchronized (this.neighborLockObject)
+		{
+			chunk = this.chunks.remove(key);
+
+			if (chunk != null)
+			{
+				this.unlinkNeighbors(chunk);
+				this.chunkUnloaded(chunk);
+			}
+		}
 
 		if (chunk != null)
 			chunk.dispose();
+
+		return chunk;
 	}
 
 	/**
 	 * Calls the render and renderModels method on all chunk objects.
-	 * 
+	 *
 	 * @param cam
 	 * @param shader
+	 * @param sunLight
+	 *            The sun light level of the world, 0 (night) to 1 (day).
 	 */
-	public void render(Camera cam, ShaderProgram shader)
+	public void render(Camera cam, ShaderProgram shader, float sunLight)
 	{
+		VoxelChunk[] chunks = this.chunks.getChunks();
+
 		// Start world rendering pass (only chunk meshes)
 		shader.begin();
 
@@ -153,66 +648,178 @@ public class ChunkManager
 
 		VoxelEngine.textureAtlas.atlasTexture.bind(0);
 		shader.setUniformi("r_textureAtlas", 0);
+		shader.setUniformf("m_tileSize", VoxelEngine.textureAtlas.getTileUvSize());
+		shader.setUniformf("m_sunLight", sunLight);
 
 		// Render all chunks
-		for (VoxelChunk c : this.chunks.values())
+		for (int i = 0; i < chunks.length; i++)
 		{
-			if (c != null)
-				c.render(cam, shader);
+			chunks[i].render(cam, shader);
 		}
 
 		shader.end();
 
 		// Tile entity pass
-		for (VoxelChunk c : this.chunks.values())
+		for (int i = 0; i < chunks.length; i++)
 		{
-			if (c != null)
-				c.renderTileEntities(cam);
+			chunks[i].renderTileEntities(cam);
 		}
 	}
 
 	/**
-	 * Calls the update and simulate method on all chunk objects.
+	 * Calls the update and simulate method on all active chunk objects.
+	 * Chunks get updated column by column, after the lighting scheduler lit the columns.
+	 * 
+	 * @see ChunkManager#activate(VoxelChunk)
+	 * @param lightingPool
+	 *            The pool of the lighting scheduler, may be null.
 	 */
-	public void update()
+	public void update(ForkJoinPool lightingPool)
 	{
-		for (VoxelChunk c : this.chunks.values())
+		VoxelChunk[] chunks = this.pollActiveChunks();
+
+		this.lightingScheduler.light(chunks, lightingPool);
+
+		for (int i = 0; i < chunks.length; i++)
 		{
-			if (c != null)
-			{
-				c.simulate();
-				c.update();
-			}
+			chunks[i].simulate();
+			chunks[i].update();
+		}
+
+		this.deactivateQuiescentChunks();
+	}
+
+	/**
+	 * <pre>
+	 * Calls the update and simulate method on all active chunk objects using the given pool.
+	 * 
+	 * Columns are colored like a checkerboard by (x + z) & 1. All columns of one color get updated in parallel, then all columns of the other color.
+	 * So a chunk never gets updated at the same time as one of its adjacent chunks, the lighting passes can safely read their neighbors.
+	 * Chunks inside of a column get updated bottom to top by one thread.
+	 * The columns get lit by the lighting scheduler before.
+	 * 
+	 * This method returns after all chunks were updated.
+	 * </pre>
+	 * 
+	 * @param pool
+	 * @param lightingPool
+	 *            The pool of the lighting scheduler, may be null.
+	 */
+	public void updateParallel(ForkJoinPool pool, ForkJoinPool lightingPool)
+	{
+		VoxelChunk[] chunks = this.pollActiveChunks();
+
+		this.lightingScheduler.light(chunks, lightingPool);
+
+		this.columnStarts[0].clear();
+		this.columnStarts[1].clear();
+
+		for (int i = 0; i < chunks.length; i++)
+		{
+			int chunkX = chunks[i].getChunkX();
+			int chunkZ = chunks[i].getChunkZ();
+
+			if (i == 0 || chunkX != chunks[i - 1].getChunkX() || chunkZ != chunks[i - 1].getChunkZ())
+				this.columnStarts[(chunkX + chunkZ) & 1].add(i);
 		}
+
+		// invoke() waits for all tasks, so the colors never overlap
+		for (int color = 0; color < this.columnStarts.length; color++)
+		{
+			IntArray starts = this.columnStarts[color];
+
+			if (starts.size > 0)
+				pool.invoke(new ColumnUpdateTask(chunks, starts.items, 0, starts.size));
+		}
+
+		this.deactivateQuiescentChunks();
+	}
+
+	/**
+	 * Returns the scheduler lighting the active chunks before they get updated.
+	 * 
+	 * @return
+	 */
+	public ChunkLightingScheduler getLightingScheduler()
+	{
+		return this.lightingScheduler;
 	}
 
 	/**
-	 * Gets called if the skylight value changes, regenerates the lighting and meshes for all chunks
+	 * Regenerates the lighting and meshes for all chunks.
 	 */
 	public void recalculateLightingAndMeshes()
 	{
-		for (VoxelChunk c : this.chunks.values())
+		VoxelChunk[] chunks = this.chunks.getChunks();
+
+		for (int i = 0; i < chunks.length; i++)
 		{
-			if (c != null)
-			{
-				c.regenerateLightingAndMesh();
-			}
+			chunks[i].regenerateLightingAndMesh();
 		}
 	}
 
 	/**
-	 * Returns true if all chunks are ready for rendering.
+	 * <pre>
+	 * Counts the given chunk as ready for rendering if it is loaded and UPLOADED.
+	 * Gets called by the voxel world for every transition from or to UPLOADED (see VoxelWorld.chunkStateChanged()).
+	 * 
+	 * The notifications of concurrent transitions may arrive out of order,
+	 * so the current state gets counted instead of the new state of the transition.
+	 * </pre>
+	 * 
+	 * @param chunk
 	 */
-	public boolean allChunksReady()
+	void chunkReadinessChanged(VoxelChunk chunk)
 	{
-		boolean allReady = true;
+		synchronized (this.readyLockObject)
+		{
+			if (this.isLoaded(chunk))
+				this.setCountedReady(chunk, chunk.isReadyForRendering());
+		}
+	}
 
-		for (VoxelChunk c : this.chunks.values())
+	/**
+	 * Stops counting the given unloaded chunk as ready for rendering.
+	 * 
+	 * @param chunk
+	 */
+	private void chunkUnloaded(VoxelChunk chunk)
+	{
+		synchronized (this.readyLockObject)
 		{
-			if (c != null && !c.isReadyForRendering())
-				allReady = false;
+			this.setCountedReady(chunk, false);
 		}
+	}
 
-		return allReady;
+	/**
+	 * Updates the ready chunk count if the given chunk's counted readiness changed.
+	 * Callers must hold readyLockObject.
+	 * 
+	 * @param chunk
+	 * @param ready
+	 */
+	private void setCountedReady(VoxelChunk chunk, boolean ready)
+	{
+		if (chunk.setCountedReady(ready) != ready)
+			this.readyChunkCount += ready ? 1 : -1;
+	}
+
+	/**
+	 * Returns the count of loaded chunks which are ready for rendering.
+	 * 
+	 * @return
+	 */
+	public int getReadyChunkCount()
+	{
+		return this.readyChunkCount;
+	}
+
+	/**
+	 * Returns true if all chunks are ready for rendering.
+	 * Compares the ready chunk count maintained by the state transitions with the count of loaded chunks.
+	 */
+	public boolean allChunksReady()
+	{
+		return this.readyChunkCount == this.chunks.size();
 	}
 }
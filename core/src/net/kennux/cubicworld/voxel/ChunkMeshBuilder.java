@@ -1,18 +1,33 @@
 package net.kennux.cubicworld.voxel;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import net.kennux.cubicworld.CubicWorldConfiguration;
 import net.kennux.cubicworld.math.Vector3i;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
 
-import com.badlogic.gdx.math.Vector2;
-import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.utils.FloatArray;
 
 /**
+ * <pre>
  * This class contains static functions used for chunk mesh building and chunk data analyzation.
  * Analyzation means for example getting all visible tile entities in the current chunks as a list.
  * 
+ * The mesh data gets written to primitive buffers which are reused by every thread building meshes,
+ * so a build only allocates the final vertex and index arrays.
+ * 
+ * In greedy mode (see CubicWorldConfiguration.greedyMeshing) adjacent coplanar faces with the same voxel type, face and light level
+ * get merged into bigger quads, which repeat the face's atlas tile once per voxel.
+ * 
+ * The vertices are written in the packed ChunkVertexFormat with chunk local positions.
+ * All quads use the same index pattern, so no indices get built (see QuadIndexBuffer).
+ * 
+ * Chunks can be built in sections of SECTION_HEIGHT voxel layers (see buildSectionMeshData()).
+ * VoxelChunk caches the sections and only rebuilds the ones affected by a modification, the sections get stitched to the chunk mesh by stitch().
+ * </pre>
+ * 
  * @author KennuX
  *
  */
@@ -35,8 +50,8 @@ public class ChunkMeshBuilder
 		// New mesh data list
 		// Gets generated in the update() function which gets called by an own
 		// thread separated from the main thread.
+		// The vertices of every quad get indexed by QuadIndexBuffer.
 		private float[] vertices;
-		private short[] indices;
 
 		/**
 		 * The visible tile entity positions.
@@ -58,9 +73,14 @@ public class ChunkMeshBuilder
 			return this.vertices;
 		}
 
-		public short[] getIndices()
+		/**
+		 * Returns the count of quads in the vertex data.
+		 * 
+		 * @return
+		 */
+		public int getQuadCount()
 		{
-			return this.indices;
+			return this.vertices.length / (vertexSize * QuadIndexBuffer.VERTICES_PER_QUAD);
 		}
 
 		public ArrayList<Vector3i> getVisibleTileEntities()
@@ -71,227 +91,658 @@ public class ChunkMeshBuilder
 
 	// STATIC DATA
 
-	private static final Vector3[] LEFT_SIDE_VERTICES = new Vector3[] { new Vector3(0, 0, 1), new Vector3(0, 0, 0), new Vector3(0, 1, 0), new Vector3(0, 1, 1) };
+	/**
+	 * The count of sides of a voxel.
+	 * Sides are ordered left, right, top, bottom, back, front, the same order as the face mappings in VoxelChunk.ROTATION_MAPPINGS.
+	 */
+	private static final int SIDE_COUNT = 6;
 
-	private static final Vector3[] LEFT_SIDE_NORMALS = new Vector3[] { new Vector3(1, 0, 0), new Vector3(1, 0, 0), new Vector3(1, 0, 0), new Vector3(1, 0, 0) };
+	/**
+	 * The offset (x, y, z) to the adjacent voxel of every side.
+	 */
+	private static final int[] SIDE_OFFSETS = new int[] { -1, 0, 0, /* */1, 0, 0, /* */0, 1, 0, /* */0, -1, 0, /* */0, 0, -1, /* */0, 0, 1 };
 
-	private static final short[] LEFT_SIDE_INDICES = new short[] { 1, 0, 2, 0, 3, 2 };
+	/**
+	 * The 4 vertex positions (x, y, z) of every side, relative to the voxel's origin.
+	 */
+	private static final int[] SIDE_VERTICES = new int[] {
+			// Left
+			0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 1, 1,
+			// Right
+			1, 0, 0, 1, 0, 1, 1, 1, 1, 1, 1, 0,
+			// Top
+			0, 1, 0, 1, 1, 0, 1, 1, 1, 0, 1, 1,
+			// Bottom
+			0, 0, 0, 1, 0, 0, 1, 0, 1, 0, 0, 1,
+			// Back
+			0, 0, 0, 1, 0, 0, 1, 1, 0, 0, 1, 0,
+			// Front
+			1, 0, 1, 0, 0, 1, 0, 1, 1, 1, 1, 1 };
 
-	private static final Vector3[] RIGHT_SIDE_VERTICES = new Vector3[] { new Vector3(1, 0, 0), new Vector3(1, 0, 1), new Vector3(1, 1, 1), new Vector3(1, 1, 0), };
+	/**
+	 * The order the vertices of every side get written in (indices into SIDE_VERTICES and the face's uvs).
+	 * Makes all sides face outwards with the shared index pattern QuadIndexBuffer.QUAD_INDICES.
+	 */
+	private static final int[] SIDE_VERTEX_ORDER = new int[] {
+			// Left, right, top
+			0, 1, 2, 3, /* */0, 1, 2, 3, /* */0, 1, 2, 3,
+			// Bottom
+			0, 3, 2, 1,
+			// Back, front
+			0, 1, 2, 3, /* */0, 1, 2, 3 };
 
-	private static final Vector3[] RIGHT_SIDE_NORMALS = new Vector3[] { new Vector3(-1, 0, 0), new Vector3(-1, 0, 0), new Vector3(-1, 0, 0), new Vector3(-1, 0, 0) };
+	/**
+	 * The count of vertices per side.
+	 */
+	private static final int SIDE_VERTEX_COUNT = QuadIndexBuffer.VERTICES_PER_QUAD;
 
-	private static final short[] RIGHT_SIDE_INDICES = new short[] { 1, 0, 2, 0, 3, 2 };
+	/**
+	 * The plane axes of every side (0 = x, 1 = y, 2 = z): The normal axis, followed by the two axes spanning the side.
+	 * Used by the greedy mesher to walk the faces of one slice.
+	 */
+	private static final int[] SIDE_AXES = new int[] { 0, 1, 2, /* */0, 1, 2, /* */1, 0, 2, /* */1, 0, 2, /* */2, 0, 1, /* */2, 0, 1 };
 
-	private static final Vector3[] TOP_SIDE_VERTICES = new Vector3[] { new Vector3(0, 1, 0), new Vector3(1, 1, 0), new Vector3(1, 1, 1), new Vector3(0, 1, 1), };
+	/**
+	 * The count of floats per vertex in the result's vertex array.
+	 * 
+	 * @see ChunkVertexFormat
+	 */
+	public static final int vertexSize = ChunkVertexFormat.FLOATS_PER_VERTEX;
 
-	private static final Vector3[] TOP_SIDE_NORMALS = new Vector3[] { new Vector3(0, 1, 0), new Vector3(0, 1, 0), new Vector3(0, 1, 0), new Vector3(0, 1, 0) };
+	/**
+	 * The height of a mesh section in voxels.
+	 */
+	public static final int SECTION_HEIGHT = 4;
 
-	private static final short[] TOP_SIDE_INDICES = new short[] { 1, 0, 2, 0, 3, 2 };
+	/**
+	 * The count of mesh sections per chunk.
+	 */
+	public static final int SECTION_COUNT = VoxelWorld.chunkHeight / SECTION_HEIGHT;
 
-	private static final Vector3[] BOTTOM_SIDE_VERTICES = new Vector3[] { new Vector3(0, 0, 0), new Vector3(1, 0, 0), new Vector3(1, 0, 1), new Vector3(0, 0, 1) };
+	/**
+	 * The section mask containing all sections of a chunk.
+	 */
+	public static final int ALL_SECTIONS = (1 << SECTION_COUNT) - 1;
 
-	private static final Vector3[] BOTTOM_SIDE_NORMALS = new Vector3[] { new Vector3(0, -1, 0), new Vector3(0, -1, 0), new Vector3(0, -1, 0), new Vector3(0, -1, 0) };
+	/**
+	 * The initial capacity of the vertex buffers in vertices, big enough for most terrain chunks.
+	 */
+	private static final int INITIAL_VERTEX_CAPACITY = 16000;
 
-	private static final short[] BOTTOM_SIDE_INDICES = new short[] { 1, 2, 0, 2, 3, 0 };
+	/**
+	 * The vertex buffer of one thread.
+	 */
+	private static final class MeshBuffers
+	{
+		private final FloatArray vertices = new FloatArray(INITIAL_VERTEX_CAPACITY * vertexSize);
 
-	private static final Vector3[] BACK_SIDE_VERTICES = new Vector3[] { new Vector3(0, 0, 0), new Vector3(1, 0, 0), new Vector3(1, 1, 0), new Vector3(0, 1, 0) };
+		/**
+		 * The face keys (see getFaceKey()) of all visible faces, used by the greedy mesher.
+		 * Indexed by side * PaletteVoxelStorage.VOXEL_COUNT + PaletteVoxelStorage.getIndex(x, y, z), 0 means no face.
+		 */
+		private int[] faceKeys;
+	}
 
-	private static final Vector3[] BACK_SIDE_NORMALS = new Vector3[] { new Vector3(0, 0, -1), new Vector3(0, 0, -1), new Vector3(0, 0, -1), new Vector3(0, 0, -1) };
+	/**
+	 * The buffers of every thread building meshes.
+	 * They only grow, so after a few builds no thread allocates buffer space anymore.
+	 */
+	private static final ThreadLocal<MeshBuffers> meshBuffers = new ThreadLocal<MeshBuffers>()
+	{
+		@Override
+		protected MeshBuffers initialValue()
+		{
+			return new MeshBuffers();
+		}
+	};
 
-	private static final short[] BACK_SIDE_INDICES = new short[] { 2, 1, 0, 0, 3, 2 };
+	/**
+	 * Builds the mesh data of the given chunk, merges faces if CubicWorldConfiguration.greedyMeshing is set.
+	 * 
+	 * @param chunk
+	 * @return
+	 */
+	public static ChunkMeshBuilderResult buildMeshData(VoxelChunk chunk)
+	{
+		return buildMeshData(chunk, CubicWorldConfiguration.greedyMeshing);
+	}
 
-	private static final Vector3[] FRON_SIDE_VERTICES = new Vector3[] { new Vector3(1, 0, 1), new Vector3(0, 0, 1), new Vector3(0, 1, 1), new Vector3(1, 1, 1) };
+	/**
+	 * <pre>
+	 * Builds the mesh data of the given chunk.
+	 * 
+	 * If greedy is set, adjacent coplanar faces with the same voxel type, face and light level get merged into one quad.
+	 * Otherwise every visible face gets its own quad.
+	 * </pre>
+	 * 
+	 * @param chunk
+	 * @param greedy
+	 * @return
+	 */
+	public static ChunkMeshBuilderResult buildMeshData(VoxelChunk chunk, boolean greedy)
+	{
+		return buildMeshData(chunk, greedy, 0, VoxelWorld.chunkHeight);
+	}
 
-	private static final Vector3[] FRONT_SIDE_NORMALS = new Vector3[] { new Vector3(0, 0, 1), new Vector3(0, 0, 1), new Vector3(0, 0, 1), new Vector3(0, 0, 1) };
+	/**
+	 * Builds the mesh data of the given section of the chunk, merges faces if CubicWorldConfiguration.greedyMeshing is set.
+	 * 
+	 * @param chunk
+	 * @param section
+	 * @return
+	 */
+	public static ChunkMeshBuilderResult buildSectionMeshData(VoxelChunk chunk, int section)
+	{
+		return buildSectionMeshData(chunk, section, CubicWorldConfiguration.greedyMeshing);
+	}
+
+	/**
+	 * Builds the mesh data of the voxels in the given section of the chunk.
+	 * Greedy quads don't get merged across section borders.
+	 * 
+	 * @param chunk
+	 * @param section
+	 *            The section index (0 - SECTION_COUNT - 1), section 0 contains the bottom voxel layers.
+	 * @param greedy
+	 * @return
+	 */
+	public static ChunkMeshBuilderResult buildSectionMeshData(VoxelChunk chunk, int section, boolean greedy)
+	{
+		return buildMeshData(chunk, greedy, section * SECTION_HEIGHT, (section + 1) * SECTION_HEIGHT);
+	}
 
-	private static final short[] FRONT_SIDE_INDICES = new short[] { 2, 1, 0, 0, 3, 2 };
+	/**
+	 * Returns the mask of the sections containing faces which are affected by changes of the voxel or light level at local height y.
+	 * These are the sections of the voxel layers y - 1, y and y + 1 inside of the chunk.
+	 * 
+	 * @param y
+	 * @return
+	 */
+	public static int getSectionMask(int y)
+	{
+		int mask = 1 << (y / SECTION_HEIGHT);
 
-	private static final int vertexSize = 6;
+		if (y > 0)
+			mask |= 1 << ((y - 1) / SECTION_HEIGHT);
+		if (y < VoxelWorld.chunkHeight - 1)
+			mask |= 1 << ((y + 1) / SECTION_HEIGHT);
 
-	public static ChunkMeshBuilderResult buildMeshData(VoxelChunk chunk)
+		return mask;
+	}
+
+	/**
+	 * Returns the mask of the sections containing the voxels on the chunk border in the given direction (VoxelChunk.NEIGHBOR_*).
+	 * 
+	 * @param direction
+	 * @return
+	 */
+	public static int getBorderSectionMask(int direction)
+	{
+		if (direction == VoxelChunk.NEIGHBOR_TOP)
+			return 1 << (SECTION_COUNT - 1);
+		if (direction == VoxelChunk.NEIGHBOR_BOTTOM)
+			return 1;
+
+		return ALL_SECTIONS;
+	}
+
+	/**
+	 * Stitches the given section mesh data to the mesh data of the whole chunk.
+	 * 
+	 * @param chunk
+	 * @param sections
+	 *            The mesh data of all sections of the chunk.
+	 * @return
+	 */
+	public static ChunkMeshBuilderResult stitch(VoxelChunk chunk, ChunkMeshBuilderResult[] sections)
 	{
-		// Create a local copy of the voxel chunk data
-		VoxelData[][][] voxelData = chunk.getVoxelData();
+		ChunkMeshBuilderResult resultData = new ChunkMeshBuilderResult();
+		resultData.boundingBox = new BoundingBox(chunk.getAbsoluteVoxelPosition(0, 0, 0).toFloatVector(), chunk.getAbsoluteVoxelPosition(VoxelWorld.chunkWidth, VoxelWorld.chunkHeight, VoxelWorld.chunkDepth).toFloatVector());
+
+		int vertexCount = 0;
+		for (int i = 0; i < sections.length; i++)
+			vertexCount += sections[i].vertices.length;
+
+		resultData.vertices = new float[vertexCount];
+		int offset = 0;
+
+		for (int i = 0; i < sections.length; i++)
+		{
+			System.arraycopy(sections[i].vertices, 0, resultData.vertices, offset, sections[i].vertices.length);
+			offset += sections[i].vertices.length;
+			resultData.visibleTileEntities.addAll(sections[i].visibleTileEntities);
+		}
+
+		return resultData;
+	}
+
+	/**
+	 * Builds the mesh data of the voxel layers fromY (inclusive) to toY (exclusive) of the given chunk.
+	 * 
+	 * @param chunk
+	 * @param greedy
+	 * @param fromY
+	 * @param toY
+	 * @return
+	 */
+	private static ChunkMeshBuilderResult buildMeshData(VoxelChunk chunk, boolean greedy, int fromY, int toY)
+	{
+		// All voxel reads of this chunk will use the same immutable snapshot
+		VoxelChunkSnapshot snapshot = chunk.getSnapshot();
 
 		// Create the job data object
 		ChunkMeshBuilderResult resultData = new ChunkMeshBuilderResult();
+		BoundingBox boundingBox = new BoundingBox(chunk.getAbsoluteVoxelPosition(0, 0, 0).toFloatVector(), chunk.getAbsoluteVoxelPosition(VoxelWorld.chunkWidth, VoxelWorld.chunkHeight, VoxelWorld.chunkDepth).toFloatVector());
 
-		// the vertices array list
-		final int initListLength = 16000; // Start with a length of 16000 to avoid re-allocation
-		ArrayList<Float> vertices = new ArrayList<Float>(initListLength * vertexSize);
-		ArrayList<Short> indices = new ArrayList<Short>(initListLength);
-		short indicesCounter = 0;
+		// Empty chunks don't have any faces
+		if (snapshot.isEmpty())
+		{
+			resultData.boundingBox = boundingBox;
+			resultData.vertices = new float[0];
+			return resultData;
+		}
+
+		// Chunks completely filled with one opaque type only have faces on the chunk border.
+		// So only the voxels of the outer shell need to be visited.
+		VoxelType uniformType = snapshot.isUniform() ? snapshot.getVoxelType(0, 0, 0) : null;
+		boolean shellOnly = uniformType != null && !isTranslucent(uniformType) && !uniformType.isTileEntity();
+
+		// Reuse the buffers of this thread
+		MeshBuffers buffers = meshBuffers.get();
+		FloatArray vertices = buffers.vertices;
+		vertices.clear();
+
+		int[] faceKeys = null;
+
+		if (greedy)
+		{
+			if (buffers.faceKeys == null)
+				buffers.faceKeys = new int[SIDE_COUNT * PaletteVoxelStorage.VOXEL_COUNT];
+
+			faceKeys = buffers.faceKeys;
+			Arrays.fill(faceKeys, 0);
+		}
 
 		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
 		{
 			for (int z = 0; z < VoxelWorld.chunkDepth; z++)
 			{
-				for (int y = 0; y < VoxelWorld.chunkHeight; y++)
+				// Inner columns of shell only chunks only need the top and bottom voxel
+				boolean innerColumn = x != 0 && x != VoxelWorld.chunkWidth - 1 && z != 0 && z != VoxelWorld.chunkDepth - 1;
+				boolean shellColumn = shellOnly && innerColumn;
+
+				for (int y = fromY; y < toY; y++)
 				{
+					if (shellColumn && y != 0 && y != VoxelWorld.chunkHeight - 1)
+						continue;
+
 					// Voxel in my position?
-					if (voxelData[x][y][z] == null || voxelData[x][y][z].voxelType == null)
+					VoxelType voxelType = snapshot.getVoxelType(x, y, z);
+					if (voxelType == null)
 						continue;
 
-					Vector3i absolutePos = chunk.getAbsoluteVoxelPosition(x, y, z);
-					Vector3i localPos = new Vector3i(x, y, z);
-					int absX = absolutePos.x;
-					int absY = absolutePos.y;
-					int absZ = absolutePos.z;
-
-					VoxelData leftVoxel = (x == 0 ? chunk.master.getVoxel(absX - 1, absY, absZ) : voxelData[x - 1][y][z]);
-					VoxelData rightVoxel = (x == VoxelWorld.chunkWidth - 1 ? chunk.master.getVoxel(absX + 1, absY, absZ) : voxelData[x + 1][y][z]);
-					VoxelData topVoxel = (y == VoxelWorld.chunkHeight - 1 ? chunk.master.getVoxel(absX, absY + 1, absZ) : voxelData[x][y + 1][z]);
-					VoxelData bottomVoxel = (y == 0 ? chunk.master.getVoxel(absX, absY - 1, absZ) : voxelData[x][y - 1][z]);
-					VoxelData backVoxel = (z == 0 ? chunk.master.getVoxel(absX, absY, absZ - 1) : voxelData[x][y][z - 1]);
-					VoxelData frontVoxel = (z == VoxelWorld.chunkDepth - 1 ? chunk.master.getVoxel(absX, absY, absZ + 1) : voxelData[x][y][z + 1]);
-
-					boolean leftSideVisible = x != 0 ? (leftVoxel == null || leftVoxel.voxelType == null || leftVoxel.voxelType.voxelId < 0 || leftVoxel.voxelType.transparent) : true;
-					boolean rightSideVisible = x != VoxelWorld.chunkWidth - 1 ? (rightVoxel == null || rightVoxel.voxelType == null || rightVoxel.voxelType.voxelId < 0 || rightVoxel.voxelType.transparent) : true;
-					boolean topSideVisible = y != VoxelWorld.chunkHeight - 1 ? (topVoxel == null || topVoxel.voxelType == null || topVoxel.voxelType.voxelId < 0 || topVoxel.voxelType.transparent) : true;
-					boolean bottomSideVisible = y != 0 ? (bottomVoxel == null || bottomVoxel.voxelType == null || bottomVoxel.voxelType.voxelId < 0 || bottomVoxel.voxelType.transparent) : true;
-					boolean backSideVisible = z != 0 ? (backVoxel == null || backVoxel.voxelType == null || backVoxel.voxelType.voxelId < 0 || backVoxel.voxelType.transparent) : true;
-					boolean frontSideVisible = z != VoxelWorld.chunkDepth - 1 ? (frontVoxel == null || frontVoxel.voxelType == null || frontVoxel.voxelType.voxelId < 0 || frontVoxel.voxelType.transparent) : true;
+					// Bit i is set if side i is visible, chunk border faces are always visible
+					int visibleSides = 0;
+
+					for (int side = 0; side < SIDE_COUNT; side++)
+					{
+						int adjacentX = x + SIDE_OFFSETS[side * 3];
+						int adjacentY = y + SIDE_OFFSETS[side * 3 + 1];
+						int adjacentZ = z + SIDE_OFFSETS[side * 3 + 2];
+
+						if (!VoxelChunk.isInBounds(adjacentX, adjacentY, adjacentZ) || isTranslucent(snapshot.getVoxelType(adjacentX, adjacentY, adjacentZ)))
+							visibleSides |= 1 << side;
+					}
+
+					if (visibleSides == 0)
+						continue;
 
 					// Model or normal voxel rendering?
-					if (voxelData[x][y][z].voxelType.isTileEntity() &&
-					// Atleast any side visible?
-							(leftSideVisible || rightSideVisible || topSideVisible || bottomSideVisible || backSideVisible || frontSideVisible))
+					if (voxelType.isTileEntity())
 					{
 						// Add to the visible list
-						resultData.visibleTileEntities.add(localPos);
+						resultData.visibleTileEntities.add(new Vector3i(x, y, z));
 					}
 					else
 					{
 						// Normal voxel rendering
-						VoxelFace[] faceMappings = VoxelChunk.ROTATION_MAPPINGS[voxelData[x][y][z].rotation];
-
-						byte leftLighting = leftVoxel == null ? 0 : leftVoxel.getLightLevel();
-						byte rightLighting = rightVoxel == null ? 0 : rightVoxel.getLightLevel();
-						byte topLighting = topVoxel == null ? 0 : topVoxel.getLightLevel();
-						byte bottomLighting = bottomVoxel == null ? 0 : bottomVoxel.getLightLevel();
-						byte backLighting = backVoxel == null ? 0 : backVoxel.getLightLevel();
-						byte frontLighting = frontVoxel == null ? 0 : frontVoxel.getLightLevel();
+						VoxelFace[] faceMappings = VoxelChunk.ROTATION_MAPPINGS[snapshot.getRotation(x, y, z)];
 
 						// Write mesh data
-						if (leftSideVisible)
-						{
-							WriteSideData(vertices, indices, LEFT_SIDE_VERTICES, LEFT_SIDE_NORMALS, LEFT_SIDE_INDICES, indicesCounter, x, y, z, voxelData[x][y][z], faceMappings[0], leftLighting, chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ());
-							indicesCounter += LEFT_SIDE_VERTICES.length;
-						}
-						if (rightSideVisible)
-						{
-							WriteSideData(vertices, indices, RIGHT_SIDE_VERTICES, RIGHT_SIDE_NORMALS, RIGHT_SIDE_INDICES, indicesCounter, x, y, z, voxelData[x][y][z], faceMappings[1], rightLighting, chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ());
-							indicesCounter += RIGHT_SIDE_VERTICES.length;
-						}
-						if (topSideVisible)
-						{
-							WriteSideData(vertices, indices, TOP_SIDE_VERTICES, TOP_SIDE_NORMALS, TOP_SIDE_INDICES, indicesCounter, x, y, z, voxelData[x][y][z], faceMappings[2], topLighting, chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ());
-							indicesCounter += TOP_SIDE_VERTICES.length;
-						}
-						if (bottomSideVisible)
-						{
-							WriteSideData(vertices, indices, BOTTOM_SIDE_VERTICES, BOTTOM_SIDE_NORMALS, BOTTOM_SIDE_INDICES, indicesCounter, x, y, z, voxelData[x][y][z], faceMappings[3], bottomLighting, chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ());
-							indicesCounter += BOTTOM_SIDE_VERTICES.length;
-						}
-						if (backSideVisible)
-						{
-							WriteSideData(vertices, indices, BACK_SIDE_VERTICES, BACK_SIDE_NORMALS, BACK_SIDE_INDICES, indicesCounter, x, y, z, voxelData[x][y][z], faceMappings[4], backLighting, chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ());
-							indicesCounter += BACK_SIDE_VERTICES.length;
-						}
-						if (frontSideVisible)
+						for (int side = 0; side < SIDE_COUNT; side++)
 						{
-							WriteSideData(vertices, indices, FRON_SIDE_VERTICES, FRONT_SIDE_NORMALS, FRONT_SIDE_INDICES, indicesCounter, x, y, z, voxelData[x][y][z], faceMappings[5], frontLighting, chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ());
-							indicesCounter += FRON_SIDE_VERTICES.length;
+							if ((visibleSides & (1 << side)) == 0)
+								continue;
+
+							int lightLevel = getLightLevel(chunk, x + SIDE_OFFSETS[side * 3], y + SIDE_OFFSETS[side * 3 + 1], z + SIDE_OFFSETS[side * 3 + 2]);
+
+							// The greedy mesher writes the faces after all of them are known
+							if (greedy)
+								faceKeys[side * PaletteVoxelStorage.VOXEL_COUNT + PaletteVoxelStorage.getIndex(x, y, z)] = getFaceKey(voxelType, faceMappings[side], lightLevel);
+							else
+								writeSideData(vertices, side, x, y, z, voxelType, faceMappings[side], lightLevel);
 						}
 					}
 				}
 			}
 		}
 
+		if (greedy)
+			writeGreedyQuads(snapshot, faceKeys, vertices, fromY, toY);
+
 		// Set new models list and bounding box
-		resultData.boundingBox = new BoundingBox(chunk.getAbsoluteVoxelPosition(0, 0, 0).toFloatVector(), chunk.getAbsoluteVoxelPosition(VoxelWorld.chunkWidth, VoxelWorld.chunkHeight, VoxelWorld.chunkDepth).toFloatVector());
+		resultData.boundingBox = boundingBox;
+
+		// Copy the used part of the buffer
+		resultData.vertices = vertices.toArray();
+
+		return resultData;
+	}
 
-		// Generate vertex data
-		resultData.vertices = new float[vertices.size()];
+	/**
+	 * Returns true if the given voxel type is air or transparent.
+	 * 
+	 * @param voxelType
+	 * @return
+	 */
+	private static boolean isTranslucent(VoxelType voxelType)
+	{
+		return voxelType == null || voxelType.voxelId < 0 || voxelType.transparent;
+	}
 
-		for (int i = 0; i < resultData.vertices.length; i++)
+	/**
+	 * Returns the packed light level (see ChunkVertexFormat.packLight()) of the voxel at the given local position.
+	 * Positions outside of the chunk get read from the adjacent chunk, 0 gets returned if the neighbor chunk is not loaded.
+	 * 
+	 * @param chunk
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	private static int getLightLevel(VoxelChunk chunk, int x, int y, int z)
+	{
+		if (VoxelChunk.isInBounds(x, y, z))
 		{
-			resultData.vertices[i] = vertices.get(i).floatValue();
+			int index = PaletteVoxelStorage.getIndex(x, y, z);
+			return ChunkVertexFormat.packLight(chunk.getSunLight().get(index), chunk.getBlockLight().get(index));
 		}
 
-		// Build indices
-		resultData.indices = new short[indices.size()];
+		// Read from the adjacent chunk
+		VoxelChunk neighbor = chunk.getRelativeChunk(x, y, z);
+		if (neighbor == null || neighbor.getSnapshot() == null)
+			return 0;
+
+		int index = PaletteVoxelStorage.getIndex(VoxelChunk.toLocalX(x), VoxelChunk.toLocalY(y), VoxelChunk.toLocalZ(z));
+		return ChunkVertexFormat.packLight(neighbor.getSunLight().get(index), neighbor.getBlockLight().get(index));
+	}
+
+	/**
+	 * Returns the key of a face for the greedy mesher, faces with the same key can be merged.
+	 * The key contains the voxel type, the rotation mapped face and the packed light level and is never 0.
+	 * 
+	 * @param voxelType
+	 * @param face
+	 * @param lightLevel
+	 * @return
+	 */
+	private static int getFaceKey(VoxelType voxelType, VoxelFace face, int lightLevel)
+	{
+		return (((voxelType.voxelId & 0xFFFF) + 1) << 12) | (face.getValue() << 8) | lightLevel;
+	}
+
+	/**
+	 * Returns the coordinate on the given axis of the voxel at position (a, b) in slice n of a side.
+	 * 
+	 * @param axis
+	 * @param normalAxis
+	 * @param axisA
+	 * @param n
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	private static int getAxisCoordinate(int axis, int normalAxis, int axisA, int n, int a, int b)
+	{
+		return axis == normalAxis ? n : (axis == axisA ? a : b);
+	}
+
+	/**
+	 * Returns the chunk size on the given axis.
+	 * 
+	 * @param axis
+	 * @return
+	 */
+	private static int getAxisSize(int axis)
+	{
+		return axis == 0 ? VoxelWorld.chunkWidth : (axis == 1 ? VoxelWorld.chunkHeight : VoxelWorld.chunkDepth);
+	}
+
+	/**
+	 * Returns the distance in the face keys array between two voxels next to each other on the given axis.
+	 * 
+	 * @param axis
+	 * @return
+	 */
+	private static int getAxisStride(int axis)
+	{
+		return PaletteVoxelStorage.getIndex(axis == 0 ? 1 : 0, axis == 1 ? 1 : 0, axis == 2 ? 1 : 0);
+	}
 
-		int i = 0;
-		for (Short index : indices)
+	/**
+	 * <pre>
+	 * Merges the faces in the given face keys array into quads and writes them to the given buffers.
+	 * 
+	 * Every slice of every side gets walked row by row. A quad starts at the first face not merged yet,
+	 * grows along the first side axis while the faces have the same key and then along the second axis while the whole row has the same key.
+	 * The merged faces get removed from the face keys array.
+	 * </pre>
+	 * 
+	 * @param snapshot
+	 * @param faceKeys
+	 * @param vertices
+	 * @param fromY
+	 *            The first voxel layer containing faces.
+	 * @param toY
+	 *            The voxel layer after the last one containing faces.
+	 */
+	private static void writeGreedyQuads(VoxelChunkSnapshot snapshot, int[] faceKeys, FloatArray vertices, int fromY, int toY)
+	{
+		for (int side = 0; side < SIDE_COUNT; side++)
 		{
-			resultData.indices[i] = index.shortValue();
-			i++;
+			int normalAxis = SIDE_AXES[side * 3];
+			int axisA = SIDE_AXES[side * 3 + 1];
+			int axisB = SIDE_AXES[side * 3 + 2];
+			int fromN = normalAxis == 1 ? fromY : 0;
+			int fromA = axisA == 1 ? fromY : 0;
+			int fromB = axisB == 1 ? fromY : 0;
+			int endN = normalAxis == 1 ? toY : getAxisSize(normalAxis);
+			int endA = axisA == 1 ? toY : getAxisSize(axisA);
+			int endB = axisB == 1 ? toY : getAxisSize(axisB);
+			int strideN = getAxisStride(normalAxis);
+			int strideA = getAxisStride(axisA);
+			int strideB = getAxisStride(axisB);
+
+			for (int n = fromN; n < endN; n++)
+			{
+				for (int b = fromB; b < endB; b++)
+				{
+					for (int a = fromA; a < endA; a++)
+					{
+						int index = side * PaletteVoxelStorage.VOXEL_COUNT + n * strideN + a * strideA + b * strideB;
+						int faceKey = faceKeys[index];
+
+						if (faceKey == 0)
+							continue;
+
+						// Grow along axis a
+						int width = 1;
+						while (a + width < endA && faceKeys[index + width * strideA] == faceKey)
+							width++;
+
+						// Grow along axis b while the whole row matches
+						int height = 1;
+						growing: while (b + height < endB)
+						{
+							int rowIndex = index + height * strideB;
+
+							for (int i = 0; i < width; i++)
+							{
+								if (faceKeys[rowIndex + i * strideA] != faceKey)
+									break growing;
+							}
+
+							height++;
+						}
+
+						// Remove the merged faces
+						for (int j = 0; j < height; j++)
+							for (int i = 0; i < width; i++)
+								faceKeys[index + j * strideB + i * strideA] = 0;
+
+						VoxelType voxelType = snapshot.getVoxelType(getAxisCoordinate(0, normalAxis, axisA, n, a, b), getAxisCoordinate(1, normalAxis, axisA, n, a, b), getAxisCoordinate(2, normalAxis, axisA, n, a, b));
+						writeQuadData(vertices, side, n, a, b, width, height, voxelType, (faceKey >> 8) & 0xF, faceKey & 0xFF);
+					}
+				}
+			}
 		}
+	}
 
-		return resultData;
+	/**
+	 * Makes sure the given buffer has space for one more quad.
+	 * The buffer grows by doubling, ensureCapacity() would only grow by the requested count.
+	 * 
+	 * @param vertices
+	 */
+	private static void reserveQuad(FloatArray vertices)
+	{
+		if (vertices.size + SIDE_VERTEX_COUNT * vertexSize > vertices.items.length)
+			vertices.ensureCapacity(Math.max(SIDE_VERTEX_COUNT * vertexSize, vertices.items.length));
 	}
 
 	/**
-	 * Writes mesh data to the given lists.
+	 * Returns the coordinate of the given position on the given axis.
+	 * 
+	 * @param axis
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	private static int getCoordinate(int axis, int x, int y, int z)
+	{
+		return axis == 0 ? x : (axis == 1 ? y : z);
+	}
+
+	/**
+	 * Writes the vertices of one voxel side to the given buffer.
 	 * 
 	 * @param vertices
-	 *            Main vertex list.
-	 * @param indices
-	 *            Main index list.
-	 * @param uvs
-	 *            Main uvs list.
-	 * @param colors
-	 *            Main colors list.
-	 * @param sideVertices
-	 *            Vertex array from the side vertices array.
-	 * @param sideIndices
-	 *            Side indices from the side indices array.
-	 * @param indicesCounter
-	 *            The current index counter.
+	 *            Main vertex buffer.
+	 * @param side
+	 *            The side index (see SIDE_COUNT).
 	 * @param x
-	 *            The current voxel worldspace position.
+	 *            The voxel's chunk local position.
 	 * @param y
-	 *            The current voxel worldspace position.
+	 *            The voxel's chunk local position.
 	 * @param z
-	 *            The current voxel worldspace position.
-	 * @param color
-	 *            The voxel color.
-	 * @param blockId
-	 *            The voxel type id.
+	 *            The voxel's chunk local position.
+	 * @param voxelType
+	 *            The voxel type.
 	 * @param face
-	 *            The foxel face to use for getting uv coordinates.
+	 *            The voxel face to use for getting uv coordinates.
+	 * @param lightLevel
+	 *            The packed light level of the adjacent voxel.
 	 */
-	private static final void WriteSideData(ArrayList<Float> vertices, ArrayList<Short> indices, Vector3[] sideVertices, Vector3[] sideNormals, short[] sideIndices, short indicesCounter, int x, int y, int z, VoxelData voxelData, VoxelFace face, byte lightLevel, int chunkX, int chunkY, int chunkZ)
+	private static final void writeSideData(FloatArray vertices, int side, int x, int y, int z, VoxelType voxelType, VoxelFace face, int lightLevel)
 	{
-		// short blockId = voxelData.voxelType.voxelId;
-
-		Vector2[] uv = voxelData.voxelType.getUvsForFace(face);
+		// A single side is a quad of 1 * 1 voxels
+		int n = getCoordinate(SIDE_AXES[side * 3], x, y, z);
+		int a = getCoordinate(SIDE_AXES[side * 3 + 1], x, y, z);
+		int b = getCoordinate(SIDE_AXES[side * 3 + 2], x, y, z);
 
-		// boolean transparent = VoxelEngine.getVoxelType(blockId).transparent;
+		writeQuadData(vertices, side, n, a, b, 1, 1, voxelType, face.getValue(), lightLevel);
+	}
 
-		// Calculate absolute vertex index count.
-		for (int i = 0; i < sideIndices.length; i++)
+	/**
+	 * <pre>
+	 * Writes the vertices of a quad to the given buffer.
+	 * 
+	 * The vertices reference the face's atlas tile,
+	 * the texture repeat is the position of the vertex inside of the quad in tiles, so the texture gets repeated once per voxel.
+	 * The tile and the texture orientation get derived from the corner uvs of the face.
+	 * </pre>
+	 * 
+	 * @param vertices
+	 * @param side
+	 * @param n
+	 *            The slice on the side's normal axis.
+	 * @param a
+	 *            The quad's origin on the side's first axis.
+	 * @param b
+	 *            The quad's origin on the side's second axis.
+	 * @param width
+	 *            The quad's size on the side's first axis.
+	 * @param height
+	 *            The quad's size on the side's second axis.
+	 * @param voxelType
+	 * @param faceValue
+	 *            The rotation mapped face (see VoxelFace.getValue()).
+	 * @param lightLevel
+	 */
+	private static void writeQuadData(FloatArray vertices, int side, int n, int a, int b, int width, int height, VoxelType voxelType, int faceValue, int lightLevel)
+	{
+		reserveQuad(vertices);
+
+		int normalAxis = SIDE_AXES[side * 3];
+		int axisA = SIDE_AXES[side * 3 + 1];
+		int vertexOffset = side * SIDE_VERTEX_COUNT * 3;
+		float[] uvs = voxelType.getUvTable();
+		int uvOffset = faceValue * SIDE_VERTEX_COUNT * 2;
+
+		// The tile origin is the smallest corner uv, the tile size the distance to the biggest one
+		float minU = Math.min(Math.min(uvs[uvOffset], uvs[uvOffset + 2]), Math.min(uvs[uvOffset + 4], uvs[uvOffset + 6]));
+		float minV = Math.min(Math.min(uvs[uvOffset + 1], uvs[uvOffset + 3]), Math.min(uvs[uvOffset + 5], uvs[uvOffset + 7]));
+		float maxU = Math.max(Math.max(uvs[uvOffset], uvs[uvOffset + 2]), Math.max(uvs[uvOffset + 4], uvs[uvOffset + 6]));
+		float maxV = Math.max(Math.max(uvs[uvOffset + 1], uvs[uvOffset + 3]), Math.max(uvs[uvOffset + 5], uvs[uvOffset + 7]));
+		int tileX = Math.round(minU / (maxU - minU));
+		int tileY = Math.round(minV / (maxV - minV));
+
+		// Check if the texture's u-axis runs along axis a or axis b of this side
+		boolean uAlongA = true;
+		boolean uAgainstA = true;
+
+		for (int i = 0; i < SIDE_VERTEX_COUNT; i++)
 		{
-			indices.add((short) (indicesCounter + sideIndices[i]));
+			boolean uCorner = uvs[uvOffset + i * 2] > minU;
+			boolean aCorner = SIDE_VERTICES[vertexOffset + i * 3 + axisA] > 0;
+			uAlongA &= uCorner == aCorner;
+			uAgainstA &= uCorner != aCorner;
 		}
 
-		float lightValue = lightLevel / (float) CubicWorldConfiguration.maxLightLevel;
+		int repeatU = (uAlongA || uAgainstA) ? width : height;
+		int repeatV = (uAlongA || uAgainstA) ? height : width;
+		float[] vertexItems = vertices.items;
+		int size = vertices.size;
 
-		// Transform vertices based on the block's position.
-		for (int i = 0; i < sideVertices.length; i++)
+		for (int k = 0; k < SIDE_VERTEX_COUNT; k++)
 		{
-			float vertX = sideVertices[i].x + x + ((float) chunkX * (float) VoxelWorld.chunkWidth);
-			float vertY = sideVertices[i].y + y + ((float) chunkY * (float) VoxelWorld.chunkHeight);
-			float vertZ = sideVertices[i].z + z + ((float) chunkZ * (float) VoxelWorld.chunkDepth);
-
-			vertices.add(vertX);
-			vertices.add(vertY);
-			vertices.add(vertZ);
-			vertices.add(uv[i].x);
-			vertices.add(uv[i].y);
-			vertices.add(lightValue);
+			int i = SIDE_VERTEX_ORDER[side * SIDE_VERTEX_COUNT + k];
+			int cornerX = SIDE_VERTICES[vertexOffset + i * 3];
+			int cornerY = SIDE_VERTICES[vertexOffset + i * 3 + 1];
+			int cornerZ = SIDE_VERTICES[vertexOffset + i * 3 + 2];
+
+			int x = normalAxis == 0 ? n + cornerX : (axisA == 0 ? a + cornerX * width : b + cornerX * height);
+			int y = normalAxis == 1 ? n + cornerY : (axisA == 1 ? a + cornerY * width : b + cornerY * height);
+			int z = normalAxis == 2 ? n + cornerZ : (axisA == 2 ? a + cornerZ * width : b + cornerZ * height);
+
+			int vertexRepeatU = uvs[uvOffset + i * 2] > minU ? repeatU : 0;
+			int vertexRepeatV = uvs[uvOffset + i * 2 + 1] > minV ? repeatV : 0;
+
+			ChunkVertexFormat.write(vertexItems, size, x, y, z, lightLevel, tileX, tileY, vertexRepeatU, vertexRepeatV);
+			size += vertexSize;
 		}
+
+		vertices.size = size;
 	}
 }
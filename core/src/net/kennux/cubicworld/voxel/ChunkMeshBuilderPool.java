@@ -0,0 +1,381 @@
+package net.kennux.cubicworld.voxel;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.kennux.cubicworld.math.MathUtils;
+import net.kennux.cubicworld.util.ConsoleHelper;
+
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * <pre>
+ * The chunk mesh builder thread pool.
+ * Builds chunk meshes on worker threads, the render thread only uploads the finished mesh data (see VoxelChunk.render()).
+ *
+ * Requests get built in the order of their priority, which is the distance from the camera to the chunk center.
+ * Chunks behind the camera get their distance doubled, so chunks right in front of the player get built first.
+ * The priorities get recalculated if the camera moved into another chunk or turned around (see setCamera()).
+ *
+ * Every chunk is queued at most once, see VoxelChunk.markMeshBuildQueued().
+ * Requests for chunks which got modified or unloaded while they were queued get dropped,
+ * the chunk requests a new build after its lighting got regenerated.
+ *
+ * The worker threads run until shutdown() gets called (see VoxelWorld.dispose()).
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class ChunkMeshBuilderPool
+{
+	/**
+	 * A queued mesh build request.
+	 */
+	private static class MeshBuildRequest
+	{
+		public final VoxelChunk chunk;
+
+		/**
+		 * Lower values get built first.
+		 */
+		public float priority;
+
+		public MeshBuildRequest(VoxelChunk chunk)
+		{
+			this.chunk = chunk;
+		}
+	}
+
+	/**
+	 * Orders the requests by their priority.
+	 */
+	private static final Comparator<MeshBuildRequest> PRIORITY_COMPARATOR = new Comparator<MeshBuildRequest>()
+	{
+		@Override
+		public int compare(MeshBuildRequest o1, MeshBuildRequest o2)
+		{
+			return Float.compare(o1.priority, o2.priority);
+		}
+	};
+
+	/**
+	 * The minimum dot product between the view direction used for the current priorities and the new one.
+	 * If the camera turns further, the priorities get recalculated.
+	 */
+	private static final float DIRECTION_CHANGE_THRESHOLD = 0.9f;
+
+	/**
+	 * The worker threads.
+	 */
+	private Thread[] workerThreads;
+
+	/**
+	 * The queued requests, guarded by itself.
+	 */
+	private final PriorityQueue<MeshBuildRequest> requests = new PriorityQueue<MeshBuildRequest>(64, PRIORITY_COMPARATOR);
+
+	/**
+	 * The camera position and view direction used for the priorities, guarded by requests.
+	 */
+	private final Vector3 cameraPosition = new Vector3();
+	private final Vector3 cameraDirection = new Vector3(0, 0, -1);
+
+	/**
+	 * Gets set if the camera moved, the priorities get recalculated by the next worker taking a request.
+	 */
+	private boolean prioritiesOutdated;
+
+	/**
+	 * The count of built meshes.
+	 */
+	private final AtomicLong builtCount = new AtomicLong();
+
+	/**
+	 * The count of dropped requests.
+	 */
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	/**
+	 * Initializes and starts the worker threads.
+	 * With 0 threads no mesh gets built until buildNext() gets called.
+	 *
+	 * @param threads
+	 */
+	public ChunkMeshBuilderPool(int threads)
+	{
+		this.workerThreads = new Thread[threads];
+
+		for (int i = 0; i < threads; i++)
+		{
+			this.workerThreads[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					// Workers don't wait while requests are queued, so the interrupt of shutdown() must be checked here
+					while (!Thread.currentThread().isInterrupted())
+					{
+						try
+						{
+							buildNext(takeRequest());
+						}
+						catch (InterruptedException e)
+						{
+							return;
+						}
+						catch (Exception e)
+						{
+							ConsoleHelper.writeLog("error", "Chunk mesh building failed: " + e.getMessage(), "ChunkMeshBuilderPool");
+							ConsoleHelper.logError(e);
+						}
+					}
+				}
+			});
+			this.workerThreads[i].setName("Chunk mesh builder Thread #" + i);
+
+			// Must not keep the client alive after the render thread exited
+			this.workerThreads[i].setDaemon(true);
+			this.workerThreads[i].start();
+		}
+	}
+
+	/**
+	 * Queues a mesh build for the given chunk.
+	 * Does nothing if the chunk is already queued.
+	 *
+	 * @param chunk
+	 */
+	public void request(VoxelChunk chunk)
+	{
+		if (!chunk.markMeshBuildQueued())
+			return;
+
+		MeshBuildRequest request = new MeshBuildRequest(chunk);
+
+		synchronized (this.requests)
+		{
+			request.priority = this.getPriority(chunk);
+			this.requests.add(request);
+			this.requests.notify();
+		}
+	}
+
+	/**
+	 * Sets the camera used for the request priorities.
+	 * Gets called by the render thread every frame.
+	 *
+	 * @param position
+	 * @param direction
+	 *            The normalized view direction.
+	 */
+	public void setCamera(Vector3 position, Vector3 direction)
+	{
+		synchronized (this.requests)
+		{
+			boolean chunkChanged = MathUtils.floorToInt(position.x / VoxelWorld.chunkWidth) != MathUtils.floorToInt(this.cameraPosition.x / VoxelWorld.chunkWidth) || MathUtils.floorToInt(position.y / VoxelWorld.chunkHeight) != MathUtils.floorToInt(this.cameraPosition.y / VoxelWorld.chunkHeight) || MathUtils.floorToInt(position.z / VoxelWorld.chunkDepth) != MathUtils.floorToInt(this.cameraPosition.z / VoxelWorld.chunkDepth);
+
+			if (!chunkChanged && this.cameraDirection.dot(direction) >= DIRECTION_CHANGE_THRESHOLD)
+				return;
+
+			this.cameraPosition.set(position);
+			this.cameraDirection.set(direction);
+			this.prioritiesOutdated = true;
+		}
+	}
+
+	/**
+	 * Returns the priority of the given chunk for the current camera, lower values get built first.
+	 * Must get called while holding the requests lock.
+	 *
+	 * @param chunk
+	 * @return
+	 */
+	private float getPriority(VoxelChunk chunk)
+	{
+		float x = (chunk.getChunkX() + 0.5f) * VoxelWorld.chunkWidth - this.cameraPosition.x;
+		float y = (chunk.getChunkY() + 0.5f) * VoxelWorld.chunkHeight - this.cameraPosition.y;
+		float z = (chunk.getChunkZ() + 0.5f) * VoxelWorld.chunkDepth - this.cameraPosition.z;
+
+		float distance = (float) Math.sqrt(x * x + y * y + z * z);
+
+		if (distance == 0)
+			return 0;
+
+		// 1 in front of the camera, -1 behind it
+		float viewDot = (x * this.cameraDirection.x + y * this.cameraDirection.y + z * this.cameraDirection.z) / distance;
+
+		return distance * (1.5f - 0.5f * viewDot);
+	}
+
+	/**
+	 * Recalculates the priorities of all queued requests.
+	 * Must get called while holding the requests lock.
+	 */
+	private void updatePriorities()
+	{
+		ArrayList<MeshBuildRequest> queued = new ArrayList<MeshBuildRequest>(this.requests);
+		this.requests.clear();
+
+		for (MeshBuildRequest request : queued)
+		{
+			request.priority = this.getPriority(request.chunk);
+			this.requests.add(request);
+		}
+
+		this.prioritiesOutdated = false;
+	}
+
+	/**
+	 * Waits for a request and returns the one with the highest priority.
+	 *
+	 * @return
+	 * @throws InterruptedException
+	 */
+	private MeshBuildRequest takeRequest() throws InterruptedException
+	{
+		synchronized (this.requests)
+		{
+			while (this.requests.isEmpty())
+				this.requests.wait();
+
+			return this.pollRequest();
+		}
+	}
+
+	/**
+	 * Returns the request with the highest priority or null if there is none.
+	 * Must get called while holding the requests lock.
+	 *
+	 * @return
+	 */
+	private MeshBuildRequest pollRequest()
+	{
+		if (this.prioritiesOutdated)
+			this.updatePriorities();
+
+		return this.requests.poll();
+	}
+
+	/**
+	 * Builds the mesh of the queued request with the highest priority on the calling thread.
+	 * Returns the built chunk or null if the queue is empty or the request got dropped.
+	 *
+	 * @return
+	 */
+	public VoxelChunk buildNext()
+	{
+		MeshBuildRequest request;
+
+		synchronized (this.requests)
+		{
+			request = this.pollRequest();
+		}
+
+		if (request == null)
+			return null;
+
+		return this.buildNext(request);
+	}
+
+	/**
+	 * Builds the mesh of the given request.
+	 * Returns the built chunk or null if the request got dropped.
+	 *
+	 * @param request
+	 * @return
+	 */
+	private VoxelChunk buildNext(MeshBuildRequest request)
+	{
+		VoxelChunk chunk = request.chunk;
+
+		// Cleared before building, so modifications while building queue a new request
+		chunk.clearMeshBuildQueued();
+
+		if (!chunk.getState().needsMesh() || !chunk.master.isChunkLoaded(chunk) || !chunk.generateMesh())
+		{
+			this.droppedCount.incrementAndGet();
+			return null;
+		}
+
+		this.builtCount.incrementAndGet();
+		return chunk;
+	}
+
+	/**
+	 * Stops the worker threads and waits until they exited.
+	 * A build in progress gets finished, the queued requests don't get built anymore.
+	 */
+	public void shutdown()
+	{
+		for (Thread workerThread : this.workerThreads)
+			workerThread.interrupt();
+
+		for (Thread workerThread : this.workerThreads)
+		{
+			try
+			{
+				workerThread.join();
+			}
+			catch (InterruptedException e)
+			{
+				// Keep the interrupt for the caller, the workers exit on their own
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the count of worker threads which didn't exit yet.
+	 *
+	 * @return
+	 */
+	public int getRunningWorkerCount()
+	{
+		int count = 0;
+
+		for (Thread workerThread : this.workerThreads)
+		{
+			if (workerThread.isAlive())
+				count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns the count of queued requests.
+	 *
+	 * @return
+	 */
+	public int getQueuedCount()
+	{
+		synchronized (this.requests)
+		{
+			return this.requests.size();
+		}
+	}
+
+	/**
+	 * Returns the count of meshes built by this pool.
+	 *
+	 * @return
+	 */
+	public long getBuiltCount()
+	{
+		return this.builtCount.get();
+	}
+
+	/**
+	 * Returns the count of requests which got dropped because the chunk got modified or unloaded while it was queued.
+	 *
+	 * @return
+	 */
+	public long getDroppedCount()
+	{
+		return this.droppedCount.get();
+	}
+}
@@ -0,0 +1,217 @@
+package net.kennux.cubicworld.voxel;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * <pre>
+ * Coalesces the lighting and mesh regenerations of chunks caused by chunk streaming.
+ *
+ * If a chunk gets instantiated, its adjacent chunks need a new lighting and mesh on their border to the new chunk.
+ * Doing this right away is useless, the new chunk has no voxel data yet and every further instantiated neighbor would trigger the next regeneration.
+ * So the regeneration gets deferred until the new chunk got lit (see deferUntilLit()),
+ * the new chunk doesn't build its own mesh before the regeneration got requested.
+ * Only neighbors whose lighting or mesh got calculated while the new chunk had no voxel data get regenerated
+ * (see VoxelChunk.wasLitWithoutNeighbor() and VoxelChunk.wasMeshedWithoutNeighbor()).
+ *
+ * All requests of one world update get merged per chunk and executed at once by flush(),
+ * so a chunk surrounded by streamed in chunks only gets relit and remeshed once.
+ * The requested and executed counters show how well the requests got coalesced.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class ChunkRemeshScheduler
+{
+	/**
+	 * The merged regeneration requests of one chunk.
+	 */
+	private static class RemeshRequest
+	{
+		public final VoxelChunk chunk;
+
+		/**
+		 * True if the lighting needs to be regenerated.
+		 */
+		public boolean lighting;
+
+		/**
+		 * The mesh sections to rebuild (see ChunkMeshBuilder.getSectionMask()).
+		 */
+		public int sections;
+
+		public RemeshRequest(VoxelChunk chunk)
+		{
+			this.chunk = chunk;
+		}
+	}
+
+	/**
+	 * The voxel world of the scheduled chunks.
+	 */
+	private VoxelWorld master;
+
+	/**
+	 * The chunks whose neighbors get regenerated after they got lit, guarded by this.
+	 */
+	private ArrayList<VoxelChunk> deferredChunks = new ArrayList<VoxelChunk>();
+
+	/**
+	 * The requests of the current update, guarded by this.
+	 */
+	private LinkedHashMap<VoxelChunk, RemeshRequest> requests = new LinkedHashMap<VoxelChunk, RemeshRequest>();
+
+	/**
+	 * The count of requested regenerations.
+	 */
+	private long requestedCount;
+
+	/**
+	 * The count of executed regenerations.
+	 */
+	private long executedCount;
+
+	public ChunkRemeshScheduler(VoxelWorld master)
+	{
+		this.master = master;
+	}
+
+	/**
+	 * Regenerates the lighting and border mesh sections of the adjacent chunks of the given chunk after it got lit.
+	 * Does nothing if the chunk is already deferred.
+	 *
+	 * @param chunk
+	 */
+	public void deferUntilLit(VoxelChunk chunk)
+	{
+		if (!chunk.markNeighborRemeshDeferred())
+			return;
+
+		synchronized (this)
+		{
+			this.deferredChunks.add(chunk);
+		}
+	}
+
+	/**
+	 * Requests the regeneration of the given mesh sections of the given chunk with the next flush() call.
+	 * Requests for the same chunk get merged.
+	 *
+	 * @param chunk
+	 * @param lighting
+	 *            True if the lighting needs to be regenerated too.
+	 * @param sections
+	 */
+	public synchronized void requestRemesh(VoxelChunk chunk, boolean lighting, int sections)
+	{
+		RemeshRequest request = this.requests.get(chunk);
+
+		if (request == null)
+		{
+			request = new RemeshRequest(chunk);
+			this.requests.put(chunk, request);
+		}
+
+		request.lighting |= lighting;
+		request.sections |= sections;
+		this.requestedCount++;
+	}
+
+	/**
+	 * <pre>
+	 * Requests the regenerations of all deferred chunks which got lit, then executes all requests.
+	 * Deferred chunks which got unloaded get dropped.
+	 * Gets called once per world update.
+	 * </pre>
+	 */
+	public void flush()
+	{
+		RemeshRequest[] executedRequests;
+		ArrayList<VoxelChunk> litChunks = new ArrayList<VoxelChunk>();
+
+		synchronized (this)
+		{
+			for (int i = this.deferredChunks.size() - 1; i >= 0; i--)
+			{
+				VoxelChunk chunk = this.deferredChunks.get(i);
+				boolean loaded = this.master.isChunkLoaded(chunk);
+
+				if (loaded && !chunk.getState().isLit())
+					continue;
+
+				// Swap remove, the order doesn't matter
+				this.deferredChunks.set(i, this.deferredChunks.get(this.deferredChunks.size() - 1));
+				this.deferredChunks.remove(this.deferredChunks.size() - 1);
+
+				if (loaded)
+				{
+					for (int direction = 0; direction < VoxelChunk.NEIGHBOR_OFFSETS.length; direction++)
+					{
+						VoxelChunk neighbor = chunk.getNeighbor(direction);
+
+						if (neighbor == null)
+							continue;
+
+						// Only neighbors whose lighting or mesh got calculated without this chunk need a regeneration
+						int neighborDirection = direction ^ 1;
+						boolean lighting = neighbor.wasLitWithoutNeighbor(neighborDirection);
+						int sections = neighbor.wasMeshedWithoutNeighbor(neighborDirection) ? ChunkMeshBuilder.getBorderSectionMask(neighborDirection) : 0;
+
+						if (lighting || sections != 0)
+							this.requestRemesh(neighbor, lighting, sections);
+					}
+				}
+
+				litChunks.add(chunk);
+			}
+
+			executedRequests = this.requests.values().toArray(new RemeshRequest[this.requests.size()]);
+			this.requests.clear();
+			this.executedCount += executedRequests.length;
+		}
+
+		// Executed without holding the lock, the chunks lock their voxel data
+		for (RemeshRequest request : executedRequests)
+		{
+			if (request.lighting)
+				request.chunk.regenerateLighting();
+
+			request.chunk.regenerateMeshSections(request.sections);
+		}
+
+		// Cleared after the neighbors got invalidated, so the lit chunks can't build their mesh before
+		for (VoxelChunk chunk : litChunks)
+			chunk.clearNeighborRemeshDeferred();
+	}
+
+	/**
+	 * Returns the count of chunks waiting for their lighting before their neighbors get regenerated.
+	 *
+	 * @return
+	 */
+	public synchronized int getDeferredCount()
+	{
+		return this.deferredChunks.size();
+	}
+
+	/**
+	 * Returns the count of requested regenerations.
+	 *
+	 * @return
+	 */
+	public synchronized long getRequestedCount()
+	{
+		return this.requestedCount;
+	}
+
+	/**
+	 * Returns the count of executed regenerations, requests for the same chunk in one update count once.
+	 *
+	 * @return
+	 */
+	public synchronized long getExecutedCount()
+	{
+		return this.executedCount;
+	}
+}
@@ -0,0 +1,275 @@
+package net.kennux.cubicworld.voxel;
+
+import com.badlogic.gdx.utils.IntMap;
+import com.badlogic.gdx.utils.LongArray;
+import com.badlogic.gdx.utils.LongMap;
+
+/**
+ * <pre>
+ * Keeps track of the chunk columns (x, z) held by players.
+ *
+ * Every player holds all columns inside of the load radius around the column it is standing in.
+ * A column stays held until the player is farther away than the unload radius, so walking back and forth over a chunk border doesn't load and unload the same chunks all the time.
+ * Columns are reference counted, a column gets released only if no player holds it anymore.
+ *
+ * The index only changes if a player crosses a column border, so the cleanup only needs to look at released columns instead of checking every chunk against every player.
+ *
+ * Player ids are the server slot indices.
+ * This class is thread-safe.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class ChunkRetentionIndex
+{
+	/**
+	 * The reference count of a held column.
+	 */
+	private static final class HeldColumn
+	{
+		/**
+		 * The count of players holding this column.
+		 */
+		private int references;
+	}
+
+	/**
+	 * The column a player is standing in and all columns it holds.
+	 */
+	private static final class PlayerRetention
+	{
+		private int chunkX;
+		private int chunkZ;
+
+		/**
+		 * The columns held by this player, keyed by their column key (see ChunkKey.packColumn()).
+		 */
+		private LongMap<HeldColumn> heldColumns = new LongMap<HeldColumn>();
+	}
+
+	/**
+	 * The radius in columns a player loads around its position.
+	 */
+	private final int loadRadius;
+
+	/**
+	 * The radius in columns after which a player releases a column.
+	 */
+	private final int unloadRadius;
+
+	/**
+	 * All held columns, keyed by their column key.
+	 */
+	private LongMap<HeldColumn> heldColumns = new LongMap<HeldColumn>();
+
+	/**
+	 * The players, keyed by their id.
+	 */
+	private IntMap<PlayerRetention> players = new IntMap<PlayerRetention>();
+
+	/**
+	 * The column keys which may need to get unloaded.
+	 * Contains released columns and columns of chunks loaded outside of all held columns.
+	 */
+	private LongArray releasedColumns = new LongArray();
+
+	private Object lockObject = new Object();
+
+	/**
+	 * @param loadRadius
+	 *            The radius in columns a player loads around its position.
+	 * @param unloadRadius
+	 *            The radius in columns after which a player releases a column, must be at least the load radius.
+	 */
+	public ChunkRetentionIndex(int loadRadius, int unloadRadius)
+	{
+		if (unloadRadius < loadRadius)
+			throw new IllegalArgumentException("The unload radius must be at least the load radius");
+
+		this.loadRadius = loadRadius;
+		this.unloadRadius = unloadRadius;
+	}
+
+	/**
+	 * Updates the column the given player is standing in.
+	 * Does nothing if the player didn't cross a column border since the last call.
+	 *
+	 * @param playerId
+	 * @param chunkX
+	 * @param chunkZ
+	 */
+	public void updatePlayer(int playerId, int chunkX, int chunkZ)
+	{
+		synchronized (this.lockObject)
+		{
+			PlayerRetention player = this.players.get(playerId);
+
+			if (player == null)
+			{
+				player = new PlayerRetention();
+				this.players.put(playerId, player);
+			}
+			else if (player.chunkX == chunkX && player.chunkZ == chunkZ)
+			{
+				return;
+			}
+
+			player.chunkX = chunkX;
+			player.chunkZ = chunkZ;
+
+			// Release all columns outside of the unload radius
+			int unloadRadiusSquared = this.unloadRadius * this.unloadRadius;
+			LongMap.Keys heldKeys = player.heldColumns.keys();
+			LongArray columnsToRelease = null;
+
+			while (heldKeys.hasNext)
+			{
+				long columnKey = heldKeys.next();
+				int distanceX = ChunkKey.unpackX(columnKey) - chunkX;
+				int distanceZ = ChunkKey.unpackZ(columnKey) - chunkZ;
+
+				if (distanceX * distanceX + distanceZ * distanceZ > unloadRadiusSquared)
+				{
+					if (columnsToRelease == null)
+						columnsToRelease = new LongArray();
+
+					columnsToRelease.add(columnKey);
+				}
+			}
+
+			if (columnsToRelease != null)
+			{
+				for (int i = 0; i < columnsToRelease.size; i++)
+					this.release(player, columnsToRelease.get(i));
+			}
+
+			// Hold all columns inside of the load radius
+			int loadRadiusSquared = this.loadRadius * this.loadRadius;
+
+			for (int x = -this.loadRadius; x <= this.loadRadius; x++)
+			{
+				for (int z = -this.loadRadius; z <= this.loadRadius; z++)
+				{
+					if (x * x + z * z > loadRadiusSquared)
+						continue;
+
+					long columnKey = ChunkKey.packColumn(chunkX + x, chunkZ + z);
+
+					if (player.heldColumns.containsKey(columnKey))
+						continue;
+
+					HeldColumn column = this.heldColumns.get(columnKey);
+
+					if (column == null)
+					{
+						column = new HeldColumn();
+						this.heldColumns.put(columnKey, column);
+					}
+
+					column.references++;
+					player.heldColumns.put(columnKey, column);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases all columns held by the given player.
+	 * Call this if the player disconnected, does nothing for unknown players.
+	 *
+	 * @param playerId
+	 */
+	public void removePlayer(int playerId)
+	{
+		synchronized (this.lockObject)
+		{
+			PlayerRetention player = this.players.remove(playerId);
+
+			if (player == null)
+				return;
+
+			LongArray columnsToRelease = new LongArray(player.heldColumns.size);
+			LongMap.Keys heldKeys = player.heldColumns.keys();
+
+			while (heldKeys.hasNext)
+				columnsToRelease.add(heldKeys.next());
+
+			for (int i = 0; i < columnsToRelease.size; i++)
+				this.release(player, columnsToRelease.get(i));
+		}
+	}
+
+	/**
+	 * Removes the given column from the player's held columns and decrements its reference count.
+	 *
+	 * @param player
+	 * @param columnKey
+	 */
+	private void release(PlayerRetention player, long columnKey)
+	{
+		HeldColumn column = player.heldColumns.remove(columnKey);
+		column.references--;
+
+		if (column.references == 0)
+		{
+			this.heldColumns.remove(columnKey);
+			this.releasedColumns.add(columnKey);
+		}
+	}
+
+	/**
+	 * Returns true if any player holds the given column.
+	 *
+	 * @param chunkX
+	 * @param chunkZ
+	 * @return
+	 */
+	public boolean isHeld(int chunkX, int chunkZ)
+	{
+		synchronized (this.lockObject)
+		{
+			return this.heldColumns.containsKey(ChunkKey.packColumn(chunkX, chunkZ));
+		}
+	}
+
+	/**
+	 * Gets called if a chunk got loaded.
+	 * If no player holds its column, the column gets queued for unloading, so chunks loaded outside of all players don't stay forever.
+	 *
+	 * @param chunkX
+	 * @param chunkZ
+	 */
+	public void chunkLoaded(int chunkX, int chunkZ)
+	{
+		long columnKey = ChunkKey.packColumn(chunkX, chunkZ);
+
+		synchronized (this.lockObject)
+		{
+			if (!this.heldColumns.containsKey(columnKey))
+				this.releasedColumns.add(columnKey);
+		}
+	}
+
+	/**
+	 * Adds the keys of all columns which are released and not held again to result and clears the released columns.
+	 * result doesn't get cleared before, the keys may contain duplicates.
+	 *
+	 * @param result
+	 */
+	public void pollReleasedColumns(LongArray result)
+	{
+		synchronized (this.lockObject)
+		{
+			for (int i = 0; i < this.releasedColumns.size; i++)
+			{
+				long columnKey = this.releasedColumns.get(i);
+
+				if (!this.heldColumns.containsKey(columnKey))
+					result.add(columnKey);
+			}
+
+			this.releasedColumns.clear();
+		}
+	}
+}
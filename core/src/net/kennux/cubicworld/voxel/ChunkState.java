@@ -0,0 +1,114 @@
+package net.kennux.cubicworld.voxel;
+
+/**
+ * <pre>
+ * The lifecycle states of a voxel chunk.
+ *
+ * A new chunk goes through REQUESTED -> GENERATING -> GENERATED -> LIT -> MESHED -> UPLOADED.
+ * The server never builds meshes, so LIT is the final state of server chunks.
+ *
+ * Modifications of a chunk which went through the lifecycle once move it to one of the dirty states,
+ * the old mesh keeps getting rendered until the new one got uploaded:
+ *
+ * - DIRTY_LIGHTING: The voxel data changed, the lighting and the mesh need to get regenerated.
+ * - DIRTY_MESH: The lighting is done, only the mesh needs to get regenerated.
+ *
+ * The state is stored in an atomic reference in VoxelChunk, see VoxelChunk.getState().
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public enum ChunkState
+{
+	/**
+	 * The chunk got instantiated, but has no voxel data yet.
+	 */
+	REQUESTED(false, false, false),
+
+	/**
+	 * The chunk got queued for generation or loading from the world file.
+	 */
+	GENERATING(false, false, false),
+
+	/**
+	 * The voxel data is set, the lighting is not calculated yet.
+	 */
+	GENERATED(true, false, false),
+
+	/**
+	 * The lighting is done, the mesh is not built yet.
+	 */
+	LIT(true, true, true),
+
+	/**
+	 * The mesh data got built, but is not uploaded to the gpu yet.
+	 */
+	MESHED(true, true, false),
+
+	/**
+	 * The mesh got uploaded, the chunk is ready for rendering.
+	 */
+	UPLOADED(true, true, false),
+
+	/**
+	 * The voxel data got modified, the lighting and the mesh need to get regenerated.
+	 */
+	DIRTY_LIGHTING(true, false, false),
+
+	/**
+	 * The lighting is done, but the mesh needs to get regenerated.
+	 */
+	DIRTY_MESH(true, true, true);
+
+	private final boolean generated;
+	private final boolean lit;
+	private final boolean needsMesh;
+
+	private ChunkState(boolean generated, boolean lit, boolean needsMesh)
+	{
+		this.generated = generated;
+		this.lit = lit;
+		this.needsMesh = needsMesh;
+	}
+
+	/**
+	 * Returns true if the voxel data of chunks in this state is set.
+	 *
+	 * @return
+	 */
+	public boolean isGenerated()
+	{
+		return this.generated;
+	}
+
+	/**
+	 * Returns true if the lighting of chunks in this state is done.
+	 *
+	 * @return
+	 */
+	public boolean isLit()
+	{
+		return this.lit;
+	}
+
+	/**
+	 * Returns true if chunks in this state need to calculate their lighting.
+	 *
+	 * @return
+	 */
+	public boolean needsLighting()
+	{
+		return this.generated && !this.lit;
+	}
+
+	/**
+	 * Returns true if chunks in this state are lit and need a new mesh.
+	 *
+	 * @return
+	 */
+	public boolean needsMesh()
+	{
+		return this.needsMesh;
+	}
+}
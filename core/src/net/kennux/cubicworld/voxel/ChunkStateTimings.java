@@ -0,0 +1,88 @@
+package net.kennux.cubicworld.voxel;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.kennux.cubicworld.voxel.handlers.IChunkStateListener;
+
+/**
+ * <pre>
+ * Collects the time chunks spend in every lifecycle state.
+ * Every voxel world has one instance registered, see VoxelWorld.getChunkStateTimings().
+ *
+ * For example the average time in GENERATING is the generation time (including the time in the generator queue),
+ * the average time in MESHED is the time until the render thread uploaded a built mesh.
+ * This class is thread-safe.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class ChunkStateTimings implements IChunkStateListener
+{
+	/**
+	 * The summed up nanoseconds spent in each state, indexed by the state ordinal.
+	 */
+	private final AtomicLongArray totalNanos = new AtomicLongArray(ChunkState.values().length);
+
+	/**
+	 * The count of transitions out of each state, indexed by the state ordinal.
+	 */
+	private final AtomicLongArray transitionCounts = new AtomicLongArray(ChunkState.values().length);
+
+	@Override
+	public void handleChunkStateChange(VoxelChunk chunk, ChunkState oldState, ChunkState newState, long nanosInOldState)
+	{
+		this.totalNanos.addAndGet(oldState.ordinal(), nanosInOldState);
+		this.transitionCounts.incrementAndGet(oldState.ordinal());
+	}
+
+	/**
+	 * Returns the count of chunks which left the given state.
+	 *
+	 * @param state
+	 * @return
+	 */
+	public long getTransitionCount(ChunkState state)
+	{
+		return this.transitionCounts.get(state.ordinal());
+	}
+
+	/**
+	 * Returns the summed up nanoseconds chunks spent in the given state.
+	 *
+	 * @param state
+	 * @return
+	 */
+	public long getTotalNanos(ChunkState state)
+	{
+		return this.totalNanos.get(state.ordinal());
+	}
+
+	/**
+	 * Returns the average milliseconds chunks spent in the given state or 0 if no chunk left it yet.
+	 *
+	 * @param state
+	 * @return
+	 */
+	public float getAverageMillis(ChunkState state)
+	{
+		long count = this.getTransitionCount(state);
+
+		if (count == 0)
+			return 0;
+
+		return (this.getTotalNanos(state) / (float) count) / 1000000f;
+	}
+
+	/**
+	 * Resets all timings.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < this.totalNanos.length(); i++)
+		{
+			this.totalNanos.set(i, 0);
+			this.transitionCounts.set(i, 0);
+		}
+	}
+}
@@ -0,0 +1,311 @@
+package net.kennux.cubicworld.voxel;
+
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * Concurrent hash table mapping packed chunk keys (see ChunkKey.pack()) to chunks.
+ *
+ * The table uses open addressing with linear probing on primitive long keys, so lookups don't allocate anything.
+ * It is copy-on-write: put() and remove() build a new table under a lock and publish it through a volatile field.
+ * Chunks get added or removed a few times per second at most, but looked up thousands of times per frame,
+ * so reads are lock-free and never see a partially modified table.
+ *
+ * getChunks() returns all chunks ordered by column (x, z), and bottom to top inside of a column.
+ * The array gets built once per table version.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class ChunkTable
+{
+	/**
+	 * Immutable table version.
+	 */
+	private static final class Table
+	{
+		/**
+		 * The packed keys, only valid where values[i] != null.
+		 */
+		private final long[] keys;
+
+		/**
+		 * The chunks, null for free slots.
+		 */
+		private final VoxelChunk[] values;
+
+		/**
+		 * The count of chunks in this table.
+		 */
+		private final int size;
+
+		/**
+		 * The keys in column order, built on the first call to getKeysInColumnOrder().
+		 */
+		private volatile long[] orderedKeys;
+
+		/**
+		 * The chunks in column order, built on the first call to getChunksInColumnOrder().
+		 */
+		private volatile VoxelChunk[] orderedChunks;
+
+		private Table(int capacity, int size)
+		{
+			this.keys = new long[capacity];
+			this.values = new VoxelChunk[capacity];
+			this.size = size;
+		}
+
+		/**
+		 * Returns the slot index of the given key or -1 if it is not in this table.
+		 *
+		 * @param key
+		 * @return
+		 */
+		private int indexOf(long key)
+		{
+			int mask = this.values.length - 1;
+			int index = ChunkKey.hash(key) & mask;
+
+			while (this.values[index] != null)
+			{
+				if (this.keys[index] == key)
+					return index;
+
+				index = (index + 1) & mask;
+			}
+
+			return -1;
+		}
+
+		/**
+		 * Inserts the given chunk into a free slot.
+		 * Only used while building a new table.
+		 *
+		 * @param key
+		 * @param chunk
+		 */
+		private void insert(long key, VoxelChunk chunk)
+		{
+			int mask = this.values.length - 1;
+			int index = ChunkKey.hash(key) & mask;
+
+			while (this.values[index] != null)
+				index = (index + 1) & mask;
+
+			this.keys[index] = key;
+			this.values[index] = chunk;
+		}
+
+		/**
+		 * Returns the keys ordered by column.
+		 * The packed key layout (x, z, y from high to low bits) sorts chunks of the same column next to each other.
+		 *
+		 * @return
+		 */
+		private long[] getKeysInColumnOrder()
+		{
+			long[] orderedKeys = this.orderedKeys;
+
+			if (orderedKeys == null)
+			{
+				orderedKeys = new long[this.size];
+				int counter = 0;
+
+				for (int i = 0; i < this.values.length; i++)
+				{
+					if (this.values[i] != null)
+						orderedKeys[counter++] = this.keys[i];
+				}
+
+				Arrays.sort(orderedKeys);
+				this.orderedKeys = orderedKeys;
+			}
+
+			return orderedKeys;
+		}
+
+		/**
+		 * Returns the chunks ordered by column.
+		 *
+		 * @return
+		 */
+		private VoxelChunk[] getChunksInColumnOrder()
+		{
+			VoxelChunk[] orderedChunks = this.orderedChunks;
+
+			if (orderedChunks == null)
+			{
+				long[] orderedKeys = this.getKeysInColumnOrder();
+				orderedChunks = new VoxelChunk[orderedKeys.length];
+
+				for (int i = 0; i < orderedKeys.length; i++)
+					orderedChunks[i] = this.values[this.indexOf(orderedKeys[i])];
+
+				this.orderedChunks = orderedChunks;
+			}
+
+			return orderedChunks;
+		}
+	}
+
+	/**
+	 * The minimum table capacity.
+	 */
+	private static final int MIN_CAPACITY = 64;
+
+	/**
+	 * The current table version.
+	 * Readers read this once, writers replace it while holding writeLockObject.
+	 */
+	private volatile Table table = new Table(MIN_CAPACITY, 0);
+
+	/**
+	 * Lock object for put() and remove().
+	 */
+	private Object writeLockObject = new Object();
+
+	/**
+	 * Returns the table capacity needed for the given count of chunks.
+	 * The load factor is kept at 0.5 or below, so probe sequences stay short.
+	 *
+	 * @param size
+	 * @return
+	 */
+	private static int capacityFor(int size)
+	{
+		int capacity = MIN_CAPACITY;
+
+		while (capacity < size * 2)
+			capacity <<= 1;
+
+		return capacity;
+	}
+
+	/**
+	 * Returns the chunk with the given packed key or null if it is not in this table.
+	 * This method is lock-free.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public VoxelChunk get(long key)
+	{
+		Table table = this.table;
+		int index = table.indexOf(key);
+
+		return index == -1 ? null : table.values[index];
+	}
+
+	/**
+	 * Returns true if a chunk with the given packed key is in this table.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public boolean containsKey(long key)
+	{
+		return this.table.indexOf(key) != -1;
+	}
+
+	/**
+	 * Adds or replaces the chunk with the given packed key.
+	 * Returns the replaced chunk or null.
+	 *
+	 * @param key
+	 * @param chunk
+	 * @return
+	 */
+	public VoxelChunk put(long key, VoxelChunk chunk)
+	{
+		synchronized (this.writeLockObject)
+		{
+			Table oldTable = this.table;
+			int oldIndex = oldTable.indexOf(key);
+			int newSize = oldIndex == -1 ? oldTable.size + 1 : oldTable.size;
+
+			Table newTable = new Table(capacityFor(newSize), newSize);
+
+			for (int i = 0; i < oldTable.values.length; i++)
+			{
+				if (oldTable.values[i] != null && i != oldIndex)
+					newTable.insert(oldTable.keys[i], oldTable.values[i]);
+			}
+
+			newTable.insert(key, chunk);
+			this.table = newTable;
+
+			return oldIndex == -1 ? null : oldTable.values[oldIndex];
+		}
+	}
+
+	/**
+	 * Removes the chunk with the given packed key.
+	 * Returns the removed chunk or null if it was not in this table.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public VoxelChunk remove(long key)
+	{
+		synchronized (this.writeLockObject)
+		{
+			Table oldTable = this.table;
+			int oldIndex = oldTable.indexOf(key);
+
+			if (oldIndex == -1)
+				return null;
+
+			// Rebuild without the removed entry, so no tombstones are needed
+			Table newTable = new Table(capacityFor(oldTable.size - 1), oldTable.size - 1);
+
+			for (int i = 0; i < oldTable.values.length; i++)
+			{
+				if (oldTable.values[i] != null && i != oldIndex)
+					newTable.insert(oldTable.keys[i], oldTable.values[i]);
+			}
+
+			this.table = newTable;
+
+			return oldTable.values[oldIndex];
+		}
+	}
+
+	/**
+	 * Returns the count of chunks in this table.
+	 *
+	 * @return
+	 */
+	public int size()
+	{
+		return this.table.size;
+	}
+
+	/**
+	 * <pre>
+	 * Returns all chunks of the current table version in column order.
+	 * The returned array is shared and must not be modified.
+	 * Chunks added or removed after this call are not reflected in the returned array.
+	 * </pre>
+	 *
+	 * @return
+	 */
+	public VoxelChunk[] getChunks()
+	{
+		return this.table.getChunksInColumnOrder();
+	}
+
+	/**
+	 * <pre>
+	 * Returns all packed keys of the current table version in column order.
+	 * The returned array is shared and must not be modified.
+	 * </pre>
+	 *
+	 * @return
+	 */
+	public long[] getKeys()
+	{
+		return this.table.getKeysInColumnOrder();
+	}
+}
@@ -0,0 +1,243 @@
+package net.kennux.cubicworld.voxel;
+
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes.Usage;
+
+/**
+ * <pre>
+ * The packed vertex format of chunk meshes, 8 bytes per vertex.
+ * A vertex consists of two 32 bit words, stored as floats (see Float.intBitsToFloat()) because meshes only take float arrays.
+ * Each word is read by the shader as 4 unsigned bytes:
+ *
+ * v_Position: The packed light level and the chunk local x, y, z (0 - 16).
+ * v_Texture: The face's atlas tile x, y and the texture repeat u, v.
+ *
+ * The chunk origin gets set as uniform (m_chunkOrigin) for every chunk, so positions don't need more than a byte.
+ * The texture repeat is the position of the vertex inside of its quad in tiles,
+ * the shader samples (tile + fract(repeat)) * tileSize, so a quad repeats its tile once per voxel.
+ *
+ * The light level packs the sky light (upper 4 bits) and the block light (lower 4 bits), see packLight().
+ * The sky light gets scaled by the sun light level in the shader (m_sunLight), so the day and night cycle doesn't change the meshes.
+ *
+ * The highest byte of both words never exceeds 127 with valid values (at most 16 for positions and repeats),
+ * so the words are never NaN and survive float conversions unchanged.
+ *
+ * The encoder and decoder only work on float arrays and can be used without an OpenGL context.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class ChunkVertexFormat
+{
+	/**
+	 * The size of a vertex in bytes.
+	 */
+	public static final int BYTES_PER_VERTEX = 8;
+
+	/**
+	 * The count of floats per vertex in mesh vertex arrays.
+	 */
+	public static final int FLOATS_PER_VERTEX = 2;
+
+	/**
+	 * The highest value a byte component can hold.
+	 */
+	public static final int MAX_COMPONENT_VALUE = 255;
+
+	/**
+	 * Returns the vertex attributes of the packed format.
+	 *
+	 * @return
+	 */
+	public static VertexAttribute[] createAttributes()
+	{
+		return new VertexAttribute[] { new VertexAttribute(Usage.ColorPacked, 4, "v_Position"), new VertexAttribute(Usage.ColorPacked, 4, "v_Texture") };
+	}
+
+	/**
+	 * Packs the sky light (sunlight exposure) and block light level (0 - 15) into the light level of a vertex.
+	 *
+	 * @param skyLight
+	 * @param blockLight
+	 * @return
+	 */
+	public static int packLight(int skyLight, int blockLight)
+	{
+		return (skyLight << 4) | blockLight;
+	}
+
+	/**
+	 * Packs 4 byte components into one vertex word.
+	 *
+	 * @param b0
+	 * @param b1
+	 * @param b2
+	 * @param b3
+	 * @return
+	 */
+	private static float pack(int b0, int b1, int b2, int b3)
+	{
+		return Float.intBitsToFloat((b0 & 0xFF) | ((b1 & 0xFF) << 8) | ((b2 & 0xFF) << 16) | ((b3 & 0xFF) << 24));
+	}
+
+	/**
+	 * Returns the byte component at the given index of a vertex word.
+	 *
+	 * @param word
+	 * @param component
+	 * @return
+	 */
+	private static int unpack(float word, int component)
+	{
+		return (Float.floatToRawIntBits(word) >>> (component * 8)) & 0xFF;
+	}
+
+	/**
+	 * Writes a vertex to the given array.
+	 *
+	 * @param vertices
+	 * @param offset
+	 *            The array index of the first float of the vertex.
+	 * @param x
+	 *            Chunk local position.
+	 * @param y
+	 *            Chunk local position.
+	 * @param z
+	 *            Chunk local position.
+	 * @param lightLevel
+	 *            The packed light level, see packLight().
+	 * @param tileX
+	 *            The atlas tile of the face.
+	 * @param tileY
+	 *            The atlas tile of the face.
+	 * @param repeatU
+	 * @param repeatV
+	 */
+	public static void write(float[] vertices, int offset, int x, int y, int z, int lightLevel, int tileX, int tileY, int repeatU, int repeatV)
+	{
+		vertices[offset] = pack(lightLevel, x, y, z);
+		vertices[offset + 1] = pack(tileX, tileY, repeatU, repeatV);
+	}
+
+	/**
+	 * Returns the chunk local x position of the given vertex.
+	 *
+	 * @param vertices
+	 * @param vertex
+	 *            The vertex index.
+	 * @return
+	 */
+	public static int getX(float[] vertices, int vertex)
+	{
+		return unpack(vertices[vertex * FLOATS_PER_VERTEX], 1);
+	}
+
+	/**
+	 * Returns the chunk local y position of the given vertex.
+	 *
+	 * @param vertices
+	 * @param vertex
+	 * @return
+	 */
+	public static int getY(float[] vertices, int vertex)
+	{
+		return unpack(vertices[vertex * FLOATS_PER_VERTEX], 2);
+	}
+
+	/**
+	 * Returns the chunk local z position of the given vertex.
+	 *
+	 * @param vertices
+	 * @param vertex
+	 * @return
+	 */
+	public static int getZ(float[] vertices, int vertex)
+	{
+		return unpack(vertices[vertex * FLOATS_PER_VERTEX], 3);
+	}
+
+	/**
+	 * Returns the packed light level of the given vertex.
+	 *
+	 * @param vertices
+	 * @param vertex
+	 * @return
+	 */
+	public static int getLightLevel(float[] vertices, int vertex)
+	{
+		return unpack(vertices[vertex * FLOATS_PER_VERTEX], 0);
+	}
+
+	/**
+	 * Returns the sky light level of the given vertex.
+	 *
+	 * @param vertices
+	 * @param vertex
+	 * @return
+	 */
+	public static int getSkyLight(float[] vertices, int vertex)
+	{
+		return getLightLevel(vertices, vertex) >> 4;
+	}
+
+	/**
+	 * Returns the block light level of the given vertex.
+	 *
+	 * @param vertices
+	 * @param vertex
+	 * @return
+	 */
+	public static int getBlockLight(float[] vertices, int vertex)
+	{
+		return getLightLevel(vertices, vertex) & 15;
+	}
+
+	/**
+	 * Returns the atlas tile x of the given vertex.
+	 *
+	 * @param vertices
+	 * @param vertex
+	 * @return
+	 */
+	public static int getTileX(float[] vertices, int vertex)
+	{
+		return unpack(vertices[vertex * FLOATS_PER_VERTEX + 1], 0);
+	}
+
+	/**
+	 * Returns the atlas tile y of the given vertex.
+	 *
+	 * @param vertices
+	 * @param vertex
+	 * @return
+	 */
+	public static int getTileY(float[] vertices, int vertex)
+	{
+		return unpack(vertices[vertex * FLOATS_PER_VERTEX + 1], 1);
+	}
+
+	/**
+	 * Returns the texture repeat on the u-axis of the given vertex.
+	 *
+	 * @param vertices
+	 * @param vertex
+	 * @return
+	 */
+	public static int getRepeatU(float[] vertices, int vertex)
+	{
+		return unpack(vertices[vertex * FLOATS_PER_VERTEX + 1], 2);
+	}
+
+	/**
+	 * Returns the texture repeat on the v-axis of the given vertex.
+	 *
+	 * @param vertices
+	 * @param vertex
+	 * @return
+	 */
+	public static int getRepeatV(float[] vertices, int vertex)
+	{
+		return unpack(vertices[vertex * FLOATS_PER_VERTEX + 1], 3);
+	}
+}
@@ -0,0 +1,95 @@
+package net.kennux.cubicworld.voxel;
+
+/**
+ * <pre>
+ * The index data shared by all chunk meshes.
+ * Every quad of a chunk mesh uses the same index pattern (see QUAD_INDICES), so the chunk mesh builder only produces vertices.
+ *
+ * The indices for MAX_QUADS quads get built once. Every chunk mesh gets them uploaded when it gets created,
+ * pooled meshes keep them, so mesh updates only upload vertex data.
+ *
+ * Chunk meshes with more than MAX_QUADS quads get split into multiple meshes (see getMeshCount()),
+ * so the indices never exceed the unsigned short range.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class QuadIndexBuffer
+{
+	/**
+	 * The 6 indices (2 triangles) of a quad, relative to the quad's first vertex.
+	 */
+	public static final short[] QUAD_INDICES = new short[] { 1, 0, 2, 0, 3, 2 };
+
+	/**
+	 * The count of vertices per quad.
+	 */
+	public static final int VERTICES_PER_QUAD = 4;
+
+	/**
+	 * The count of indices per quad.
+	 */
+	public static final int INDICES_PER_QUAD = QUAD_INDICES.length;
+
+	/**
+	 * The maximum count of quads in one mesh.
+	 * Big enough for almost all terrain chunks, bigger chunk meshes get split.
+	 */
+	public static final int MAX_QUADS = 4096;
+
+	/**
+	 * The maximum count of vertices in one mesh.
+	 */
+	public static final int MAX_VERTICES = MAX_QUADS * VERTICES_PER_QUAD;
+
+	/**
+	 * The maximum count of indices in one mesh.
+	 */
+	public static final int MAX_INDICES = MAX_QUADS * INDICES_PER_QUAD;
+
+	/**
+	 * The indices of MAX_QUADS quads.
+	 */
+	private static final short[] indices = buildIndices();
+
+	/**
+	 * Builds the indices of MAX_QUADS quads.
+	 *
+	 * @return
+	 */
+	private static short[] buildIndices()
+	{
+		short[] indices = new short[MAX_INDICES];
+
+		for (int quad = 0; quad < MAX_QUADS; quad++)
+		{
+			for (int i = 0; i < INDICES_PER_QUAD; i++)
+				indices[quad * INDICES_PER_QUAD + i] = (short) (quad * VERTICES_PER_QUAD + QUAD_INDICES[i]);
+		}
+
+		return indices;
+	}
+
+	/**
+	 * Returns the shared indices of MAX_QUADS quads.
+	 * The returned array must not be modified.
+	 *
+	 * @return
+	 */
+	public static short[] getIndices()
+	{
+		return indices;
+	}
+
+	/**
+	 * Returns the count of meshes needed for the given count of quads.
+	 *
+	 * @param quadCount
+	 * @return
+	 */
+	public static int getMeshCount(int quadCount)
+	{
+		return (quadCount + MAX_QUADS - 1) / MAX_QUADS;
+	}
+}
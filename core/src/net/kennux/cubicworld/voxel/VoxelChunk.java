@@ -4,6 +4,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import net.kennux.cubicworld.CubicWorld;
 import net.kennux.cubicworld.CubicWorldConfiguration;
@@ -15,18 +19,22 @@ import net.kennux.cubicworld.networking.packet.inventory.ServerBlockInventoryUpd
 import net.kennux.cubicworld.voxel.ChunkMeshBuilder.ChunkMeshBuilderResult;
 import net.kennux.cubicworld.voxel.handlers.IVoxelTileEntityHandler;
 import net.kennux.cubicworld.voxel.lighting.ALightingSystem;
+import net.kennux.cubicworld.voxel.lighting.FloodFillLightingSystem;
 import net.kennux.cubicworld.voxel.lighting.TestLightingSystem;
+import net.kennux.cubicworld.voxel.storage.HeightMap;
+import net.kennux.cubicworld.voxel.storage.NibbleArray;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
 
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.Mesh;
-import com.badlogic.gdx.graphics.VertexAttribute;
-import com.badlogic.gdx.graphics.VertexAttributes.Usage;
 import com.badlogic.gdx.graphics.glutils.ShaderProgram;
 import com.badlogic.gdx.math.Quaternion;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntMap;
 
 /**
  * Voxel chunk implementation.
@@ -81,6 +89,18 @@ public class VoxelChunk
 	 * </pre>
 	 */
 	public static final Vector3[] FACE_NORMALS = new Vector3[] { new Vector3(1, 0, 0), new Vector3(-1, 0, 0), new Vector3(0, 1, 0), new Vector3(0, -1, 0), new Vector3(0, 0, 1), new Vector3(0, 0, -1), };
+
+	/**
+	 * Neighbor directions used for getNeighbor().
+	 * The order is the same as the side order of ChunkMeshBuilder, opposite directions only differ in the lowest bit.
+	 */
+	public static final int NEIGHBOR_LEFT = 0, NEIGHBOR_RIGHT = 1, NEIGHBOR_TOP = 2, NEIGHBOR_BOTTOM = 3, NEIGHBOR_BACK = 4, NEIGHBOR_FRONT = 5;
+
+	/**
+	 * The chunkspace offsets of the neighbor directions.
+	 */
+	public static final int[][] NEIGHBOR_OFFSETS = new int[][] { { -1, 0, 0 }, { 1, 0, 0 }, { 0, 1, 0 }, { 0, -1, 0 }, { 0, 0, -1 }, { 0, 0, 1 } };
+
 	/**
 	 * Rotation quaternion mappings.
 	 * This quaternions will get used to define a voxel model's rendering rotation based on the rotation byte.
@@ -92,9 +112,10 @@ public class VoxelChunk
 	// END OF STATIC DATA
 
 	/**
-	 * The current voxel mesh used for rendering.
+	 * The current voxel meshes used for rendering.
+	 * Mesh data with more than QuadIndexBuffer.MAX_QUADS quads gets split into multiple meshes.
 	 */
-	private Mesh voxelMesh;
+	private Mesh[] voxelMeshes;
 
 	/**
 	 * Gets used to synchronize voxel data changes.
@@ -102,16 +123,74 @@ public class VoxelChunk
 	private Object voxelDataLockObject = new Object();
 
 	/**
-	 * If this flag is set to true the voxel mesh got marked as dirty, which
-	 * means it needs to get re-generated.
+	 * The lifecycle state of this chunk.
+	 * Only changed through transition(), which notifies the state listeners of the voxel world.
+	 * 
+	 * @see ChunkState
+	 */
+	private final AtomicReference<ChunkState> state = new AtomicReference<ChunkState>(ChunkState.REQUESTED);
+
+	/**
+	 * The System.nanoTime() of the last state transition, used for the per-state timings.
+	 * Only an approximation if two transitions happen at the same time on different threads.
+	 */
+	private volatile long stateChangedNanos = System.nanoTime();
+
+	/**
+	 * Set while this chunk is queued in the mesh builder pool of the voxel world.
+	 * 
+	 * @see ChunkMeshBuilderPool
+	 */
+	private final AtomicBoolean meshBuildQueued = new AtomicBoolean(false);
+
+	/**
+	 * Set while the adjacent chunks wait for this chunk to get lit before they get regenerated.
+	 * This chunk doesn't build its mesh while it is set, the regenerated neighbors would cause a second build.
+	 * 
+	 * @see ChunkRemeshScheduler#deferUntilLit(VoxelChunk)
+	 */
+	private final AtomicBoolean neighborRemeshDeferred = new AtomicBoolean(false);
+
+	/**
+	 * The directions (bits of the NEIGHBOR_* directions) of the adjacent chunks which had no voxel data while the current lighting got calculated.
+	 * Reset if the lighting gets invalidated.
+	 */
+	private volatile int lightingMissingNeighbors;
+
+	/**
+	 * The directions of the adjacent chunks which had no voxel data when the current mesh got built.
+	 */
+	private volatile int meshMissingNeighbors;
+
+	/**
+	 * <pre>
+	 * The mask of the mesh sections (see ChunkMeshBuilder.SECTION_HEIGHT) which need to be rebuilt by the next generateMesh() call.
+	 * All other sections reuse their mesh data of the last build, so a single voxel edit only rebuilds 1 - 2 sections.
+	 * 
+	 * Voxel edits mark the sections around the edited layer, lighting changes mark the sections of the voxels whose light level changed.
+	 * Edits on the chunk border also mark the touching sections of the adjacent chunk.
+	 * </pre>
+	 */
+	private final AtomicInteger dirtyMeshSections = new AtomicInteger(ChunkMeshBuilder.ALL_SECTIONS);
+
+	/**
+	 * The mesh data of the sections of the last built mesh, guarded by generationLockObject.
+	 * Null until the first mesh got built.
+	 */
+	private ChunkMeshBuilderResult[] meshSections;
+
+	/**
+	 * The light levels before the lighting got invalidated, used to find the sections whose light changed (see lightingWasDone()).
+	 * Only used on the client, allocated on the first lighting invalidation and guarded by voxelDataLockObject.
 	 */
-	private boolean voxelMeshDirty;
+	private NibbleArray previousSunLight;
+	private NibbleArray previousBlockLight;
 
 	/**
-	 * If this flag is set to true the new mesh data gots generated by the
-	 * update thread.
+	 * True while previousSunLight and previousBlockLight contain the light levels of the last lit state.
+	 * Guarded by voxelDataLockObject.
 	 */
-	private boolean newMeshDataReady;
+	private boolean previousLightValid;
 
 	/**
 	 * The voxel mesh's bounding box.
@@ -119,11 +198,62 @@ public class VoxelChunk
 	private BoundingBox boundingBox;
 
 	/**
-	 * The voxel data (voxeltype id's, -1 for no block (air) here). You must lock
-	 * voxelDataLockObject when you are writing to this field. After direct
-	 * writing to this you must call setDirty().
+	 * <pre>
+	 * The current snapshot of the palette-compressed voxel data. Null until the chunk got generated or loaded.
+	 * 
+	 * Snapshots are immutable, readers only read this volatile reference once and don't need any lock.
+	 * Writers must lock voxelDataLockObject, modify a copy of the snapshot's storage and publish it with publishSnapshot().
+	 * After writing to this you must call chunkDataWasModified().
+	 * </pre>
+	 */
+	private volatile VoxelChunkSnapshot snapshot;
+
+	/**
+	 * The version of the last published snapshot.
+	 * You must lock voxelDataLockObject when you are accessing this field.
+	 */
+	private long version = 0;
+
+	/**
+	 * The snapshot version which got written to the world file the last time.
+	 * You must lock saveLockObject when you are accessing this field.
+	 */
+	private long savedVersion = -1;
+
+	/**
+	 * Locks save(), it gets called by the update and the cleanup.
+	 */
+	private Object saveLockObject = new Object();
+
+	/**
+	 * The update call id (see VoxelWorld.updateCallId) of the last access to this chunk through the voxel world.
+	 * Used for choosing chunks to evict, only an approximation so it is not synchronized.
+	 */
+	private int lastAccessCallId;
+
+	/**
+	 * The sun light levels (0 - 15) of all voxels in this chunk, indexed by PaletteVoxelStorage.getIndex().
+	 * Only the lighting system should write to this.
+	 */
+	private NibbleArray sunLight;
+
+	/**
+	 * The block light levels (0 - 15) of all voxels in this chunk, indexed by PaletteVoxelStorage.getIndex().
+	 * Only the lighting system should write to this.
+	 */
+	private NibbleArray blockLight;
+
+	/**
+	 * The highest non-air voxel of every (x, z) column in this chunk.
+	 * Gets written while holding voxelDataLockObject, together with the snapshot.
+	 */
+	private HeightMap heightMap = new HeightMap();
+
+	/**
+	 * The loaded adjacent chunks, indexed by the NEIGHBOR_* directions.
+	 * Maintained by the ChunkManager when chunks get added or removed, so border voxel lookups don't need to query the chunk map.
 	 */
-	private volatile VoxelData[][][] voxelData;
+	private final AtomicReferenceArray<VoxelChunk> neighbors = new AtomicReferenceArray<VoxelChunk>(NEIGHBOR_OFFSETS.length);
 
 	/**
 	 * The chunk x-position.
@@ -140,17 +270,12 @@ public class VoxelChunk
 	 */
 	private int chunkZ;
 
-	/**
-	 * Gets set to true after the world generation is done.
-	 */
-	private boolean generationDone = false;
-
 	/**
 	 * Gets set to true if a save of this chunk to the voxel world file is
 	 * needed.
 	 * Will get handled in update().
 	 */
-	private boolean saveDirty = false;
+	private volatile boolean saveDirty = false;
 
 	/**
 	 * The voxel world master instance.
@@ -176,6 +301,27 @@ public class VoxelChunk
 	 */
 	private HashMap<Vector3i, IVoxelTileEntityHandler> tileEntityHandlersCopyInstance = new HashMap<Vector3i, IVoxelTileEntityHandler>();
 
+	/**
+	 * Gets set to true if tileEntityHandlers got modified, update() only copies the handlers if this is set.
+	 * You must lock voxelDataLockObject when you are accessing this field.
+	 */
+	private boolean tileEntityHandlersChanged = false;
+
+	/**
+	 * True while this chunk is in the active set of the chunk manager.
+	 * 
+	 * @see ChunkManager#activate(VoxelChunk)
+	 */
+	private final AtomicBoolean active = new AtomicBoolean(false);
+
+	/**
+	 * True while this chunk is counted as ready for rendering by the chunk manager.
+	 * Only accessed while holding the ready lock of the chunk manager.
+	 * 
+	 * @see ChunkManager#chunkReadinessChanged(VoxelChunk)
+	 */
+	private boolean countedReady = false;
+
 	private Object generationLockObject = new Object();
 
 	/**
@@ -222,20 +368,58 @@ public class VoxelChunk
 
 	/**
 	 * Creates a new mesh for the mesh pool if there is no free one.
+	 * The shared quad indices get set once, pooled meshes keep them.
 	 * 
 	 * @return
 	 */
 	private static Mesh newMesh()
 	{
-		return new Mesh(Mesh.VertexDataType.VertexBufferObject, false, 16368, 16368, new VertexAttribute(Usage.Position, 3, "v_Position"), new VertexAttribute(Usage.TextureCoordinates, 2, "v_Uv"), /* new VertexAttribute(Usage.Normal, 3, "v_Normal"), */new VertexAttribute(Usage.ColorUnpacked, 1, "v_Light"));
+		Mesh mesh = new Mesh(Mesh.VertexDataType.VertexBufferObject, false, QuadIndexBuffer.MAX_VERTICES, QuadIndexBuffer.MAX_INDICES, ChunkVertexFormat.createAttributes());
+		mesh.setIndices(QuadIndexBuffer.getIndices());
+		return mesh;
+	}
+
+	/**
+	 * Returns a mesh from the mesh pool or a new one if the pool is empty.
+	 * 
+	 * @return
+	 */
+	private static Mesh obtainMesh()
+	{
+		Mesh mesh = meshPool.poll();
+
+		if (mesh == null)
+			mesh = newMesh();
+
+		return mesh;
+	}
+
+	/**
+	 * Adds the given meshes starting at the given index to the mesh pool.
+	 * 
+	 * @param meshes
+	 * @param from
+	 */
+	private static void releaseMeshes(Mesh[] meshes, int from)
+	{
+		if (meshes == null)
+			return;
+
+		for (int i = from; i < meshes.length; i++)
+			meshPool.add(meshes[i]);
 	}
 
 	public VoxelChunk(int chunkX, int chunkY, int chunkZ, VoxelWorld master)
 	{
 		// Init lighting system
-		this.lightingSystem = new TestLightingSystem();
+		if (CubicWorldConfiguration.floodFillLighting)
+			this.lightingSystem = new FloodFillLightingSystem();
+		else
+			this.lightingSystem = new TestLightingSystem();
 
-		this.voxelData = null;
+		this.snapshot = null;
+		this.sunLight = new NibbleArray(PaletteVoxelStorage.VOXEL_COUNT);
+		this.blockLight = new NibbleArray(PaletteVoxelStorage.VOXEL_COUNT);
 
 		// Init rotation mappings
 		rotationTransformMappings = new Quaternion[] {
@@ -265,21 +449,37 @@ public class VoxelChunk
 	 */
 	private void chunkDataWasLoaded()
 	{
-		this.lightingSystem.resetLighting();
-		this.voxelMeshDirty = true;
 		this.saveDirty = false;
+		this.markMeshSectionsDirty(ChunkMeshBuilder.ALL_SECTIONS);
+		this.lightingWasInvalidated();
+		this.lightingSystem.resetLighting();
+		this.activate();
 	}
 
 	/**
-	 * Causes this chunk to regenerate it's mesh.
-	 * Will only recalculate lighting and the mesh.
-	 * This will also cause the adjacent chunks to regenerate their meshes.
+	 * Causes this chunk to regenerate it's lighting and mesh.
+	 * The adjacent chunks rebuild the mesh sections on their border if the light on this chunk's border changed.
 	 */
 	public void regenerateLightingAndMesh()
 	{
-		this.lightingSystem.resetLighting();
-		this.voxelMeshDirty = true;
-		this.regenerateAdjacentMeshes();
+		this.markMeshSectionsDirty(ChunkMeshBuilder.ALL_SECTIONS);
+		this.regenerateLighting();
+	}
+
+	/**
+	 * Causes this chunk to regenerate it's lighting.
+	 * Only the mesh sections whose light changed get rebuilt after the new lighting pass.
+	 */
+	public void regenerateLighting()
+	{
+		// Locked, so the update can't finish the old lighting pass after the reset
+		synchronized (this.voxelDataLockObject)
+		{
+			this.lightingWasInvalidated();
+			this.lightingSystem.resetLighting();
+		}
+
+		this.activate();
 	}
 
 	/**
@@ -287,21 +487,115 @@ public class VoxelChunk
 	 */
 	public void regenerateMesh()
 	{
-		this.voxelMeshDirty = true;
+		this.regenerateMeshSections(ChunkMeshBuilder.ALL_SECTIONS);
+	}
+
+	/**
+	 * Causes this chunk to regenerate the given sections of it's mesh (see ChunkMeshBuilder.getSectionMask()).
+	 * 
+	 * @param sections
+	 */
+	public void regenerateMeshSections(int sections)
+	{
+		// Marked before reading the state, a build in flight which already took the dirty sections
+		// sees them after its transition to MESHED and invalidates its mesh (see generateMesh())
+		this.markMeshSectionsDirty(sections);
+		this.invalidateMesh();
+	}
+
+	/**
+	 * Moves a meshed chunk back to DIRTY_MESH, so the dirty mesh sections get rebuilt.
+	 * Chunks in all other states are waiting for a mesh build, which either takes the dirty sections or invalidates its result.
+	 */
+	private void invalidateMesh()
+	{
+		ChunkState current;
+
+		do
+		{
+			current = this.state.get();
+
+			if (current != ChunkState.MESHED && current != ChunkState.UPLOADED)
+				return;
+		}
+		while (!this.transition(current, ChunkState.DIRTY_MESH));
+	}
+
+	/**
+	 * Marks the given mesh sections for rebuilding by the next generateMesh() call.
+	 * Doesn't change the state, the caller must make sure a new mesh gets built.
+	 * 
+	 * @param sections
+	 */
+	private void markMeshSectionsDirty(int sections)
+	{
+		int current;
+
+		do
+		{
+			current = this.dirtyMeshSections.get();
+
+			if ((current | sections) == current)
+				return;
+		}
+		while (!this.dirtyMeshSections.compareAndSet(current, current | sections));
+	}
+
+	/**
+	 * Returns the mask of the mesh sections which will be rebuilt by the next generateMesh() call.
+	 * 
+	 * @return
+	 */
+	public int getDirtyMeshSections()
+	{
+		return this.dirtyMeshSections.get();
 	}
 
 	/**
-	 * Regenerates the adjacent meshes.
-	 * Only the meshes! no lighting calculation will be performed!
+	 * <pre>
+	 * Adds the mesh sections of the adjacent chunks which touch the voxel at the given local position to the given masks.
+	 * Faces of adjacent chunks only depend on the voxels of this chunk on the chunk border.
+	 * </pre>
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param neighborSections
+	 *            The section masks, indexed by the NEIGHBOR_* directions.
 	 */
-	private void regenerateAdjacentMeshes()
+	private static void addNeighborMeshSections(int x, int y, int z, int[] neighborSections)
 	{
-		VoxelChunk[] chunks = new VoxelChunk[] { this.master.getChunk(chunkX + 1, chunkY, chunkZ, false), this.master.getChunk(chunkX - 1, chunkY, chunkZ, false), this.master.getChunk(chunkX, chunkY + 1, chunkZ, false), this.master.getChunk(chunkX, chunkY - 1, chunkZ, false), this.master.getChunk(chunkX, chunkY, chunkZ + 1, false), this.master.getChunk(chunkX, chunkY, chunkZ - 1, false), };
+		int section = 1 << (y / ChunkMeshBuilder.SECTION_HEIGHT);
+
+		if (x == 0)
+			neighborSections[NEIGHBOR_LEFT] |= section;
+		else if (x == VoxelWorld.chunkWidth - 1)
+			neighborSections[NEIGHBOR_RIGHT] |= section;
+
+		if (z == 0)
+			neighborSections[NEIGHBOR_BACK] |= section;
+		else if (z == VoxelWorld.chunkDepth - 1)
+			neighborSections[NEIGHBOR_FRONT] |= section;
+
+		if (y == 0)
+			neighborSections[NEIGHBOR_BOTTOM] |= 1 << (ChunkMeshBuilder.SECTION_COUNT - 1);
+		else if (y == VoxelWorld.chunkHeight - 1)
+			neighborSections[NEIGHBOR_TOP] |= 1;
+	}
 
-		for (VoxelChunk vc : chunks)
+	/**
+	 * Regenerates the given mesh sections of the adjacent chunks.
+	 * 
+	 * @param neighborSections
+	 *            The section masks, indexed by the NEIGHBOR_* directions.
+	 */
+	private void regenerateAdjacentMeshSections(int[] neighborSections)
+	{
+		for (int direction = 0; direction < NEIGHBOR_OFFSETS.length; direction++)
 		{
-			if (vc != null)
-				vc.regenerateMesh();
+			VoxelChunk vc = this.neighbors.get(direction);
+			if (vc != null && neighborSections[direction] != 0)
+				vc.regenerateMeshSections(neighborSections[direction]);
 		}
 	}
 
@@ -311,109 +605,916 @@ public class VoxelChunk
 	 */
 	private void chunkDataWasModified()
 	{
+		this.saveDirty = true;
+		this.lightingWasInvalidated();
 		this.lightingSystem.resetLighting();
-		this.voxelMeshDirty = true;
+		this.activate();
+	}
+
+	/**
+	 * Marks this chunk as modified after a voxel edit whose light got updated incrementally.
+	 * Only the given mesh sections get rebuilt, the lighting stays valid.
+	 * 
+	 * @param sections
+	 */
+	private void voxelWasModified(int sections)
+	{
 		this.saveDirty = true;
+		this.regenerateMeshSections(sections);
+		this.activate();
 	}
 
 	/**
-	 * Creates the new mesh from newVertices, newUvs, newColors and newIndices
-	 * lists.
+	 * <pre>
+	 * Moves this chunk to the state after its voxel data got set or modified:
+	 * 
+	 * - REQUESTED, GENERATING -> GENERATED (only if the voxel data is set)
+	 * - GENERATED, DIRTY_LIGHTING -> no change
+	 * - All other states -> DIRTY_LIGHTING
+	 * 
+	 * Callers must hold voxelDataLockObject, so the update can't mark the chunk as lit in between.
+	 * </pre>
 	 */
-	private void createNewMesh()
+	private void lightingWasInvalidated()
 	{
-		synchronized (this.generationLockObject)
+		ChunkState current;
+		ChunkState next;
+
+		this.lightingMissingNeighbors = 0;
+
+		do
 		{
-			// This should actually never happen if no one fucked it up
-			// Let's double check to prevent a full crash
-			if (this.newMeshData == null)
+			current = this.state.get();
+
+			if (current.isGenerated())
+				next = current.needsLighting() ? current : ChunkState.DIRTY_LIGHTING;
+			else
+				next = this.snapshot != null ? ChunkState.GENERATED : current;
+
+			if (next == current)
 				return;
 
-			// Get data
-			float[] newVertices = this.newMeshData.getVertices();
-			short[] newIndices = this.newMeshData.getIndices();
-			ArrayList<Vector3i> newVisibleTileEntities = this.newMeshData.getVisibleTileEntities();
-			BoundingBox newBoundingBox = this.newMeshData.getBoundingBox();
+			// Remember the old light levels, so only the sections with changed light get rebuilt after the new lighting pass
+			if (next == ChunkState.DIRTY_LIGHTING && !this.previousLightValid && !this.master.isServer())
+				this.savePreviousLight();
+		}
+		while (!this.transition(current, next));
+	}
 
-			// Mesh empty?
-			if (newVertices.length == 0)
-			{
-				this.voxelMesh = null;
-			}
-			else
+	/**
+	 * Copies the current light levels to previousSunLight and previousBlockLight.
+	 * Callers must hold voxelDataLockObject.
+	 */
+	private void savePreviousLight()
+	{
+		if (this.previousSunLight == null)
+		{
+			this.previousSunLight = new NibbleArray(PaletteVoxelStorage.VOXEL_COUNT);
+			this.previousBlockLight = new NibbleArray(PaletteVoxelStorage.VOXEL_COUNT);
+		}
+
+		this.previousSunLight.copyFrom(this.sunLight);
+		this.previousBlockLight.copyFrom(this.blockLight);
+		this.previousLightValid = true;
+	}
+
+	/**
+	 * <pre>
+	 * Marks the mesh sections of all voxels whose light level changed since savePreviousLight() got called as dirty.
+	 * The touching sections of adjacent chunks get regenerated if light levels on the chunk border changed.
+	 * Marks all sections if there are no previous light levels.
+	 * 
+	 * Callers must hold voxelDataLockObject.
+	 * </pre>
+	 */
+	private void markChangedLightSectionsDirty()
+	{
+		if (!this.previousLightValid)
+		{
+			this.markMeshSectionsDirty(ChunkMeshBuilder.ALL_SECTIONS);
+			return;
+		}
+
+		this.previousLightValid = false;
+
+		int sections = 0;
+		int[] neighborSections = null;
+		int index = 0;
+
+		// Same order as PaletteVoxelStorage.getIndex()
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+		{
+			for (int z = 0; z < VoxelWorld.chunkDepth; z++)
 			{
-				// Construct new mesh
-				if (this.voxelMesh == null)
+				for (int y = 0; y < VoxelWorld.chunkHeight; y++, index++)
 				{
-					this.voxelMesh = meshPool.poll();
+					if (this.sunLight.get(index) == this.previousSunLight.get(index) && this.blockLight.get(index) == this.previousBlockLight.get(index))
+						continue;
+
+					sections |= ChunkMeshBuilder.getSectionMask(y);
 
-					if (this.voxelMesh == null)
+					if (x == 0 || y == 0 || z == 0 || x == VoxelWorld.chunkWidth - 1 || y == VoxelWorld.chunkHeight - 1 || z == VoxelWorld.chunkDepth - 1)
 					{
-						this.voxelMesh = newMesh();
+						if (neighborSections == null)
+							neighborSections = new int[NEIGHBOR_OFFSETS.length];
+
+						addNeighborMeshSections(x, y, z, neighborSections);
 					}
 				}
+			}
+		}
 
-				// Set the vertices
-				this.voxelMesh.setVertices(newVertices);
-				this.voxelMesh.setIndices(newIndices);
+		this.markMeshSectionsDirty(sections);
 
-				// Set the visible tile entities
-				this.visibleTileEntities = newVisibleTileEntities;
+		if (neighborSections != null)
+			this.regenerateAdjacentMeshSections(neighborSections);
+	}
 
-				// Calculate bounding box
-				try
-				{
-					// DISABLED DUE TO HIGH PERFORMANCE COST
-					// INSTEAD STATIC BOUNDING BOXES WILL GET USED GENERATED IN generateMesh()
-					// this.boundingBox = newMesh.calculateBoundingBox();
-					this.boundingBox = newBoundingBox;
-				}
-				catch (Exception e)
-				{
-					// Happens if there are no vertices in this mesh, so just ignore this error.
-				}
+	/**
+	 * <pre>
+	 * Regenerates the mesh sections of the voxels at the given indices (see PaletteVoxelStorage.getIndex()) after their light got changed
+	 * without relighting this chunk, for example by light propagated from an adjacent chunk.
+	 * The touching sections of adjacent chunks get regenerated for voxels on the chunk border.
+	 * 
+	 * Callers must hold voxelDataLockObject.
+	 * </pre>
+	 * 
+	 * @param indices
+	 */
+	public void lightLevelsWereChanged(IntArray indices)
+	{
+		if (this.master.isServer())
+			return;
+
+		int sections = 0;
+		int[] neighborSections = null;
+
+		for (int i = 0; i < indices.size; i++)
+		{
+			int index = indices.get(i);
+			int x = PaletteVoxelStorage.getX(index);
+			int y = PaletteVoxelStorage.getY(index);
+			int z = PaletteVoxelStorage.getZ(index);
+
+			sections |= ChunkMeshBuilder.getSectionMask(y);
+
+			if (x == 0 || y == 0 || z == 0 || x == VoxelWorld.chunkWidth - 1 || y == VoxelWorld.chunkHeight - 1 || z == VoxelWorld.chunkDepth - 1)
+			{
+				if (neighborSections == null)
+					neighborSections = new int[NEIGHBOR_OFFSETS.length];
+
+				addNeighborMeshSections(x, y, z, neighborSections);
 			}
+		}
+
+		this.regenerateMeshSections(sections);
+
+		if (neighborSections != null)
+			this.regenerateAdjacentMeshSections(neighborSections);
+	}
+
+	/**
+	 * Gets called if light got propagated into this chunk from an adjacent chunk.
+	 * Activates this chunk, so the lighting system applies the propagated light with the next update.
+	 */
+	public void lightWasPropagated()
+	{
+		this.activate();
+	}
+
+	/**
+	 * Moves this chunk from GENERATED to LIT or from DIRTY_LIGHTING to DIRTY_MESH.
+	 * The server doesn't build meshes, so its chunks always move to LIT.
+	 * Gets called by the update after the lighting system got ready, while holding voxelDataLockObject.
+	 */
+	private void lightingWasDone()
+	{
+		ChunkState current = this.state.get();
+
+		if (current == ChunkState.GENERATED || (current == ChunkState.DIRTY_LIGHTING && this.master.isServer()))
+			this.transition(current, ChunkState.LIT);
+		else if (current == ChunkState.DIRTY_LIGHTING)
+		{
+			// Must be marked before the transition, the mesh builder may start right after it
+			this.markChangedLightSectionsDirty();
+			this.transition(current, ChunkState.DIRTY_MESH);
+		}
+	}
+
+	/**
+	 * Moves this chunk from REQUESTED to GENERATING.
+	 * Returns false if the chunk was already requested for generation or has voxel data, so the generation must not be queued again.
+	 * 
+	 * @return
+	 */
+	public boolean beginGeneration()
+	{
+		return this.transition(ChunkState.REQUESTED, ChunkState.GENERATING);
+	}
+
+	/**
+	 * Returns the current lifecycle state of this chunk.
+	 * 
+	 * @return
+	 */
+	public ChunkState getState()
+	{
+		return this.state.get();
+	}
+
+	/**
+	 * <pre>
+	 * Atomically changes the state of this chunk from the given state to the new state.
+	 * Returns false if the chunk was not in the given state.
+	 * 
+	 * On success the state listeners of the voxel world get notified and the chunk gets activated,
+	 * so the chunk manager updates it if the new state needs any work.
+	 * </pre>
+	 * 
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	private boolean transition(ChunkState from, ChunkState to)
+	{
+		if (!this.state.compareAndSet(from, to))
+			return false;
+
+		long now = System.nanoTime();
+		long nanosInOldState = now - this.stateChangedNanos;
+		this.stateChangedNanos = now;
+
+		if (this.master != null)
+			this.master.chunkStateChanged(this, from, to, nanosInOldState);
+
+		this.activate();
+
+		return true;
+	}
+
+	/**
+	 * Adds this chunk to the active set of the chunk manager, so it gets updated.
+	 * Must be called after setting the state which needs the update, see needsUpdate().
+	 */
+	private void activate()
+	{
+		if (this.master != null)
+			this.master.activateChunk(this);
+	}
+
+	/**
+	 * Marks this chunk as active.
+	 * Returns false if it already was active.
+	 * 
+	 * @return
+	 */
+	boolean markActive()
+	{
+		return this.active.compareAndSet(false, true);
+	}
+
+	/**
+	 * Marks this chunk as inactive.
+	 */
+	void markInactive()
+	{
+		this.active.set(false);
+	}
+
+	/**
+	 * Sets if this chunk is counted as ready for rendering by the chunk manager.
+	 * Returns the previous value.
+	 * Callers must hold the ready lock of the chunk manager.
+	 * 
+	 * @param countedReady
+	 * @return
+	 */
+	boolean setCountedReady(boolean countedReady)
+	{
+		boolean previous = this.countedReady;
+		this.countedReady = countedReady;
+		return previous;
+	}
+
+	/**
+	 * <pre>
+	 * Returns true if update() has something to do for this chunk:
+	 * 
+	 * - It needs to be saved
+	 * - The lighting is not ready
+	 * - It has tile entities which need to be ticked
+	 * - The mesh needs to be regenerated (client only)
+	 * 
+	 * Quiescent chunks get removed from the active set of the chunk manager.
+	 * </pre>
+	 * 
+	 * @return
+	 */
+	boolean needsUpdate()
+	{
+		if (this.saveDirty && this.master.hasWorldFile())
+			return true;
+
+		ChunkState currentState = this.state.get();
+
+		if (currentState.needsLighting() || this.lightingSystem.hasPendingPropagations(this))
+			return true;
+
+		synchronized (this.voxelDataLockObject)
+		{
+			if (this.tileEntityHandlersChanged || !this.tileEntityHandlers.isEmpty())
+				return true;
+		}
+
+		// Queued chunks get built by the mesh builder pool, they get activated again after the build
+		return currentState.needsMesh() && !this.master.isServer() && !this.meshBuildQueued.get();
+	}
+
+	/**
+	 * Marks this chunk as deferred in the remesh scheduler of the voxel world.
+	 * Returns false if it is deferred already.
+	 * 
+	 * @return
+	 */
+	boolean markNeighborRemeshDeferred()
+	{
+		return this.neighborRemeshDeferred.compareAndSet(false, true);
+	}
+
+	/**
+	 * Returns the directions (bits of the NEIGHBOR_* directions) of the adjacent chunks which are not loaded or have no voxel data.
+	 * 
+	 * @return
+	 */
+	private int getMissingNeighbors()
+	{
+		int missing = 0;
+
+		for (int direction = 0; direction < NEIGHBOR_OFFSETS.length; direction++)
+		{
+			VoxelChunk neighbor = this.neighbors.get(direction);
+
+			if (neighbor == null || !neighbor.getState().isGenerated())
+				missing |= 1 << direction;
+		}
+
+		return missing;
+	}
+
+	/**
+	 * Returns true if the adjacent chunk in the given direction had no voxel data while the current lighting got calculated.
+	 * 
+	 * @param direction
+	 * @return
+	 */
+	boolean wasLitWithoutNeighbor(int direction)
+	{
+		return (this.lightingMissingNeighbors & (1 << direction)) != 0;
+	}
+
+	/**
+	 * Returns true if the adjacent chunk in the given direction had no voxel data when the current mesh got built.
+	 * 
+	 * @param direction
+	 * @return
+	 */
+	boolean wasMeshedWithoutNeighbor(int direction)
+	{
+		return (this.meshMissingNeighbors & (1 << direction)) != 0;
+	}
+
+	/**
+	 * Clears the flag set by markNeighborRemeshDeferred().
+	 */
+	void clearNeighborRemeshDeferred()
+	{
+		this.neighborRemeshDeferred.set(false);
+	}
+
+	/**
+	 * Marks this chunk as queued in the mesh builder pool.
+	 * Returns false if it is queued already.
+	 * 
+	 * @return
+	 */
+	boolean markMeshBuildQueued()
+	{
+		return this.meshBuildQueued.compareAndSet(false, true);
+	}
+
+	/**
+	 * Gets called by the mesh builder pool after taking this chunk out of the queue.
+	 */
+	void clearMeshBuildQueued()
+	{
+		this.meshBuildQueued.set(false);
+	}
+
+	/**
+	 * Publishes a new snapshot version after the state of a block inventory changed.
+	 * The voxel storage itself stays the same, but serialized snapshot data would be outdated.
+	 */
+	private void inventoryWasModified()
+	{
+		synchronized (this.voxelDataLockObject)
+		{
+			if (this.snapshot == null)
+				return;
+
+			this.publishSnapshot(this.snapshot.getVoxelStorage());
+			this.chunkDataWasModified();
+		}
+	}
+
+	/**
+	 * Creates the new mesh from newVertices, newUvs, newColors and newIndices
+	 * lists.
+	 */
+	private void createNewMesh()
+	{
+		synchronized (this.generationLockObject)
+		{
+			// This should actually never happen if no one fucked it up
+			// Let's double check to prevent a full crash
+			if (this.newMeshData == null)
+				return;
+
+			// Get data
+			float[] newVertices = this.newMeshData.getVertices();
+			int quadCount = this.newMeshData.getQuadCount();
+			ArrayList<Vector3i> newVisibleTileEntities = this.newMeshData.getVisibleTileEntities();
+			BoundingBox newBoundingBox = this.newMeshData.getBoundingBox();
+
+			// Mesh empty?
+			if (newVertices.length == 0)
+			{
+				releaseMeshes(this.voxelMeshes, 0);
+				this.voxelMeshes = null;
+			}
+			else
+			{
+				// Reuse the current meshes, big meshes get split
+				int meshCount = QuadIndexBuffer.getMeshCount(quadCount);
+				Mesh[] oldMeshes = this.voxelMeshes;
+				Mesh[] meshes = (oldMeshes != null && oldMeshes.length == meshCount) ? oldMeshes : new Mesh[meshCount];
+
+				for (int i = 0; i < meshCount; i++)
+					meshes[i] = (oldMeshes != null && i < oldMeshes.length) ? oldMeshes[i] : obtainMesh();
+
+				if (oldMeshes != meshes)
+					releaseMeshes(oldMeshes, meshCount);
+
+				// Set the vertices, the meshes already contain the quad indices
+				int floatsPerQuad = QuadIndexBuffer.VERTICES_PER_QUAD * ChunkMeshBuilder.vertexSize;
+
+				for (int i = 0; i < meshCount; i++)
+				{
+					int firstQuad = i * QuadIndexBuffer.MAX_QUADS;
+					int quads = Math.min(QuadIndexBuffer.MAX_QUADS, quadCount - firstQuad);
+					meshes[i].setVertices(newVertices, firstQuad * floatsPerQuad, quads * floatsPerQuad);
+				}
+
+				this.voxelMeshes = meshes;
+
+				// Set the visible tile entities
+				this.visibleTileEntities = newVisibleTileEntities;
+
+				// Calculate bounding box
+				try
+				{
+					// DISABLED DUE TO HIGH PERFORMANCE COST
+					// INSTEAD STATIC BOUNDING BOXES WILL GET USED GENERATED IN generateMesh()
+					// this.boundingBox = newMesh.calculateBoundingBox();
+					this.boundingBox = newBoundingBox;
+				}
+				catch (Exception e)
+				{
+					// Happens if there are no vertices in this mesh, so just ignore this error.
+				}
+			}
+
+			// Free old data
+			this.newMeshData = null;
+
+			// Fails if the chunk got modified since the mesh got built, the new mesh is shown until the next one is ready
+			this.transition(ChunkState.MESHED, ChunkState.UPLOADED);
+		}
+	}
+
+	/**
+	 * This call is not thread-safe, only call this on an object which wont get used anymore.
+	 * 
+	 * This will not get called by the garbage collector as this class does not implement the disposable interface.
+	 * It is only used to add the current mesh to the mesh pool.
+	 */
+	public void dispose()
+	{
+		releaseMeshes(this.voxelMeshes, 0);
+		this.voxelMeshes = null;
+	}
+
+	/**
+	 * Writes the current snapshot to the world file if it was modified since the last save.
+	 * Gets called in update() for dirty chunks and before the chunk gets unloaded, so no modification gets lost.
+	 * 
+	 * The world file only queues the snapshot, it gets written in VoxelWorldSave.flushSave().
+	 */
+	public void save()
+	{
+		if (!this.master.hasWorldFile() || !this.isInitialized())
+			return;
+
+		synchronized (this.saveLockObject)
+		{
+			// Reset the flag before reading the snapshot, so modifications while saving will trigger another save
+			this.saveDirty = false;
+			VoxelChunkSnapshot snapshot = this.snapshot;
+
+			// Skip if this version is already saved
+			if (snapshot.getVersion() != this.savedVersion)
+			{
+				this.master.getWorldFile().writeChunk(this.chunkX, this.chunkY, this.chunkZ, snapshot);
+				this.savedVersion = snapshot.getVersion();
+			}
+		}
+	}
+
+	/**
+	 * Marks this chunk as accessed in the given update call.
+	 * 
+	 * @param updateCallId
+	 */
+	void markAccessed(int updateCallId)
+	{
+		// Only write if needed, this gets called on every voxel lookup
+		if (this.lastAccessCallId != updateCallId)
+			this.lastAccessCallId = updateCallId;
+	}
+
+	/**
+	 * Returns the update call id of the last access to this chunk.
+	 * 
+	 * @see VoxelChunk#markAccessed(int)
+	 * @return
+	 */
+	public int getLastAccessCallId()
+	{
+		return this.lastAccessCallId;
+	}
+
+	/**
+	 * Returns the estimated count of bytes used by this chunk (voxel data, light levels and the mesh).
+	 * 
+	 * @return
+	 */
+	public long getMemoryUsage()
+	{
+		// Chunk object, handler maps and position vectors
+		long memoryUsage = 1024;
+
+		// Sun and block light nibbles
+		memoryUsage += PaletteVoxelStorage.VOXEL_COUNT;
+
+		VoxelChunkSnapshot snapshot = this.snapshot;
+		if (snapshot != null)
+			memoryUsage += snapshot.getVoxelStorage().getMemoryUsage();
+
+		Mesh[] voxelMeshes = this.voxelMeshes;
+		if (voxelMeshes != null)
+		{
+			for (Mesh voxelMesh : voxelMeshes)
+				memoryUsage += voxelMesh.getNumVertices() * voxelMesh.getVertexSize() + voxelMesh.getNumIndices() * 2;
+		}
+
+		return memoryUsage;
+	}
+
+	/**
+	 * Generates the voxel mesh based on the current chunk's voxel data.
+	 * Gets called on the world update thread or a thread of the mesh builder pool.
+	 * Returns false if no new mesh data got set, because the chunk didn't need a mesh or got modified while building.
+	 * 
+	 * @return
+	 */
+	boolean generateMesh()
+	{
+		synchronized (this.generationLockObject)
+		{
+			ChunkState meshedState = this.state.get();
+
+			if (!meshedState.needsMesh())
+				return false;
+
+			int missingNeighbors = this.getMissingNeighbors();
+
+			// Only rebuild the dirty sections, the others reuse the mesh data of the last build
+			int sections = this.dirtyMeshSections.getAndSet(0);
+			ChunkMeshBuilderResult[] builtSections = new ChunkMeshBuilderResult[ChunkMeshBuilder.SECTION_COUNT];
+
+			for (int i = 0; i < builtSections.length; i++)
+			{
+				if (this.meshSections == null || (sections & (1 << i)) != 0)
+					builtSections[i] = ChunkMeshBuilder.buildSectionMeshData(this, i);
+				else
+					builtSections[i] = this.meshSections[i];
+			}
+
+			ChunkMeshBuilderResult meshData = ChunkMeshBuilder.stitch(this, builtSections);
+
+			// Fails if the chunk got modified while building, it stays dirty and the stale mesh data gets dropped
+			if (!this.transition(meshedState, ChunkState.MESHED))
+			{
+				this.markMeshSectionsDirty(sections);
+				return false;
+			}
+
+			this.meshSections = builtSections;
+			this.meshMissingNeighbors = missingNeighbors;
+			this.newMeshData = meshData;
+
+			// Sections marked dirty while building were read from the old snapshot or light, their regeneration saw the old state and didn't invalidate the mesh
+			if (this.dirtyMeshSections.get() != 0)
+				this.invalidateMesh();
+
+			return true;
+		}
+	}
+	
+
+
+	/**
+	 * Checks if the the voxel data at the given x|y|z position is not null or
+	 * type id -1. Returns false in the case of an error.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param voxel
+	 * @return
+	 */
+	public boolean hasVoxel(int x, int y, int z)
+	{
+		VoxelChunkSnapshot snapshot = this.snapshot;
+
+		// Bounds check
+		if (snapshot != null && isInBounds(x, y, z))
+			return snapshot.getVoxelType(x, y, z) != null;
+
+		// Not found!
+		return false;
+	}
+
+	/**
+	 * Returns true if the given local voxelspace position is inside of a chunk's bounds.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public static boolean isInBounds(int x, int y, int z)
+	{
+		return x >= 0 && y >= 0 && z >= 0 && x < VoxelWorld.chunkWidth && y < VoxelWorld.chunkHeight && z < VoxelWorld.chunkDepth;
+	}
+
+	/**
+	 * Returns true if the world generator already generated this chunk.
+	 * 
+	 * @return
+	 */
+	public boolean isGenerationDone()
+	{
+		return this.state.get().isGenerated();
+	}
+
+	/**
+	 * Returns true if this voxel chunk is ready for rendering (this means, lighting is done and mesh is generated).
+	 * 
+	 * @return
+	 */
+	public boolean isReadyForRendering()
+	{
+		return this.state.get() == ChunkState.UPLOADED;
+	}
+
+	/**
+	 * Chunk gets initialized after data got set by the generator or it was
+	 * loaded from hdd
+	 * 
+	 * @return
+	 */
+	public boolean isInitialized()
+	{
+		return this.isGenerationDone();
+	}
+
+	/**
+	 * @see ALightingSystem#isPassDone(Class)
+	 * @param lightingPassClass
+	 * @return
+	 */
+	public boolean isLightingPassDone(Class lightingPassClass)
+	{
+		return this.lightingSystem.isPassDone(lightingPassClass);
+	}
+
+	/**
+	 * Returns true if this chunk is initialized and it's lighting is not dirty.
+	 * 
+	 * @return
+	 */
+	public boolean isInitializedAndLightingReady()
+	{
+		return this.state.get().isLit();
+	}
+
+	/**
+	 * Calculates an absolute position from the given local blockspace position.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param vector
+	 * @return
+	 */
+	public Vector3i getAbsoluteVoxelPosition(int x, int y, int z, Vector3i vector)
+	{
+		vector.x = x + this.absoluteChunkPosition.x;
+		vector.y = y + this.absoluteChunkPosition.y;
+		vector.z = z + this.absoluteChunkPosition.z;
+		return vector;
+	}
+
+	/**
+	 * Calculates an absolute position from the given local blockspace position.
+	 * 
+	 * @see VoxelChunk#getAbsoluteVoxelPosition(int, int, int, Vector3i)
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public Vector3i getAbsoluteVoxelPosition(int x, int y, int z)
+	{
+		return this.getAbsoluteVoxelPosition(x, y, z, new Vector3i(0, 0, 0));
+	}
+
+	/**
+	 * Returns the bounding box for a voxel given in local voxelspace.
+	 * If there is no voxel at this position, null will be returned.
+	 * If the voxel is a non-collidable (like vegetation), also null is
+	 * returned.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public BoundingBox getBoundingBox(int x, int y, int z)
+	{
+		// Bounds check
+		if (this.snapshot != null && this.hasVoxel(x, y, z))
+		{
+			return new BoundingBox(new Vector3(x, y, z), new Vector3(x + 1, y + 1, z + 1));
+		}
+
+		// Not found!
+		return null;
+	}
+
+	/**
+	 * Returns the global light level of the block at the given position.
+	 * Returns -1 if there is no voxel in the given position or if an error
+	 * happend.
+	 * The sunlight gets scaled by the current sun light level of the world.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public byte getGlobalLightLevel(int x, int y, int z)
+	{
+		// Bounds check
+		if (this.snapshot != null && isInBounds(x, y, z))
+		{
+			int index = PaletteVoxelStorage.getIndex(x, y, z);
+			byte blockLightLevel = this.blockLight.get(index);
+			byte sunLightLevel = this.master.getSkyLightLevel(this.sunLight.get(index));
+			return blockLightLevel > sunLightLevel ? blockLightLevel : sunLightLevel;
+		}
+
+		// Not found!
+		return -1;
+	}
+
+	/**
+	 * Returns the packed sun light levels of this chunk.
+	 * The lighting system reads and writes this directly.
+	 * 
+	 * @return
+	 */
+	public NibbleArray getSunLight()
+	{
+		return this.sunLight;
+	}
+
+	/**
+	 * Returns the height map of this chunk.
+	 * 
+	 * @see VoxelWorld#getHeight(int, int)
+	 * @return
+	 */
+	public HeightMap getHeightMap()
+	{
+		return this.heightMap;
+	}
+
+	/**
+	 * Returns the packed block light levels of this chunk.
+	 * The lighting system reads and writes this directly.
+	 * 
+	 * @return
+	 */
+	public NibbleArray getBlockLight()
+	{
+		return this.blockLight;
+	}
+
+	/**
+	 * Returns the sun light level of the voxel at the given position.
+	 * Returns -1 if the position is out of bounds.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public byte getSunLightLevel(int x, int y, int z)
+	{
+		if (!isInBounds(x, y, z))
+			return -1;
+
+		return this.sunLight.get(PaletteVoxelStorage.getIndex(x, y, z));
+	}
 
-			this.newMeshDataReady = false;
-			this.voxelMeshDirty = false;
+	/**
+	 * Returns the block light level of the voxel at the given position.
+	 * Returns -1 if the position is out of bounds.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public byte getBlockLightLevel(int x, int y, int z)
+	{
+		if (!isInBounds(x, y, z))
+			return -1;
 
-			// Free old data
-			this.newMeshData = null;
-		}
+		return this.blockLight.get(PaletteVoxelStorage.getIndex(x, y, z));
 	}
 
 	/**
-	 * This call is not thread-safe, only call this on an object which wont get used anymore.
+	 * Sets the sun light level of the voxel at the given position.
+	 * Only the lighting system should call this, values get clamped to 0 - 15.
 	 * 
-	 * This will not get called by the garbage collector as this class does not implement the disposable interface.
-	 * It is only used to add the current mesh to the mesh pool.
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param lightLevel
 	 */
-	public void dispose()
+	public void setSunLightLevel(int x, int y, int z, int lightLevel)
 	{
-		meshPool.add(this.voxelMesh);
+		if (isInBounds(x, y, z))
+			this.sunLight.set(PaletteVoxelStorage.getIndex(x, y, z), lightLevel);
 	}
 
 	/**
-	 * Generates the voxel mesh based on the current chunk's voxel data.
+	 * Sets the block light level of the voxel at the given position.
+	 * Only the lighting system should call this, values get clamped to 0 - 15.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param lightLevel
 	 */
-	private void generateMesh()
+	public void setBlockLightLevel(int x, int y, int z, int lightLevel)
 	{
-		synchronized (this.generationLockObject)
-		{
-			if (!this.lightingSystem.isReady() || this.voxelData == null)
-				return;
-
-			this.newMeshData = ChunkMeshBuilder.buildMeshData(this);
-
-			this.newMeshDataReady = true;
-		}
+		if (isInBounds(x, y, z))
+			this.blockLight.set(PaletteVoxelStorage.getIndex(x, y, z), lightLevel);
 	}
-	
-
 
 	/**
-	 * Checks if the the voxel data at the given x|y|z position is not null or
-	 * type id -1. Returns false in the case of an error.
+	 * <pre>
+	 * Gets the voxel data at the given x|y|z position.
+	 * Returns null in the case of an error.
+	 * 
+	 * Voxels carrying state (inventories, tile entities) are returned as shallow copies,
+	 * their inventory and tile entity are the live instances shared with all snapshots of this chunk.
+	 * For all other voxels a new voxel data object gets created from the chunk's palette.
+	 * The light levels of the returned object are copies.
+	 * </pre>
 	 * 
 	 * @param x
 	 * @param y
@@ -421,193 +1522,257 @@ public class VoxelChunk
 	 * @param voxel
 	 * @return
 	 */
-	public boolean hasVoxel(int x, int y, int z)
+	public VoxelData getVoxel(int x, int y, int z)
 	{
+		VoxelChunkSnapshot snapshot = this.snapshot;
+
 		// Bounds check
-		if (this.voxelData != null && x >= 0 && y >= 0 && z >= 0 && x < VoxelWorld.chunkWidth && y < VoxelWorld.chunkHeight && z < VoxelWorld.chunkDepth)
+		if (snapshot != null && isInBounds(x, y, z))
 		{
-			synchronized (this.voxelDataLockObject)
-			{
-				return this.voxelData[x][y][z] != null && this.voxelData[x][y][z].voxelType != null;
-			}
+			int index = PaletteVoxelStorage.getIndex(x, y, z);
+			return this.withLightLevels(snapshot.getVoxel(x, y, z), index);
 		}
 
 		// Not found!
-		return false;
+		return null;
 	}
 
 	/**
-	 * Returns true if the world generator already generated this chunk.
+	 * Returns the voxel type of the voxel at the given x|y|z position.
+	 * Returns null for air voxels or in the case of an error.
 	 * 
+	 * @param x
+	 * @param y
+	 * @param z
 	 * @return
 	 */
-	public boolean isGenerationDone()
+	public VoxelType getVoxelType(int x, int y, int z)
 	{
-		return generationDone;
+		VoxelChunkSnapshot snapshot = this.snapshot;
+
+		// Bounds check
+		if (snapshot != null && isInBounds(x, y, z))
+			return snapshot.getVoxelType(x, y, z);
+
+		// Not found!
+		return null;
 	}
 
 	/**
-	 * Returns true if this voxel chunk is ready for rendering (this means, lighting is done and mesh is generated).
+	 * Returns the rotation of the voxel at the given x|y|z position.
+	 * Returns 0 in the case of an error.
 	 * 
+	 * @param x
+	 * @param y
+	 * @param z
 	 * @return
 	 */
-	public boolean isReadyForRendering()
+	public byte getVoxelRotation(int x, int y, int z)
 	{
-		return this.isInitializedAndLightingReady() && !this.voxelMeshDirty && !this.newMeshDataReady;
+		VoxelChunkSnapshot snapshot = this.snapshot;
+
+		// Bounds check
+		if (snapshot != null && isInBounds(x, y, z))
+			return snapshot.getRotation(x, y, z);
+
+		// Not found!
+		return 0;
 	}
 
 	/**
-	 * Chunk gets initialized after data got set by the generator or it was
-	 * loaded from hdd
+	 * Returns the current immutable snapshot of this chunk's voxel data.
+	 * Returns null if the chunk is not generated or loaded yet.
+	 * 
+	 * Use this instead of getVoxelData() wherever possible, it does not allocate anything.
 	 * 
 	 * @return
 	 */
-	public boolean isInitialized()
+	public VoxelChunkSnapshot getSnapshot()
 	{
-		return this.voxelData != null && this.isGenerationDone();
+		return this.snapshot;
 	}
 
 	/**
-	 * @see ALightingSystem#isPassDone(Class)
-	 * @param lightingPassClass
-	 * @return
+	 * Publishes a new snapshot for the given storage with the next version.
+	 * You must lock voxelDataLockObject when you are calling this and the storage must not get modified afterwards.
+	 * 
+	 * @param voxelStorage
 	 */
-	public boolean isLightingPassDone(Class lightingPassClass)
+	private void publishSnapshot(PaletteVoxelStorage voxelStorage)
 	{
-		return this.lightingSystem.isPassDone(lightingPassClass);
+		this.version++;
+		this.snapshot = new VoxelChunkSnapshot(voxelStorage, this.version);
 	}
 
 	/**
-	 * Returns true if this chunk is initialized and it's lighting is not dirty.
+	 * Returns the given voxel of a snapshot with the light levels at the given local index.
+	 * Voxels carrying state are shared by all snapshots, readers on other threads must not write to them.
+	 * So their light levels get set on a shallow copy.
 	 * 
+	 * @param voxel
+	 * @param index
 	 * @return
 	 */
-	public boolean isInitializedAndLightingReady()
+	private VoxelData withLightLevels(VoxelData voxel, int index)
 	{
-		return this.isInitialized() && this.lightingSystem.isReady();
+		if (voxel.blockInventory != null || voxel.tileEntity != null)
+			voxel = voxel.copy();
+
+		voxel.setSunLightLevel(this.sunLight.get(index));
+		voxel.setBlockLightLevel(this.blockLight.get(index));
+		return voxel;
 	}
 
 	/**
-	 * Calculates an absolute position from the given local blockspace position.
+	 * Returns the voxel data of this chunk as array.
+	 * The array gets built from the chunk's current snapshot, voxels carrying state (inventories, tile entities) are shallow copies (see getVoxel()).
 	 * 
-	 * @param x
-	 * @param y
-	 * @param z
-	 * @param vector
+	 * @see VoxelChunk#getSnapshot()
 	 * @return
 	 */
-	public Vector3i getAbsoluteVoxelPosition(int x, int y, int z, Vector3i vector)
+	public VoxelData[][][] getVoxelData()
 	{
-		vector.x = x + this.absoluteChunkPosition.x;
-		vector.y = y + this.absoluteChunkPosition.y;
-		vector.z = z + this.absoluteChunkPosition.z;
-		return vector;
+		VoxelChunkSnapshot snapshot = this.snapshot;
+
+		if (snapshot == null)
+			return null;
+
+		VoxelData[][][] voxelData = snapshot.toVoxelData();
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int y = 0; y < VoxelWorld.chunkHeight; y++)
+				for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+				{
+					voxelData[x][y][z] = this.withLightLevels(voxelData[x][y][z], PaletteVoxelStorage.getIndex(x, y, z));
+				}
+
+		return voxelData;
 	}
 
 	/**
-	 * Calculates an absolute position from the given local blockspace position.
+	 * Returns the adjacent chunk in the given direction (NEIGHBOR_*).
+	 * Returns null if the neighbor is not loaded.
 	 * 
-	 * @see VoxelChunk#getAbsoluteVoxelPosition(int, int, int, Vector3i)
-	 * @param x
-	 * @param y
-	 * @param z
+	 * @param direction
 	 * @return
 	 */
-	public Vector3i getAbsoluteVoxelPosition(int x, int y, int z)
+	public VoxelChunk getNeighbor(int direction)
 	{
-		return this.getAbsoluteVoxelPosition(x, y, z, new Vector3i(0, 0, 0));
+		return this.neighbors.get(direction);
 	}
 
 	/**
-	 * Returns the bounding box for a voxel given in local voxelspace.
-	 * If there is no voxel at this position, null will be returned.
-	 * If the voxel is a non-collidable (like vegetation), also null is
-	 * returned.
+	 * Sets the adjacent chunk in the given direction.
+	 * Only the chunk manager should call this.
 	 * 
-	 * @param x
-	 * @param y
-	 * @param z
-	 * @return
+	 * @param direction
+	 * @param neighbor
 	 */
-	public BoundingBox getBoundingBox(int x, int y, int z)
+	void setNeighbor(int direction, VoxelChunk neighbor)
 	{
-		// Bounds check
-		if (this.voxelData != null && x >= 0 && y >= 0 && z >= 0 && x < VoxelWorld.chunkWidth && y < VoxelWorld.chunkHeight && z < VoxelWorld.chunkDepth && this.hasVoxel(x, y, z))
-		{
-			return new BoundingBox(new Vector3(x, y, z), new Vector3(x + 1, y + 1, z + 1));
-		}
+		this.neighbors.set(direction, neighbor);
+	}
 
-		// Not found!
-		return null;
+	/**
+	 * Removes the adjacent chunk in the given direction if it still is the given chunk.
+	 * Only the chunk manager should call this.
+	 * 
+	 * @param direction
+	 * @param neighbor
+	 */
+	void unlinkNeighbor(int direction, VoxelChunk neighbor)
+	{
+		this.neighbors.compareAndSet(direction, neighbor, null);
 	}
 
 	/**
-	 * Returns the global light level of the block at the given position.
-	 * Returns -1 if there is no voxel in the given position or if an error
-	 * happend.
+	 * <pre>
+	 * Returns the chunk containing the given local position.
+	 * The position can be outside of this chunk, it is relative to this chunk's origin.
+	 * 
+	 * Positions inside the directly adjacent chunks get resolved with the neighbor references,
+	 * all others (edges, corners or further away) get looked up in the world.
+	 * Returns null if the chunk is not loaded.
+	 * </pre>
 	 * 
 	 * @param x
 	 * @param y
 	 * @param z
 	 * @return
 	 */
-	public byte getGlobalLightLevel(int x, int y, int z)
+	public VoxelChunk getRelativeChunk(int x, int y, int z)
 	{
-		// Bounds check
-		if (this.voxelData != null && x >= 0 && y >= 0 && z >= 0 && x < VoxelWorld.chunkWidth && y < VoxelWorld.chunkHeight && z < VoxelWorld.chunkDepth)
+		int offsetX = x >> VoxelWorld.chunkWidthShift;
+		int offsetY = y >> VoxelWorld.chunkHeightShift;
+		int offsetZ = z >> VoxelWorld.chunkDepthShift;
+
+		if ((offsetX | offsetY | offsetZ) == 0)
+			return this;
+
+		// Adjacent chunk?
+		if (Math.abs(offsetX) + Math.abs(offsetY) + Math.abs(offsetZ) == 1)
 		{
-			synchronized (this.voxelDataLockObject)
+			for (int direction = 0; direction < NEIGHBOR_OFFSETS.length; direction++)
 			{
-				if (this.voxelData[x][y][z] != null)
-					return this.voxelData[x][y][z].getLightLevel();
+				int[] offset = NEIGHBOR_OFFSETS[direction];
+				if (offset[0] == offsetX && offset[1] == offsetY && offset[2] == offsetZ)
+					return this.neighbors.get(direction);
 			}
 		}
 
-		// Not found!
-		return -1;
+		return this.master.getChunk(this.chunkX + offsetX, this.chunkY + offsetY, this.chunkZ + offsetZ, false);
 	}
 
 	/**
-	 * Gets the voxel data at the given x|y|z position.
-	 * Returns null in the case of an error.
+	 * Returns the voxel at the given local position, which can be outside of this chunk (see getRelativeChunk()).
+	 * Returns null if the voxel's chunk is not loaded or not initialized.
 	 * 
 	 * @param x
 	 * @param y
 	 * @param z
-	 * @param voxel
 	 * @return
 	 */
-	public VoxelData getVoxel(int x, int y, int z)
+	public VoxelData getRelativeVoxel(int x, int y, int z)
 	{
-		// Bounds check
-		if (this.voxelData != null && x >= 0 && y >= 0 && z >= 0 && x < VoxelWorld.chunkWidth && y < VoxelWorld.chunkHeight && z < VoxelWorld.chunkDepth)
-		{
-			synchronized (this.voxelDataLockObject)
-			{
-				return this.voxelData[x][y][z];
-			}
-		}
+		VoxelChunk chunk = this.getRelativeChunk(x, y, z);
 
-		// Not found!
-		return null;
+		if (chunk == null)
+			return null;
+
+		return chunk.getVoxel(toLocalX(x), toLocalY(y), toLocalZ(z));
 	}
 
 	/**
-	 * Returns a copy of the voxel data array.
-	 * Only the array object is a copy, the voxeldata contents of the array are
-	 * references.
+	 * Converts the given x-coordinate relative to any chunk into the local coordinate inside the chunk containing it.
 	 * 
+	 * @param x
 	 * @return
 	 */
-	public VoxelData[][][] getVoxelData()
+	public static int toLocalX(int x)
 	{
-		synchronized (this.voxelDataLockObject)
-		{
-			if (this.voxelData == null)
-				return null;
+		return x & VoxelWorld.chunkWidthMask;
+	}
 
-			return this.voxelData.clone();
-		}
+	/**
+	 * Converts the given y-coordinate relative to any chunk into the local coordinate inside the chunk containing it.
+	 * 
+	 * @param y
+	 * @return
+	 */
+	public static int toLocalY(int y)
+	{
+		return y & VoxelWorld.chunkHeightMask;
+	}
+
+	/**
+	 * Converts the given z-coordinate relative to any chunk into the local coordinate inside the chunk containing it.
+	 * 
+	 * @param z
+	 * @return
+	 */
+	public static int toLocalZ(int z)
+	{
+		return z & VoxelWorld.chunkDepthMask;
 	}
 
 	/**
@@ -644,13 +1809,25 @@ public class VoxelChunk
 	{
 		if (this.master.hasWorldFile() && this.master.getWorldFile().hasChunk(chunkX, chunkY, chunkZ))
 		{
+			// Read
+			PaletteVoxelStorage voxelStorage = this.master.getWorldFile().readChunk(chunkX, chunkY, chunkZ);
+
+			if (voxelStorage == null)
+				return;
+
 			synchronized (this.voxelDataLockObject)
 			{
-				// Read
-				this.voxelData = this.master.getWorldFile().readChunk(chunkX, chunkY, chunkZ);
+				this.heightMap.calculate(voxelStorage);
+				this.publishSnapshot(voxelStorage);
+				this.resetLightLevels();
 				this.setInventoryUpdateHandlerAll();
 				this.chunkDataWasLoaded();
-				this.setGenerationDone(true);
+
+				// The loaded version is already on disk
+				synchronized (this.saveLockObject)
+				{
+					this.savedVersion = this.version;
+				}
 				this.setTileEntityHandlerAll();
 			}
 		}
@@ -671,7 +1848,7 @@ public class VoxelChunk
 		CubicWorld.getClient().profiler.startProfiling("MeshCreation" + this.chunkX + "|" + this.chunkY + "|" + this.chunkZ, "");
 		boolean frameMismatch = lastRenderFrameId != Gdx.graphics.getFrameId();
 
-		if (this.voxelMeshDirty && this.newMeshDataReady && (CubicWorldConfiguration.meshCreationsPerFrameLimit == -1 || frameMismatch || creationsProcessedThisFrame <= CubicWorldConfiguration.meshCreationsPerFrameLimit))
+		if (this.state.get() == ChunkState.MESHED && (CubicWorldConfiguration.meshCreationsPerFrameLimit == -1 || frameMismatch || creationsProcessedThisFrame <= CubicWorldConfiguration.meshCreationsPerFrameLimit))
 		{
 			// If the frame ids mismatch
 			if (frameMismatch)
@@ -687,10 +1864,14 @@ public class VoxelChunk
 		CubicWorld.getClient().profiler.stopProfiling("MeshCreation" + this.chunkX + "|" + this.chunkY + "|" + this.chunkZ);
 
 		CubicWorld.getClient().profiler.startProfiling("MeshRendering" + this.chunkX + "|" + this.chunkY + "|" + this.chunkZ, "");
-		if (this.voxelMesh != null && this.boundingBox != null && cam.frustum.boundsInFrustum(this.boundingBox))
+		Mesh[] voxelMeshes = this.voxelMeshes;
+		if (voxelMeshes != null && this.boundingBox != null && cam.frustum.boundsInFrustum(this.boundingBox))
 		{
-			// Render chunk mesh
-			this.voxelMesh.render(shader, GL20.GL_TRIANGLES);
+			// Render chunk meshes, the vertex positions are chunk local
+			shader.setUniformf("m_chunkOrigin", this.chunkX * VoxelWorld.chunkWidth, this.chunkY * VoxelWorld.chunkHeight, this.chunkZ * VoxelWorld.chunkDepth);
+
+			for (Mesh voxelMesh : voxelMeshes)
+				voxelMesh.render(shader, GL20.GL_TRIANGLES, 0, voxelMesh.getNumVertices() / QuadIndexBuffer.VERTICES_PER_QUAD * QuadIndexBuffer.INDICES_PER_QUAD);
 		}
 		CubicWorld.getClient().profiler.stopProfiling("MeshRendering" + this.chunkX + "|" + this.chunkY + "|" + this.chunkZ);
 	}
@@ -700,7 +1881,7 @@ public class VoxelChunk
 	 */
 	public void renderTileEntities(Camera cam)
 	{
-		if (this.voxelMesh != null && this.boundingBox != null && cam.frustum.boundsInFrustum(this.boundingBox))
+		if (this.voxelMeshes != null && this.boundingBox != null && cam.frustum.boundsInFrustum(this.boundingBox))
 		{
 			// Render tile entities
 			CubicWorld.getClient().profiler.startProfiling("TileEntityRendering" + this.chunkX + "|" + this.chunkY + "|" + this.chunkZ, "");
@@ -720,17 +1901,6 @@ public class VoxelChunk
 		}
 	}
 
-	/**
-	 * Call this with true as parameter after the generation of the chunk is
-	 * done.
-	 * 
-	 * @param generationDone
-	 */
-	public void setGenerationDone(boolean generationDone)
-	{
-		this.generationDone = generationDone;
-	}
-
 	/**
 	 * Helper function for setting the inventory update handler.
 	 * 
@@ -762,7 +1932,7 @@ public class VoxelChunk
 					updatePacket.setCullPosition(new Vector3(posX, posY, posZ));
 
 					CubicWorld.getServer().sendPacket(updatePacket);
-					chunkInstance.chunkDataWasModified();
+					chunkInstance.inventoryWasModified();
 				}
 			});
 		}
@@ -778,14 +1948,23 @@ public class VoxelChunk
 		if (!this.master.isServer())
 			return;
 
-		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
-			for (int y = 0; y < VoxelWorld.chunkHeight; y++)
-				for (int z = 0; z < VoxelWorld.chunkDepth; z++)
-					if (this.voxelData[x][y][z] != null && this.voxelData[x][y][z].blockInventory != null)
-					{
-						Vector3i absolutePos = this.getAbsoluteVoxelPosition(x, y, z);
-						this.setInventoryUpdateHandler(absolutePos.x, absolutePos.y, absolutePos.z, this.voxelData[x][y][z]);
-					}
+		for (IntMap.Entry<VoxelData> entry : this.snapshot.getVoxelStorage().getStatefulVoxels().entries())
+		{
+			if (entry.value.blockInventory != null)
+			{
+				Vector3i absolutePos = this.getAbsoluteVoxelPosition(PaletteVoxelStorage.getX(entry.key), PaletteVoxelStorage.getY(entry.key), PaletteVoxelStorage.getZ(entry.key));
+				this.setInventoryUpdateHandler(absolutePos.x, absolutePos.y, absolutePos.z, entry.value);
+			}
+		}
+	}
+
+	/**
+	 * Resets the light levels of all voxels to 0.
+	 */
+	private void resetLightLevels()
+	{
+		this.sunLight.fill(0);
+		this.blockLight.fill(0);
 	}
 
 	/**
@@ -803,7 +1982,7 @@ public class VoxelChunk
 	{
 		synchronized (this.voxelDataLockObject)
 		{
-			if (this.voxelData == null)
+			if (this.snapshot == null)
 				return;
 
 			// if voxel is null, create air voxel
@@ -812,9 +1991,15 @@ public class VoxelChunk
 
 			// Remove update handler if existing
 			Vector3i voxelPos = new Vector3i(x, y, z);
-			this.tileEntityHandlers.remove(voxelPos);
+			if (this.tileEntityHandlers.remove(voxelPos) != null)
+				this.tileEntityHandlersChanged = true;
 
-			this.voxelData[x][y][z] = voxel;
+			// Copy on write, readers keep on reading the old storage until the new one got published
+			PaletteVoxelStorage voxelStorage = this.snapshot.getVoxelStorage().copy();
+			voxelStorage.setVoxel(PaletteVoxelStorage.getIndex(x, y, z), voxel);
+			this.heightMap.voxelWasSet(voxelStorage, x, y, z);
+			this.publishSnapshot(voxelStorage);
+			this.markMeshSectionsDirty(ChunkMeshBuilder.getSectionMask(y));
 
 			// Inventory
 			if (voxel != null && voxel.blockInventory != null)
@@ -823,7 +2008,16 @@ public class VoxelChunk
 				this.setInventoryUpdateHandler(absolutePos.x, absolutePos.y, absolutePos.z, voxel);
 			}
 
-			this.chunkDataWasModified();
+			// Lit chunks only update the light around the edited voxel, all others get relit
+			if (this.lightingSystem.updateVoxelLight(this, PaletteVoxelStorage.getIndex(x, y, z)))
+				this.voxelWasModified(ChunkMeshBuilder.getSectionMask(y));
+			else
+				this.chunkDataWasModified();
+
+			// Faces of the adjacent chunks touching the edited voxel
+			int[] neighborSections = new int[NEIGHBOR_OFFSETS.length];
+			addNeighborMeshSections(x, y, z, neighborSections);
+			this.regenerateAdjacentMeshSections(neighborSections);
 
 			// notify about update
 			if (this.master.getVoxelDataUpdateHandler() != null)
@@ -838,6 +2032,7 @@ public class VoxelChunk
 				if (voxel.voxelType.isTileEntity() && voxel.tileEntity != null)
 				{
 					this.tileEntityHandlers.put(voxelPos, voxel.tileEntity);
+					this.tileEntityHandlersChanged = true;
 				}
 			}
 		}
@@ -849,20 +2044,28 @@ public class VoxelChunk
 	 * @param voxelData
 	 */
 	public void setVoxelData(VoxelData[][][] voxelData)
+	{
+		// Null voxels will get stored as air
+		this.setVoxelStorage(PaletteVoxelStorage.fromVoxelData(voxelData));
+	}
+
+	/**
+	 * Sets the voxel storage.
+	 * Used for uniform chunks (generated or received), which don't need a voxel data array.
+	 * The given storage must not be modified after passing it to this method.
+	 * 
+	 * @param voxelStorage
+	 */
+	public void setVoxelStorage(PaletteVoxelStorage voxelStorage)
 	{
 		synchronized (this.voxelDataLockObject)
 		{
-			// Iterate through all voxel datas and set null voxels to air voxels
-			for (int x = 0; x < voxelData.length; x++)
-				for (int y = 0; y < voxelData[x].length; y++)
-					for (int z = 0; z < voxelData[x][y].length; z++)
-						if (voxelData[x][y][z] == null)
-							voxelData[x][y][z] = new VoxelData();
-
-			this.voxelData = voxelData;
+			this.heightMap.calculate(voxelStorage);
+			this.publishSnapshot(voxelStorage);
+			this.markMeshSectionsDirty(ChunkMeshBuilder.ALL_SECTIONS);
+			this.resetLightLevels();
 			this.setInventoryUpdateHandlerAll();
 			this.chunkDataWasModified();
-			this.setGenerationDone(true);
 			this.setTileEntityHandlerAll();
 		}
 	}
@@ -875,15 +2078,18 @@ public class VoxelChunk
 		synchronized (this.voxelDataLockObject)
 		{
 			this.tileEntityHandlers.clear();
+			this.tileEntityHandlersChanged = true;
 
-			// Iterate through all voxel data instances
-			for (int x = 0; x < this.voxelData.length; x++)
-				for (int y = 0; y < this.voxelData[x].length; y++)
-					for (int z = 0; z < this.voxelData[x][y].length; z++)
-						// Check if the voxel at the given position is not null, not air and a tile entity
-						if (this.voxelData[x][y][z] != null && this.voxelData[x][y][z].voxelType != null && this.voxelData[x][y][z].voxelType.isTileEntity())
-							// Add to tile entity handlers
-							this.tileEntityHandlers.put(new Vector3i(x, y, z), this.voxelData[x][y][z].tileEntity);
+			// Only voxels carrying state can be tile entities
+			for (IntMap.Entry<VoxelData> entry : this.snapshot.getVoxelStorage().getStatefulVoxels().entries())
+			{
+				// Check if the voxel at the given position is a tile entity
+				if (entry.value.voxelType.isTileEntity() && entry.value.tileEntity != null)
+				{
+					// Add to tile entity handlers
+					this.tileEntityHandlers.put(new Vector3i(PaletteVoxelStorage.getX(entry.key), PaletteVoxelStorage.getY(entry.key), PaletteVoxelStorage.getZ(entry.key)), entry.value.tileEntity);
+				}
+			}
 
 		}
 	}
@@ -898,6 +2104,43 @@ public class VoxelChunk
 		// TODO Fluid Simulation
 	}
 
+	/**
+	 * Returns true if the lighting of all loaded adjacent chunks is done, the mesh builder reads their light levels at the borders.
+	 * 
+	 * @return
+	 */
+	private boolean neighborsLightingReady()
+	{
+		for (int direction = 0; direction < NEIGHBOR_OFFSETS.length; direction++)
+		{
+			VoxelChunk neighbor = this.neighbors.get(direction);
+
+			if (neighbor != null && !neighbor.getState().isLit())
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Runs the lighting system of this chunk, the chunk moves to the next state if its lighting got done.
+	 * Gets called by update() and the ChunkLightingScheduler, which lights whole columns before they get updated.
+	 */
+	public void updateLighting()
+	{
+		synchronized (this.voxelDataLockObject)
+		{
+			// Remember the neighbors missing while lighting, they need to regenerate this chunk after they got loaded
+			if (!this.lightingSystem.isReady())
+				this.lightingMissingNeighbors |= this.getMissingNeighbors() & this.lightingSystem.getNeighborDependencies();
+
+			this.lightingSystem.update(this);
+
+			if (this.lightingSystem.isReady())
+				this.lightingWasDone();
+		}
+	}
+
 	/**
 	 * <pre>
 	 * Updates this voxel chunk instance.
@@ -914,50 +2157,54 @@ public class VoxelChunk
 	public void update()
 	{
 		// Save needed?
-		if (this.saveDirty && this.master.hasWorldFile() && this.isInitialized())
-		{
-			synchronized (this.voxelDataLockObject)
-			{
-				// Save chunk
-				this.master.getWorldFile().writeChunk(this.chunkX, this.chunkY, this.chunkZ, this.voxelData);
-				this.saveDirty = false;
-			}
-		}
+		if (this.saveDirty)
+			this.save();
 
 		// Lighting calculation
-		synchronized (this.voxelDataLockObject)
-		{
-			this.lightingSystem.update(this);
-		}
+		this.updateLighting();
 
+		// Only copy the handlers while holding the lock, tile entity updates may take a while
+		// The copy is only rebuilt if the handlers changed since the last update
 		synchronized (this.voxelDataLockObject)
 		{
-			this.tileEntityHandlersCopyInstance.clear();
-			for (Entry<Vector3i, IVoxelTileEntityHandler> entry : this.tileEntityHandlers.entrySet())
+			if (this.tileEntityHandlersChanged)
 			{
-				this.tileEntityHandlersCopyInstance.put(entry.getKey(), entry.getValue());
+				this.tileEntityHandlersCopyInstance.clear();
+				for (Entry<Vector3i, IVoxelTileEntityHandler> entry : this.tileEntityHandlers.entrySet())
+				{
+					this.tileEntityHandlersCopyInstance.put(entry.getKey(), entry.getValue());
+				}
+
+				this.tileEntityHandlersChanged = false;
 			}
+		}
 
-			// Exec tile entity updates
-			for (Entry<Vector3i, IVoxelTileEntityHandler> entry : this.tileEntityHandlersCopyInstance.entrySet())
-			{
-				int x = (int) entry.getKey().x;
-				int y = (int) entry.getKey().y;
-				int z = (int) entry.getKey().z;
+		// Exec tile entity updates
+		for (Entry<Vector3i, IVoxelTileEntityHandler> entry : this.tileEntityHandlersCopyInstance.entrySet())
+		{
+			int x = (int) entry.getKey().x;
+			int y = (int) entry.getKey().y;
+			int z = (int) entry.getKey().z;
 
-				Vector3i absolutePosition = this.getAbsoluteVoxelPosition((int) entry.getKey().x, (int) entry.getKey().y, (int) entry.getKey().z);
+			Vector3i absolutePosition = this.getAbsoluteVoxelPosition((int) entry.getKey().x, (int) entry.getKey().y, (int) entry.getKey().z);
 
-				VoxelData voxelData = this.getVoxel(x, y, z);
+			VoxelData voxelData = this.getVoxel(x, y, z);
 
-				entry.getValue().handleUpdate(voxelData, absolutePosition.x, absolutePosition.y, absolutePosition.z, this.master.isServer());
-			}
+			entry.getValue().handleUpdate(voxelData, absolutePosition.x, absolutePosition.y, absolutePosition.z, this.master.isServer());
 		}
 
 		boolean frameMismatch = (lastUpdateCallId != this.master.updateCallId);
 
-		if (!ClientChunkRequest.areRequestsPending() && this.lightingSystem.isReady() && this.voxelMeshDirty && this.generationDone && !this.master.isServer() &&
-		// Check all neighbours if lighting is ready
-				this.master.chunkLightingReady(this.chunkX + 1, this.chunkY, this.chunkZ) && this.master.chunkLightingReady(this.chunkX - 1, this.chunkY, this.chunkZ) && this.master.chunkLightingReady(this.chunkX, this.chunkY + 1, this.chunkZ) && this.master.chunkLightingReady(this.chunkX, this.chunkY - 1, this.chunkZ) && this.master.chunkLightingReady(this.chunkX, this.chunkY, this.chunkZ + 1) && this.master.chunkLightingReady(this.chunkX, this.chunkY, this.chunkZ - 1) && (CubicWorldConfiguration.meshGenerationsPerFrameLimit == -1 || frameMismatch || generationsProcessedThisFrame <= CubicWorldConfiguration.meshGenerationsPerFrameLimit))
+		if (this.master.isServer() || !this.state.get().needsMesh() || ClientChunkRequest.areRequestsPending() || this.neighborRemeshDeferred.get() || !this.neighborsLightingReady())
+			return;
+
+		ChunkMeshBuilderPool meshBuilderPool = this.master.getMeshBuilderPool();
+
+		if (meshBuilderPool != null)
+		{
+			meshBuilderPool.request(this);
+		}
+		else if (CubicWorldConfiguration.meshGenerationsPerFrameLimit == -1 || frameMismatch || generationsProcessedThisFrame <= CubicWorldConfiguration.meshGenerationsPerFrameLimit)
 		{
 			// If the frame ids mismatch
 			if (frameMismatch)
@@ -0,0 +1,188 @@
+package net.kennux.cubicworld.voxel;
+
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
+
+/**
+ * <pre>
+ * Immutable view of a chunk's voxel data at a given version.
+ *
+ * Every modification of a chunk publishes a new snapshot with a higher version, a snapshot itself never changes.
+ * So snapshots can be read from any thread without locking and consumers (saving, networking) can skip work if the version did not change.
+ *
+ * Voxels carrying state (block inventories, tile entities) are shared with the chunk and all of its snapshots.
+ * So the contents of their inventories are live, even in a snapshot queued for saving or sending.
+ * Changing their state must be followed by VoxelChunk.setVoxel(), which publishes a new snapshot.
+ *
+ * The snapshot does not contain light levels, they are owned by the chunk's lighting system.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class VoxelChunkSnapshot
+{
+	/**
+	 * The voxel storage.
+	 * Never gets modified after it was passed to the constructor.
+	 */
+	private final PaletteVoxelStorage voxelStorage;
+
+	/**
+	 * The chunk version this snapshot represents.
+	 */
+	private final long version;
+
+	/**
+	 * The serialized voxel data.
+	 * Gets built on the first call to getSerializedData().
+	 */
+	private volatile byte[] serializedData;
+
+	/**
+	 * Only chunks create snapshots.
+	 *
+	 * @param voxelStorage
+	 * @param version
+	 */
+	VoxelChunkSnapshot(PaletteVoxelStorage voxelStorage, long version)
+	{
+		this.voxelStorage = voxelStorage;
+		this.version = version;
+	}
+
+	/**
+	 * Returns the storage of this snapshot.
+	 * The returned storage must not be modified, copy it for writing.
+	 *
+	 * @return
+	 */
+	PaletteVoxelStorage getVoxelStorage()
+	{
+		return this.voxelStorage;
+	}
+
+	/**
+	 * Returns the chunk version this snapshot represents.
+	 * Versions of the same chunk are increasing monotonically.
+	 *
+	 * @return
+	 */
+	public long getVersion()
+	{
+		return this.version;
+	}
+
+	/**
+	 * Returns true if all voxels of this snapshot are the same and don't carry state.
+	 *
+	 * @see PaletteVoxelStorage#isUniform()
+	 * @return
+	 */
+	public boolean isUniform()
+	{
+		return this.voxelStorage.isUniform();
+	}
+
+	/**
+	 * Returns true if this snapshot only contains air.
+	 *
+	 * @return
+	 */
+	public boolean isEmpty()
+	{
+		return this.voxelStorage.isEmpty();
+	}
+
+	/**
+	 * Returns the voxel type at the given local position.
+	 * Returns null for air voxels.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public VoxelType getVoxelType(int x, int y, int z)
+	{
+		return this.voxelStorage.getVoxelType(PaletteVoxelStorage.getIndex(x, y, z));
+	}
+
+	/**
+	 * Returns the voxel type at the given local index (see PaletteVoxelStorage.getIndex()).
+	 * Returns null for air voxels.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public VoxelType getVoxelType(int index)
+	{
+		return this.voxelStorage.getVoxelType(index);
+	}
+
+	/**
+	 * Returns the rotation of the voxel at the given local position.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public byte getRotation(int x, int y, int z)
+	{
+		return this.voxelStorage.getRotation(PaletteVoxelStorage.getIndex(x, y, z));
+	}
+
+	/**
+	 * Returns the voxel data at the given local position.
+	 * Voxels without state are new objects, voxels carrying state are shared with the chunk.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public VoxelData getVoxel(int x, int y, int z)
+	{
+		return this.voxelStorage.getVoxel(PaletteVoxelStorage.getIndex(x, y, z));
+	}
+
+	/**
+	 * Returns the serialized voxel data of this snapshot.
+	 * The format is the same as VoxelEngine.serializeVoxelStorage() produces.
+	 *
+	 * The data gets built only once per snapshot.
+	 * Returns null in the case of an error.
+	 *
+	 * @return
+	 */
+	public byte[] getSerializedData()
+	{
+		byte[] data = this.serializedData;
+
+		if (data == null)
+		{
+			data = VoxelEngine.serializeVoxelStorage(this.voxelStorage);
+			this.serializedData = data;
+		}
+
+		return data;
+	}
+
+	/**
+	 * Builds a voxel data array of this snapshot.
+	 * Voxels without state are new objects, voxels carrying state are shared with the chunk.
+	 *
+	 * @return
+	 */
+	public VoxelData[][][] toVoxelData()
+	{
+		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int y = 0; y < VoxelWorld.chunkHeight; y++)
+				for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+					voxelData[x][y][z] = this.voxelStorage.getVoxel(PaletteVoxelStorage.getIndex(x, y, z));
+
+		return voxelData;
+	}
+}
@@ -197,6 +197,27 @@ public class VoxelData
 		return VoxelChunk.ROTATION_MAPPINGS[this.rotation][facing.getValue()];
 	}
 
+	/**
+	 * Returns a shallow copy of this voxel data.
+	 * The tile entity, bounding box and block inventory are shared with this object.
+	 * 
+	 * @return
+	 */
+	public VoxelData copy()
+	{
+		VoxelData copy = new VoxelData();
+
+		copy.voxelType = this.voxelType;
+		copy.rotation = this.rotation;
+		copy.sunLightLevel = this.sunLightLevel;
+		copy.blockLightLevel = this.blockLightLevel;
+		copy.tileEntity = this.tileEntity;
+		copy.boundingBox = this.boundingBox;
+		copy.blockInventory = this.blockInventory;
+
+		return copy;
+	}
+
 	/**
 	 * @return the lightLevel
 	 */
@@ -251,6 +272,7 @@ public class VoxelData
 
 	/**
 	 * Returns the lightlevel, composed of sunlight and shadow level.
+	 * The light levels are owned by the chunk (packed in nibble arrays), voxels returned by VoxelChunk.getVoxel() carry a copy of them.
 	 * 
 	 * @return
 	 */
@@ -10,6 +10,7 @@ import net.kennux.cubicworld.serialization.BitReader;
 import net.kennux.cubicworld.serialization.BitWriter;
 import net.kennux.cubicworld.util.CompressionUtils;
 import net.kennux.cubicworld.util.ConsoleHelper;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
 
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.math.Vector2;
@@ -34,7 +35,71 @@ public class VoxelEngine
 	}
 
 	/**
-	 * Deserializes the given compressed & serialized voxel data generated by serializeVoxelData().
+	 * First byte of serialized chunk data which only contains air.
+	 * Snappy data always starts with the varint encoded uncompressed length, which is never 0 or 1 for chunk data.
+	 */
+	private static final byte EMPTY_CHUNK_MARKER = 0;
+
+	/**
+	 * First byte of serialized chunk data where all voxels are the same.
+	 * Followed by the type id (short) and the rotation (byte).
+	 */
+	private static final byte UNIFORM_CHUNK_MARKER = 1;
+
+	/**
+	 * Deserializes the given serialized voxel storage generated by serializeVoxelStorage() or serializeVoxelData().
+	 * Uniform chunks get deserialized without allocating an index array.
+	 *
+	 * @param data
+	 * @return The voxel storage. Null if there was an error!
+	 */
+	public static PaletteVoxelStorage deserializeVoxelStorage(byte[] data)
+	{
+		if (data.length == 1 && data[0] == EMPTY_CHUNK_MARKER)
+			return new PaletteVoxelStorage();
+
+		if (data.length == 4 && data[0] == UNIFORM_CHUNK_MARKER)
+		{
+			BitReader reader = new BitReader(data);
+			reader.readByte();
+			short typeId = reader.readShort();
+			byte rotation = reader.readByte();
+
+			VoxelType type = VoxelEngine.getVoxelType(typeId);
+			if (type == null)
+			{
+				ConsoleHelper.writeLog("error", "Unknown voxel type in uniform chunk data: " + typeId, "VoxelEngine");
+				return null;
+			}
+
+			return PaletteVoxelStorage.uniform(type, rotation);
+		}
+
+		// Decompress chunk data
+		try
+		{
+			BitReader chunkReader = new BitReader(CompressionUtils.decompress(data));
+			PaletteVoxelStorage storage = new PaletteVoxelStorage();
+
+			// Read voxel data
+			for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+				for (int y = 0; y < VoxelWorld.chunkHeight; y++)
+					for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+						storage.setVoxel(PaletteVoxelStorage.getIndex(x, y, z), chunkReader.readVoxelData());
+
+			return storage;
+		}
+		catch (DataFormatException | IOException e)
+		{
+			ConsoleHelper.writeLog("error", "IOException occured while unpacking chunk data: ", "VoxelEngine");
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Deserializes the given compressed & serialized voxel data generated by serializeVoxelData() or serializeVoxelStorage().
 	 * 
 	 * @param voxelData
 	 * @return The voxel data. Null if there was an error!
@@ -43,6 +108,21 @@ public class VoxelEngine
 	{
 		VoxelData[][][] voxelData = new VoxelData[16][16][16];
 
+		// Uniform chunks
+		if (data.length <= 4 && (data[0] == EMPTY_CHUNK_MARKER || data[0] == UNIFORM_CHUNK_MARKER))
+		{
+			PaletteVoxelStorage storage = deserializeVoxelStorage(data);
+			if (storage == null)
+				return null;
+
+			for (int x = 0; x < voxelData.length; x++)
+				for (int y = 0; y < voxelData[x].length; y++)
+					for (int z = 0; z < voxelData[x][y].length; z++)
+						voxelData[x][y][z] = storage.getVoxel(PaletteVoxelStorage.getIndex(x, y, z));
+
+			return voxelData;
+		}
+
 		// Decompress chunk data
 		BitReader chunkReader = null;
 		try
@@ -260,6 +340,51 @@ public class VoxelEngine
 		}
 	}
 
+	/**
+	 * Serializes the given voxel storage.
+	 * Uniform storages get written as 1 (air) or 4 bytes, all others in the same format as serializeVoxelData() produces.
+	 *
+	 * @param storage
+	 * @return The serialized chunk data. Null if there was an error!
+	 */
+	public static byte[] serializeVoxelStorage(PaletteVoxelStorage storage)
+	{
+		if (storage.isEmpty())
+			return new byte[] { EMPTY_CHUNK_MARKER };
+
+		if (storage.isUniform())
+		{
+			BitWriter writer = new BitWriter();
+			writer.writeByte(UNIFORM_CHUNK_MARKER);
+			writer.writeShort(storage.getTypeId(0));
+			writer.writeByte(storage.getRotation(0));
+			return writer.getPacket();
+		}
+
+		// Build chunk data in an external builder
+		BitWriter chunkBuilder = new BitWriter();
+
+		// Write voxel data
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int y = 0; y < VoxelWorld.chunkHeight; y++)
+				for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+				{
+					chunkBuilder.writeVoxelData(storage.getVoxel(PaletteVoxelStorage.getIndex(x, y, z)));
+				}
+
+		try
+		{
+			return CompressionUtils.compress(chunkBuilder.getPacket());
+		}
+		catch (IOException e)
+		{
+			ConsoleHelper.writeLog("error", "IOException occured while packing chunk data: ", "VoxelEngine");
+			e.printStackTrace();
+		}
+
+		return null;
+	}
+
 	/**
 	 * Serializes the given voxel data.
 	 * It also compressed the serialized data.
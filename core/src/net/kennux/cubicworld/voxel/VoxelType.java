@@ -79,6 +79,12 @@ public class VoxelType
 	public int topTexture, bottomTexture, leftTexture, rightTexture, frontTexture, backTexture;
 	public Vector2[] topUv, bottomUv, leftUv, rightUv, frontUv, backUv;
 
+	/**
+	 * The uvs of all faces in one flat array, used by the chunk mesh builder.
+	 * Contains 4 uvs (u, v) per face, faces are ordered by VoxelFace.getValue().
+	 */
+	private float[] uvTable = new float[VoxelFace.values().length * 8];
+
 	public VoxelType setTextures(int topTexture, int bottomTexture, int leftTexture, int rightTexture, int frontTexture, int backTexture)
 	{
 		this.topTexture = topTexture;
@@ -135,6 +141,43 @@ public class VoxelType
 		this.rightUv = VoxelEngine.getUvForTexture(rightTexture);
 		this.frontUv = VoxelEngine.getUvForTexture(frontTexture);
 		this.backUv = VoxelEngine.getUvForTexture(backTexture);
+		this.buildUvTable();
+	}
+
+	/**
+	 * Builds the flat uv table from the uv arrays of all faces.
+	 * Call this after changing the uv arrays, faces without uvs get zeroed uvs.
+	 */
+	public void buildUvTable()
+	{
+		float[] uvTable = new float[VoxelFace.values().length * 8];
+
+		for (VoxelFace face : VoxelFace.values())
+		{
+			Vector2[] uvs = this.getUvsForFace(face);
+
+			if (uvs == null)
+				continue;
+
+			for (int i = 0; i < 4; i++)
+			{
+				uvTable[face.getValue() * 8 + i * 2] = uvs[i].x;
+				uvTable[face.getValue() * 8 + i * 2 + 1] = uvs[i].y;
+			}
+		}
+
+		this.uvTable = uvTable;
+	}
+
+	/**
+	 * Returns the uvs of all faces in one flat array (4 uvs per face, ordered by VoxelFace.getValue()).
+	 * The returned array must not be modified.
+	 * 
+	 * @return
+	 */
+	public float[] getUvTable()
+	{
+		return this.uvTable;
 	}
 
 	/**
@@ -1,20 +1,27 @@
 package net.kennux.cubicworld.voxel;
 
 import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 import net.kennux.cubicworld.CubicWorld;
+import net.kennux.cubicworld.CubicWorldConfiguration;
 import net.kennux.cubicworld.CubicWorldServer;
 import net.kennux.cubicworld.math.MathUtils;
 import net.kennux.cubicworld.pathfinder.Path;
 import net.kennux.cubicworld.pathfinder.Pathfinder;
 import net.kennux.cubicworld.util.ConsoleHelper;
 import net.kennux.cubicworld.voxel.generator.AWorldGenerator;
+import net.kennux.cubicworld.voxel.handlers.IChunkStateListener;
 import net.kennux.cubicworld.voxel.handlers.IVoxelDataUpdateHandler;
+import net.kennux.cubicworld.voxel.lighting.LightPropagationQueue;
+import net.kennux.cubicworld.voxel.storage.HeightMap;
 
 import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.glutils.ShaderProgram;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.utils.LongArray;
 
 /**
  * The voxel world class. It handles chunk generation and rendering.
@@ -42,11 +49,32 @@ public class VoxelWorld
 	 */
 	public static final int chunkDepth = 16;
 
+	/**
+	 * <pre>
+	 * Shifts and masks for converting global voxelspace coordinates into chunkspace and local coordinates.
+	 * The chunk sizes must be powers of two.
+	 * 
+	 * chunkX = x >> chunkWidthShift (floors negative coordinates, too)
+	 * localX = x & chunkWidthMask
+	 * </pre>
+	 */
+	public static final int chunkWidthShift = Integer.numberOfTrailingZeros(chunkWidth), chunkHeightShift = Integer.numberOfTrailingZeros(chunkHeight), chunkDepthShift = Integer.numberOfTrailingZeros(chunkDepth);
+
+	/**
+	 * @see VoxelWorld#chunkWidthShift
+	 */
+	public static final int chunkWidthMask = chunkWidth - 1, chunkHeightMask = chunkHeight - 1, chunkDepthMask = chunkDepth - 1;
+
+	/**
+	 * Returned by getHeight() if a chunk of the column is not initialized yet.
+	 */
+	public static final int HEIGHT_UNKNOWN = Integer.MIN_VALUE;
+
 	/**
 	 * The current sun light level.
-	 * If this changes, all chunks will regenerate!
+	 * The chunks store their sunlight as sky exposure, this level only scales it on rendering (see getSkyLightLevel()).
 	 */
-	private byte sunLightLevel;
+	private byte sunLightLevel = (byte) CubicWorldConfiguration.maxLightLevel;
 
 	/**
 	 * The world height controls how much chunks will get stacked on the y-axis.
@@ -58,6 +86,24 @@ public class VoxelWorld
 	 */
 	private ChunkManager chunks;
 
+	/**
+	 * Reused key list for cleanup(), so cleaning up doesn't allocate.
+	 * cleanup() is only called from the world's owner thread.
+	 */
+	private LongArray chunksToDelete = new LongArray();
+
+	/**
+	 * Tracks the chunk columns held by players on the server.
+	 * 
+	 * @see VoxelWorld#updatePlayerRetention(int, Vector3)
+	 */
+	private ChunkRetentionIndex retentionIndex = new ChunkRetentionIndex(CubicWorldConfiguration.chunkLoadDistance, CubicWorldConfiguration.chunkUnloadDistance);
+
+	/**
+	 * Reused column key list for cleanup().
+	 */
+	private LongArray releasedColumns = new LongArray();
+
 	/**
 	 * The world generator instace.
 	 */
@@ -69,12 +115,47 @@ public class VoxelWorld
 	private WorldGeneratorThreadPool worldGeneratorThreadPool;
 
 	/**
-	 * Specifies the shader program used for chunk rendering. Shader attributes:
-	 * v_Position -> vertex position (float3) v_Uv -> Uv-Coordinates (float2)
-	 * v_Normal -> Normal (float3) v_Light -> Light color (float4)
+	 * The pool used for parallel chunk updates on the server and for the parallel lighting.
+	 * Gets created on the first parallel update and shut down by dispose().
+	 * 
+	 * @see CubicWorldConfiguration#parallelChunkUpdate
+	 * @see CubicWorldConfiguration#parallelLighting
+	 */
+	private volatile ForkJoinPool chunkUpdatePool;
+
+	/**
+	 * The pool building the chunk meshes on the client.
+	 * Gets created on the first mesh build request and shut down by dispose().
+	 * 
+	 * @see CubicWorldConfiguration#meshBuilderThreads
+	 */
+	private volatile ChunkMeshBuilderPool meshBuilderPool;
+
+	/**
+	 * Gets set by dispose(), no new worker threads get started afterwards.
+	 */
+	private volatile boolean disposed;
+
+	/**
+	 * Coalesces the regenerations of adjacent chunks caused by chunk streaming on the client.
+	 */
+	private ChunkRemeshScheduler remeshScheduler = new ChunkRemeshScheduler(this);
+
+	/**
+	 * The light propagations of the flood fill lighting crossing chunk borders.
+	 */
+	private LightPropagationQueue lightPropagationQueue = new LightPropagationQueue();
+
+	/**
+	 * Specifies the shader program used for chunk rendering. Shader attributes (see ChunkVertexFormat):
+	 * v_Position -> chunk local position and light level (4 unsigned bytes)
+	 * v_Texture -> atlas tile and texture repeat in tiles (4 unsigned bytes)
 	 * 
 	 * Shader uniforms: m_cameraProj -> Camera projection matrix (mat4)
+	 * m_chunkOrigin -> The worldspace origin of the rendered chunk (vec3)
 	 * r_textureAtlas -> texture atlas texture
+	 * m_tileSize -> Size of an atlas tile in uv space (vec2)
+	 * m_sunLight -> The sun light level, 0 (night) to 1 (day), the sky light of the vertices gets scaled by it (float)
 	 */
 	private ShaderProgram worldShader;
 
@@ -108,6 +189,18 @@ public class VoxelWorld
 	// Event handlers
 	private IVoxelDataUpdateHandler voxelDataUpdateHandler;
 
+	/**
+	 * The chunk state listeners, notified on every chunk state transition.
+	 * 
+	 * @see VoxelWorld#addChunkStateListener(IChunkStateListener)
+	 */
+	private CopyOnWriteArrayList<IChunkStateListener> chunkStateListeners = new CopyOnWriteArrayList<IChunkStateListener>();
+
+	/**
+	 * The time chunks of this world spend in every state, registered as chunk state listener.
+	 */
+	private ChunkStateTimings chunkStateTimings = new ChunkStateTimings();
+
 	/**
 	 * Initializes the voxel world without any graphical support.
 	 * 
@@ -120,11 +213,13 @@ public class VoxelWorld
 
 		this.chunks = new ChunkManager();
 		this.worldGeneratorThreadPool = new WorldGeneratorThreadPool(Runtime.getRuntime().availableProcessors());
+		this.chunkStateListeners.add(this.chunkStateTimings);
 	}
 
 	public VoxelWorld(ShaderProgram shader)
 	{
 		this.chunks = new ChunkManager();
+		this.chunkStateListeners.add(this.chunkStateTimings);
 
 		// Set references
 		this.worldShader = shader;
@@ -167,15 +262,8 @@ public class VoxelWorld
 	{
 		// Get chunk keys to identify chunks we don't need any longer.
 		Vector3 chunkPos = this.getChunkspacePosition(playerPosition);
-		ChunkKey[] chunksToDelete = this.chunks.getChunksNotInside(chunkPos, chunkRadius);
-
-		for (ChunkKey chunkToDelete : chunksToDelete)
-		{
-			if (this.isChunkInitialized(chunkToDelete.x, chunkToDelete.y, chunkToDelete.z))
-			{
-				this.chunks.remove(chunkToDelete);
-			}
-		}
+		this.chunks.getChunksNotInside(chunkPos, chunkRadius, this.chunksToDelete);
+		this.unloadChunks(this.chunksToDelete);
 	}
 
 	/**
@@ -201,7 +289,9 @@ public class VoxelWorld
 	 */
 	public boolean hasChunk(int chunkX, int chunkY, int chunkZ)
 	{
-		return this.hasChunk(new ChunkKey(chunkX, chunkY, chunkZ));
+		VoxelChunk chunk = this.chunks.get(chunkX, chunkY, chunkZ);
+
+		return chunk != null && chunk.isInitialized();
 	}
 
 	/**
@@ -242,7 +332,9 @@ public class VoxelWorld
 	 */
 	public boolean chunkLightingReady(int chunkX, int chunkY, int chunkZ)
 	{
-		return this.chunkLightingReady(new ChunkKey(chunkX, chunkY, chunkZ));
+		VoxelChunk chunk = this.chunks.get(chunkX, chunkY, chunkZ);
+
+		return chunk == null || chunk.isInitializedAndLightingReady();
 	}
 
 	/**
@@ -262,7 +354,10 @@ public class VoxelWorld
 	/**
 	 * Performs a cleanup, iterates through every chunkobject and checks if it
 	 * is inside of the loading range.
+	 * Afterwards chunks get evicted if the loaded chunks exceed CubicWorldConfiguration.chunkMemoryBudget.
+	 * Modified chunks get queued for saving before they are unloaded.
 	 * 
+	 * @see ChunkManager#getChunksToEvict(Vector3[], int, ChunkRetentionIndex, long, int, LongArray)
 	 * @param playerPosition
 	 * @param chunkRadius
 	 */
@@ -275,17 +370,144 @@ public class VoxelWorld
 			chunkPositions[i] = this.getChunkspacePosition(playerPositions[i]);
 		}
 
-		ChunkKey[] chunksToDelete = this.chunks.getChunksNotInside(chunkPositions, chunkRadius);
+		this.chunks.getChunksNotInside(chunkPositions, chunkRadius, this.chunksToDelete);
+		this.unloadChunks(this.chunksToDelete);
+
+		this.evictChunks(chunkPositions);
+	}
+
+	/**
+	 * <pre>
+	 * Performs a cleanup based on the chunk retention index.
+	 * Only chunks in columns which got released since the last call (or were loaded outside of all held columns) get unloaded,
+	 * so other than cleanup(Vector3[], int) this doesn't check every chunk against every player.
+	 * 
+	 * Afterwards chunks get evicted if the loaded chunks exceed CubicWorldConfiguration.chunkMemoryBudget.
+	 * Modified chunks get queued for saving before they are unloaded.
+	 * </pre>
+	 * 
+	 * @see VoxelWorld#updatePlayerRetention(int, Vector3)
+	 * @param playerPositions
+	 *            The worldspace positions of all players.
+	 */
+	public void cleanup(Vector3[] playerPositions)
+	{
+		this.releasedColumns.clear();
+		this.retentionIndex.pollReleasedColumns(this.releasedColumns);
+
+		for (int i = 0; i < this.releasedColumns.size; i++)
+		{
+			long column = this.releasedColumns.get(i);
+			int chunkX = ChunkKey.unpackX(column);
+			int chunkZ = ChunkKey.unpackZ(column);
+
+			this.chunksToDelete.clear();
+			this.chunks.getColumnKeys(chunkX, chunkZ, this.chunksToDelete);
+
+			for (int j = 0; j < this.chunksToDelete.size; j++)
+			{
+				long chunkToDelete = this.chunksToDelete.get(j);
+
+				if (this.isChunkInitialized(chunkX, ChunkKey.unpackY(chunkToDelete), chunkZ))
+				{
+					this.unloadChunk(chunkToDelete);
+				}
+				else
+				{
+					// Still generating, check the column again in the next cleanup
+					this.retentionIndex.chunkLoaded(chunkX, chunkZ);
+				}
+			}
+		}
+
+		Vector3[] chunkPositions = new Vector3[playerPositions.length];
+		for (int i = 0; i < chunkPositions.length; i++)
+		{
+			chunkPositions[i] = this.getChunkspacePosition(playerPositions[i]);
+		}
+
+		this.evictChunks(chunkPositions);
+	}
+
+	/**
+	 * Updates the chunk columns held by the given player.
+	 * The index only changes if the player crossed a chunk border since the last call.
+	 * 
+	 * @see ChunkRetentionIndex#updatePlayer(int, int, int)
+	 * @param playerId
+	 *            The player's server slot index.
+	 * @param playerPosition
+	 *            The player's worldspace position.
+	 */
+	public void updatePlayerRetention(int playerId, Vector3 playerPosition)
+	{
+		int chunkX = MathUtils.floorToInt(playerPosition.x) >> chunkWidthShift;
+		int chunkZ = MathUtils.floorToInt(playerPosition.z) >> chunkDepthShift;
+
+		this.retentionIndex.updatePlayer(playerId, chunkX, chunkZ);
+	}
+
+	/**
+	 * Releases all chunk columns held by the given player.
+	 * 
+	 * @see ChunkRetentionIndex#removePlayer(int)
+	 * @param playerId
+	 *            The player's server slot index.
+	 */
+	public void removePlayerRetention(int playerId)
+	{
+		this.retentionIndex.removePlayer(playerId);
+	}
+
+	/**
+	 * Evicts chunks if the loaded chunks exceed CubicWorldConfiguration.chunkMemoryBudget.
+	 * 
+	 * @see ChunkManager#getChunksToEvict(Vector3[], int, ChunkRetentionIndex, long, int, LongArray)
+	 * @param chunkPositions
+	 *            The chunkspace positions of all players.
+	 */
+	private void evictChunks(Vector3[] chunkPositions)
+	{
+		// Only the server's players hold columns
+		ChunkRetentionIndex retentionIndex = this.isServer ? this.retentionIndex : null;
 
-		for (ChunkKey chunkToDelete : chunksToDelete)
+		this.chunks.getChunksToEvict(chunkPositions, CubicWorldConfiguration.chunkEvictionPinnedRadius, retentionIndex, CubicWorldConfiguration.chunkMemoryBudget, this.updateCallId, this.chunksToDelete);
+		this.unloadChunks(this.chunksToDelete);
+	}
+
+	/**
+	 * Unloads all initialized chunks of the given packed keys.
+	 * 
+	 * @param chunkKeys
+	 */
+	private void unloadChunks(LongArray chunkKeys)
+	{
+		for (int i = 0; i < chunkKeys.size; i++)
 		{
-			if (this.isChunkInitialized(chunkToDelete.x, chunkToDelete.y, chunkToDelete.z))
+			long chunkToDelete = chunkKeys.get(i);
+
+			if (this.isChunkInitialized(ChunkKey.unpackX(chunkToDelete), ChunkKey.unpackY(chunkToDelete), ChunkKey.unpackZ(chunkToDelete)))
 			{
-				this.chunks.remove(chunkToDelete);
+				this.unloadChunk(chunkToDelete);
 			}
 		}
 	}
 
+	/**
+	 * Removes the chunk with the given packed key and queues its unsaved modifications in the world file.
+	 * The chunk gets saved after removing it, so no modification can happen in between.
+	 * 
+	 * @param chunkKey
+	 */
+	private void unloadChunk(long chunkKey)
+	{
+		VoxelChunk chunk = this.chunks.remove(chunkKey);
+		this.lightPropagationQueue.clear(chunkKey);
+
+		if (chunk != null)
+			chunk.save();
+	}
+
 	/**
 	 * <pre>
 	 * Gets all voxel bounding boxes which could possibly hit the bounding box.
@@ -318,15 +540,18 @@ public class VoxelWorld
 			{
 				for (int z = 0; z < depth; z++)
 				{
+					int voxelX = (int) voxelspaceCenter.x + x;
+					int voxelY = (int) voxelspaceCenter.y + y;
+					int voxelZ = (int) voxelspaceCenter.z + z;
+
 					// Check if chunk is loaded
-					Vector3 chunkPos = this.getChunkspacePosition(new Vector3((int) voxelspaceCenter.x + x, (int) voxelspaceCenter.y + y, (int) voxelspaceCenter.z + z));
-					if (chunkPos.y < (this.worldHeight / VoxelWorld.chunkHeight) && !this.isChunkInitialized((int) chunkPos.x, (int) chunkPos.y, (int) chunkPos.z))
+					if ((voxelY >> chunkHeightShift) < (this.worldHeight / VoxelWorld.chunkHeight) && !this.isChunkInitialized(voxelX >> chunkWidthShift, voxelY >> chunkHeightShift, voxelZ >> chunkDepthShift))
 					{
 						return new VoxelCollision(boundingBoxCenter, boundingBoxCenter, true, true, true);
 					}
 
 					// Get bounding box
-					BoundingBox voxelBoundingBox = this.getBoundingBox((int) voxelspaceCenter.x + x, (int) voxelspaceCenter.y + y, (int) voxelspaceCenter.z + z);
+					BoundingBox voxelBoundingBox = this.getBoundingBox(voxelX, voxelY, voxelZ);
 
 					// Check for intersection
 					if (voxelBoundingBox != null && boundingBox.intersects(voxelBoundingBox))
@@ -381,6 +606,11 @@ public class VoxelWorld
 	{
 		// Instantiate a voxelchunk if non exists
 		VoxelChunk chunk = this.getChunk(chunkX, chunkY, chunkZ, true);
+
+		// Already queued, generated or loaded
+		if (!chunk.beginGeneration())
+			return;
+
 		// Enquene for generation
 		WorldGenerationTask task = new WorldGenerationTask(chunkX, chunkY, chunkZ, chunk, this.worldGenerator);
 
@@ -405,7 +635,7 @@ public class VoxelWorld
 		for (int x = (int) (chunkPos.x - chunkRadius); x <= chunkPos.x + chunkRadius; x++)
 			for (int z = (int) (chunkPos.z - chunkRadius); z <= chunkPos.z + chunkRadius; z++)
 				for (int y = 0; y < this.worldHeight / VoxelWorld.chunkHeight; y++)
-					if (!this.chunks.containsKey(new ChunkKey(x, y, z)) && y <= this.worldHeight / VoxelWorld.chunkHeight && new Vector3(chunkPos).sub(new Vector3(x, chunkPos.y, z)).len() <= chunkRadius)
+					if (!this.chunks.containsKey(x, y, z) && y <= this.worldHeight / VoxelWorld.chunkHeight && new Vector3(chunkPos).sub(new Vector3(x, chunkPos.y, z)).len() <= chunkRadius)
 						this.generateChunk(x, y, z, false);
 
 		// Wait for all threads ready
@@ -425,33 +655,22 @@ public class VoxelWorld
 	 */
 	public BoundingBox getBoundingBox(int x, int y, int z)
 	{
-		// Calculate chunk position for calculating relative position
-		Vector3 chunkPos = this.getChunkspacePosition(new Vector3(x, y, z));
-
-		// Calculate relative position
-		x -= (int) (chunkPos.x * VoxelWorld.chunkWidth);
-		y -= (int) (chunkPos.y * VoxelWorld.chunkHeight);
-		z -= (int) (chunkPos.z * VoxelWorld.chunkDepth);
-		ChunkKey chunkKey = new ChunkKey((int) chunkPos.x, (int) chunkPos.y, (int) chunkPos.z);
-
-		BoundingBox boundingBox = null;
-
-		VoxelChunk chunk = this.chunks.get(chunkKey);
+		VoxelChunk chunk = this.getChunkAt(x, y, z);
 		if (chunk == null)
 		{
 			return null;
 		}
 
 		// Offset the bounding box
-		boundingBox = chunk.getBoundingBox(x, y, z);
+		BoundingBox boundingBox = chunk.getBoundingBox(x & chunkWidthMask, y & chunkHeightMask, z & chunkDepthMask);
 
 		if (boundingBox == null)
 			return null;
 		else
 		{
-			int xOffset = (int) (VoxelWorld.chunkWidth * chunkPos.x);
-			int yOffset = (int) (VoxelWorld.chunkHeight * chunkPos.y);
-			int zOffset = (int) (VoxelWorld.chunkDepth * chunkPos.z);
+			int xOffset = x & ~chunkWidthMask;
+			int yOffset = y & ~chunkHeightMask;
+			int zOffset = z & ~chunkDepthMask;
 			boundingBox.min.add(xOffset, yOffset, zOffset);
 			boundingBox.max.add(xOffset, yOffset, zOffset);
 
@@ -472,7 +691,7 @@ public class VoxelWorld
 	 */
 	public VoxelChunk getChunk(int chunkX, int chunkY, int chunkZ, boolean createChunk)
 	{
-		VoxelChunk chunk = this.chunks.get(new ChunkKey(chunkX, chunkY, chunkZ));
+		VoxelChunk chunk = this.chunks.get(chunkX, chunkY, chunkZ);
 
 		if (chunk == null)
 		{
@@ -487,9 +706,49 @@ public class VoxelWorld
 		}
 
 		// We found it! :-)
+		chunk.markAccessed(this.updateCallId);
 		return chunk;
 	}
 
+	/**
+	 * Returns the loaded chunk containing the given global voxelspace position.
+	 * Returns null if the chunk is not loaded.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public VoxelChunk getChunkAt(int x, int y, int z)
+	{
+		VoxelChunk chunk = this.chunks.get(x >> chunkWidthShift, y >> chunkHeightShift, z >> chunkDepthShift);
+
+		if (chunk != null)
+			chunk.markAccessed(this.updateCallId);
+
+		return chunk;
+	}
+
+	/**
+	 * Returns the voxel type at the given global voxelspace position.
+	 * Returns null for air voxels or if the chunk is not loaded.
+	 * 
+	 * Other than getVoxel() this doesn't create a voxel data object.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public VoxelType getVoxelType(int x, int y, int z)
+	{
+		VoxelChunk chunk = this.getChunkAt(x, y, z);
+		if (chunk == null)
+			return null;
+
+		return chunk.getVoxelType(x & chunkWidthMask, y & chunkHeightMask, z & chunkDepthMask);
+	}
+
 	/**
 	 * Calculates the chunk where this worldspace position is located on.
 	 * 
@@ -502,11 +761,13 @@ public class VoxelWorld
 	}
 
 	/**
-	 * Returns all keys in this instance (only copies of them).
+	 * Returns the packed keys of all loaded chunks in column order.
+	 * The returned array is shared and must not be modified.
 	 * 
+	 * @see ChunkKey#pack(int, int, int)
 	 * @return
 	 */
-	public ChunkKey[] getKeys()
+	public long[] getKeys()
 	{
 		return this.chunks.getKeys();
 	}
@@ -522,22 +783,90 @@ public class VoxelWorld
 	 */
 	public byte getLightLevel(int x, int y, int z)
 	{
-		// Calculate chunk position for calculating relative position
-		Vector3 chunkPos = this.getChunkspacePosition(new Vector3(x, y, z));
-
-		// Calculate relative position
-		x -= (int) (chunkPos.x * VoxelWorld.chunkWidth);
-		y -= (int) (chunkPos.y * VoxelWorld.chunkHeight);
-		z -= (int) (chunkPos.z * VoxelWorld.chunkDepth);
-
-		VoxelChunk chunk = this.getChunk((int) chunkPos.x, (int) chunkPos.y, (int) chunkPos.z, false);
+		VoxelChunk chunk = this.getChunkAt(x, y, z);
 		if (chunk == null)
 		{
 			// ConsoleHelper.writeLog("error", "Tried to get voxel light level from non existing chunk: " + chunkPos + " at position " + x + "|" + y + "|" + z + ", isServer:" + this.isServer, "VoxelWorld");
 			return 0;
 		}
 
-		return chunk.getGlobalLightLevel(x, y, z);
+		return chunk.getGlobalLightLevel(x & chunkWidthMask, y & chunkHeightMask, z & chunkDepthMask);
+	}
+
+	/**
+	 * Returns the y-coordinate of the highest non-air voxel of the column at the given global voxelspace position.
+	 * Returns -1 if the column doesn't contain any voxel and HEIGHT_UNKNOWN if a chunk above its highest voxel is not initialized.
+	 * Only the height maps of the column's chunks get read (see VoxelChunk.getHeightMap()), no voxels.
+	 * 
+	 * @param x
+	 * @param z
+	 * @return
+	 */
+	public int getHeight(int x, int z)
+	{
+		int chunkX = x >> chunkWidthShift;
+		int chunkZ = z >> chunkDepthShift;
+
+		for (int chunkY = this.chunksOnYAxis(); chunkY >= 0; chunkY--)
+		{
+			VoxelChunk chunk = this.chunks.get(chunkX, chunkY, chunkZ);
+
+			if (chunk == null || !chunk.isInitialized())
+				return HEIGHT_UNKNOWN;
+
+			int height = chunk.getHeightMap().get(x & chunkWidthMask, z & chunkDepthMask);
+
+			if (height != HeightMap.NO_VOXEL)
+				return chunkY * chunkHeight + height;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns true if the given bounding box is above the highest voxel of all columns it covers, so it can't intersect any voxel.
+	 * Checks the same voxels as intersects() by their column heights, returns false if a column height is unknown.
+	 * 
+	 * @param boundingBox
+	 * @return
+	 */
+	public boolean isAboveTerrain(BoundingBox boundingBox)
+	{
+		int width = MathUtils.ceilToInt(boundingBox.max.x - boundingBox.min.x) + 1;
+		int depth = MathUtils.ceilToInt(boundingBox.max.z - boundingBox.min.z) + 1;
+
+		Vector3 voxelspaceMin = this.getVoxelspacePosition(new Vector3(boundingBox.min));
+
+		for (int x = 0; x < width; x++)
+		{
+			for (int z = 0; z < depth; z++)
+			{
+				int height = this.getHeight((int) voxelspaceMin.x + x, (int) voxelspaceMin.z + z);
+
+				if (height == HEIGHT_UNKNOWN || height >= (int) voxelspaceMin.y)
+					return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the worldspace position of a character standing on the highest voxel of the column at the given global voxelspace position.
+	 * Returns null if the column doesn't contain any voxel or its height is unknown.
+	 * 
+	 * @param x
+	 * @param z
+	 * @return
+	 */
+	public Vector3 findSpawnPosition(int x, int z)
+	{
+		int height = this.getHeight(x, z);
+
+		if (height < 0)
+			return null;
+
+		return new Vector3(x + 0.5f, height + 1, z + 0.5f);
 	}
 
 	/**
@@ -559,7 +888,7 @@ public class VoxelWorld
 		for (int x = (int) (chunkPos.x - chunkRadius); x <= chunkPos.x + chunkRadius; x++)
 			for (int z = (int) (chunkPos.z - chunkRadius); z <= chunkPos.z + chunkRadius; z++)
 				for (int y = 0; y < this.worldHeight / VoxelWorld.chunkHeight; y++)
-					if (y <= this.worldHeight / VoxelWorld.chunkHeight && new Vector3(new Vector3(chunkPos.x, 0, chunkPos.z)).sub(new Vector3(x, 0, z)).len() <= chunkRadius && !this.chunks.containsKey(new ChunkKey(x, y, z)))
+					if (y <= this.worldHeight / VoxelWorld.chunkHeight && new Vector3(new Vector3(chunkPos.x, 0, chunkPos.z)).sub(new Vector3(x, 0, z)).len() <= chunkRadius && !this.chunks.containsKey(x, y, z))
 					{
 						positions.add(new Vector3(x, y, z));
 
@@ -595,23 +924,14 @@ public class VoxelWorld
 	 */
 	public VoxelData getVoxel(int x, int y, int z)
 	{
-		// Calculate chunk position for calculating relative position
-		Vector3 chunkPos = this.getChunkspacePosition(new Vector3(x, y, z));
-
-		// Calculate relative position
-		x -= (int) (chunkPos.x * VoxelWorld.chunkWidth);
-		y -= (int) (chunkPos.y * VoxelWorld.chunkHeight);
-		z -= (int) (chunkPos.z * VoxelWorld.chunkDepth);
-		ChunkKey chunkKey = new ChunkKey((int) chunkPos.x, (int) chunkPos.y, (int) chunkPos.z);
-
-		VoxelChunk chunk = this.chunks.get(chunkKey);
+		VoxelChunk chunk = this.getChunkAt(x, y, z);
 		if (chunk == null)
 		{
 			// ConsoleHelper.writeLog("error", "Tried to get voxel from non existing chunk: " + chunk + " at position " + x + "|" + y + "|" + z + ", isServer:" + this.isServer, "VoxelWorld");
 			return null;
 		}
 
-		return chunk.getVoxel(x, y, z);
+		return chunk.getVoxel(x & chunkWidthMask, y & chunkHeightMask, z & chunkDepthMask);
 	}
 
 	/**
@@ -654,20 +974,11 @@ public class VoxelWorld
 	 */
 	public boolean hasVoxel(int x, int y, int z)
 	{
-		// Calculate chunk position for calculating relative position
-		Vector3 chunkPos = this.getChunkspacePosition(new Vector3(x, y, z));
-
-		// Calculate relative position
-		x -= (int) (chunkPos.x * VoxelWorld.chunkWidth);
-		y -= (int) (chunkPos.y * VoxelWorld.chunkHeight);
-		z -= (int) (chunkPos.z * VoxelWorld.chunkDepth);
-		ChunkKey chunkKey = new ChunkKey((int) chunkPos.x, (int) chunkPos.y, (int) chunkPos.z);
-
-		VoxelChunk chunk = this.chunks.get(chunkKey);
+		VoxelChunk chunk = this.getChunkAt(x, y, z);
 		if (chunk == null)
 			return false;
 
-		return chunk.hasVoxel(x, y, z);
+		return chunk.hasVoxel(x & chunkWidthMask, y & chunkHeightMask, z & chunkDepthMask);
 	}
 
 	/**
@@ -738,33 +1049,19 @@ public class VoxelWorld
 	private VoxelChunk instantiateChunk(int chunkX, int chunkY, int chunkZ)
 	{
 		VoxelChunk chunk = new VoxelChunk(chunkX, chunkY, chunkZ, this);
+		chunk.markAccessed(this.updateCallId);
+
+		// Adding the chunk links it with it's loaded neighbors
+		chunks.put(ChunkKey.pack(chunkX, chunkY, chunkZ), chunk);
+
+		// Chunks loaded outside of the columns held by players must get unloaded by the cleanup
+		if (this.isServer)
+			this.retentionIndex.chunkLoaded(chunkX, chunkZ);
 
-		// Regenerate adjacent chunks meshes
+		// Regenerate the adjacent chunks after the new chunk got lit
 		// Only needed on client
 		if (!this.isServer)
-		{
-			VoxelChunk leftChunk = this.getChunk(chunkX - 1, chunkY, chunkZ, false);
-			VoxelChunk rightChunk = this.getChunk(chunkX + 1, chunkY, chunkZ, false);
-			VoxelChunk topChunk = this.getChunk(chunkX, chunkY + 1, chunkZ, false);
-			VoxelChunk bottomChunk = this.getChunk(chunkX, chunkY - 1, chunkZ, false);
-			VoxelChunk backChunk = this.getChunk(chunkX, chunkY, chunkZ - 1, false);
-			VoxelChunk frontChunk = this.getChunk(chunkX, chunkY, chunkZ + 1, false);
-
-			if (leftChunk != null)
-				leftChunk.regenerateLightingAndMesh();
-			if (rightChunk != null)
-				rightChunk.regenerateLightingAndMesh();
-			if (topChunk != null)
-				topChunk.regenerateLightingAndMesh();
-			if (bottomChunk != null)
-				bottomChunk.regenerateLightingAndMesh();
-			if (backChunk != null)
-				backChunk.regenerateLightingAndMesh();
-			if (frontChunk != null)
-				frontChunk.regenerateLightingAndMesh();
-		}
-
-		chunks.put(new ChunkKey(chunkX, chunkY, chunkZ), chunk);
+			this.remeshScheduler.deferUntilLit(chunk);
 
 		return chunk;
 	}
@@ -796,15 +1093,18 @@ public class VoxelWorld
 			{
 				for (int z = 0; z < depth; z++)
 				{
+					int voxelX = (int) voxelspaceCenter.x + x;
+					int voxelY = (int) voxelspaceCenter.y + y;
+					int voxelZ = (int) voxelspaceCenter.z + z;
+
 					// Check if chunk is loaded
-					Vector3 chunkPos = this.getChunkspacePosition(new Vector3((int) voxelspaceCenter.x + x, (int) voxelspaceCenter.y + y, (int) voxelspaceCenter.z + z));
-					if (chunkPos.y < (this.worldHeight / VoxelWorld.chunkHeight) && !this.isChunkInitialized((int) chunkPos.x, (int) chunkPos.y, (int) chunkPos.z))
+					if ((voxelY >> chunkHeightShift) < (this.worldHeight / VoxelWorld.chunkHeight) && !this.isChunkInitialized(voxelX >> chunkWidthShift, voxelY >> chunkHeightShift, voxelZ >> chunkDepthShift))
 					{
 						return true;
 					}
 
 					// Get bounding box
-					BoundingBox voxelBoundingBox = this.getBoundingBox((int) voxelspaceCenter.x + x, (int) voxelspaceCenter.y + y, (int) voxelspaceCenter.z + z);
+					BoundingBox voxelBoundingBox = this.getBoundingBox(voxelX, voxelY, voxelZ);
 
 					// Check for intersection
 					if (voxelBoundingBox != null && boundingBox.intersects(voxelBoundingBox))
@@ -829,7 +1129,7 @@ public class VoxelWorld
 	 */
 	public boolean isChunkInitialized(int chunkX, int chunkY, int chunkZ)
 	{
-		VoxelChunk chunk = this.chunks.get(new ChunkKey(chunkX, chunkY, chunkZ));
+		VoxelChunk chunk = this.chunks.get(chunkX, chunkY, chunkZ);
 		if (chunk == null)
 			return false;
 		return chunk.isInitialized();
@@ -946,7 +1246,12 @@ public class VoxelWorld
 	{
 		// Forward the render call to the chunk manager
 		CubicWorld.getClient().profiler.startProfiling("RenderWorld", "");
-		this.chunks.render(cam, this.worldShader);
+
+		ChunkMeshBuilderPool meshBuilderPool = this.meshBuilderPool;
+		if (meshBuilderPool != null)
+			meshBuilderPool.setCamera(cam.position, cam.direction);
+
+		this.chunks.render(cam, this.worldShader, this.sunLightLevel / (float) CubicWorldConfiguration.maxLightLevel);
 		CubicWorld.getClient().profiler.stopProfiling("RenderWorld");
 	}
 
@@ -962,23 +1267,14 @@ public class VoxelWorld
 	 */
 	public void setVoxel(int x, int y, int z, VoxelData voxel)
 	{
-		// Calculate chunk position for calculating relative position
-		Vector3 chunkPos = this.getChunkspacePosition(new Vector3(x, y, z));
-
-		// Calculate relative position
-		x -= (int) (chunkPos.x * VoxelWorld.chunkWidth);
-		y -= (int) (chunkPos.y * VoxelWorld.chunkHeight);
-		z -= (int) (chunkPos.z * VoxelWorld.chunkDepth);
-		ChunkKey chunkKey = new ChunkKey((int) chunkPos.x, (int) chunkPos.y, (int) chunkPos.z);
-
-		VoxelChunk chunk = this.chunks.get(chunkKey);
+		VoxelChunk chunk = this.getChunkAt(x, y, z);
 		if (chunk == null)
 		{
-			ConsoleHelper.writeLog("error", "Tried to set voxel from non existing chunk: " + chunk + " at position " + x + "|" + y + "|" + z + ", isServer: " + this.isServer, "VoxelWorld");
+			ConsoleHelper.writeLog("error", "Tried to set voxel from non existing chunk at position " + x + "|" + y + "|" + z + ", isServer: " + this.isServer, "VoxelWorld");
 			return;
 		}
 
-		chunk.setVoxel(x, y, z, voxel);
+		chunk.setVoxel(x & chunkWidthMask, y & chunkHeightMask, z & chunkDepthMask, voxel);
 	}
 
 	/**
@@ -1016,14 +1312,217 @@ public class VoxelWorld
 	}
 
 	/**
-	 * Updates the world, calls the update() and simulate() function on all chunks.
+	 * Returns the count of chunks which get updated in update().
+	 * 
+	 * @see ChunkManager#getActiveChunkCount()
+	 * @return
+	 */
+	public int getActiveChunkCount()
+	{
+		return this.chunks.getActiveChunkCount();
+	}
+
+	/**
+	 * Adds the given chunk to the active set, so it gets updated.
+	 * 
+	 * @see ChunkManager#activate(VoxelChunk)
+	 * @param chunk
+	 */
+	void activateChunk(VoxelChunk chunk)
+	{
+		this.chunks.activate(chunk);
+	}
+
+	/**
+	 * Adds a listener which gets notified on every chunk state transition.
+	 * 
+	 * @param listener
+	 */
+	public void addChunkStateListener(IChunkStateListener listener)
+	{
+		this.chunkStateListeners.add(listener);
+	}
+
+	/**
+	 * Removes the given chunk state listener.
+	 * 
+	 * @param listener
+	 */
+	public void removeChunkStateListener(IChunkStateListener listener)
+	{
+		this.chunkStateListeners.remove(listener);
+	}
+
+	/**
+	 * Returns the time chunks of this world spend in every state.
+	 * 
+	 * @return
+	 */
+	public ChunkStateTimings getChunkStateTimings()
+	{
+		return this.chunkStateTimings;
+	}
+
+	/**
+	 * Gets called by VoxelChunk after a state transition, notifies all chunk state listeners.
+	 * Transitions from or to UPLOADED update the ready chunk count of the chunk manager (see allChunksReady()).
+	 * 
+	 * @param chunk
+	 * @param oldState
+	 * @param newState
+	 * @param nanosInOldState
+	 */
+	void chunkStateChanged(VoxelChunk chunk, ChunkState oldState, ChunkState newState, long nanosInOldState)
+	{
+		if (oldState == ChunkState.UPLOADED || newState == ChunkState.UPLOADED)
+			this.chunks.chunkReadinessChanged(chunk);
+
+		for (IChunkStateListener listener : this.chunkStateListeners)
+			listener.handleChunkStateChange(chunk, oldState, newState, nanosInOldState);
+	}
+
+	/**
+	 * Returns the mesh builder pool or null if meshes get built on the world update thread.
+	 * The pool gets created on the first call, disposed worlds don't have a pool.
+	 * 
+	 * @see CubicWorldConfiguration#meshBuilderThreads
+	 * @return
+	 */
+	public ChunkMeshBuilderPool getMeshBuilderPool()
+	{
+		if (CubicWorldConfiguration.meshBuilderThreads <= 0)
+			return null;
+
+		if (this.meshBuilderPool == null)
+		{
+			synchronized (this)
+			{
+				if (this.meshBuilderPool == null && !this.disposed)
+					this.meshBuilderPool = new ChunkMeshBuilderPool(CubicWorldConfiguration.meshBuilderThreads);
+			}
+		}
+
+		return this.meshBuilderPool;
+	}
+
+	/**
+	 * <pre>
+	 * Stops the worker threads of this world, call it if the world gets replaced or torn down.
+	 * Shuts down the mesh builder pool and waits until its workers exited.
+	 * The chunk update pool gets shut down, its threads exit after the running tasks.
+	 * 
+	 * Updates after this call run on the calling thread only.
+	 * </pre>
+	 */
+	public void dispose()
+	{
+		ChunkMeshBuilderPool meshBuilderPool;
+		ForkJoinPool chunkUpdatePool;
+
+		synchronized (this)
+		{
+			this.disposed = true;
+			meshBuilderPool = this.meshBuilderPool;
+			this.meshBuilderPool = null;
+			chunkUpdatePool = this.chunkUpdatePool;
+			this.chunkUpdatePool = null;
+		}
+
+		if (meshBuilderPool != null)
+			meshBuilderPool.shutdown();
+
+		if (chunkUpdatePool != null)
+			chunkUpdatePool.shutdown();
+	}
+
+	/**
+	 * Returns the scheduler coalescing the chunk regenerations caused by chunk streaming.
+	 * 
+	 * @return
+	 */
+	public ChunkRemeshScheduler getRemeshScheduler()
+	{
+		return this.remeshScheduler;
+	}
+
+	/**
+	 * Returns the queue of light propagations crossing chunk borders.
+	 * 
+	 * @return
+	 */
+	public LightPropagationQueue getLightPropagationQueue()
+	{
+		return this.lightPropagationQueue;
+	}
+
+	/**
+	 * Returns true if the given chunk instance is loaded in this world.
+	 * 
+	 * @param chunk
+	 * @return
+	 */
+	boolean isChunkLoaded(VoxelChunk chunk)
+	{
+		return this.chunks.isLoaded(chunk);
+	}
+
+	/**
+	 * Updates the world, calls the update() and simulate() function on all active chunks.
+	 * On the server this runs on all cores if CubicWorldConfiguration.parallelChunkUpdate is set.
+	 * The chunk columns get lit on all cores if CubicWorldConfiguration.parallelLighting is set (see ChunkLightingScheduler).
 	 */
 	public void update()
 	{
-		this.chunks.update();
+		ForkJoinPool lightingPool = CubicWorldConfiguration.parallelLighting ? this.getChunkUpdatePool() : null;
+		ForkJoinPool updatePool = (this.isServer && CubicWorldConfiguration.parallelChunkUpdate) ? this.getChunkUpdatePool() : null;
+
+		if (updatePool != null)
+		{
+			this.chunks.updateParallel(updatePool, lightingPool);
+		}
+		else
+		{
+			this.chunks.update(lightingPool);
+		}
+
+		if (!this.isServer)
+			this.remeshScheduler.flush();
+
 		updateCallId++;
 	}
 
+	/**
+	 * Returns the pool for parallel chunk updates and lighting, creates it on the first call.
+	 * Returns null after dispose().
+	 * Only called by the update thread.
+	 * 
+	 * @return
+	 */
+	private ForkJoinPool getChunkUpdatePool()
+	{
+		if (this.chunkUpdatePool == null)
+		{
+			// Locked, so dispose() can't miss a pool created concurrently
+			synchronized (this)
+			{
+				if (this.chunkUpdatePool == null && !this.disposed)
+					this.chunkUpdatePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+			}
+		}
+
+		return this.chunkUpdatePool;
+	}
+
+	/**
+	 * Returns the scheduler lighting the active chunks column by column.
+	 * 
+	 * @return
+	 */
+	public ChunkLightingScheduler getLightingScheduler()
+	{
+		return this.chunks.getLightingScheduler();
+	}
+
 	/**
 	 * @return the sunLightLevel
 	 */
@@ -1033,14 +1532,33 @@ public class VoxelWorld
 	}
 
 	/**
-	 * This will regenerate all chunk meshes.
+	 * Sets the sun light level (0 - maxLightLevel).
+	 * Neither the lighting nor the meshes get regenerated, the level gets passed to the world shader as uniform.
 	 * 
 	 * @param sunLightLevel
 	 *            the sunLightLevel to set
 	 */
 	public void setSunLightLevel(byte sunLightLevel)
 	{
-		this.chunks.recalculateLightingAndMeshes();
 		this.sunLightLevel = sunLightLevel;
 	}
+
+	/**
+	 * Returns the sky light level for the given sky exposure (the sunlight stored in the chunks) at the current sun light level.
+	 * 
+	 * @param skyExposure
+	 * @return
+	 */
+	public byte getSkyLightLevel(int skyExposure)
+	{
+		return (byte) (skyExposure * this.sunLightLevel / CubicWorldConfiguration.maxLightLevel);
+	}
+
+	/**
+	 * Regenerates the lighting and meshes of all loaded chunks.
+	 */
+	public void recalculateLightingAndMeshes()
+	{
+		this.chunks.recalculateLightingAndMeshes();
+	}
 }
@@ -4,15 +4,12 @@ import java.io.File;
 import java.io.IOException;
 import java.util.AbstractMap;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.zip.DataFormatException;
-
-import net.kennux.cubicworld.serialization.BitReader;
-import net.kennux.cubicworld.serialization.BitWriter;
-import net.kennux.cubicworld.util.CompressionUtils;
 import net.kennux.cubicworld.util.ConsoleHelper;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
 
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
@@ -68,7 +65,7 @@ public class VoxelWorldSave
 	/**
 	 * The queue of jobs waiting for writing.
 	 */
-	private LinkedList<AbstractMap.SimpleEntry<Vector3, VoxelData[][][]>> writerQueue;
+	private LinkedList<AbstractMap.SimpleEntry<Vector3, VoxelChunkSnapshot>> writerQueue;
 
 	private Object writerQueueLock = new Object();
 
@@ -101,7 +98,7 @@ public class VoxelWorldSave
 			fileWasCreated = true;
 		}
 
-		this.writerQueue = new LinkedList<AbstractMap.SimpleEntry<Vector3, VoxelData[][][]>>();
+		this.writerQueue = new LinkedList<AbstractMap.SimpleEntry<Vector3, VoxelChunkSnapshot>>();
 
 		// Create db connection
 		this.databaseConnection = DBMaker.newFileDB(saveFile).closeOnJvmShutdown().make();
@@ -120,44 +117,39 @@ public class VoxelWorldSave
 	 */
 	public void flushSave()
 	{
-		HashMap<Vector3, VoxelData[][][]> updateJobs = new HashMap<Vector3, VoxelData[][][]>();
+		HashMap<Vector3, VoxelChunkSnapshot> updateJobs = new HashMap<Vector3, VoxelChunkSnapshot>();
 
-		synchronized (this.writerQueueLock)
+		// Write jobs to database
+		// The queue gets drained while holding the connection lock, so readChunk() either sees a job in the queue or in the database
+		synchronized (this.connectionLockObject)
 		{
-			while (!this.writerQueue.isEmpty())
+			synchronized (this.writerQueueLock)
 			{
-				// Get job from queue
-				AbstractMap.SimpleEntry<Vector3, VoxelData[][][]> queueEntry = this.writerQueue.poll();
-				updateJobs.put(queueEntry.getKey(), queueEntry.getValue());
+				while (!this.writerQueue.isEmpty())
+				{
+					// Get job from queue
+					AbstractMap.SimpleEntry<Vector3, VoxelChunkSnapshot> queueEntry = this.writerQueue.poll();
+					updateJobs.put(queueEntry.getKey(), queueEntry.getValue());
+				}
 			}
-		}
 
-		// Write jobs to database
-		synchronized (this.connectionLockObject)
-		{
 			// long startTime = System.currentTimeMillis();
 
 			// Iterate through every update job.
-			for (Entry<Vector3, VoxelData[][][]> e : updateJobs.entrySet())
+			for (Entry<Vector3, VoxelChunkSnapshot> e : updateJobs.entrySet())
 			{
 				// Get chunk position
 				int chunkX = (int) e.getKey().x;
 				int chunkY = (int) e.getKey().y;
 				int chunkZ = (int) e.getKey().z;
 
-				// Serialize & compress chunk data
-				BitWriter writer = new BitWriter();
-				VoxelData[][][] voxelData = e.getValue();
-
-				for (int x = 0; x < VoxelWorld.chunkWidth; x++)
-					for (int y = 0; y < VoxelWorld.chunkHeight; y++)
-						for (int z = 0; z < VoxelWorld.chunkDepth; z++)
-							VoxelData.serialize(voxelData[x][y][z], writer);
-
 				try
 				{
-					// Prepare chunk data
-					byte[] data = CompressionUtils.compress(writer.getPacket());
+					// Serialized & compressed chunk data, this is cached in the snapshot and may be shared with the networking
+					byte[] data = e.getValue().getSerializedData();
+
+					if (data == null)
+						throw new IOException("Chunk snapshot serialization failed");
 
 					this.chunkEntries.put(new ChunkKey(chunkX, chunkY, chunkZ), data);
 				}
@@ -187,7 +179,7 @@ public class VoxelWorldSave
 	{
 		synchronized (this.connectionLockObject)
 		{
-			return this.chunkEntries.containsKey(new ChunkKey(chunkX, chunkY, chunkZ));
+			return this.getQueuedSnapshot(chunkX, chunkY, chunkZ) != null || this.chunkEntries.containsKey(new ChunkKey(chunkX, chunkY, chunkZ));
 		}
 	}
 
@@ -195,59 +187,87 @@ public class VoxelWorldSave
 	 * Reads the chunk for the given position from the save file. Returns null
 	 * if the chunk is not found.
 	 * 
+	 * Uniform chunks are stored in a compact form and get loaded without expanding them.
+	 * 
+	 * If the chunk is still queued for writing (for example it got unloaded right before), the queued snapshot gets returned.
+	 * Snapshot storages are never modified, so it can be used directly.
+	 * 
 	 * @param chunkX
 	 * @param chunkY
 	 * @param chunkZ
 	 * @return
 	 */
-	public VoxelData[][][] readChunk(int chunkX, int chunkY, int chunkZ)
+	public PaletteVoxelStorage readChunk(int chunkX, int chunkY, int chunkZ)
 	{
 		synchronized (this.connectionLockObject)
 		{
-			try
-			{
-				// Get chunk data blob
-				byte[] chunkData = this.chunkEntries.get(new ChunkKey(chunkX, chunkY, chunkZ));
+			VoxelChunkSnapshot queuedSnapshot = this.getQueuedSnapshot(chunkX, chunkY, chunkZ);
+
+			if (queuedSnapshot != null)
+				return queuedSnapshot.getVoxelStorage();
 
-				// Deserialize data
-				byte[] decompressedChunkData = CompressionUtils.decompress(chunkData);
+			// Get chunk data blob
+			byte[] chunkData = this.chunkEntries.get(new ChunkKey(chunkX, chunkY, chunkZ));
 
-				// Read data
-				BitReader reader = new BitReader(decompressedChunkData);
+			if (chunkData == null)
+				return null;
 
-				VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
-				for (int x = 0; x < VoxelWorld.chunkWidth; x++)
-					for (int y = 0; y < VoxelWorld.chunkHeight; y++)
-						for (int z = 0; z < VoxelWorld.chunkDepth; z++)
-							voxelData[x][y][z] = VoxelData.deserialize(reader);
+			// Deserialize data
+			PaletteVoxelStorage voxelStorage = VoxelEngine.deserializeVoxelStorage(chunkData);
 
-				return voxelData;
-			}
-			catch (IOException | DataFormatException e)
+			if (voxelStorage == null)
+				ConsoleHelper.writeLog("ERROR", "Error while reading chunk: " + chunkX + "|" + chunkY + "|" + chunkZ, "WorldSave");
+
+			return voxelStorage;
+		}
+	}
+
+	/**
+	 * Returns the latest snapshot queued for writing at the given position or null if there is none.
+	 * 
+	 * @param chunkX
+	 * @param chunkY
+	 * @param chunkZ
+	 * @return
+	 */
+	private VoxelChunkSnapshot getQueuedSnapshot(int chunkX, int chunkY, int chunkZ)
+	{
+		synchronized (this.writerQueueLock)
+		{
+			Iterator<AbstractMap.SimpleEntry<Vector3, VoxelChunkSnapshot>> iterator = this.writerQueue.descendingIterator();
+
+			while (iterator.hasNext())
 			{
-				ConsoleHelper.writeLog("ERROR", "Error while reading chunk: ", "WorldSave");
-				ConsoleHelper.logError(e);
-				return null;
+				AbstractMap.SimpleEntry<Vector3, VoxelChunkSnapshot> queueEntry = iterator.next();
+				Vector3 position = queueEntry.getKey();
+
+				if ((int) position.x == chunkX && (int) position.y == chunkY && (int) position.z == chunkZ)
+					return queueEntry.getValue();
 			}
+
+			return null;
 		}
 	}
 
 	/**
-	 * Writes the chunk for the given position to the save file.
+	 * Writes the chunk snapshot for the given position to the save file.
 	 * If the chunk already exists in the file it will get overwritten,
 	 * otherwise it will get added.
 	 * 
+	 * As snapshots are immutable, the chunk can get modified until flushSave() is called without affecting the saved data.
+	 * 
 	 * @param chunkX
 	 * @param chunkY
 	 * @param chunkZ
+	 * @param snapshot
 	 * @return
 	 */
-	public void writeChunk(int chunkX, int chunkY, int chunkZ, VoxelData[][][] data)
+	public void writeChunk(int chunkX, int chunkY, int chunkZ, VoxelChunkSnapshot snapshot)
 	{
 		synchronized (this.writerQueueLock)
 		{
 			// Create Writer entry
-			AbstractMap.SimpleEntry<Vector3, VoxelData[][][]> queueEntry = new AbstractMap.SimpleEntry<Vector3, VoxelData[][][]>(new Vector3(chunkX, chunkY, chunkZ), data);
+			AbstractMap.SimpleEntry<Vector3, VoxelChunkSnapshot> queueEntry = new AbstractMap.SimpleEntry<Vector3, VoxelChunkSnapshot>(new Vector3(chunkX, chunkY, chunkZ), snapshot);
 			this.writerQueue.add(queueEntry);
 		}
 	}
@@ -2,13 +2,29 @@ package net.kennux.cubicworld.voxel.generator;
 
 import net.kennux.cubicworld.voxel.VoxelChunk;
 import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelEngine;
 import net.kennux.cubicworld.voxel.VoxelWorld;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
 
 public class TestGenerator extends AWorldGenerator
 {
 	@Override
 	public void GenerateWorld(int chunkX, int chunkY, int chunkZ, VoxelChunk chunk)
 	{
+		int chunkBaseY = chunkY * VoxelWorld.chunkHeight;
+
+		// Chunks completely below or above the surface are uniform
+		if (chunkBaseY + VoxelWorld.chunkHeight <= 100)
+		{
+			chunk.setVoxelStorage(PaletteVoxelStorage.uniform(VoxelEngine.getVoxelType((short) 0), (byte) 0));
+			return;
+		}
+		else if (chunkBaseY >= 100)
+		{
+			chunk.setVoxelStorage(new PaletteVoxelStorage());
+			return;
+		}
+
 		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
 
 		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
@@ -5,6 +5,7 @@ import net.kennux.cubicworld.voxel.VoxelChunk;
 import net.kennux.cubicworld.voxel.VoxelData;
 import net.kennux.cubicworld.voxel.VoxelWorld;
 import net.kennux.cubicworld.voxel.generator.noise.SimplexNoise3D;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
 
 /**
  * <pre>
@@ -21,14 +22,22 @@ public class WorldGenerator extends AWorldGenerator
 
 	public void GenerateWorld(int chunkX, int chunkY, int chunkZ, VoxelChunk chunk)
 	{
-		// Initialize voxel data
-		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
-
 		// Initialize chunk base position
 		int chunkBaseX = (chunkX * VoxelWorld.chunkWidth);
 		int chunkBaseY = (chunkY * VoxelWorld.chunkHeight);
 		int chunkBaseZ = (chunkZ * VoxelWorld.chunkDepth);
 
+		// The terrain never gets higher than the world, so chunks above it are empty
+		if (chunkBaseY >= chunk.master.worldHeight)
+		{
+			chunk.setVoxelStorage(new PaletteVoxelStorage());
+			return;
+		}
+
+		// Initialize voxel data
+		VoxelData[][][] voxelData = new VoxelData[VoxelWorld.chunkWidth][VoxelWorld.chunkHeight][VoxelWorld.chunkDepth];
+		boolean empty = true;
+
 		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
 		{
 			// Calculate absolute position
@@ -58,6 +67,8 @@ public class WorldGenerator extends AWorldGenerator
 						// Block in this position?
 						if (noise < 0.5f)
 						{
+							empty = false;
+
 							// Grass?
 							if (absoluteY == absoluteHeight - 1)
 							{
@@ -85,7 +96,11 @@ public class WorldGenerator extends AWorldGenerator
 			}
 		}
 
-		chunk.setVoxelData(voxelData);
+		// Chunks above the surface don't need to get converted
+		if (empty)
+			chunk.setVoxelStorage(new PaletteVoxelStorage());
+		else
+			chunk.setVoxelData(voxelData);
 	}
 
 }
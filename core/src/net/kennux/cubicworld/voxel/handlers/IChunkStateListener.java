@@ -0,0 +1,30 @@
+package net.kennux.cubicworld.voxel.handlers;
+
+import net.kennux.cubicworld.voxel.ChunkState;
+import net.kennux.cubicworld.voxel.VoxelChunk;
+
+/**
+ * <pre>
+ * Interface for chunk lifecycle state listeners.
+ * Register your listener with VoxelWorld.addChunkStateListener().
+ *
+ * Listeners get called on the thread which changed the state (world generator, update or render thread),
+ * so implementations must be thread-safe and should return quickly.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public interface IChunkStateListener
+{
+	/**
+	 * Gets called after the given chunk changed its state.
+	 *
+	 * @param chunk
+	 * @param oldState
+	 * @param newState
+	 * @param nanosInOldState
+	 *            The time in nanoseconds the chunk spent in the old state.
+	 */
+	public void handleChunkStateChange(VoxelChunk chunk, ChunkState oldState, ChunkState newState, long nanosInOldState);
+}
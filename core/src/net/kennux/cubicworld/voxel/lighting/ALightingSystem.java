@@ -27,6 +27,51 @@ public abstract class ALightingSystem
 	 */
 	protected abstract ILightingPass[] getPasses();
 
+	/**
+	 * <pre>
+	 * Returns the directions (bits of the VoxelChunk.NEIGHBOR_* directions) of the adjacent chunks the passes read from.
+	 * A chunk gets relit if one of these chunks got loaded after its lighting got calculated.
+	 * Returns all directions, override this if the passes only read some of the adjacent chunks.
+	 * </pre>
+	 * 
+	 * @return
+	 */
+	public int getNeighborDependencies()
+	{
+		return (1 << VoxelChunk.NEIGHBOR_OFFSETS.length) - 1;
+	}
+
+	/**
+	 * <pre>
+	 * Returns true if the lighting of the given chunk is done, but light propagated from adjacent chunks still needs to be applied.
+	 * The chunk stays in the active set of the chunk manager until this returns false.
+	 * Returns false, override this if the system propagates light into already lit chunks.
+	 * </pre>
+	 * 
+	 * @param chunk
+	 * @return
+	 */
+	public boolean hasPendingPropagations(VoxelChunk chunk)
+	{
+		return false;
+	}
+
+	/**
+	 * <pre>
+	 * Updates the light of the given chunk after the voxel at the given index (see PaletteVoxelStorage.getIndex()) changed.
+	 * Returns false if the system can't update the light incrementally, the chunk gets relit completely then.
+	 * Returns false, override this if the system supports incremental updates.
+	 * </pre>
+	 * 
+	 * @param chunk
+	 * @param index
+	 * @return
+	 */
+	public boolean updateVoxelLight(VoxelChunk chunk, int index)
+	{
+		return false;
+	}
+
 	/**
 	 * The values returned by executePass().
 	 * 
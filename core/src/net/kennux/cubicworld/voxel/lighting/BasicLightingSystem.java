@@ -11,7 +11,7 @@ public class BasicLightingSystem extends ALightingSystem
 	@Override
 	protected ILightingPass[] getPasses()
 	{
-		return new ILightingPass[] { new LocalLightingPass(this), new GlobalLightingPass() };
+		return new ILightingPass[] { new LocalLightingPass(this), new GlobalLightingPass(this) };
 	}
 
 }
@@ -0,0 +1,732 @@
+package net.kennux.cubicworld.voxel.lighting;
+
+import net.kennux.cubicworld.CubicWorldConfiguration;
+import net.kennux.cubicworld.voxel.ChunkKey;
+import net.kennux.cubicworld.voxel.VoxelChunk;
+import net.kennux.cubicworld.voxel.VoxelChunkSnapshot;
+import net.kennux.cubicworld.voxel.VoxelType;
+import net.kennux.cubicworld.voxel.VoxelWorld;
+import net.kennux.cubicworld.voxel.storage.HeightMap;
+import net.kennux.cubicworld.voxel.storage.NibbleArray;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
+
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * <pre>
+ * Lights a chunk in one pass by a breadth first flood fill of sunlight and block light.
+ *
+ * 1. Sunlight gets seeded from the top chunk (or the upper world border) down every column until an opaque voxel is hit.
+ *    The air above the highest voxel of a column gets seeded by the chunk's height map.
+ * 2. Light sources get seeded with their emitting level.
+ * 3. The light on the borders of already lit adjacent chunks gets pulled into this chunk.
+ * 4. Queued propagations of the world's LightPropagationQueue get applied.
+ * 5. All seeded voxels get flood filled through translucent voxels, the light decreases by 1 per voxel.
+ *    Full sunlight going down doesn't decrease, so shadows get the light of their surroundings in the sunlight channel.
+ *
+ * The sunlight channel stores the sky exposure (0 - maxLightLevel), which doesn't depend on the time of day.
+ * The sun light level of the world gets applied when the light gets read (see VoxelWorld.getSkyLightLevel()).
+ *
+ * Propagations reaching an already lit adjacent chunk get pushed into the LightPropagationQueue,
+ * the adjacent chunk continues them in its next update (see FloodFillLightingSystem.update()).
+ *
+ * The queue entries are primitive ints, see LightPropagationQueue.encode().
+ *
+ * Voxel changes in lit chunks only update the light around the changed voxel (see updateVoxelLight()).
+ * The light depending on the old light of the voxel gets removed by a second flood fill,
+ * then the removed area gets refilled from its brighter border and the new light of the voxel.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class FloodFillLightingPass implements ILightingPass
+{
+	/**
+	 * The voxel index offsets of the NEIGHBOR_* directions (see PaletteVoxelStorage.getIndex()).
+	 */
+	private static final int[] INDEX_OFFSETS = new int[] { -VoxelWorld.chunkDepth * VoxelWorld.chunkHeight, VoxelWorld.chunkDepth * VoxelWorld.chunkHeight, 1, -1, -VoxelWorld.chunkHeight, VoxelWorld.chunkHeight };
+
+	/**
+	 * The lighting system master.
+	 */
+	private ALightingSystem lightingSystem;
+
+	public FloodFillLightingPass(ALightingSystem lightingSystem)
+	{
+		this.lightingSystem = lightingSystem;
+	}
+
+	@Override
+	public boolean executePass(VoxelChunk chunk)
+	{
+		// Check if starting conditions are met
+		VoxelChunk topChunk = chunk.getNeighbor(VoxelChunk.NEIGHBOR_TOP);
+
+		if (chunk.isInitialized() && chunk.getChunkY() != chunk.master.chunksOnYAxis() &&
+			(topChunk == null || !topChunk.isInitialized() || !topChunk.isLightingPassDone(FloodFillLightingPass.class)))
+			return false;
+
+		// Only start calculation if the voxel data is already initialized
+		if (!chunk.isInitialized())
+			return false;
+
+		VoxelChunkSnapshot snapshot = chunk.getSnapshot();
+		chunk.getSunLight().fill(0);
+		chunk.getBlockLight().fill(0);
+
+		// Uniform opaque chunks below the upper world border stay dark, there is no voxel the light could enter
+		VoxelType uniformType = snapshot.isUniform() ? snapshot.getVoxelType(0) : null;
+
+		if (uniformType != null && !uniformType.transparent && !uniformType.isLightSource() && chunk.getChunkY() != chunk.master.chunksOnYAxis())
+			return true;
+
+		IntArray queue = new IntArray(512);
+		this.seedLight(chunk, snapshot, topChunk, queue);
+		this.pullNeighborLight(chunk, snapshot, queue);
+
+		IntArray entries = chunk.master.getLightPropagationQueue().poll(getChunkKey(chunk));
+
+		if (entries != null)
+			applyEntries(chunk, snapshot, entries, queue, null);
+
+		propagate(chunk, snapshot, queue, null);
+
+		return true;
+	}
+
+	/**
+	 * <pre>
+	 * Continues the propagations queued for the given lit chunk in the world's LightPropagationQueue.
+	 * The mesh sections of the changed voxels get regenerated.
+	 * Callers must hold the voxel data lock of the chunk.
+	 * </pre>
+	 *
+	 * @param chunk
+	 */
+	public void propagateQueued(VoxelChunk chunk)
+	{
+		IntArray entries = chunk.master.getLightPropagationQueue().poll(getChunkKey(chunk));
+
+		if (entries == null)
+			return;
+
+		VoxelChunkSnapshot snapshot = chunk.getSnapshot();
+		IntArray removalQueue = new IntArray();
+		IntArray queue = new IntArray(entries.size);
+		IntArray changed = new IntArray(entries.size);
+
+		// Removals first, the refill may need the removed voxels
+		for (int i = 0; i < entries.size; i++)
+		{
+			int entry = entries.get(i);
+
+			if (LightPropagationQueue.isRemoval(entry))
+				removeOrRefill(chunk, snapshot, LightPropagationQueue.getIndex(entry), LightPropagationQueue.getChannel(entry), LightPropagationQueue.getLevel(entry), LightPropagationQueue.getDirection(entry), removalQueue, queue, changed);
+		}
+
+		removeLight(chunk, snapshot, removalQueue, queue, changed);
+		applyEntries(chunk, snapshot, entries, queue, changed);
+		propagate(chunk, snapshot, queue, changed);
+
+		if (changed.size > 0)
+			chunk.lightLevelsWereChanged(changed);
+	}
+
+	/**
+	 * <pre>
+	 * Updates the light after the voxel at the given index of the given lit chunk changed.
+	 * Only the voxels whose light depends on the changed voxel get visited:
+	 * 
+	 * 1. The old light of the voxel gets removed, the removal spreads to all voxels which got their light from it.
+	 *    Brighter voxels on the border of the removed area get queued for the refill.
+	 * 2. The voxel gets its new light from its neighbors and its own light source.
+	 * 3. The removed area gets refilled by the flood fill.
+	 * 
+	 * Removals reaching lit adjacent chunks get pushed into the world's LightPropagationQueue.
+	 * The mesh sections of the changed voxels get regenerated (see VoxelChunk.lightLevelsWereChanged()).
+	 * Callers must hold the voxel data lock of the chunk.
+	 * </pre>
+	 *
+	 * @param chunk
+	 * @param index
+	 */
+	public void updateVoxelLight(VoxelChunk chunk, int index)
+	{
+		VoxelChunkSnapshot snapshot = chunk.getSnapshot();
+		IntArray removalQueue = new IntArray();
+		IntArray queue = new IntArray();
+		IntArray changed = new IntArray();
+
+		for (int channel = LightPropagationQueue.CHANNEL_SUN; channel <= LightPropagationQueue.CHANNEL_BLOCK; channel++)
+		{
+			NibbleArray light = channel == LightPropagationQueue.CHANNEL_SUN ? chunk.getSunLight() : chunk.getBlockLight();
+			int level = light.get(index);
+
+			if (level == 0)
+				continue;
+
+			light.set(index, 0);
+			removalQueue.add(LightPropagationQueue.encode(index, channel, level));
+			changed.add(index);
+		}
+
+		removeLight(chunk, snapshot, removalQueue, queue, changed);
+		seedVoxel(chunk, snapshot, index, queue, changed);
+		propagate(chunk, snapshot, queue, changed);
+
+		if (changed.size > 0)
+			chunk.lightLevelsWereChanged(changed);
+	}
+
+	/**
+	 * Sets the light of the voxel at the given index to the brightest light coming from its neighbors or its own light.
+	 *
+	 * @param chunk
+	 * @param snapshot
+	 * @param index
+	 * @param queue
+	 * @param changed
+	 */
+	private static void seedVoxel(VoxelChunk chunk, VoxelChunkSnapshot snapshot, int index, IntArray queue, IntArray changed)
+	{
+		byte fullSunLight = (byte) CubicWorldConfiguration.maxLightLevel;
+		VoxelType type = snapshot.getVoxelType(index);
+		boolean translucent = isTranslucent(type);
+		int x = PaletteVoxelStorage.getX(index);
+		int y = PaletteVoxelStorage.getY(index);
+		int z = PaletteVoxelStorage.getZ(index);
+
+		for (int channel = LightPropagationQueue.CHANNEL_SUN; channel <= LightPropagationQueue.CHANNEL_BLOCK; channel++)
+		{
+			NibbleArray light = channel == LightPropagationQueue.CHANNEL_SUN ? chunk.getSunLight() : chunk.getBlockLight();
+			int level = getOwnLight(chunk, type, y, channel);
+
+			// Opaque voxels only have their own light
+			for (int direction = 0; translucent && direction < VoxelChunk.NEIGHBOR_OFFSETS.length; direction++)
+			{
+				int[] offset = VoxelChunk.NEIGHBOR_OFFSETS[direction];
+				int neighborX = x + offset[0];
+				int neighborY = y + offset[1];
+				int neighborZ = z + offset[2];
+				int neighborLevel;
+
+				if (neighborX >= 0 && neighborX < VoxelWorld.chunkWidth && neighborY >= 0 && neighborY < VoxelWorld.chunkHeight && neighborZ >= 0 && neighborZ < VoxelWorld.chunkDepth)
+				{
+					neighborLevel = light.get(index + INDEX_OFFSETS[direction]);
+				}
+				else
+				{
+					VoxelChunk neighbor = chunk.getNeighbor(direction);
+
+					if (!isLit(neighbor))
+						continue;
+
+					int neighborIndex = PaletteVoxelStorage.getIndex(wrap(neighborX, VoxelWorld.chunkWidth), wrap(neighborY, VoxelWorld.chunkHeight), wrap(neighborZ, VoxelWorld.chunkDepth));
+					neighborLevel = channel == LightPropagationQueue.CHANNEL_SUN ? neighbor.getSunLight().get(neighborIndex) : neighbor.getBlockLight().get(neighborIndex);
+				}
+
+				// The light travels from the neighbor to the voxel
+				level = Math.max(level, attenuate(channel, neighborLevel, direction ^ 1, fullSunLight));
+			}
+
+			if (level <= light.get(index))
+				continue;
+
+			light.set(index, level);
+			queue.add(LightPropagationQueue.encode(index, channel, level));
+			changed.add(index);
+		}
+	}
+
+	/**
+	 * Returns the light a voxel has on its own: the emitting level of light sources and full sunlight at the upper world border.
+	 *
+	 * @param chunk
+	 * @param type
+	 * @param y
+	 *            The local y-coordinate of the voxel.
+	 * @param channel
+	 * @return
+	 */
+	private static int getOwnLight(VoxelChunk chunk, VoxelType type, int y, int channel)
+	{
+		if (channel == LightPropagationQueue.CHANNEL_SUN)
+			return y + chunk.getChunkY() * VoxelWorld.chunkHeight == chunk.master.worldHeight - 1 ? CubicWorldConfiguration.maxLightLevel : 0;
+
+		return type != null && type.isLightSource() ? type.getLightEmittingLevel() : 0;
+	}
+
+	/**
+	 * <pre>
+	 * Removes the light of all voxels depending on the queued darkened voxels.
+	 * A neighbor of a darkened voxel depends on it if it is darker, or if it is below it and both had full sunlight.
+	 * Brighter neighbors got their light from somewhere else, they get queued for the refill.
+	 * Removals into lit adjacent chunks get pushed into the world's LightPropagationQueue.
+	 * </pre>
+	 *
+	 * @param chunk
+	 * @param snapshot
+	 * @param removalQueue
+	 *            The darkened voxels with their old light level.
+	 * @param queue
+	 *            The refill queue.
+	 * @param changed
+	 */
+	private static void removeLight(VoxelChunk chunk, VoxelChunkSnapshot snapshot, IntArray removalQueue, IntArray queue, IntArray changed)
+	{
+		LightPropagationQueue worldQueue = chunk.master.getLightPropagationQueue();
+		int pushedNeighbors = 0;
+		int litNeighbors = getLitNeighbors(chunk);
+
+		for (int head = 0; head < removalQueue.size; head++)
+		{
+			int entry = removalQueue.get(head);
+			int index = LightPropagationQueue.getIndex(entry);
+			int channel = LightPropagationQueue.getChannel(entry);
+			int level = LightPropagationQueue.getLevel(entry);
+			int x = PaletteVoxelStorage.getX(index);
+			int y = PaletteVoxelStorage.getY(index);
+			int z = PaletteVoxelStorage.getZ(index);
+
+			for (int direction = 0; direction < VoxelChunk.NEIGHBOR_OFFSETS.length; direction++)
+			{
+				int[] offset = VoxelChunk.NEIGHBOR_OFFSETS[direction];
+				int nextX = x + offset[0];
+				int nextY = y + offset[1];
+				int nextZ = z + offset[2];
+
+				if (nextX >= 0 && nextX < VoxelWorld.chunkWidth && nextY >= 0 && nextY < VoxelWorld.chunkHeight && nextZ >= 0 && nextZ < VoxelWorld.chunkDepth)
+				{
+					removeOrRefill(chunk, snapshot, index + INDEX_OFFSETS[direction], channel, level, direction, removalQueue, queue, changed);
+				}
+				else if ((litNeighbors & (1 << direction)) != 0)
+				{
+					VoxelChunk neighbor = chunk.getNeighbor(direction);
+					int nextIndex = PaletteVoxelStorage.getIndex(wrap(nextX, VoxelWorld.chunkWidth), wrap(nextY, VoxelWorld.chunkHeight), wrap(nextZ, VoxelWorld.chunkDepth));
+					NibbleArray neighborLight = channel == LightPropagationQueue.CHANNEL_SUN ? neighbor.getSunLight() : neighbor.getBlockLight();
+
+					if (neighborLight.get(nextIndex) == 0)
+						continue;
+
+					worldQueue.pushRemoval(getChunkKey(neighbor), nextIndex, channel, level, direction);
+					pushedNeighbors |= 1 << direction;
+				}
+			}
+		}
+
+		activateNeighbors(chunk, pushedNeighbors);
+	}
+
+	/**
+	 * Darkens the voxel at the given index if its light depends on the darkened voxel next to it, otherwise it gets queued for the refill.
+	 *
+	 * @param chunk
+	 * @param snapshot
+	 * @param index
+	 * @param channel
+	 * @param level
+	 *            The old light level of the darkened voxel.
+	 * @param direction
+	 *            The direction from the darkened voxel to the voxel at the given index.
+	 * @param removalQueue
+	 * @param queue
+	 * @param changed
+	 */
+	private static void removeOrRefill(VoxelChunk chunk, VoxelChunkSnapshot snapshot, int index, int channel, int level, int direction, IntArray removalQueue, IntArray queue, IntArray changed)
+	{
+		NibbleArray light = channel == LightPropagationQueue.CHANNEL_SUN ? chunk.getSunLight() : chunk.getBlockLight();
+		int currentLevel = light.get(index);
+
+		if (currentLevel == 0)
+			return;
+
+		if (currentLevel >= level && attenuate(channel, level, direction, CubicWorldConfiguration.maxLightLevel) != currentLevel)
+		{
+			queue.add(LightPropagationQueue.encode(index, channel, currentLevel));
+			return;
+		}
+
+		light.set(index, 0);
+		removalQueue.add(LightPropagationQueue.encode(index, channel, currentLevel));
+		changed.add(index);
+
+		// Light sources and the upper world border keep their own light
+		int ownLevel = getOwnLight(chunk, snapshot.getVoxelType(index), PaletteVoxelStorage.getY(index), channel);
+
+		if (ownLevel > 0)
+		{
+			light.set(index, ownLevel);
+			queue.add(LightPropagationQueue.encode(index, channel, ownLevel));
+		}
+	}
+
+	/**
+	 * Seeds the sunlight of all columns and the light of all light sources.
+	 * The air above the highest voxel of a column (see VoxelChunk.getHeightMap()) gets the sunlight without reading its voxels.
+	 *
+	 * @param chunk
+	 * @param snapshot
+	 * @param topChunk
+	 * @param queue
+	 */
+	private void seedLight(VoxelChunk chunk, VoxelChunkSnapshot snapshot, VoxelChunk topChunk, IntArray queue)
+	{
+		NibbleArray sunLight = chunk.getSunLight();
+		NibbleArray blockLight = chunk.getBlockLight();
+		HeightMap heightMap = chunk.getHeightMap();
+		byte fullSunLight = (byte) CubicWorldConfiguration.maxLightLevel;
+		int worldTopY = chunk.master.worldHeight - 1 - chunk.getChunkY() * VoxelWorld.chunkHeight;
+		boolean topLoaded = topChunk != null && topChunk.getSnapshot() != null;
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+		{
+			for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+			{
+				// The column is lit if the voxel above has full sunlight
+				boolean lit = topLoaded && topChunk.getSunLightLevel(x, 0, z) == fullSunLight;
+				int height = heightMap.get(x, z);
+
+				// Only air above the highest voxel
+				for (int y = VoxelWorld.chunkHeight - 1; y > height; y--)
+				{
+					// The voxel at the upper world border always gets full sunlight
+					if (y == worldTopY)
+						lit = true;
+
+					if (lit)
+						sunLight.set(PaletteVoxelStorage.getIndex(x, y, z), fullSunLight);
+				}
+
+				for (int y = height; y >= 0; y--)
+				{
+					int index = PaletteVoxelStorage.getIndex(x, y, z);
+					VoxelType type = snapshot.getVoxelType(index);
+
+					// The voxel at the upper world border always gets full sunlight
+					if (y == worldTopY)
+						lit = true;
+					else if (type != null && !type.transparent)
+						lit = false;
+
+					if (lit)
+						sunLight.set(index, fullSunLight);
+
+					if (type != null && type.isLightSource() && type.getLightEmittingLevel() > 0)
+					{
+						blockLight.set(index, type.getLightEmittingLevel());
+						queue.add(LightPropagationQueue.encode(index, LightPropagationQueue.CHANNEL_BLOCK, type.getLightEmittingLevel()));
+					}
+				}
+			}
+		}
+
+		// Only the sunlit voxels next to darker voxels need to be flood filled, the voxels above and below are sunlit or opaque
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+		{
+			for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+			{
+				for (int y = 0; y < VoxelWorld.chunkHeight; y++)
+				{
+					int index = PaletteVoxelStorage.getIndex(x, y, z);
+
+					if (sunLight.get(index) != fullSunLight)
+						continue;
+
+					boolean border = x == 0 || z == 0 || y == 0 || x == VoxelWorld.chunkWidth - 1 || z == VoxelWorld.chunkDepth - 1 || y == VoxelWorld.chunkHeight - 1;
+
+					if (border || sunLight.get(index + INDEX_OFFSETS[VoxelChunk.NEIGHBOR_LEFT]) != fullSunLight || sunLight.get(index + INDEX_OFFSETS[VoxelChunk.NEIGHBOR_RIGHT]) != fullSunLight ||
+						sunLight.get(index + INDEX_OFFSETS[VoxelChunk.NEIGHBOR_BACK]) != fullSunLight || sunLight.get(index + INDEX_OFFSETS[VoxelChunk.NEIGHBOR_FRONT]) != fullSunLight)
+						queue.add(LightPropagationQueue.encode(index, LightPropagationQueue.CHANNEL_SUN, fullSunLight));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Pulls the light on the borders of all lit adjacent chunks into the translucent border voxels of the given chunk.
+	 *
+	 * @param chunk
+	 * @param snapshot
+	 * @param queue
+	 */
+	private void pullNeighborLight(VoxelChunk chunk, VoxelChunkSnapshot snapshot, IntArray queue)
+	{
+		byte fullSunLight = (byte) CubicWorldConfiguration.maxLightLevel;
+
+		for (int direction = 0; direction < VoxelChunk.NEIGHBOR_OFFSETS.length; direction++)
+		{
+			VoxelChunk neighbor = chunk.getNeighbor(direction);
+
+			if (!isLit(neighbor))
+				continue;
+
+			int[] offset = VoxelChunk.NEIGHBOR_OFFSETS[direction];
+
+			// The light travels from the neighbor into this chunk
+			int travelDirection = direction ^ 1;
+
+			for (int a = 0; a < VoxelWorld.chunkWidth; a++)
+			{
+				for (int b = 0; b < VoxelWorld.chunkHeight; b++)
+				{
+					// Walk over the border face, the coordinate on the direction's axis is fixed
+					int x = offset[0] == 0 ? a : (offset[0] < 0 ? 0 : VoxelWorld.chunkWidth - 1);
+					int y = offset[1] == 0 ? (offset[0] == 0 ? b : a) : (offset[1] < 0 ? 0 : VoxelWorld.chunkHeight - 1);
+					int z = offset[2] == 0 ? b : (offset[2] < 0 ? 0 : VoxelWorld.chunkDepth - 1);
+
+					int index = PaletteVoxelStorage.getIndex(x, y, z);
+
+					if (!isTranslucent(snapshot.getVoxelType(index)))
+						continue;
+
+					int neighborIndex = PaletteVoxelStorage.getIndex(wrap(x + offset[0], VoxelWorld.chunkWidth), wrap(y + offset[1], VoxelWorld.chunkHeight), wrap(z + offset[2], VoxelWorld.chunkDepth));
+
+					this.pull(chunk.getSunLight(), index, LightPropagationQueue.CHANNEL_SUN, attenuate(LightPropagationQueue.CHANNEL_SUN, neighbor.getSunLight().get(neighborIndex), travelDirection, fullSunLight), queue);
+					this.pull(chunk.getBlockLight(), index, LightPropagationQueue.CHANNEL_BLOCK, attenuate(LightPropagationQueue.CHANNEL_BLOCK, neighbor.getBlockLight().get(neighborIndex), travelDirection, fullSunLight), queue);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the light at the given index to the given level and queues it, if it is brighter than the current one.
+	 *
+	 * @param light
+	 * @param index
+	 * @param channel
+	 * @param level
+	 * @param queue
+	 */
+	private void pull(NibbleArray light, int index, int channel, int level, IntArray queue)
+	{
+		if (level <= light.get(index))
+			return;
+
+		light.set(index, level);
+		queue.add(LightPropagationQueue.encode(index, channel, level));
+	}
+
+	/**
+	 * Applies the given entries of the LightPropagationQueue to the light of the given chunk.
+	 * The entries which made a voxel brighter get added to the queue.
+	 *
+	 * @param chunk
+	 * @param snapshot
+	 * @param entries
+	 * @param queue
+	 * @param changed
+	 *            The indices of the changed voxels get added to this, may be null.
+	 */
+	private static void applyEntries(VoxelChunk chunk, VoxelChunkSnapshot snapshot, IntArray entries, IntArray queue, IntArray changed)
+	{
+		for (int i = 0; i < entries.size; i++)
+		{
+			int entry = entries.get(i);
+
+			// Removals only make sense for the light they got pushed for, a newly lit chunk already reads the current light of its neighbors
+			if (LightPropagationQueue.isRemoval(entry))
+				continue;
+
+			int index = LightPropagationQueue.getIndex(entry);
+			int level = LightPropagationQueue.getLevel(entry);
+			NibbleArray light = LightPropagationQueue.getChannel(entry) == LightPropagationQueue.CHANNEL_SUN ? chunk.getSunLight() : chunk.getBlockLight();
+
+			// The voxel may have changed since the entry got pushed
+			if (level <= light.get(index) || !isTranslucent(snapshot.getVoxelType(index)))
+				continue;
+
+			light.set(index, level);
+			queue.add(entry);
+
+			if (changed != null)
+				changed.add(index);
+		}
+	}
+
+	/**
+	 * <pre>
+	 * Flood fills the light of all queued entries through the translucent voxels of the given chunk.
+	 * Entries whose voxel got brighter since they got queued are skipped.
+	 * Propagations into lit adjacent chunks get pushed into the world's LightPropagationQueue.
+	 * </pre>
+	 *
+	 * @param chunk
+	 * @param snapshot
+	 * @param queue
+	 * @param changed
+	 *            The indices of the changed voxels get added to this, may be null.
+	 */
+	private static void propagate(VoxelChunk chunk, VoxelChunkSnapshot snapshot, IntArray queue, IntArray changed)
+	{
+		LightPropagationQueue worldQueue = chunk.master.getLightPropagationQueue();
+		byte fullSunLight = (byte) CubicWorldConfiguration.maxLightLevel;
+		int pushedNeighbors = 0;
+		int litNeighbors = getLitNeighbors(chunk);
+
+		for (int head = 0; head < queue.size; head++)
+		{
+			int entry = queue.get(head);
+			int index = LightPropagationQueue.getIndex(entry);
+			int channel = LightPropagationQueue.getChannel(entry);
+			int level = LightPropagationQueue.getLevel(entry);
+			NibbleArray light = channel == LightPropagationQueue.CHANNEL_SUN ? chunk.getSunLight() : chunk.getBlockLight();
+
+			if (light.get(index) != level)
+				continue;
+
+			int x = PaletteVoxelStorage.getX(index);
+			int y = PaletteVoxelStorage.getY(index);
+			int z = PaletteVoxelStorage.getZ(index);
+
+			for (int direction = 0; direction < VoxelChunk.NEIGHBOR_OFFSETS.length; direction++)
+			{
+				int nextLevel = attenuate(channel, level, direction, fullSunLight);
+
+				if (nextLevel <= 0)
+					continue;
+
+				int[] offset = VoxelChunk.NEIGHBOR_OFFSETS[direction];
+				int nextX = x + offset[0];
+				int nextY = y + offset[1];
+				int nextZ = z + offset[2];
+
+				if (nextX >= 0 && nextX < VoxelWorld.chunkWidth && nextY >= 0 && nextY < VoxelWorld.chunkHeight && nextZ >= 0 && nextZ < VoxelWorld.chunkDepth)
+				{
+					int nextIndex = index + INDEX_OFFSETS[direction];
+
+					if (nextLevel <= light.get(nextIndex) || !isTranslucent(snapshot.getVoxelType(nextIndex)))
+						continue;
+
+					light.set(nextIndex, nextLevel);
+					queue.add(LightPropagationQueue.encode(nextIndex, channel, nextLevel));
+
+					if (changed != null)
+						changed.add(nextIndex);
+				}
+				else
+				{
+					// Crossing the chunk border, only lit chunks get the propagation, all others pull the light while getting lit
+					if ((litNeighbors & (1 << direction)) == 0)
+						continue;
+
+					VoxelChunk neighbor = chunk.getNeighbor(direction);
+					int nextIndex = PaletteVoxelStorage.getIndex(wrap(nextX, VoxelWorld.chunkWidth), wrap(nextY, VoxelWorld.chunkHeight), wrap(nextZ, VoxelWorld.chunkDepth));
+					NibbleArray neighborLight = channel == LightPropagationQueue.CHANNEL_SUN ? neighbor.getSunLight() : neighbor.getBlockLight();
+
+					if (nextLevel <= neighborLight.get(nextIndex) || !isTranslucent(neighbor.getSnapshot().getVoxelType(nextIndex)))
+						continue;
+
+					worldQueue.push(getChunkKey(neighbor), nextIndex, channel, nextLevel);
+					pushedNeighbors |= 1 << direction;
+				}
+			}
+		}
+
+		activateNeighbors(chunk, pushedNeighbors);
+	}
+
+	/**
+	 * Returns the directions (bits of the NEIGHBOR_* directions) of the lit adjacent chunks.
+	 * The neighbors don't get updated while the given chunk gets updated, so their lighting state can't change during its update.
+	 *
+	 * @param chunk
+	 * @return
+	 */
+	private static int getLitNeighbors(VoxelChunk chunk)
+	{
+		int litNeighbors = 0;
+
+		for (int direction = 0; direction < VoxelChunk.NEIGHBOR_OFFSETS.length; direction++)
+		{
+			if (isLit(chunk.getNeighbor(direction)))
+				litNeighbors |= 1 << direction;
+		}
+
+		return litNeighbors;
+	}
+
+	/**
+	 * Activates the adjacent chunks in the given directions after propagations got pushed for them, so they continue them.
+	 *
+	 * @param chunk
+	 * @param directions
+	 *            Bits of the NEIGHBOR_* directions.
+	 */
+	private static void activateNeighbors(VoxelChunk chunk, int directions)
+	{
+		for (int direction = 0; direction < VoxelChunk.NEIGHBOR_OFFSETS.length; direction++)
+		{
+			if ((directions & (1 << direction)) != 0)
+				chunk.getNeighbor(direction).lightWasPropagated();
+		}
+	}
+
+	/**
+	 * Returns the light level after travelling one voxel in the given direction.
+	 * Full sunlight going down doesn't get weaker.
+	 *
+	 * @param channel
+	 * @param level
+	 * @param direction
+	 * @param fullSunLight
+	 * @return
+	 */
+	private static int attenuate(int channel, int level, int direction, int fullSunLight)
+	{
+		if (channel == LightPropagationQueue.CHANNEL_SUN && direction == VoxelChunk.NEIGHBOR_BOTTOM && level == fullSunLight)
+			return level;
+
+		return level - 1;
+	}
+
+	/**
+	 * Returns true if the given chunk is loaded and its flood fill is done.
+	 *
+	 * @param chunk
+	 * @return
+	 */
+	private static boolean isLit(VoxelChunk chunk)
+	{
+		return chunk != null && chunk.getSnapshot() != null && chunk.isLightingPassDone(FloodFillLightingPass.class);
+	}
+
+	/**
+	 * Light passes air and transparent voxels.
+	 *
+	 * @param type
+	 * @return
+	 */
+	private static boolean isTranslucent(VoxelType type)
+	{
+		return type == null || type.transparent;
+	}
+
+	/**
+	 * Wraps the given local coordinate which may be one voxel outside of the chunk into the adjacent chunk.
+	 *
+	 * @param coordinate
+	 * @param size
+	 * @return
+	 */
+	private static int wrap(int coordinate, int size)
+	{
+		if (coordinate < 0)
+			return size - 1;
+		if (coordinate >= size)
+			return 0;
+
+		return coordinate;
+	}
+
+	/**
+	 * Returns the packed key of the given chunk used by the LightPropagationQueue.
+	 *
+	 * @param chunk
+	 * @return
+	 */
+	static long getChunkKey(VoxelChunk chunk)
+	{
+		return ChunkKey.pack(chunk.getChunkX(), chunk.getChunkY(), chunk.getChunkZ());
+	}
+}
@@ -0,0 +1,66 @@
+package net.kennux.cubicworld.voxel.lighting;
+
+import net.kennux.cubicworld.voxel.VoxelChunk;
+
+/**
+ * <pre>
+ * Lighting system lighting every chunk with a single flood fill pass (see FloodFillLightingPass).
+ *
+ * Light crossing the border into an already lit chunk gets queued in the world's LightPropagationQueue,
+ * the lit chunk continues the flood fill in its next update.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class FloodFillLightingSystem extends ALightingSystem
+{
+	@Override
+	protected ILightingPass[] getPasses()
+	{
+		return new ILightingPass[] { new FloodFillLightingPass(this) };
+	}
+
+	/**
+	 * The sunlight gets seeded from the top chunk.
+	 * The light of the other adjacent chunks gets exchanged by the propagation queue, no matter which chunk got lit first.
+	 */
+	@Override
+	public int getNeighborDependencies()
+	{
+		return 1 << VoxelChunk.NEIGHBOR_TOP;
+	}
+
+	/**
+	 * Continues the queued propagations of the chunk after its flood fill is done.
+	 */
+	@Override
+	public void update(VoxelChunk chunk)
+	{
+		boolean wasReady = this.isReady();
+
+		super.update(chunk);
+
+		if (wasReady)
+			this.<FloodFillLightingPass> getLightingPass(0).propagateQueued(chunk);
+	}
+
+	/**
+	 * Lit chunks only update the light around the changed voxel.
+	 */
+	@Override
+	public boolean updateVoxelLight(VoxelChunk chunk, int index)
+	{
+		if (!this.isReady())
+			return false;
+
+		this.<FloodFillLightingPass> getLightingPass(0).updateVoxelLight(chunk, index);
+		return true;
+	}
+
+	@Override
+	public boolean hasPendingPropagations(VoxelChunk chunk)
+	{
+		return this.isReady() && chunk.master.getLightPropagationQueue().hasEntries(FloodFillLightingPass.getChunkKey(chunk));
+	}
+}
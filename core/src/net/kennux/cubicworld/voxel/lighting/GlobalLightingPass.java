@@ -4,11 +4,23 @@ import java.util.ArrayList;
 
 import net.kennux.cubicworld.math.Vector3i;
 import net.kennux.cubicworld.voxel.VoxelChunk;
-import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelChunkSnapshot;
+import net.kennux.cubicworld.voxel.VoxelType;
 import net.kennux.cubicworld.voxel.VoxelWorld;
+import net.kennux.cubicworld.voxel.storage.NibbleArray;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
 
 public class GlobalLightingPass implements ILightingPass
 {
+	/**
+	 * The offsets of the adjacent voxels (top, bottom, left, right, back, front).
+	 */
+	private static final int[][] ADJACENT_OFFSETS = new int[][] { { 0, 1, 0 }, { 0, -1, 0 }, { -1, 0, 0 }, { 1, 0, 0 }, { 0, 0, -1 }, { 0, 0, 1 } };
+
+	/**
+	 * The lightin system master.
+	 */
+	private ALightingSystem lightingSystem;
 
 	/**
 	 * Temporary array list which will contain all voxels which depend on another voxel for lighting.
@@ -18,6 +30,11 @@ public class GlobalLightingPass implements ILightingPass
 	 */
 	private ArrayList<Vector3i> dependencyVoxelsTemporary;
 
+	public GlobalLightingPass(ALightingSystem lightingSystem)
+	{
+		this.lightingSystem = lightingSystem;
+	}
+
 	@Override
 	public boolean executePass(VoxelChunk chunk)
 	{
@@ -25,10 +42,12 @@ public class GlobalLightingPass implements ILightingPass
 			this.dependencyVoxelsTemporary = new ArrayList<Vector3i>();
 
 		// Needed variables
-		VoxelData[][][] voxelData = chunk.getVoxelData();
-		VoxelData v = null;
+		VoxelChunkSnapshot snapshot = chunk.getSnapshot();
+		LocalLightingPass localPass = this.lightingSystem.getLightingPass(0);
+		boolean[] pendingVoxels = localPass.getPendingVoxels();
+		NibbleArray sunLight = chunk.getSunLight();
+		NibbleArray blockLight = chunk.getBlockLight();
 		boolean blocksLeft = false;
-		// Vector3i absolutePos = new Vector3i();
 
 		// Shadow pass
 		// This will flood light into caves
@@ -36,40 +55,59 @@ public class GlobalLightingPass implements ILightingPass
 			for (int z = 0; z < VoxelWorld.chunkDepth; z++)
 				for (int y = VoxelWorld.chunkHeight - 1; y >= 0; y--)
 				{
-					v = voxelData[x][y][z];
-					if (v == null)
-						continue;
+					int index = PaletteVoxelStorage.getIndex(x, y, z);
+					VoxelType type = snapshot.getVoxelType(x, y, z);
 
 					// This function will only iterate over air or transparent blocks which are uninitialized.
-					if (v.getBlockLightLevel() == -1 && (v.voxelType == null || v.voxelType.transparent))
+					if (pendingVoxels[index] && (type == null || type.transparent))
 					{
 						Vector3i absolutePos = chunk.getAbsoluteVoxelPosition(x, y, z);
 
-						// Get all adjacent voxels
-						VoxelData[] adjacentVoxels = new VoxelData[] {
-								// Top Voxel
-								(y == VoxelWorld.chunkHeight - 1) ? chunk.master.getVoxel(absolutePos.x, absolutePos.y + 1, absolutePos.z) : voxelData[x][y + 1][z],
-								// Bottom Voxel
-								(y == 0) ? chunk.master.getVoxel(absolutePos.x, absolutePos.y - 1, absolutePos.z) : voxelData[x][y - 1][z],
-								// Left Voxel
-								(x == 0) ? chunk.master.getVoxel(absolutePos.x - 1, absolutePos.y, absolutePos.z) : voxelData[x - 1][y][z],
-								// Right Voxel
-								(x == VoxelWorld.chunkWidth - 1) ? chunk.master.getVoxel(absolutePos.x + 1, absolutePos.y, absolutePos.z) : voxelData[x + 1][y][z],
-								// Back Voxel
-								(z == 0) ? chunk.master.getVoxel(absolutePos.x, absolutePos.y, absolutePos.z - 1) : voxelData[x][y][z - 1],
-								// Front Voxel
-								(z == VoxelWorld.chunkDepth - 1) ? chunk.master.getVoxel(absolutePos.x, absolutePos.y, absolutePos.z + 1) : voxelData[x][y][z + 1] };
-
 						// Variable for the highest light level on the adjacent blocks
 						byte highestLightLevel = -1;
 
 						// Iterate through all adjacent voxels
 						boolean onlyDependingVoxelsReady = true;
 
-						for (VoxelData vd : adjacentVoxels)
+						for (int[] offset : ADJACENT_OFFSETS)
 						{
-							// Determin whether the current block is a translucent block or not.
-							boolean translucentVoxel = vd != null && (vd.voxelType == null || vd.voxelType.transparent);
+							int adjacentX = x + offset[0];
+							int adjacentY = y + offset[1];
+							int adjacentZ = z + offset[2];
+
+							boolean translucentVoxel = false;
+							boolean initializedVoxel = true;
+							byte sunLightLevel = 0;
+							byte blockLightLevel = 0;
+
+							if (VoxelChunk.isInBounds(adjacentX, adjacentY, adjacentZ))
+							{
+								int adjacentIndex = PaletteVoxelStorage.getIndex(adjacentX, adjacentY, adjacentZ);
+								VoxelType adjacentType = snapshot.getVoxelType(adjacentX, adjacentY, adjacentZ);
+
+								translucentVoxel = adjacentType == null || adjacentType.transparent;
+								initializedVoxel = !pendingVoxels[adjacentIndex];
+								sunLightLevel = sunLight.get(adjacentIndex);
+								blockLightLevel = blockLight.get(adjacentIndex);
+							}
+							else
+							{
+								// Read from the adjacent chunk
+								VoxelChunk adjacentChunk = chunk.getRelativeChunk(adjacentX, adjacentY, adjacentZ);
+								VoxelChunkSnapshot adjacentSnapshot = adjacentChunk == null ? null : adjacentChunk.getSnapshot();
+
+								if (adjacentSnapshot != null)
+								{
+									int localX = VoxelChunk.toLocalX(adjacentX);
+									int localY = VoxelChunk.toLocalY(adjacentY);
+									int localZ = VoxelChunk.toLocalZ(adjacentZ);
+									VoxelType adjacentType = adjacentSnapshot.getVoxelType(localX, localY, localZ);
+
+									translucentVoxel = adjacentType == null || adjacentType.transparent;
+									sunLightLevel = adjacentChunk.getSunLightLevel(localX, localY, localZ);
+									blockLightLevel = adjacentChunk.getBlockLightLevel(localX, localY, localZ);
+								}
+							}
 
 							if (onlyDependingVoxelsReady && translucentVoxel && !this.dependencyVoxelsTemporary.contains(absolutePos))
 							{
@@ -77,10 +115,10 @@ public class GlobalLightingPass implements ILightingPass
 							}
 
 							// Only translucent voxels AND
-							// SunLightLevel is > 0 (means initialized and not shadow area) OR block light level == -1 (means uninitialized)
-							if (translucentVoxel && (vd.getSunLightLevel() > 0 || vd.getBlockLightLevel() != -1))
+							// SunLightLevel is > 0 (means initialized and not shadow area) OR the voxel is initialized
+							if (translucentVoxel && (sunLightLevel > 0 || initializedVoxel))
 							{
-								byte lightLevel = vd.getLightLevel();
+								byte lightLevel = sunLightLevel > blockLightLevel ? sunLightLevel : blockLightLevel;
 								if (lightLevel > highestLightLevel)
 									highestLightLevel = lightLevel;
 							}
@@ -96,19 +134,15 @@ public class GlobalLightingPass implements ILightingPass
 						if (highestLightLevel <= -1 && !this.dependencyVoxelsTemporary.contains(absolutePos))
 						{
 							this.dependencyVoxelsTemporary.add(absolutePos);
-							System.out.println("FAIL!!! " + absolutePos + " " + (highestLightLevel <= -1 && !this.dependencyVoxelsTemporary.contains(absolutePos)));
 							// ... we're done here!
 							blocksLeft = true;
 							continue;
 						}
 
 						// If there were blocks ready
-						byte lightLevel = (byte) (highestLightLevel - 1);
-
-						if (lightLevel < 0)
-							lightLevel = 0;
-
-						v.setBlockLightLevel(lightLevel);
+						// Values < 0 get clamped to 0
+						blockLight.set(index, highestLightLevel - 1);
+						pendingVoxels[index] = false;
 
 						// Remove block from the dependency list if it is in there
 						this.dependencyVoxelsTemporary.remove(absolutePos);
@@ -0,0 +1,181 @@
+package net.kennux.cubicworld.voxel.lighting;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongMap;
+
+/**
+ * <pre>
+ * World level queue of light propagations crossing chunk borders.
+ *
+ * If the flood fill of a chunk reaches the border of an adjacent, already lit chunk it can't write the light levels of that chunk,
+ * only the update of a chunk may modify its light.
+ * So the propagation gets pushed into this queue and the adjacent chunk continues the flood fill with its next update.
+ * The same goes for removal entries, which remove the light depending on a voxel which got darker (see pushRemoval()).
+ *
+ * The entries are stored per chunk (packed ChunkKey) as primitive ints, see encode().
+ * All methods are thread safe.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class LightPropagationQueue
+{
+	/**
+	 * The light channels of an entry.
+	 */
+	public static final int CHANNEL_SUN = 0, CHANNEL_BLOCK = 1;
+
+	/**
+	 * The queued entries, indexed by the packed chunk key.
+	 */
+	private LongMap<IntArray> entries = new LongMap<IntArray>();
+
+	/**
+	 * The removal flag of an entry.
+	 */
+	private static final int REMOVAL = 1 << 5;
+
+	/**
+	 * Encodes a propagation queue entry.
+	 * Bits 0-3 are the light level, bit 4 the channel, bit 5 the removal flag, bits 6-8 the direction of a removal and the bits above the voxel index (see PaletteVoxelStorage.getIndex()).
+	 *
+	 * @param index
+	 * @param channel
+	 * @param level
+	 * @return
+	 */
+	public static int encode(int index, int channel, int level)
+	{
+		return (index << 9) | (channel << 4) | level;
+	}
+
+	/**
+	 * Encodes a removal queue entry.
+	 * The level is the old light level of the darkened voxel, the direction (VoxelChunk.NEIGHBOR_*) points from it to the voxel at the index.
+	 *
+	 * @param index
+	 * @param channel
+	 * @param level
+	 * @param direction
+	 * @return
+	 */
+	public static int encodeRemoval(int index, int channel, int level, int direction)
+	{
+		return (index << 9) | (direction << 6) | REMOVAL | (channel << 4) | level;
+	}
+
+	public static int getIndex(int entry)
+	{
+		return entry >>> 9;
+	}
+
+	public static boolean isRemoval(int entry)
+	{
+		return (entry & REMOVAL) != 0;
+	}
+
+	public static int getDirection(int entry)
+	{
+		return (entry >> 6) & 7;
+	}
+
+	public static int getChannel(int entry)
+	{
+		return (entry >> 4) & 1;
+	}
+
+	public static int getLevel(int entry)
+	{
+		return entry & 15;
+	}
+
+	/**
+	 * Queues the propagation of the given light level into the voxel at the given index of the chunk with the given key.
+	 *
+	 * @param chunkKey
+	 * @param index
+	 * @param channel
+	 * @param level
+	 */
+	public synchronized void push(long chunkKey, int index, int channel, int level)
+	{
+		IntArray chunkEntries = this.entries.get(chunkKey);
+
+		if (chunkEntries == null)
+		{
+			chunkEntries = new IntArray();
+			this.entries.put(chunkKey, chunkEntries);
+		}
+
+		chunkEntries.add(encode(index, channel, level));
+	}
+
+	/**
+	 * Queues the removal of the light depending on a darkened voxel of an adjacent chunk.
+	 * The voxel at the given index of the chunk with the given key gets darkened if its light came from the darkened voxel.
+	 *
+	 * @param chunkKey
+	 * @param index
+	 * @param channel
+	 * @param level
+	 *            The old light level of the darkened voxel.
+	 * @param direction
+	 *            The direction from the darkened voxel to the voxel at the given index.
+	 */
+	public synchronized void pushRemoval(long chunkKey, int index, int channel, int level, int direction)
+	{
+		IntArray chunkEntries = this.entries.get(chunkKey);
+
+		if (chunkEntries == null)
+		{
+			chunkEntries = new IntArray();
+			this.entries.put(chunkKey, chunkEntries);
+		}
+
+		chunkEntries.add(encodeRemoval(index, channel, level, direction));
+	}
+
+	/**
+	 * Removes and returns all queued entries of the chunk with the given key.
+	 * Returns null if there are no entries.
+	 *
+	 * @param chunkKey
+	 * @return
+	 */
+	public synchronized IntArray poll(long chunkKey)
+	{
+		return this.entries.remove(chunkKey);
+	}
+
+	/**
+	 * Returns true if there are queued entries for the chunk with the given key.
+	 *
+	 * @param chunkKey
+	 * @return
+	 */
+	public synchronized boolean hasEntries(long chunkKey)
+	{
+		return this.entries.containsKey(chunkKey);
+	}
+
+	/**
+	 * Drops all queued entries of the chunk with the given key, gets called if the chunk got unloaded.
+	 *
+	 * @param chunkKey
+	 */
+	public synchronized void clear(long chunkKey)
+	{
+		this.entries.remove(chunkKey);
+	}
+
+	/**
+	 * Returns the count of chunks with queued entries.
+	 *
+	 * @return
+	 */
+	public synchronized int size()
+	{
+		return this.entries.size;
+	}
+}
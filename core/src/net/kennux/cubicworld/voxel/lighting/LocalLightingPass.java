@@ -1,10 +1,16 @@
 package net.kennux.cubicworld.voxel.lighting;
 
+import java.util.Arrays;
+
+import net.kennux.cubicworld.CubicWorldConfiguration;
 import net.kennux.cubicworld.math.Vector3i;
 import net.kennux.cubicworld.networking.packet.ClientChunkRequest;
 import net.kennux.cubicworld.voxel.VoxelChunk;
-import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelChunkSnapshot;
+import net.kennux.cubicworld.voxel.VoxelType;
 import net.kennux.cubicworld.voxel.VoxelWorld;
+import net.kennux.cubicworld.voxel.storage.NibbleArray;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
 
 /**
  * The sunlight pass.
@@ -19,6 +25,22 @@ public class LocalLightingPass implements ILightingPass
 	 */
 	private ALightingSystem lightingSystem;
 
+	/**
+	 * Flags for all voxels of the chunk which need a block light level calculation, indexed by PaletteVoxelStorage.getIndex().
+	 * Gets evaluated by the global lighting pass.
+	 */
+	private boolean[] pendingVoxels = new boolean[PaletteVoxelStorage.VOXEL_COUNT];
+
+	/**
+	 * Returns a reference to this passes pending voxel flags.
+	 * 
+	 * @return
+	 */
+	public boolean[] getPendingVoxels()
+	{
+		return this.pendingVoxels;
+	}
+
 	public LocalLightingPass(ALightingSystem lightingSystem)
 	{
 		this.lightingSystem = lightingSystem;
@@ -27,103 +49,85 @@ public class LocalLightingPass implements ILightingPass
 	@Override
 	public boolean executePass(VoxelChunk chunk)
 	{
+		VoxelChunk topChunk = chunk.getNeighbor(VoxelChunk.NEIGHBOR_TOP);
+
 		// Check if pass above this is already calculated or this is the top chunk of the world.
 		if (!ClientChunkRequest.areRequestsPending() && chunk.isInitialized() && chunk.getChunkY() != chunk.master.chunksOnYAxis())
 		{
-			VoxelChunk topChunk = chunk.master.getChunk(chunk.getChunkX(), chunk.getChunkY() + 1, chunk.getChunkZ(), false);
-
 			if (topChunk == null || !topChunk.isLightingPassDone(LocalLightingPass.class))
 				return false;
 		}
 
-		VoxelData[][][] voxelData = chunk.getVoxelData();
-
 		// Only start calculation if the voxel data is already initialized
-		if (voxelData == null)
+		if (!chunk.isInitialized())
 			return false;
 
-		// Check if top chunk is ready
-
 		// Needed variables
-		VoxelData v = null;
+		VoxelChunkSnapshot snapshot = chunk.getSnapshot();
+		NibbleArray sunLight = chunk.getSunLight();
+		NibbleArray blockLight = chunk.getBlockLight();
+		VoxelType type = null;
+		int index = 0;
 		Vector3i absolutePos = new Vector3i(0, 0, 0);
 
 		// Clear pass
 		// This clears the shadow and sun light level.
-		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
-			for (int z = 0; z < VoxelWorld.chunkDepth; z++)
-				for (int y = VoxelWorld.chunkHeight - 1; y >= 0; y--)
-				{
-					v = voxelData[x][y][z];
-					if (v == null)
-						continue;
-
-					v.setSunLightLevel(-1);
-
-					// The blocklight level will get initialized with 0
-					// Because -1 will mean that there is a need to calculate a block light level.
-					// Only blocks occupied with shadows or in range of a light source will need an actual block light level.
-					v.setBlockLightLevel(0);
-				}
+		// The block light level will get initialized with 0.
+		// Only blocks occupied with shadows or in range of a light source will need an actual block light level, they get marked as pending.
+		sunLight.fill(0);
+		blockLight.fill(0);
+		Arrays.fill(this.pendingVoxels, false);
 
 		// Sunlight propagation pass
 		// This casts rays from the top of the world on every x|y coordinate pair
-		// After a block was hit by the ray, the sunlight level will get set to -1.
-		// Solid blocks will recieve the sunlight level 0.
+		// After a block was hit by the ray, the sunlight level will get set to 0.
 		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
 			for (int z = 0; z < VoxelWorld.chunkDepth; z++)
 				for (int y = VoxelWorld.chunkHeight - 1; y >= 0; y--)
 				{
 					// Calculate the absolute position of the current voxel
 					chunk.getAbsoluteVoxelPosition(x, y, z, absolutePos);
-					v = voxelData[x][y][z];
-					if (v == null)
-						continue;
+					type = snapshot.getVoxelType(x, y, z);
+					index = PaletteVoxelStorage.getIndex(x, y, z);
 
 					// If the current voxel is the most at the upper border of the world bounding
 					// Set the sunlight level to it for propagating it down.
 					if (absolutePos.y == chunk.master.worldHeight - 1)
 					{
-						v.setSunLightLevel(chunk.master.getSunLightLevel());
+						sunLight.set(index, CubicWorldConfiguration.maxLightLevel);
 					}
 					// Upper chunk border propagation
 					else if (y == VoxelWorld.chunkHeight - 1)
 					{
 						// Porpagate light downwards
 						// On the upper chunk border the sun light level will be topLightLevel - 1 but minimum 0
-						VoxelData topVoxel = chunk.master.getVoxel(absolutePos.x, absolutePos.y + 1, absolutePos.z);
-						byte topLightLevel = (byte) (topVoxel == null ? chunk.master.getSunLightLevel() - ((chunk.master.chunksOnYAxis() - 2) - chunk.getChunkY()) : topVoxel.getSunLightLevel());
-
-						byte lightLevel = (byte) (topLightLevel - 1);
-
-						if (lightLevel < 0)
-							lightLevel = 0;
+						boolean topLoaded = topChunk != null && topChunk.getSnapshot() != null;
+						byte topLightLevel = (byte) (!topLoaded ? CubicWorldConfiguration.maxLightLevel - ((chunk.master.chunksOnYAxis() - 2) - chunk.getChunkY()) : topChunk.getSunLightLevel(x, 0, z));
 
-						v.setSunLightLevel(lightLevel);
+						// Values < 0 get clamped to 0
+						sunLight.set(index, topLightLevel - 1);
 					}
 					// Solid blocks
-					else if (v.voxelType != null && !v.voxelType.transparent)
+					else if (type != null && !type.transparent)
 					{
 						// Solid blocks will stop light porpagation
-						// They also cant have a shadow level so will get initialized with 0
-						v.setSunLightLevel(0);
+						sunLight.set(index, 0);
 					}
 					// Air / transparent blocks
-					else if (v.voxelType == null || v.voxelType.transparent)
+					else
 					{
 						// Air and transparent blocks will get their light from the upper voxel
-						VoxelData topVoxel = chunk.master.getVoxel(absolutePos.x, absolutePos.y + 1, absolutePos.z);
-						byte chunkLightLevel = (byte) (chunk.master.getSunLightLevel() - (chunk.master.chunksOnYAxis() - chunk.getChunkY()));
+						byte chunkLightLevel = (byte) (CubicWorldConfiguration.maxLightLevel - (chunk.master.chunksOnYAxis() - chunk.getChunkY()));
 
 						// Set the sunlight level
-						v.setSunLightLevel(topVoxel.getSunLightLevel());
+						sunLight.set(index, sunLight.get(PaletteVoxelStorage.getIndex(x, y + 1, z)));
 
 						// If this voxel is in the shadow of another voxel (i.e. not directly facing to the sun)
 						// It's block light level will get marked for calculation
 						// The global lighting pass then will calculate the final block light level for this voxel.
-						if (v.getSunLightLevel() < chunkLightLevel)
+						if (sunLight.get(index) < chunkLightLevel)
 						{
-							v.setBlockLightLevel(-1);
+							this.pendingVoxels[index] = true;
 						}
 					}
 				}
@@ -1,10 +1,14 @@
 package net.kennux.cubicworld.voxel.lighting;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import net.kennux.cubicworld.math.Vector3i;
 import net.kennux.cubicworld.voxel.VoxelChunk;
-import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelChunkSnapshot;
+import net.kennux.cubicworld.voxel.VoxelType;
+import net.kennux.cubicworld.voxel.storage.NibbleArray;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
 
 /**
  * The sunlight pass.
@@ -19,6 +23,11 @@ public class TestDependencySolverPass implements ILightingPass
 	 */
 	private ALightingSystem lightingSystem;
 
+	/**
+	 * Flags for all voxels of the chunk which still wait for a light level, indexed by PaletteVoxelStorage.getIndex().
+	 */
+	private boolean[] pendingVoxels = new boolean[PaletteVoxelStorage.VOXEL_COUNT];
+
 	public TestDependencySolverPass(ALightingSystem lightingSystem)
 	{
 		this.lightingSystem = lightingSystem;
@@ -53,15 +62,22 @@ public class TestDependencySolverPass implements ILightingPass
 		}*/
 		
 		// All adjacent chunks are ready, let's start!
+		VoxelChunkSnapshot snapshot = chunk.getSnapshot();
+		NibbleArray sunLight = chunk.getSunLight();
+		NibbleArray blockLight = chunk.getBlockLight();
 		ArrayList<Vector3i> processedVoxels = new ArrayList<Vector3i>();
-		
+
+		// Voxels on the wait list have no valid light level yet
+		Arrays.fill(this.pendingVoxels, false);
+		for (Vector3i localVoxelPos : waitList)
+		{
+			this.pendingVoxels[PaletteVoxelStorage.getIndex(localVoxelPos.x, localVoxelPos.y, localVoxelPos.z)] = true;
+		}
+
 		while (waitList.size() > 0)
 		{
 			for (Vector3i localVoxelPos : waitList)
 			{
-				// Get the current voxel information
-				VoxelData voxelData = chunk.getVoxel(localVoxelPos.x, localVoxelPos.y, localVoxelPos.z);
-				
 				// Get all adjacent voxels
 				Vector3i[] adjacentVoxels = new Vector3i[]
 				{
@@ -78,13 +94,17 @@ public class TestDependencySolverPass implements ILightingPass
 				byte currentLightLevel = 0;
 				for (Vector3i voxelPos : adjacentVoxels)
 				{
-					VoxelData v = chunk.getVoxel(voxelPos.x, voxelPos.y, voxelPos.z);
-					
-					// Only air or transparent blocks will get used for highest light level determination
-					if (v != null && (v.voxelType == null || v.voxelType.transparent))
+					if (!VoxelChunk.isInBounds(voxelPos.x, voxelPos.y, voxelPos.z))
+						continue;
+
+					int index = PaletteVoxelStorage.getIndex(voxelPos.x, voxelPos.y, voxelPos.z);
+					VoxelType type = snapshot.getVoxelType(voxelPos.x, voxelPos.y, voxelPos.z);
+
+					// Only resolved air or transparent blocks will get used for highest light level determination
+					if (!this.pendingVoxels[index] && (type == null || type.transparent))
 					{
 						// Level comparison
-						currentLightLevel = v.getLightLevel();
+						currentLightLevel = (byte) Math.max(sunLight.get(index), blockLight.get(index));
 						if (currentLightLevel > highestLightLevel)
 						{
 							highestLightLevel = currentLightLevel;
@@ -95,13 +115,18 @@ public class TestDependencySolverPass implements ILightingPass
 				if (highestLightLevel != -1)
 				{
 					// We found the light level!
-					voxelData.setBlockLightLevel(highestLightLevel-1);
+					int index = PaletteVoxelStorage.getIndex(localVoxelPos.x, localVoxelPos.y, localVoxelPos.z);
+					blockLight.set(index, highestLightLevel - 1);
+					this.pendingVoxels[index] = false;
 					processedVoxels.add(localVoxelPos);
 				}
-				else
-				{
-					System.out.println("Not found highest light level for voxel: " + localVoxelPos);
-				}
+			}
+
+			// Enclosed voxels without any resolved neighbor will stay dark
+			if (processedVoxels.size() == 0)
+			{
+				waitList.clear();
+				break;
 			}
 			
 			// Remove all processed voxels from waiting list
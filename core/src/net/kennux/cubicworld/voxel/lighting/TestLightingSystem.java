@@ -1,5 +1,7 @@
 package net.kennux.cubicworld.voxel.lighting;
 
+import net.kennux.cubicworld.voxel.VoxelChunk;
+
 /**
  * Basic lighting system.
  * 
@@ -14,4 +16,13 @@ public class TestLightingSystem extends ALightingSystem
 		return new ILightingPass[] { new TestSunlightLightingPass(this), new TestDependencySolverPass(this) };
 	}
 
+	/**
+	 * Only the sunlight pass reads the light of the top chunk.
+	 */
+	@Override
+	public int getNeighborDependencies()
+	{
+		return 1 << VoxelChunk.NEIGHBOR_TOP;
+	}
+
 }
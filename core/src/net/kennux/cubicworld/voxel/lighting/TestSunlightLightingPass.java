@@ -2,10 +2,14 @@ package net.kennux.cubicworld.voxel.lighting;
 
 import java.util.ArrayList;
 
+import net.kennux.cubicworld.CubicWorldConfiguration;
 import net.kennux.cubicworld.math.Vector3i;
 import net.kennux.cubicworld.voxel.VoxelChunk;
-import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelChunkSnapshot;
+import net.kennux.cubicworld.voxel.VoxelType;
 import net.kennux.cubicworld.voxel.VoxelWorld;
+import net.kennux.cubicworld.voxel.storage.NibbleArray;
+import net.kennux.cubicworld.voxel.storage.PaletteVoxelStorage;
 
 /**
  * The sunlight pass.
@@ -45,99 +49,130 @@ public class TestSunlightLightingPass implements ILightingPass
 		this.waitList = new ArrayList<Vector3i>();
 		
 		// Check if starting conditions are met
-		VoxelChunk topChunk = chunk.master.getChunk(chunk.getChunkX(), chunk.getChunkY() + 1, chunk.getChunkZ(), false);
+		VoxelChunk topChunk = chunk.getNeighbor(VoxelChunk.NEIGHBOR_TOP);
 
 		if (chunk.isInitialized() && chunk.getChunkY() != chunk.master.chunksOnYAxis() &&
 			(topChunk == null || !topChunk.isInitialized() || !topChunk.isLightingPassDone(TestSunlightLightingPass.class)))
 			return false;
 
-		VoxelData[][][] voxelData = chunk.getVoxelData();
-
 		// Only start calculation if the voxel data is already initialized
-		if (voxelData == null)
+		if (!chunk.isInitialized())
 			return false;
 
-		// Check if top chunk is ready
-
 		// Needed variables
-		VoxelData v = null;
+		VoxelChunkSnapshot snapshot = chunk.getSnapshot();
+		NibbleArray sunLight = chunk.getSunLight();
+		NibbleArray blockLight = chunk.getBlockLight();
+		// The sunlight gets stored as sky exposure, the time of day gets applied on rendering
+		byte worldSunLightLevel = (byte) CubicWorldConfiguration.maxLightLevel;
+		VoxelType type = null;
+		byte sunLightLevel = 0;
+		int index = 0;
 		Vector3i absolutePos = new Vector3i(0, 0, 0);
 
+		// The block light levels will get calculated by the dependency solver.
+		// Only blocks occupied with shadows or in range of a light source will need an actual block light level.
+		blockLight.fill(0);
+
+		// Uniform chunks which don't contain the upper world border can be lit per column
+		int chunkBaseY = chunk.getChunkY() * VoxelWorld.chunkHeight;
+		boolean containsWorldTop = chunk.master.worldHeight - 1 >= chunkBaseY && chunk.master.worldHeight - 1 < chunkBaseY + VoxelWorld.chunkHeight;
+
+		if (snapshot.isUniform() && !containsWorldTop)
+		{
+			this.executeUniformPass(topChunk, snapshot.getVoxelType(0, 0, 0), sunLight, worldSunLightLevel);
+			return true;
+		}
+
 		// Sunlight propagation pass
 		// This casts rays from the top of the world on every x|y coordinate pair
-		// After a block was hit by the ray, the sunlight level will get set to -1.
-		// Solid blocks will recieve the sunlight level 0.
+		// After a block was hit by the ray, the sunlight level will get set to 0.
 		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
 			for (int z = 0; z < VoxelWorld.chunkDepth; z++)
 				for (int y = VoxelWorld.chunkHeight - 1; y >= 0; y--)
 				{
 					// Calculate the absolute position of the current voxel
 					chunk.getAbsoluteVoxelPosition(x, y, z, absolutePos);
-					v = voxelData[x][y][z];
-					if (v == null)
-						return false;
-
-					v.setSunLightLevel(-1);
-
-					// The blocklight level will get initialized with 0
-					// Because -1 will mean that there is a need to calculate a block light level.
-					// Only blocks occupied with shadows or in range of a light source will need an actual block light level.
-					v.setBlockLightLevel(-1);
+					type = snapshot.getVoxelType(x, y, z);
+					index = PaletteVoxelStorage.getIndex(x, y, z);
+					sunLightLevel = 0;
 
 					// If the current voxel is the most at the upper border of the world bounding
 					// Set the sunlight level to it for propagating it down.
 					if (absolutePos.y == chunk.master.worldHeight - 1)
 					{
-						v.setSunLightLevel(chunk.master.getSunLightLevel());
+						sunLightLevel = worldSunLightLevel;
 					}
-					// Upper chunk border propagation
-					/*else if (y == VoxelWorld.chunkHeight - 1)
-					{
-						// Porpagate light downwards
-						// On the upper chunk border the sun light level will be topLightLevel - 1 but minimum 0
-						VoxelData topVoxel = chunk.master.getVoxel(absolutePos.x, absolutePos.y + 1, absolutePos.z);
-						byte topLightLevel = (byte) (topVoxel == null ? chunk.master.getSunLightLevel() - ((chunk.master.chunksOnYAxis() - 2) - chunk.getChunkY()) : topVoxel.getSunLightLevel());
-						
-						if (topLightLevel == -1)
-						{
-							v.setSunLightLevel(-1);
-						}
-						else
-						{
-							v.setSunLightLevel ((byte) (topLightLevel - 1));
-						}
-
-					}*/
 					// Solid blocks
-					else if (v.voxelType != null && !v.voxelType.transparent)
+					else if (type != null && !type.transparent)
 					{
 						// Solid blocks will stop light porpagation
-						// They also cant have a shadow level so will get initialized with 0
-						v.setSunLightLevel(-1);
+						sunLightLevel = 0;
 					}
 					// Air / transparent blocks
-					else if (v.voxelType == null || v.voxelType.transparent)
+					else
 					{
 						// Air and transparent blocks will get their light from the upper voxel
-						VoxelData topVoxel = chunk.master.getVoxel(absolutePos.x, absolutePos.y + 1, absolutePos.z);
-
-						// Set the sunlight level
-						v.setSunLightLevel(topVoxel.getSunLightLevel());
+						if (y < VoxelWorld.chunkHeight - 1)
+						{
+							sunLightLevel = sunLight.get(PaletteVoxelStorage.getIndex(x, y + 1, z));
+						}
+						else
+						{
+							// Upper chunk border, read from the top chunk
+							sunLightLevel = (topChunk == null || topChunk.getSnapshot() == null) ? 0 : topChunk.getSunLightLevel(x, 0, z);
+						}
 
 						// If this voxel is in the shadow of another voxel (i.e. not directly facing to the sun)
 						// It's block light level will get marked for calculation
-						// The global lighting pass then will calculate the final block light level for this voxel.
-						if (v.getSunLightLevel() == -1)
+						// The dependency solver then will calculate the final block light level for this voxel.
+						if (sunLightLevel != worldSunLightLevel)
 						{
-							this.waitList.add(new Vector3i(x,y,z));
+							this.waitList.add(new Vector3i(x, y, z));
 						}
 					}
-					
-					if (v.getSunLightLevel() != chunk.master.getSunLightLevel())
-						v.setSunLightLevel(-1);
+
+					if (sunLightLevel != worldSunLightLevel)
+						sunLightLevel = 0;
+
+					sunLight.set(index, sunLightLevel);
 				}
 
 		return true;
 	}
 
+	/**
+	 * Sunlight pass for chunks where all voxels have the same type.
+	 * Opaque chunks are completely dark, air or transparent chunks get the light of the voxel above every column.
+	 * Shadowed columns get added to the wait list completely.
+	 * 
+	 * @param topChunk
+	 * @param type
+	 * @param sunLight
+	 * @param worldSunLightLevel
+	 */
+	private void executeUniformPass(VoxelChunk topChunk, VoxelType type, NibbleArray sunLight, byte worldSunLightLevel)
+	{
+		if (type != null && !type.transparent)
+		{
+			// Solid blocks will stop light porpagation
+			sunLight.fill(0);
+			return;
+		}
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+			{
+				// Read the light of the voxel above this column from the top chunk
+				boolean lit = topChunk != null && topChunk.getSnapshot() != null && topChunk.getSunLightLevel(x, 0, z) == worldSunLightLevel;
+
+				for (int y = VoxelWorld.chunkHeight - 1; y >= 0; y--)
+				{
+					sunLight.set(PaletteVoxelStorage.getIndex(x, y, z), lit ? worldSunLightLevel : 0);
+
+					if (!lit)
+						this.waitList.add(new Vector3i(x, y, z));
+				}
+			}
+	}
 }
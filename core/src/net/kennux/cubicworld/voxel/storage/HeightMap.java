@@ -0,0 +1,135 @@
+package net.kennux.cubicworld.voxel.storage;
+
+import java.util.Arrays;
+
+import net.kennux.cubicworld.voxel.VoxelWorld;
+
+/**
+ * <pre>
+ * The local y-coordinate of the highest non-air voxel of every (x, z) column of a chunk.
+ * Columns without any voxel store NO_VOXEL.
+ *
+ * Gets calculated once for a new voxel storage (see calculate()) and updated incrementally for every set voxel (see voxelWasSet()).
+ * The heights of a whole chunk column get combined by VoxelWorld.getHeight().
+ *
+ * This class is <b>NOT</b> thread-safe.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class HeightMap
+{
+	/**
+	 * The height of columns without any voxel.
+	 */
+	public static final int NO_VOXEL = -1;
+
+	/**
+	 * The heights indexed by getIndex().
+	 */
+	private final byte[] heights = new byte[VoxelWorld.chunkWidth * VoxelWorld.chunkDepth];
+
+	public HeightMap()
+	{
+		Arrays.fill(this.heights, (byte) NO_VOXEL);
+	}
+
+	/**
+	 * Returns the index of the given local column.
+	 *
+	 * @param x
+	 * @param z
+	 * @return
+	 */
+	private static int getIndex(int x, int z)
+	{
+		return x * VoxelWorld.chunkDepth + z;
+	}
+
+	/**
+	 * Returns the local y-coordinate of the highest non-air voxel of the given local column or NO_VOXEL.
+	 *
+	 * @param x
+	 * @param z
+	 * @return
+	 */
+	public int get(int x, int z)
+	{
+		return this.heights[getIndex(x, z)];
+	}
+
+	/**
+	 * Calculates the heights of all columns of the given storage.
+	 * Uniform storages don't need a scan.
+	 *
+	 * @param voxelStorage
+	 */
+	public void calculate(PaletteVoxelStorage voxelStorage)
+	{
+		if (voxelStorage.isUniform())
+		{
+			Arrays.fill(this.heights, (byte) (voxelStorage.getVoxelType(0) == null ? NO_VOXEL : VoxelWorld.chunkHeight - 1));
+			return;
+		}
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+				this.heights[getIndex(x, z)] = (byte) findHeight(voxelStorage, x, VoxelWorld.chunkHeight - 1, z);
+	}
+
+	/**
+	 * Updates the height of the column of the given local position after the voxel at it got set in the given storage.
+	 * Only scans the column if its highest voxel got removed.
+	 * Returns true if the height changed.
+	 *
+	 * @param voxelStorage
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public boolean voxelWasSet(PaletteVoxelStorage voxelStorage, int x, int y, int z)
+	{
+		int index = getIndex(x, z);
+		int height = this.heights[index];
+
+		if (voxelStorage.getVoxelType(PaletteVoxelStorage.getIndex(x, y, z)) != null)
+		{
+			if (y <= height)
+				return false;
+
+			this.heights[index] = (byte) y;
+			return true;
+		}
+
+		if (y != height)
+			return false;
+
+		this.heights[index] = (byte) findHeight(voxelStorage, x, y - 1, z);
+		return true;
+	}
+
+	/**
+	 * Returns the local y-coordinate of the highest non-air voxel of the given column at or below fromY or NO_VOXEL.
+	 *
+	 * @param voxelStorage
+	 * @param x
+	 * @param fromY
+	 * @param z
+	 * @return
+	 */
+	private static int findHeight(PaletteVoxelStorage voxelStorage, int x, int fromY, int z)
+	{
+		// The voxels of a column are stored next to each other (see PaletteVoxelStorage.getIndex())
+		int columnIndex = PaletteVoxelStorage.getIndex(x, 0, z);
+
+		for (int y = fromY; y >= 0; y--)
+		{
+			if (voxelStorage.getVoxelType(columnIndex + y) != null)
+				return y;
+		}
+
+		return NO_VOXEL;
+	}
+}
@@ -0,0 +1,119 @@
+package net.kennux.cubicworld.voxel.storage;
+
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * Packed array of 4-bit values (0 - 15).
+ * Two values are stored in one byte, the value with the even index in the lower nibble.
+ *
+ * Used for storing the sun and block light levels of a chunk (4096 voxels need 2 KB).
+ *
+ * This class is <b>NOT</b> thread-safe.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class NibbleArray
+{
+	/**
+	 * The maximum value which can be stored in a nibble.
+	 */
+	public static final int MAX_VALUE = 15;
+
+	/**
+	 * The packed nibble data.
+	 */
+	private final byte[] data;
+
+	/**
+	 * The count of nibbles stored in this array.
+	 */
+	private final int size;
+
+	/**
+	 * Creates a new nibble array with the given count of nibbles initialized to 0.
+	 *
+	 * @param size
+	 */
+	public NibbleArray(int size)
+	{
+		this.data = new byte[(size + 1) >>> 1];
+		this.size = size;
+	}
+
+	/**
+	 * Clamps the given value to 0 - 15.
+	 *
+	 * @param value
+	 * @return
+	 */
+	private static int clamp(int value)
+	{
+		if (value < 0)
+			return 0;
+		if (value > MAX_VALUE)
+			return MAX_VALUE;
+
+		return value;
+	}
+
+	/**
+	 * Sets all nibbles to the given value.
+	 * Values outside of 0 - 15 get clamped.
+	 *
+	 * @param value
+	 */
+	public void fill(int value)
+	{
+		value = clamp(value);
+		Arrays.fill(this.data, (byte) (value | (value << 4)));
+	}
+
+	/**
+	 * Returns the nibble at the given index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public byte get(int index)
+	{
+		return (byte) ((this.data[index >>> 1] >>> ((index & 1) << 2)) & 0xF);
+	}
+
+	/**
+	 * Sets the nibble at the given index.
+	 * Values outside of 0 - 15 get clamped.
+	 *
+	 * @param index
+	 * @param value
+	 */
+	public void set(int index, int value)
+	{
+		int shift = (index & 1) << 2;
+		int byteIndex = index >>> 1;
+
+		this.data[byteIndex] = (byte) ((this.data[byteIndex] & ~(0xF << shift)) | (clamp(value) << shift));
+	}
+
+	/**
+	 * Copies all nibbles of the given array, which must have the same size, into this array.
+	 *
+	 * @param other
+	 */
+	public void copyFrom(NibbleArray other)
+	{
+		System.arraycopy(other.data, 0, this.data, 0, this.data.length);
+	}
+
+	/**
+	 * Returns the count of nibbles stored in this array.
+	 *
+	 * @return
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+}
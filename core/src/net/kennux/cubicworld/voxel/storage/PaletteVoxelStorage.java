@@ -0,0 +1,523 @@
+package net.kennux.cubicworld.voxel.storage;
+
+import java.util.Arrays;
+
+import net.kennux.cubicworld.voxel.VoxelData;
+import net.kennux.cubicworld.voxel.VoxelType;
+import net.kennux.cubicworld.voxel.VoxelWorld;
+
+import com.badlogic.gdx.utils.IntMap;
+
+/**
+ * <pre>
+ * Palette-compressed voxel storage for one chunk.
+ *
+ * Instead of holding one VoxelData object per voxel, this class keeps a small palette of (type id, rotation) pairs
+ * and a bit-packed index array which maps every voxel of the chunk to a palette entry.
+ * The bits used per index grow with the palette size (0, 1, 2, 4, 8 or 16 bits), so a chunk only made of air and stone needs 1 bit per voxel.
+ *
+ * Voxels which carry state (block inventories or tile entities) are kept as VoxelData objects in a sparse side table keyed by their local index.
+ *
+ * Voxels are indexed column-wise (y is the fastest changing coordinate).
+ *
+ * This class is <b>NOT</b> thread-safe for writing.
+ * The owning chunk uses it copy-on-write, so published instances can be read from any thread.
+ * </pre>
+ *
+ * @author KennuX
+ *
+ */
+public class PaletteVoxelStorage
+{
+	/**
+	 * The count of voxels stored in one chunk.
+	 */
+	public static final int VOXEL_COUNT = VoxelWorld.chunkWidth * VoxelWorld.chunkHeight * VoxelWorld.chunkDepth;
+
+	/**
+	 * The type id used for air voxels in the palette.
+	 */
+	public static final short AIR_TYPE_ID = -1;
+
+	/**
+	 * Returns the local index for the given local voxel position.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return
+	 */
+	public static int getIndex(int x, int y, int z)
+	{
+		return (x * VoxelWorld.chunkDepth + z) * VoxelWorld.chunkHeight + y;
+	}
+
+	/**
+	 * Returns the local x-coordinate of the given index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public static int getX(int index)
+	{
+		return index / (VoxelWorld.chunkDepth * VoxelWorld.chunkHeight);
+	}
+
+	/**
+	 * Returns the local y-coordinate of the given index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public static int getY(int index)
+	{
+		return index % VoxelWorld.chunkHeight;
+	}
+
+	/**
+	 * Returns the local z-coordinate of the given index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public static int getZ(int index)
+	{
+		return (index / VoxelWorld.chunkHeight) % VoxelWorld.chunkDepth;
+	}
+
+	/**
+	 * Creates a palette storage from the given voxel data array.
+	 * Null voxels will get stored as air.
+	 *
+	 * @param voxelData
+	 * @return
+	 */
+	public static PaletteVoxelStorage fromVoxelData(VoxelData[][][] voxelData)
+	{
+		PaletteVoxelStorage storage = new PaletteVoxelStorage();
+
+		for (int x = 0; x < VoxelWorld.chunkWidth; x++)
+			for (int y = 0; y < VoxelWorld.chunkHeight; y++)
+				for (int z = 0; z < VoxelWorld.chunkDepth; z++)
+					storage.setVoxel(getIndex(x, y, z), voxelData[x][y][z]);
+
+		return storage;
+	}
+
+	/**
+	 * Creates a storage where all voxels have the given type and rotation.
+	 * Pass null as type for an empty storage.
+	 * No index array gets allocated until a differing voxel gets set.
+	 *
+	 * @param type
+	 * @param rotation
+	 * @return
+	 */
+	public static PaletteVoxelStorage uniform(VoxelType type, byte rotation)
+	{
+		PaletteVoxelStorage storage = new PaletteVoxelStorage();
+
+		if (type != null)
+		{
+			storage.paletteTypeIds[0] = type.voxelId;
+			storage.paletteRotations[0] = rotation;
+			storage.paletteTypes[0] = type;
+		}
+
+		return storage;
+	}
+
+	/**
+	 * The voxel type ids of the palette entries.
+	 */
+	private short[] paletteTypeIds;
+
+	/**
+	 * The rotations of the palette entries.
+	 */
+	private byte[] paletteRotations;
+
+	/**
+	 * The voxel types of the palette entries (cached so the engine's type map is not queried on every read).
+	 * Null for air.
+	 */
+	private VoxelType[] paletteTypes;
+
+	/**
+	 * The count of voxels referencing a palette entry.
+	 * Entries with 0 references get reused.
+	 */
+	private int[] paletteReferences;
+
+	/**
+	 * The count of used palette slots.
+	 */
+	private int paletteSize;
+
+	/**
+	 * The bits used per voxel index.
+	 * Always a power of 2 (or 0 if there is only one palette entry).
+	 */
+	private int bitsPerIndex;
+
+	/**
+	 * The bit-packed palette indices.
+	 * Null if bitsPerIndex is 0.
+	 */
+	private long[] indices;
+
+	/**
+	 * The sparse side table for voxels carrying state (inventories, tile entities).
+	 */
+	private IntMap<VoxelData> statefulVoxels;
+
+	/**
+	 * Creates a storage completely filled with air.
+	 */
+	public PaletteVoxelStorage()
+	{
+		this.paletteTypeIds = new short[] { AIR_TYPE_ID };
+		this.paletteRotations = new byte[] { 0 };
+		this.paletteTypes = new VoxelType[] { null };
+		this.paletteReferences = new int[] { VOXEL_COUNT };
+		this.paletteSize = 1;
+		this.bitsPerIndex = 0;
+		this.indices = null;
+		this.statefulVoxels = new IntMap<VoxelData>();
+	}
+
+	/**
+	 * Creates a copy of this storage.
+	 * The voxel data objects in the side table are shared with this storage.
+	 *
+	 * @return
+	 */
+	public PaletteVoxelStorage copy()
+	{
+		PaletteVoxelStorage copy = new PaletteVoxelStorage();
+
+		copy.paletteTypeIds = Arrays.copyOf(this.paletteTypeIds, this.paletteTypeIds.length);
+		copy.paletteRotations = Arrays.copyOf(this.paletteRotations, this.paletteRotations.length);
+		copy.paletteTypes = Arrays.copyOf(this.paletteTypes, this.paletteTypes.length);
+		copy.paletteReferences = Arrays.copyOf(this.paletteReferences, this.paletteReferences.length);
+		copy.paletteSize = this.paletteSize;
+		copy.bitsPerIndex = this.bitsPerIndex;
+		copy.indices = (this.indices == null) ? null : Arrays.copyOf(this.indices, this.indices.length);
+		copy.statefulVoxels.putAll(this.statefulVoxels);
+
+		return copy;
+	}
+
+	/**
+	 * Adds a palette entry for the given type and rotation and returns it's palette index.
+	 * If the palette is full the index array gets widened.
+	 *
+	 * @param typeId
+	 * @param rotation
+	 * @param type
+	 * @return
+	 */
+	private int addPaletteEntry(short typeId, byte rotation, VoxelType type)
+	{
+		int paletteIndex = -1;
+
+		// Reuse unreferenced entries
+		for (int i = 0; i < this.paletteSize; i++)
+		{
+			if (this.paletteReferences[i] == 0)
+			{
+				paletteIndex = i;
+				break;
+			}
+		}
+
+		if (paletteIndex == -1)
+		{
+			paletteIndex = this.paletteSize;
+
+			if (paletteIndex >= this.paletteTypeIds.length)
+			{
+				int newLength = this.paletteTypeIds.length * 2;
+				this.paletteTypeIds = Arrays.copyOf(this.paletteTypeIds, newLength);
+				this.paletteRotations = Arrays.copyOf(this.paletteRotations, newLength);
+				this.paletteReferences = Arrays.copyOf(this.paletteReferences, newLength);
+
+				this.paletteTypes = Arrays.copyOf(this.paletteTypes, newLength);
+			}
+
+			this.paletteSize++;
+
+			// Widen the index array if needed
+			if (this.paletteSize > (1 << this.bitsPerIndex))
+			{
+				this.resizeIndices(this.bitsPerIndex == 0 ? 1 : this.bitsPerIndex * 2);
+			}
+		}
+
+		this.paletteTypeIds[paletteIndex] = typeId;
+		this.paletteRotations[paletteIndex] = rotation;
+		this.paletteTypes[paletteIndex] = type;
+		this.paletteReferences[paletteIndex] = 0;
+
+		return paletteIndex;
+	}
+
+	/**
+	 * Searches the palette index for the given type and rotation.
+	 * Returns -1 if it was not found.
+	 *
+	 * @param typeId
+	 * @param rotation
+	 * @return
+	 */
+	private int findPaletteEntry(short typeId, byte rotation)
+	{
+		for (int i = 0; i < this.paletteSize; i++)
+		{
+			if (this.paletteReferences[i] > 0 && this.paletteTypeIds[i] == typeId && this.paletteRotations[i] == rotation)
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns the palette index stored for the voxel at the given local index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public int getPaletteIndex(int index)
+	{
+		if (this.bitsPerIndex == 0)
+			return 0;
+
+		int bitOffset = index * this.bitsPerIndex;
+		return (int) ((this.indices[bitOffset >>> 6] >>> (bitOffset & 63)) & ((1L << this.bitsPerIndex) - 1));
+	}
+
+	/**
+	 * Returns the rotation of the voxel at the given local index.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public byte getRotation(int index)
+	{
+		return this.paletteRotations[this.getPaletteIndex(index)];
+	}
+
+	/**
+	 * Returns the side table entry for the given local index.
+	 * Returns null if the voxel does not carry any state.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public VoxelData getStatefulVoxel(int index)
+	{
+		return this.statefulVoxels.get(index);
+	}
+
+	/**
+	 * Returns the side table of all voxels carrying state.
+	 * The keys are local indices.
+	 *
+	 * @return
+	 */
+	public IntMap<VoxelData> getStatefulVoxels()
+	{
+		return this.statefulVoxels;
+	}
+
+	/**
+	 * Returns the type id of the voxel at the given local index.
+	 * Returns AIR_TYPE_ID for air voxels.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public short getTypeId(int index)
+	{
+		return this.paletteTypeIds[this.getPaletteIndex(index)];
+	}
+
+	/**
+	 * Returns the voxel type of the voxel at the given local index.
+	 * Returns null for air voxels.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public VoxelType getVoxelType(int index)
+	{
+		return this.paletteTypes[this.getPaletteIndex(index)];
+	}
+
+	/**
+	 * Returns the count of used palette entries.
+	 *
+	 * @return
+	 */
+	public int getPaletteSize()
+	{
+		return this.paletteSize;
+	}
+
+	/**
+	 * Returns the count of bits used per voxel index.
+	 *
+	 * @return
+	 */
+	public int getBitsPerIndex()
+	{
+		return this.bitsPerIndex;
+	}
+
+	/**
+	 * Returns true if all voxels of this storage are the same (type and rotation) and no voxel carries state.
+	 * Uniform storages don't use an index array until the first differing voxel gets set.
+	 *
+	 * @return
+	 */
+	public boolean isUniform()
+	{
+		if (this.statefulVoxels.size > 0)
+			return false;
+
+		for (int i = 0; i < this.paletteSize; i++)
+		{
+			if (this.paletteReferences[i] == VOXEL_COUNT)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns true if this storage only contains air.
+	 *
+	 * @return
+	 */
+	public boolean isEmpty()
+	{
+		return this.isUniform() && this.getVoxelType(0) == null;
+	}
+
+	/**
+	 * Returns the estimated count of bytes used by this storage.
+	 * Voxels carrying state are counted with a rough constant, their inventories or tile entities are not included.
+	 *
+	 * @return
+	 */
+	public long getMemoryUsage()
+	{
+		// Object headers and fields
+		long memoryUsage = 64;
+
+		// Palette entries (type id, rotation, type reference, reference count)
+		memoryUsage += this.paletteTypeIds.length * (2 + 1 + 8 + 4);
+
+		if (this.indices != null)
+			memoryUsage += this.indices.length * 8;
+
+		memoryUsage += this.statefulVoxels.size * 64;
+
+		return memoryUsage;
+	}
+
+	/**
+	 * Creates a voxel data object for the voxel at the given local index.
+	 * Voxels carrying state are returned by reference from the side table, for all other voxels a new object gets created from the palette.
+	 *
+	 * @param index
+	 * @return
+	 */
+	public VoxelData getVoxel(int index)
+	{
+		VoxelData voxel = this.statefulVoxels.get(index);
+
+		if (voxel == null)
+		{
+			int paletteIndex = this.getPaletteIndex(index);
+			voxel = new VoxelData();
+			voxel.voxelType = this.paletteTypes[paletteIndex];
+			voxel.rotation = this.paletteRotations[paletteIndex];
+		}
+
+		return voxel;
+	}
+
+	/**
+	 * Re-packs the index array with the given bits per index.
+	 *
+	 * @param newBitsPerIndex
+	 */
+	private void resizeIndices(int newBitsPerIndex)
+	{
+		long[] newIndices = new long[(VOXEL_COUNT * newBitsPerIndex + 63) >>> 6];
+
+		for (int i = 0; i < VOXEL_COUNT; i++)
+		{
+			long paletteIndex = this.getPaletteIndex(i);
+			int bitOffset = i * newBitsPerIndex;
+			newIndices[bitOffset >>> 6] |= paletteIndex << (bitOffset & 63);
+		}
+
+		this.indices = newIndices;
+		this.bitsPerIndex = newBitsPerIndex;
+	}
+
+	/**
+	 * Writes the given palette index for the voxel at the given local index.
+	 *
+	 * @param index
+	 * @param paletteIndex
+	 */
+	private void setPaletteIndex(int index, int paletteIndex)
+	{
+		if (this.bitsPerIndex == 0)
+			return;
+
+		int bitOffset = index * this.bitsPerIndex;
+		long mask = ((1L << this.bitsPerIndex) - 1) << (bitOffset & 63);
+		int word = bitOffset >>> 6;
+
+		this.indices[word] = (this.indices[word] & ~mask) | (((long) paletteIndex << (bitOffset & 63)) & mask);
+	}
+
+	/**
+	 * Sets the voxel at the given local index.
+	 * Pass null or a voxel data object without type for air.
+	 *
+	 * @param index
+	 * @param voxel
+	 */
+	public void setVoxel(int index, VoxelData voxel)
+	{
+		VoxelType type = (voxel == null) ? null : voxel.voxelType;
+		short typeId = (type == null) ? AIR_TYPE_ID : type.voxelId;
+		byte rotation = (type == null) ? 0 : voxel.rotation;
+
+		// Update palette
+		int oldPaletteIndex = this.getPaletteIndex(index);
+
+		if (this.paletteTypeIds[oldPaletteIndex] != typeId || this.paletteRotations[oldPaletteIndex] != rotation)
+		{
+			this.paletteReferences[oldPaletteIndex]--;
+
+			int paletteIndex = this.findPaletteEntry(typeId, rotation);
+			if (paletteIndex == -1)
+				paletteIndex = this.addPaletteEntry(typeId, rotation, type);
+
+			this.paletteReferences[paletteIndex]++;
+			this.setPaletteIndex(index, paletteIndex);
+		}
+
+		// Update side table
+		if (type != null && (voxel.blockInventory != null || voxel.tileEntity != null))
+			this.statefulVoxels.put(index, voxel);
+		else
+			this.statefulVoxels.remove(index);
+	}
+}